@@ -29,6 +29,7 @@ import com.almende.timecontrol.api.TimeManagerAPI;
 import com.almende.timecontrol.api.TimeObserverAPI;
 import com.almende.timecontrol.entity.ClockConfig;
 import com.almende.timecontrol.entity.ClockEvent;
+import com.almende.timecontrol.entity.TriggerConfig;
 import com.almende.timecontrol.entity.TriggerEvent;
 import com.almende.timecontrol.time.TriggerPattern;
 
@@ -61,6 +62,15 @@ public interface EveTimeObserverAPI extends TimeObserverAPI, EveTimeAgentAPI
 			@Optional @Name(ID_PARAM) ClockConfig.ID clockId,
 			@Optional @Sender String callbackURI);
 
+	/**
+	 * for JSON-RPC of {@link Observable} {@link #observeClock(ClockConfig.ID)}
+	 * under a unique name, as Eve resolves overloaded methods by name only
+	 */
+	@Access(AccessType.PUBLIC)
+	SubscriptionID observeClockIdCallback(
+			@Optional @Name(ID_PARAM) ClockConfig.ID clockId,
+			@Optional @Sender String callbackURI);
+
 	/**
 	 * for JSON-RPC, use method pair
 	 * {@link #observeClockCallback(ClockConfig.ID,String)} and
@@ -98,6 +108,17 @@ public interface EveTimeObserverAPI extends TimeObserverAPI, EveTimeAgentAPI
 			@Name(PATTERN_PARAM) TriggerPattern pattern,
 			@Optional @Sender String callbackURI);
 
+	/**
+	 * for JSON-RPC of {@link Observable}
+	 * {@link #registerTrigger(ClockConfig.ID,TriggerPattern)} under a unique
+	 * name, as Eve resolves overloaded methods by name only
+	 */
+	@Access(AccessType.PUBLIC)
+	SubscriptionID registerClockTriggerCallback(
+			@Optional @Name(ID_PARAM) ClockConfig.ID clockId,
+			@Name(PATTERN_PARAM) TriggerPattern pattern,
+			@Optional @Sender String callbackURI);
+
 	/**
 	 * for JSON-RPC, use method pair
 	 * {@link #registerTriggerCallback(ClockConfig.ID,TriggerPattern,String)}
@@ -109,8 +130,29 @@ public interface EveTimeObserverAPI extends TimeObserverAPI, EveTimeAgentAPI
 	Observable<TriggerEvent> registerTrigger(ClockConfig.ID clockId,
 			TriggerPattern pattern);
 
-	// @Override
-	// @Access(AccessType.PUBLIC)
-	// void unregisterTrigger(@Name("triggerId") TriggerConfig.ID triggerId);
+	/**
+	 * for JSON-RPC of {@link Observable}
+	 * {@link #registerTrigger(ClockConfig.ID,TriggerConfig)}
+	 */
+	@Access(AccessType.PUBLIC)
+	SubscriptionID registerTriggerConfigCallback(
+			@Optional @Name(ID_PARAM) ClockConfig.ID clockId,
+			@Name(CONFIG_PARAM) TriggerConfig trigger,
+			@Optional @Sender String callbackURI);
+
+	/**
+	 * for JSON-RPC, use method pair
+	 * {@link #registerTriggerConfigCallback(ClockConfig.ID,TriggerConfig,String)}
+	 * and
+	 * {@link EveTimeObserverClientAPI#notifyTrigger(SubscriptionID,TriggerEvent)}
+	 */
+	@Override
+	@Access(AccessType.UNAVAILABLE)
+	Observable<TriggerEvent> registerTrigger(ClockConfig.ID clockId,
+			TriggerConfig trigger);
+
+	@Override
+	@Access(AccessType.PUBLIC)
+	void unregisterTrigger(@Name(ID_PARAM) TriggerConfig.ID triggerId);
 
 }
\ No newline at end of file
@@ -18,6 +18,8 @@
  */
 package com.almende.timecontrol.api.eve;
 
+import java.util.List;
+
 import rx.Observable;
 
 import com.almende.eve.protocol.jsonrpc.annotation.Access;
@@ -56,4 +58,30 @@ public interface EveTimeObserverClientAPI extends EveTimeAgentAPI
 	void notifyTrigger(@Name("callbackId") SubscriptionID callbackId,
 			@Name("job") TriggerEvent job);
 
+	/**
+	 * for JSON-RPC of many {@link #notifyClock} calls in one round trip, as
+	 * ordered (callbackId, clock) pairs spread over two lists of equal size
+	 * 
+	 * @return {@code true} to acknowledge (cumulatively) each notified
+	 *         instant as processed, or {@code false} if this observer does
+	 *         not take part in the acknowledgement protocol
+	 */
+	@Access(AccessType.PUBLIC)
+	boolean notifyClocks(
+			@Name("callbackIds") List<SubscriptionID> callbackIds,
+			@Name("clocks") List<ClockEvent> clocks);
+
+	/**
+	 * for JSON-RPC of many {@link #notifyTrigger} calls in one round trip, as
+	 * ordered (callbackId, job) pairs spread over two lists of equal size
+	 * 
+	 * @return {@code true} to acknowledge (cumulatively) each notified
+	 *         instant as processed, or {@code false} if this observer does
+	 *         not take part in the acknowledgement protocol
+	 */
+	@Access(AccessType.PUBLIC)
+	boolean notifyTriggers(
+			@Name("callbackIds") List<SubscriptionID> callbackIds,
+			@Name("jobs") List<TriggerEvent> jobs);
+
 }
\ No newline at end of file
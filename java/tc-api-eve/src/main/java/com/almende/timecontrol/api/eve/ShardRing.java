@@ -0,0 +1,146 @@
+/* $Id$
+ * $URL$
+ *
+ * Part of the EU project Inertia, see http://www.inertia-project.eu/
+ *
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Copyright (c) 2014 Almende B.V.
+ */
+package com.almende.timecontrol.api.eve;
+
+import io.coala.error.ExceptionBuilder;
+
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import com.almende.timecontrol.entity.ClockConfig;
+import com.almende.timecontrol.entity.TimerConfig;
+
+/**
+ * {@link ShardRing} partitions {@link ClockConfig.ID clocks} across the
+ * {@link URI}s of some master agents by consistent hashing, placing
+ * {@link #VIRTUAL_NODES} points per shard on the ring so that adding or
+ * removing a shard only moves the clocks of its neighbouring arcs
+ *
+ * @date $Date$
+ * @version $Id$
+ * @author <a href="mailto:rick@almende.org">rick</a>
+ */
+public class ShardRing
+{
+
+	/** the number of ring points per shard, evening out arc lengths */
+	public static final int VIRTUAL_NODES = 64;
+
+	/** */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** */
+	private final NavigableMap<Long, URI> ring = new TreeMap<>();
+
+	/** */
+	private final List<URI> shards;
+
+	/**
+	 * {@link ShardRing} constructor
+	 *
+	 * @param shards the {@link URI}s of the master agents owning the clocks
+	 */
+	public ShardRing(final Collection<URI> shards)
+	{
+		if (shards == null || shards.isEmpty())
+			throw ExceptionBuilder.unchecked("No shards to partition over")
+					.build();
+		this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+		for (URI shard : this.shards)
+			for (int i = 0; i < VIRTUAL_NODES; i++)
+				this.ring.put(hash(shard + "#" + i), shard);
+	}
+
+	/** @return the {@link URI}s of all shards, in configured order */
+	public List<URI> shards()
+	{
+		return this.shards;
+	}
+
+	/**
+	 * @param clockId the {@link ClockConfig.ID} to look up
+	 * @return the {@link URI} of the shard owning specified clock
+	 */
+	public URI shardOf(final ClockConfig.ID clockId)
+	{
+		final Map.Entry<Long, URI> result = this.ring.ceilingEntry(hash(String
+				.valueOf(clockId == null ? null : clockId.getValue())));
+		return result == null ? this.ring.firstEntry().getValue() : result
+				.getValue();
+	}
+
+	/**
+	 * @param key the {@link String} to hash
+	 * @return the first 8 bytes of the MD5 digest of specified key, which
+	 *         unlike {@link String#hashCode()} spreads similar keys evenly and
+	 *         is stable across JVMs
+	 */
+	protected static long hash(final String key)
+	{
+		final byte[] digest;
+		try
+		{
+			digest = MessageDigest.getInstance("MD5").digest(
+					key.getBytes(UTF8));
+		} catch (final NoSuchAlgorithmException e)
+		{
+			throw ExceptionBuilder.unchecked("No MD5 digest available", e)
+					.build();
+		}
+		long result = 0;
+		for (int i = 0; i < 8; i++)
+			result = (result << 8) | (digest[i] & 0xFF);
+		return result;
+	}
+
+	/**
+	 * @param timerId the {@link TimerConfig.ID} of the sharded timer
+	 * @param index the shard index
+	 * @return the agent id of the shard at specified index
+	 */
+	public static String shardId(final TimerConfig.ID timerId, final int index)
+	{
+		return timerId.getValue() + "-" + index;
+	}
+
+	/**
+	 * @param timerId the {@link TimerConfig.ID} of the sharded timer
+	 * @param count the number of shards
+	 * @return the in-process {@code local:} {@link URI}s of the shards
+	 */
+	public static List<URI> localShards(final TimerConfig.ID timerId,
+			final int count)
+	{
+		final List<URI> result = new ArrayList<>(count);
+		for (int i = 0; i < count; i++)
+			result.add(URI.create("local:" + shardId(timerId, i)));
+		return result;
+	}
+}
@@ -104,6 +104,9 @@ public interface TimeControl
 	/** */
 	String RECURRENCE_KEY = "recurrence";
 
+	/** */
+	String PATTERN_KEY = "pattern";
+
 	/** */
 	String FORK_PARENT_ID_KEY = "forkParentID";
 
@@ -125,4 +128,28 @@ public interface TimeControl
 	/** */
 	String CLOCK_TYPE_KEY = "clockType";
 
+	/** */
+	String PENDING_QUEUE_TYPE_KEY = "pendingQueueType";
+
+	/** */
+	String SPIN_THRESHOLD_KEY = "spinThreshold";
+
+	/** */
+	String DISPATCH_MODE_KEY = "dispatchMode";
+
+	/** */
+	String HISTORY_SIZE_KEY = "historySize";
+
+	/** */
+	String HISTORY_WINDOW_KEY = "historyWindow";
+
+	/** */
+	String CLOCK_EVENTS_KEY = "clockEvents";
+
+	/** */
+	String CLOCK_EVENT_INTERVAL_KEY = "clockEventInterval";
+
+	/** */
+	String JOURNAL_SYNC_KEY = "journalSync";
+
 }
\ No newline at end of file
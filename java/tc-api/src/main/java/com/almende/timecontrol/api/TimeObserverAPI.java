@@ -70,6 +70,19 @@ public interface TimeObserverAPI
 	Observable<TriggerEvent> registerTrigger(ClockConfig.ID clockId,
 			TriggerPattern pattern);
 
+	/**
+	 * registers a new {@link TriggerConfig} for time-managed clients, which
+	 * may later {@link #unregisterTrigger(TriggerConfig.ID) unregister} it by
+	 * its {@link TriggerConfig.ID}
+	 * 
+	 * @param clockId the {@link ClockConfig.ID} of the triggering clock
+	 * @param trigger the {@link TriggerConfig} for the new Trigger
+	 * @return an {@link Observable} of the respective {@link TriggerConfig}'s
+	 *         {@link TriggerEvent} updates
+	 */
+	Observable<TriggerEvent> registerTrigger(ClockConfig.ID clockId,
+			TriggerConfig trigger);
+
 	/**
 	 * unregisters a {@link TriggerConfig} including all of its
 	 * {@link TriggerEvent}s
@@ -77,5 +90,5 @@ public interface TimeObserverAPI
 	 * @param name a {@link TriggerConfig.ID reference} to a particular
 	 *            {@link TriggerConfig}
 	 */
-	// void unregisterTrigger(TriggerConfig.ID triggerId);
+	void unregisterTrigger(TriggerConfig.ID triggerId);
 }
@@ -24,11 +24,11 @@ import io.coala.json.DynaBean;
 import io.coala.json.DynaBean.BeanWrapper;
 import io.coala.util.JsonUtil;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Properties;
-import java.util.TreeSet;
 
 import com.almende.timecontrol.TimeControl;
 import com.fasterxml.jackson.core.TreeNode;
@@ -159,12 +159,11 @@ public interface ClockStatus // extends Comparable<ClockStatus> , Accessible
 		@SuppressWarnings("unchecked")
 		public Builder withTriggers(final Collection<TriggerStatus> clocks)
 		{
-			Object value = get(TimeControl.CLOCKS_KEY, Object.class);
+			Object value = get(TimeControl.TRIGGERS_KEY, Object.class);
 			if (value == null)
 			{
-				// FIXME use more efficient collection, e.g. arraylist, hashset?
-				value = new TreeSet<TriggerStatus>();
-				with(TimeControl.CLOCKS_KEY, value);
+				value = new ArrayList<TriggerStatus>();
+				with(TimeControl.TRIGGERS_KEY, value);
 			}
 
 			if (clocks != null)
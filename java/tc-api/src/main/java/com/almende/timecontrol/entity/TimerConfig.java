@@ -81,6 +81,71 @@ public interface TimerConfig extends Comparable<TimerConfig>, Accessible
 	@Key(TimeControl.CLOCK_TYPE_KEY)
 	Class<?> clockType();
 
+	/**
+	 * @return the type of pending trigger queue used by (Rx-based) clocks, or
+	 *         {@code null} for the clock's default; only persistent queues
+	 *         fork clocks without copying their pending triggers
+	 */
+	@Key(TimeControl.PENDING_QUEUE_TYPE_KEY)
+	Class<?> pendingQueueType();
+
+	/**
+	 * @return the wall-clock {@link Duration} before each paced (dragged)
+	 *         event during which clocks spin rather than sleep, for
+	 *         sub-millisecond accuracy, or {@code null} to only sleep
+	 */
+	@Key(TimeControl.SPIN_THRESHOLD_KEY)
+	Duration spinThreshold();
+
+	/**
+	 * @return how (Rx-based) clocks dispatch the triggers that occur at the
+	 *         same time, default: {@link DispatchMode#SEQUENTIAL}
+	 */
+	@Key(TimeControl.DISPATCH_MODE_KEY)
+	@DefaultValue("SEQUENTIAL")
+	DispatchMode dispatchMode();
+
+	/**
+	 * @return the maximum number of {@link TriggerEvent}s that each trigger
+	 *         retains for its status, {@code 0} for none or {@code < 0} for
+	 *         all (within the {@link #historyWindow()}), default: 100
+	 */
+	@Key(TimeControl.HISTORY_SIZE_KEY)
+	@DefaultValue("100")
+	Integer historySize();
+
+	/**
+	 * @return the simulated time {@link Duration} before the latest
+	 *         {@link TriggerEvent} within which each trigger retains its
+	 *         events, or {@code null} for any
+	 */
+	@Key(TimeControl.HISTORY_WINDOW_KEY)
+	Duration historyWindow();
+
+	/**
+	 * @return how clock observers receive the {@link ClockEvent}s of each
+	 *         time step, default: {@link ClockEventMode#ALL}
+	 */
+	@Key(TimeControl.CLOCK_EVENTS_KEY)
+	@DefaultValue("ALL")
+	ClockEventMode clockEvents();
+
+	/**
+	 * @return the minimum wall-clock {@link Duration} between the
+	 *         {@link ClockEvent}s of time steps in
+	 *         {@link ClockEventMode#INTERVAL} mode
+	 */
+	@Key(TimeControl.CLOCK_EVENT_INTERVAL_KEY)
+	Duration clockEventInterval();
+
+	/**
+	 * @return when the journal forces its group-committed batches to disk,
+	 *         default: {@link JournalSync#BATCH}
+	 */
+	@Key(TimeControl.JOURNAL_SYNC_KEY)
+	@DefaultValue("BATCH")
+	JournalSync journalSync();
+
 	/**
 	 * @return the minimum wall-clock duration to wait (>0) before timing out
 	 *         and unregistering a non-responsive {@link TriggerConfig}
@@ -89,6 +154,93 @@ public interface TimerConfig extends Comparable<TimerConfig>, Accessible
 	// @Key(TimeControl.SLAVE_TIMEOUT_KEY)
 	// Duration slaveTimeout();
 
+	/**
+	 * {@link DispatchMode} of the triggers that occur at the same time; the
+	 * clock advances only after all have been dispatched
+	 * 
+	 * @date $Date$
+	 * @version $Id$
+	 * @author <a href="mailto:rick@almende.org">Rick</a>
+	 */
+	enum DispatchMode
+	{
+		/** notify each subscriber in turn, on the clock's own thread */
+		SEQUENTIAL,
+
+		/**
+		 * notify subscribers concurrently, then schedule next occurrences
+		 * (and complete or fail triggers) in the order subscribers returned
+		 */
+		PARALLEL,
+
+		/**
+		 * notify subscribers concurrently, then schedule next occurrences
+		 * (and complete or fail triggers) in dispatch order, so the clock's
+		 * own side effects do not depend on thread timing
+		 */
+		PARALLEL_ORDERED,
+
+		/**
+		 * notify each subscriber in turn, on the clock's own thread, ordered
+		 * by registration sequence, so repeated runs of the same scenario
+		 * dispatch identically
+		 */
+		DETERMINISTIC,
+
+		;
+	}
+
+	/**
+	 * {@link ClockEventMode} of the {@link ClockEvent}s that clock observers
+	 * receive; status changes are always delivered immediately
+	 * 
+	 * @date $Date$
+	 * @version $Id$
+	 * @author <a href="mailto:rick@almende.org">Rick</a>
+	 */
+	enum ClockEventMode
+	{
+		/** deliver an event for each time step */
+		ALL,
+
+		/**
+		 * deliver at most one event per {@link TimerConfig#resolution()} of
+		 * simulated time
+		 */
+		RESOLUTION,
+
+		/**
+		 * deliver at most one event per
+		 * {@link TimerConfig#clockEventInterval()} of wall-clock time, and the
+		 * latest one once the interval expires
+		 */
+		INTERVAL,
+
+		;
+	}
+
+	/**
+	 * {@link JournalSync} policy of the journal, which writes the records
+	 * appended since its previous write as a single batch
+	 * 
+	 * @date $Date$
+	 * @version $Id$
+	 * @author <a href="mailto:rick@almende.org">Rick</a>
+	 */
+	enum JournalSync
+	{
+		/** write each batch, leaving it to the OS to reach the disk */
+		NONE,
+
+		/** force each batch to disk, without waiting for it to append */
+		BATCH,
+
+		/** force each batch to disk, and wait for it to append */
+		ALWAYS,
+
+		;
+	}
+
 	/**
 	 * {@link ID}
 	 * 
@@ -205,6 +357,54 @@ public interface TimerConfig extends Comparable<TimerConfig>, Accessible
 			return this;
 		}
 
+		public Builder withPendingQueueType(final Class<?> pendingQueueType)
+		{
+			with(TimeControl.PENDING_QUEUE_TYPE_KEY, pendingQueueType);
+			return this;
+		}
+
+		public Builder withSpinThreshold(final Duration spinThreshold)
+		{
+			with(TimeControl.SPIN_THRESHOLD_KEY, spinThreshold);
+			return this;
+		}
+
+		public Builder withDispatchMode(final DispatchMode dispatchMode)
+		{
+			with(TimeControl.DISPATCH_MODE_KEY, dispatchMode);
+			return this;
+		}
+
+		public Builder withHistorySize(final Integer historySize)
+		{
+			with(TimeControl.HISTORY_SIZE_KEY, historySize);
+			return this;
+		}
+
+		public Builder withHistoryWindow(final Duration historyWindow)
+		{
+			with(TimeControl.HISTORY_WINDOW_KEY, historyWindow);
+			return this;
+		}
+
+		public Builder withClockEvents(final ClockEventMode clockEvents)
+		{
+			with(TimeControl.CLOCK_EVENTS_KEY, clockEvents);
+			return this;
+		}
+
+		public Builder withClockEventInterval(final Duration clockEventInterval)
+		{
+			with(TimeControl.CLOCK_EVENT_INTERVAL_KEY, clockEventInterval);
+			return this;
+		}
+
+		public Builder withJournalSync(final JournalSync journalSync)
+		{
+			with(TimeControl.JOURNAL_SYNC_KEY, journalSync);
+			return this;
+		}
+
 		public Builder withOffset(final Instant offset)
 		{
 			with(TimeControl.OFFSET_KEY, offset);
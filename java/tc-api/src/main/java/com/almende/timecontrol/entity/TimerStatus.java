@@ -24,11 +24,11 @@ import io.coala.json.DynaBean;
 import io.coala.json.DynaBean.BeanWrapper;
 import io.coala.util.JsonUtil;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Properties;
-import java.util.TreeSet;
 
 import com.almende.timecontrol.TimeControl;
 import com.fasterxml.jackson.core.TreeNode;
@@ -156,8 +156,8 @@ public interface TimerStatus extends Comparable<TimerStatus>
 			Object value = get(TimeControl.CLOCKS_KEY, Object.class);
 			if (value == null)
 			{
-				// FIXME use more efficient collection, e.g. arraylist, hashset?
-				value = new TreeSet<ClockStatus>();
+				// ClockStatus is not comparable, so keep (shard) order instead
+				value = new ArrayList<ClockStatus>();
 				with(TimeControl.CLOCKS_KEY, value);
 			}
 
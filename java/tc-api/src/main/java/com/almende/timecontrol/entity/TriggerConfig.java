@@ -104,8 +104,11 @@ public interface TriggerConfig extends Comparable<TriggerConfig> // , Accessible
 		public static Builder fromJSON(final TreeNode tree,
 				final Properties... imports)
 		{
+			// accept the former (unmapped) recurrence key as well
+			final TreeNode pattern = tree.get(TimeControl.PATTERN_KEY);
 			return new Builder(imports).withID(tree.get(TimeControl.ID_KEY))
-					.withPattern(tree.get(TimeControl.RECURRENCE_KEY));
+					.withPattern(pattern != null ? pattern : tree
+							.get(TimeControl.RECURRENCE_KEY));
 		}
 
 		/**
@@ -148,7 +151,7 @@ public interface TriggerConfig extends Comparable<TriggerConfig> // , Accessible
 
 		public Builder withPattern(final TriggerPattern pattern)
 		{
-			with(TimeControl.RECURRENCE_KEY, pattern);
+			with(TimeControl.PATTERN_KEY, pattern);
 			return this;
 		}
 
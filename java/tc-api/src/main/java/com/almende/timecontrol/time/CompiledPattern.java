@@ -0,0 +1,626 @@
+/* $Id$
+ * $URL$
+ * 
+ * Part of the EU project Inertia, see http://www.inertia-project.eu/
+ * 
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * Copyright (c) 2014 Almende B.V. 
+ */
+package com.almende.timecontrol.time;
+
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.text.ParseException;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.quartz.CronExpression;
+
+import com.almende.timecontrol.TimeControl;
+import com.google.ical.compat.jodatime.DateTimeIterator;
+import com.google.ical.compat.jodatime.DateTimeIteratorFactory;
+
+/**
+ * {@link CompiledPattern} is the immutable generator of {@link Instant}s that
+ * results from parsing a {@link TriggerPattern} value once. Its
+ * {@link RecurrenceRuleType} is detected by a syntactic scan rather than by
+ * trial parsing, and compiled patterns are cached by their canonical
+ * {@link String} so equal patterns share a single instance.
+ * <p>
+ * Besides CRON expressions, iCal RRULEs and single {@link Instant}s, a pattern
+ * may be an ISO 8601 repeating interval {@code R[n]/start/period}, e.g.
+ * {@code "R/0 ms/PT15M"} or {@code "R4/1 s/500 ms"}, which is generated using
+ * plain {@code long} arithmetic.
+ * 
+ * @date $Date$
+ * @version $Id$
+ * @author <a href="mailto:rick@almende.org">Rick</a>
+ */
+public abstract class CompiledPattern
+{
+
+	/** */
+	private static final Logger LOG = LogManager
+			.getLogger(CompiledPattern.class);
+
+	/** maximum number of cached {@link CompiledPattern}s */
+	private static final int CACHE_SIZE = 1024;
+
+	/** */
+	private static final ConcurrentMap<String, CompiledPattern> CACHE = new ConcurrentHashMap<>();
+
+	/** */
+	private static final Pattern WHITESPACE = Pattern.compile("[ \\t]+");
+
+	/** */
+	private static final Pattern REPEAT = Pattern.compile("R([0-9]*)/(.+)/(.+)");
+
+	/** */
+	private static final Pattern DTSTART_LINE = Pattern
+			.compile("(?m)^DTSTART(?:;[^:\\r\\n]*)?:([0-9]{8}(?:T[0-9]{6})?)(Z?)[ \\t]*(?:\\r?\\n|$)");
+
+	/** */
+	private static final Pattern TZID_PARAM = Pattern
+			.compile("(?m)^DTSTART[^:\\r\\n]*;TZID=([^:;\\r\\n]*)");
+
+	/** the canonical {@link String} this pattern was compiled from */
+	private final String canonical;
+
+	/** */
+	private final RecurrenceRuleType type;
+
+	/**
+	 * {@link CompiledPattern} constructor
+	 * 
+	 * @param canonical
+	 * @param type
+	 */
+	protected CompiledPattern(final String canonical,
+			final RecurrenceRuleType type)
+	{
+		this.canonical = canonical;
+		this.type = type;
+	}
+
+	/** @return the {@link RecurrenceRuleType} of this pattern */
+	public RecurrenceRuleType type()
+	{
+		return this.type;
+	}
+
+	@Override
+	public String toString()
+	{
+		return this.canonical;
+	}
+
+	/**
+	 * @return a new {@link TriggerPattern.Cursor} over this pattern's
+	 *         {@link Instant}s
+	 */
+	public abstract TriggerPattern.Cursor cursor();
+
+	/**
+	 * @param from the {@link Instant} to start from, or {@code null}
+	 * @return a new {@link TriggerPattern.Cursor} over this pattern's
+	 *         {@link Instant}s at or after specified {@link Instant}
+	 */
+	public TriggerPattern.Cursor cursor(final Instant from)
+	{
+		final TriggerPattern.Cursor cursor = cursor();
+		if (from == null)
+			return cursor;
+
+		// skip earlier instants, by default
+		return new TriggerPattern.Cursor()
+		{
+			private boolean sought = false;
+
+			private Instant first = null;
+
+			private void seek()
+			{
+				if (this.sought)
+					return;
+				this.sought = true;
+				while (cursor.hasNext())
+				{
+					final Instant next = cursor.next();
+					if (next.compareTo(from) >= 0)
+					{
+						this.first = next;
+						return;
+					}
+				}
+			}
+
+			@Override
+			public boolean hasNext()
+			{
+				seek();
+				return this.first != null || cursor.hasNext();
+			}
+
+			@Override
+			public Instant next()
+			{
+				seek();
+				if (this.first == null)
+					return cursor.next();
+				final Instant result = this.first;
+				this.first = null;
+				return result;
+			}
+		};
+	}
+
+	/**
+	 * @param pattern the pattern value to normalize
+	 * @return the trimmed pattern with each run of spaces or tabs collapsed
+	 */
+	public static String canonical(final String pattern)
+	{
+		return WHITESPACE.matcher(pattern.trim()).replaceAll(" ");
+	}
+
+	/**
+	 * @param canonical the {@link #canonical(String) canonical} pattern
+	 * @return the {@link RecurrenceRuleType} implied by its syntax
+	 */
+	public static RecurrenceRuleType detect(final String canonical)
+	{
+		if (canonical.contains("RRULE") || canonical.contains("FREQ="))
+			return RecurrenceRuleType.ICAL_RULE;
+
+		// ISO 8601 repeating interval, e.g. "R/start/period" or "R5/..."
+		if (canonical.length() > 1 && canonical.charAt(0) == 'R')
+		{
+			int i = 1;
+			while (i < canonical.length()
+					&& Character.isDigit(canonical.charAt(i)))
+				i++;
+			if (i < canonical.length() && canonical.charAt(i) == '/')
+				return RecurrenceRuleType.PERIODIC;
+		}
+
+		// CRON has 6 or 7 fields, an instant has at most a value and a unit
+		int fields = 1;
+		for (int i = 0; i < canonical.length(); i++)
+			if (canonical.charAt(i) == ' ')
+				fields++;
+		if (fields == 6 || fields == 7)
+			return RecurrenceRuleType.CRON_RULE;
+
+		return RecurrenceRuleType.ONCE;
+	}
+
+	/**
+	 * @param pattern the CRON expression, iCal RRULE or {@link Instant} value
+	 * @return the (cached) {@link CompiledPattern}
+	 * @throws IllegalArgumentException if the pattern can't be parsed
+	 */
+	public static CompiledPattern compile(final String pattern)
+	{
+		final String canonical = canonical(pattern);
+		final CompiledPattern cached = CACHE.get(canonical);
+		if (cached != null)
+			return cached;
+
+		final CompiledPattern result = compile(canonical, detect(canonical));
+		if (CACHE.size() >= CACHE_SIZE)
+		{
+			// evict some arbitrary entry to stay within bounds
+			final Iterator<String> it = CACHE.keySet().iterator();
+			if (it.hasNext())
+			{
+				it.next();
+				it.remove();
+			}
+		}
+		final CompiledPattern previous = CACHE.putIfAbsent(canonical, result);
+		return previous == null ? result : previous;
+	}
+
+	/**
+	 * @param instant the single {@link Instant} to generate
+	 * @return a (non-cached) {@link CompiledPattern} for specified
+	 *         {@link Instant}
+	 */
+	public static CompiledPattern of(final Instant instant)
+	{
+		return new Once(instant.toString(), instant);
+	}
+
+	/**
+	 * @param canonical
+	 * @param type
+	 * @return the new {@link CompiledPattern}
+	 */
+	private static CompiledPattern compile(final String canonical,
+			final RecurrenceRuleType type)
+	{
+		LOG.trace("Compiling {} pattern: {}", type, canonical);
+		try
+		{
+			switch (type)
+			{
+			case CRON_RULE:
+				// example: "0/20 * * * * ?"
+				return new Cron(canonical, new CronExpression(canonical));
+
+			case ICAL_RULE:
+				return Rule.parse(canonical);
+
+			case PERIODIC:
+				return Periodic.parse(canonical);
+
+			default:
+				return new Once(canonical, Instant.valueOf(canonical));
+			}
+		} catch (final ParseException | RuntimeException e)
+		{
+			throw new IllegalArgumentException("Could not parse " + type
+					+ " pattern: " + canonical, e);
+		}
+	}
+
+	/**
+	 * {@link Once} generates a single absolute {@link Instant}
+	 */
+	static class Once extends CompiledPattern
+	{
+		/** */
+		private final Instant instant;
+
+		Once(final String canonical, final Instant instant)
+		{
+			super(canonical, RecurrenceRuleType.ONCE);
+			this.instant = instant;
+		}
+
+		@Override
+		public TriggerPattern.Cursor cursor()
+		{
+			return TriggerPattern.Cursor.of(this.instant);
+		}
+
+		@Override
+		public TriggerPattern.Cursor cursor(final Instant from)
+		{
+			return from == null || this.instant.compareTo(from) >= 0 ? cursor()
+					: TriggerPattern.Cursor.of(null);
+		}
+	}
+
+	/**
+	 * {@link Periodic} generates {@code start + k * period} for
+	 * {@code k = 0, 1, ...} (up to some optional count) in nanoseconds, so
+	 * each occurrence costs an addition and seeking costs a division
+	 */
+	static class Periodic extends CompiledPattern
+	{
+		/** the first occurrence, in nanoseconds since the EPOCH */
+		private final long start;
+
+		/** the (positive) period, in nanoseconds */
+		private final long period;
+
+		/** the number of occurrences, or {@code -1} if unbounded */
+		private final long count;
+
+		Periodic(final String canonical, final long start, final long period,
+				final long count)
+		{
+			super(canonical, RecurrenceRuleType.PERIODIC);
+			this.start = start;
+			this.period = period;
+			this.count = count;
+		}
+
+		/**
+		 * @param canonical the repeating interval {@code R[n]/start/period}
+		 * @return the {@link Periodic}
+		 */
+		static Periodic parse(final String canonical)
+		{
+			final Matcher m = REPEAT.matcher(canonical);
+			if (!m.matches())
+				throw new IllegalArgumentException("Expected R[n]/start/period");
+			final TimeSpan start = Instant.valueOf(m.group(2).trim())
+					.getValue();
+			final TimeSpan period = Duration.valueOf(m.group(3).trim())
+					.getValue();
+			if (!start.isExact() || !period.isExact())
+				throw new IllegalArgumentException(
+						"Start and period must be whole nanoseconds");
+			if (period.toNanosLong() <= 0)
+				throw new IllegalArgumentException("Period must be positive");
+			return new Periodic(canonical, start.toNanosLong(),
+					period.toNanosLong(), m.group(1).isEmpty() ? -1
+							: Long.parseLong(m.group(1)));
+		}
+
+		@Override
+		public TriggerPattern.Cursor cursor()
+		{
+			return cursor(0L);
+		}
+
+		@Override
+		public TriggerPattern.Cursor cursor(final Instant from)
+		{
+			if (from == null
+					|| from.compareTo(Instant.valueOfNanos(this.start)) <= 0)
+				return cursor(0L);
+			final TimeSpan offset = from.getValue().minus(
+					TimeSpan.valueOfNanos(this.start));
+			final long nanos;
+			if (offset.isExact())
+				nanos = offset.toNanosLong();
+			else
+			{
+				// seek from the next whole nanosecond, unless beyond range
+				final BigInteger ceiling = offset
+						.to(TimeControl.NANOS, MathContext.DECIMAL128)
+						.getValue().setScale(0, RoundingMode.CEILING)
+						.toBigInteger();
+				if (ceiling.bitLength() > 63)
+					return cursor(Long.MAX_VALUE);
+				nanos = ceiling.longValue();
+			}
+			// first index k with start + k * period >= from
+			final long index = nanos / this.period;
+			return cursor(nanos % this.period == 0 ? index : index + 1);
+		}
+
+		/**
+		 * @param first the index of the first occurrence to generate
+		 * @return a {@link TriggerPattern.Cursor} from specified index
+		 */
+		private TriggerPattern.Cursor cursor(final long first)
+		{
+			final long start = this.start;
+			final long period = this.period;
+			// the last index before exceeding count or long range
+			final long last = Math.min(this.count < 0 ? Long.MAX_VALUE
+					: this.count - 1, start < 0 ? Long.MAX_VALUE / period
+					: (Long.MAX_VALUE - start) / period);
+			return new TriggerPattern.Cursor()
+			{
+				private long index = first;
+
+				private boolean done = first > last;
+
+				@Override
+				public boolean hasNext()
+				{
+					return !this.done;
+				}
+
+				@Override
+				public long nextNanos()
+				{
+					if (this.done)
+						throw new NoSuchElementException();
+					final long result = start + this.index * period;
+					if (this.index == last)
+						this.done = true;
+					else
+						this.index++;
+					return result;
+				}
+
+				@Override
+				public Instant next()
+				{
+					return Instant.valueOfNanos(nextNanos());
+				}
+			};
+		}
+	}
+
+	/**
+	 * {@link Cron} generates the fire times of a Quartz
+	 * {@link CronExpression}, starting from the (wall-clock) time a
+	 * {@link #cursor()} is created
+	 */
+	static class Cron extends CompiledPattern
+	{
+		/** */
+		private final CronExpression expression;
+
+		Cron(final String canonical, final CronExpression expression)
+		{
+			super(canonical, RecurrenceRuleType.CRON_RULE);
+			this.expression = expression;
+		}
+
+		@Override
+		public TriggerPattern.Cursor cursor()
+		{
+			return cursor(System.currentTimeMillis());
+		}
+
+		@Override
+		public TriggerPattern.Cursor cursor(final Instant from)
+		{
+			return from == null ? cursor() : cursor(from.toMillisLong());
+		}
+
+		/**
+		 * @param fromMillis the time to start from, in milliseconds since the
+		 *            EPOCH
+		 * @return a {@link TriggerPattern.Cursor} over the fire times at or
+		 *         after specified time
+		 */
+		private TriggerPattern.Cursor cursor(final long fromMillis)
+		{
+			final CronExpression expression = this.expression;
+			return new TriggerPattern.Cursor()
+			{
+				private Date next = expression.getTimeAfter(new Date(
+						fromMillis - 1));
+
+				@Override
+				public boolean hasNext()
+				{
+					return this.next != null;
+				}
+
+				@Override
+				public Instant next()
+				{
+					if (this.next == null)
+						throw new NoSuchElementException();
+					final Date result = this.next;
+					this.next = expression.getTimeAfter(result);
+					return Instant.valueOf(result.getTime());
+				}
+			};
+		}
+	}
+
+	/**
+	 * {@link Rule} generates the occurrences of an iCal RRULE, starting at its
+	 * DTSTART (or the time a {@link #cursor()} is created, if unspecified)
+	 */
+	static class Rule extends CompiledPattern
+	{
+		/** the recurrence lines, without the DTSTART line */
+		private final String rdata;
+
+		/** the DTSTART, or {@code null} if unspecified */
+		private final DateTime start;
+
+		/** */
+		private final DateTimeZone zone;
+
+		Rule(final String canonical, final String rdata, final DateTime start,
+				final DateTimeZone zone)
+		{
+			super(canonical, RecurrenceRuleType.ICAL_RULE);
+			this.rdata = rdata;
+			this.start = start;
+			this.zone = zone;
+		}
+
+		/**
+		 * @param canonical the RRULE, optionally preceded by a DTSTART line
+		 *            (e.g. {@code "DTSTART;TZID=Europe/Amsterdam:19970902T090000"}
+		 *            )
+		 * @return the {@link Rule}
+		 * @throws ParseException
+		 * @see <a href="http://www.kanzaki.com/docs/ical/rrule.html">RRULE</a>
+		 */
+		static Rule parse(final String canonical) throws ParseException
+		{
+			final Matcher tzid = TZID_PARAM.matcher(canonical);
+			final Matcher dtstart = DTSTART_LINE.matcher(canonical);
+			final DateTimeZone zone;
+			final DateTime start;
+			final String rdata;
+			if (dtstart.find())
+			{
+				zone = tzid.find() ? DateTimeZone.forID(tzid.group(1))
+						: dtstart.group(2).isEmpty() ? DateTimeZone
+								.getDefault() : DateTimeZone.UTC;
+				final String value = dtstart.group(1);
+				start = DateTimeFormat
+						.forPattern(
+								value.length() == 8 ? "yyyyMMdd"
+										: "yyyyMMdd'T'HHmmss").withZone(zone)
+						.parseDateTime(value);
+				rdata = (canonical.substring(0, dtstart.start()) + canonical
+						.substring(dtstart.end())).trim();
+			} else
+			{
+				zone = DateTimeZone.getDefault();
+				start = null;
+				rdata = canonical;
+			}
+			final Rule result = new Rule(canonical, rdata, start, zone);
+			// validate now rather than on first use
+			result.iterator(new DateTime(zone));
+			return result;
+		}
+
+		/**
+		 * @param start the {@link DateTime} to start iterating from
+		 * @return the occurrences at or after specified start
+		 * @throws ParseException
+		 */
+		private DateTimeIterator iterator(final DateTime start)
+				throws ParseException
+		{
+			return DateTimeIteratorFactory.createDateTimeIterator(this.rdata,
+					start, this.zone, true);
+		}
+
+		@Override
+		public TriggerPattern.Cursor cursor()
+		{
+			return cursor(null);
+		}
+
+		@Override
+		public TriggerPattern.Cursor cursor(final Instant from)
+		{
+			final DateTimeIterator it;
+			try
+			{
+				if (this.start != null)
+				{
+					it = iterator(this.start);
+					// skips (not generates) any earlier occurrences
+					if (from != null)
+						it.advanceTo(new DateTime(from.toMillisLong(),
+								this.zone));
+				} else
+					it = iterator(new DateTime(from == null ? System
+							.currentTimeMillis() : from.toMillisLong(),
+							this.zone));
+			} catch (final ParseException e)
+			{
+				// already validated at compile time
+				throw new IllegalStateException(e);
+			}
+			return new TriggerPattern.Cursor()
+			{
+				@Override
+				public boolean hasNext()
+				{
+					return it.hasNext();
+				}
+
+				@Override
+				public Instant next()
+				{
+					return Instant.valueOf(it.next());
+				}
+			};
+		}
+	}
+}
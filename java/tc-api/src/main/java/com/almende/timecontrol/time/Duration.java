@@ -157,13 +157,31 @@ public class Duration implements Wrapper<TimeSpan>, Comparable<Duration>
 	@JsonIgnore
 	public long toMillisLong()
 	{
-		return longValue(TimeControl.MILLIS);
+		return getValue().toMillisLong();
 	}
 
 	@JsonIgnore
 	public long toNanosLong()
 	{
-		return longValue(TimeControl.NANOS);
+		return getValue().toNanosLong();
+	}
+
+	/**
+	 * @param that the {@link Duration} to add
+	 * @return the sum of this and specified {@link Duration}
+	 */
+	public Duration add(final Duration that)
+	{
+		return valueOf(getValue().plus(that.getValue()));
+	}
+
+	/**
+	 * @param that the {@link Duration} to subtract
+	 * @return the difference of this and specified {@link Duration}
+	 */
+	public Duration subtract(final Duration that)
+	{
+		return valueOf(getValue().minus(that.getValue()));
 	}
 
 	/** @return the Joda {@link ReadableDuration} implementation of a time span */
@@ -273,6 +291,16 @@ public class Duration implements Wrapper<TimeSpan>, Comparable<Duration>
 		return valueOf(TimeSpan.valueOf(value));
 	}
 
+	/**
+	 * {@link Duration} static factory method
+	 * 
+	 * @param nanos the number of nanoseconds
+	 */
+	public static Duration valueOfNanos(final long nanos)
+	{
+		return valueOf(TimeSpan.valueOfNanos(nanos));
+	}
+
 	/**
 	 * {@link Duration} static factory method
 	 * 
@@ -119,13 +119,13 @@ public class Instant implements Wrapper<TimeSpan>, Comparable<Instant>
 	@JsonIgnore
 	public long toMillisLong()
 	{
-		return getValue().longValue(TimeControl.MILLIS);
+		return getValue().toMillisLong();
 	}
 
 	@JsonIgnore
 	public long toNanosLong()
 	{
-		return getValue().longValue(TimeControl.NANOS);
+		return getValue().toNanosLong();
 	}
 
 	@JsonIgnore
@@ -175,9 +175,17 @@ public class Instant implements Wrapper<TimeSpan>, Comparable<Instant>
 	 */
 	public Duration toDuration(final Instant offset)
 	{
-		return Duration.valueOf(offset == null ? getValue().getValue()
-				: getValue().getValue().subtract(
-						offset.getValue().to(getValue().getUnit()).getValue()));
+		return Duration.valueOf(offset == null ? getValue() : getValue()
+				.minus(offset.getValue()));
+	}
+
+	/**
+	 * @param duration the {@link Duration} to add
+	 * @return the {@link Instant} at specified {@link Duration} after this one
+	 */
+	public Instant add(final Duration duration)
+	{
+		return valueOf(getValue().plus(duration.getValue()));
 	}
 
 	/**
@@ -258,6 +266,16 @@ public class Instant implements Wrapper<TimeSpan>, Comparable<Instant>
 		return valueOf(TimeSpan.valueOf(value));
 	}
 
+	/**
+	 * {@link Instant} static factory method
+	 * 
+	 * @param nanos the number of nanoseconds since the EPOCH
+	 */
+	public static Instant valueOfNanos(final long nanos)
+	{
+		return valueOf(TimeSpan.valueOfNanos(nanos));
+	}
+
 	/**
 	 * {@link Instant} static factory method
 	 * 
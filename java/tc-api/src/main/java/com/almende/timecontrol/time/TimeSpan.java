@@ -22,10 +22,12 @@ package com.almende.timecontrol.time;
 
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.math.MathContext;
 
 import javax.measure.DecimalMeasure;
 import javax.measure.Measurable;
 import javax.measure.Measure;
+import javax.measure.converter.ConversionException;
 import javax.measure.quantity.Duration;
 import javax.measure.unit.SI;
 import javax.measure.unit.Unit;
@@ -50,6 +52,12 @@ import com.fasterxml.jackson.databind.annotation.JsonSerialize;
  * for {@link Converters#CLASS_WITH_VALUE_OF_METHOD}.
  * <p>
  * Assumes {@linkplain Double#NaN} as value for illegal/empty value types
+ * <p>
+ * Values that are a whole number of nanoseconds within {@code long} range are
+ * also cached as primitive nanoseconds (see {@link #isExact()}), so
+ * comparison, arithmetic and conversion to millis or nanos need not convert
+ * units or allocate. Other values fall back to exact {@link BigDecimal}
+ * arithmetic.
  * 
  * TODO consider using more complex JScience {@link Amount} as super type rather
  * than {@link DecimalMeasure}, providing more (exact) operations by default,
@@ -70,6 +78,15 @@ public class TimeSpan extends DecimalMeasure<Duration>
 	/** */
 	private static final long serialVersionUID = 1L;
 
+	/** */
+	private static final long NANOS_PER_MILLI = 1000000L;
+
+	/** the value in nanoseconds, if {@link #exact} */
+	private final transient long nanos;
+
+	/** {@code true} iff {@link #nanos} holds this value exactly */
+	private final transient boolean exact;
+
 	/** */
 	// private static final Logger LOG = LogManager.getLogger(TimeSpan.class);
 
@@ -203,6 +220,131 @@ public class TimeSpan extends DecimalMeasure<Duration>
 	{
 		super(value instanceof BigDecimal ? (BigDecimal) value : BigDecimal
 				.valueOf(value.doubleValue()), unit);
+		long nanos = 0L;
+		boolean exact = false;
+		try
+		{
+			nanos = (TimeControl.NANOS.equals(unit) ? getValue() : to(
+					TimeControl.NANOS, MathContext.UNLIMITED).getValue())
+					.longValueExact();
+			exact = true;
+		} catch (final ArithmeticException | ConversionException e)
+		{
+			// sub-nanosecond precision or beyond long range: no fast path
+		}
+		this.nanos = nanos;
+		this.exact = exact;
+	}
+
+	/**
+	 * @return {@code true} iff this value is a whole number of nanoseconds
+	 *         within {@code long} range
+	 */
+	public boolean isExact()
+	{
+		return this.exact;
+	}
+
+	/**
+	 * @return this value in (rounded) nanoseconds
+	 */
+	public long toNanosLong()
+	{
+		return this.exact ? this.nanos : super.longValue(TimeControl.NANOS);
+	}
+
+	/**
+	 * @return this value in (rounded) milliseconds
+	 */
+	public long toMillisLong()
+	{
+		return this.exact ? roundDiv(this.nanos, NANOS_PER_MILLI) : super
+				.longValue(TimeControl.MILLIS);
+	}
+
+	@Override
+	public long longValue(final Unit<Duration> unit)
+			throws ArithmeticException
+	{
+		if (this.exact)
+		{
+			if (TimeControl.NANOS.equals(unit))
+				return this.nanos;
+			if (TimeControl.MILLIS.equals(unit))
+				return roundDiv(this.nanos, NANOS_PER_MILLI);
+		}
+		return super.longValue(unit);
+	}
+
+	@Override
+	public double doubleValue(final Unit<Duration> unit)
+	{
+		if (this.exact)
+		{
+			if (TimeControl.NANOS.equals(unit))
+				return this.nanos;
+			if (TimeControl.MILLIS.equals(unit))
+				return (double) this.nanos / NANOS_PER_MILLI;
+		}
+		return super.doubleValue(unit);
+	}
+
+	@Override
+	public int compareTo(final Measurable<Duration> that)
+	{
+		if (this.exact && that instanceof TimeSpan && ((TimeSpan) that).exact)
+			return Long.compare(this.nanos, ((TimeSpan) that).nanos);
+		return super.compareTo(that);
+	}
+
+	/**
+	 * @param that the {@link TimeSpan} to add
+	 * @return the sum of this and specified {@link TimeSpan}
+	 */
+	public TimeSpan plus(final TimeSpan that)
+	{
+		if (this.exact && that.exact)
+		{
+			final long result = this.nanos + that.nanos;
+			// overflow iff both operands' signs differ from the result's
+			if (((this.nanos ^ result) & (that.nanos ^ result)) >= 0)
+				return valueOfNanos(result);
+		}
+		return new TimeSpan(getValue().add(
+				that.to(getUnit(), MathContext.UNLIMITED).getValue()),
+				getUnit());
+	}
+
+	/**
+	 * @param that the {@link TimeSpan} to subtract
+	 * @return the difference of this and specified {@link TimeSpan}
+	 */
+	public TimeSpan minus(final TimeSpan that)
+	{
+		if (this.exact && that.exact)
+		{
+			final long result = this.nanos - that.nanos;
+			// overflow iff operands' signs differ and result's sign flipped
+			if (((this.nanos ^ that.nanos) & (this.nanos ^ result)) >= 0)
+				return valueOfNanos(result);
+		}
+		return new TimeSpan(getValue().subtract(
+				that.to(getUnit(), MathContext.UNLIMITED).getValue()),
+				getUnit());
+	}
+
+	/**
+	 * @param value the dividend
+	 * @param divisor the (positive) divisor
+	 * @return the quotient rounded half up, like {@link Math#round(double)}
+	 */
+	private static long roundDiv(final long value, final long divisor)
+	{
+		final long quotient = value / divisor;
+		final long remainder = value % divisor;
+		if (remainder >= 0)
+			return remainder * 2 >= divisor ? quotient + 1 : quotient;
+		return -remainder * 2 > divisor ? quotient - 1 : quotient;
 	}
 
 	/**
@@ -229,6 +371,16 @@ public class TimeSpan extends DecimalMeasure<Duration>
 						.multiply(BigDecimal.TEN.pow(6))), TimeControl.NANOS);
 	}
 
+	/**
+	 * {@link TimeSpan} static factory method
+	 * 
+	 * @param nanos the number of nanoseconds
+	 */
+	public static TimeSpan valueOfNanos(final long nanos)
+	{
+		return new TimeSpan(BigDecimal.valueOf(nanos), TimeControl.NANOS);
+	}
+
 	/**
 	 * {@link TimeSpan} static factory method
 	 * 
@@ -20,24 +20,18 @@
  */
 package com.almende.timecontrol.time;
 
+import io.coala.error.ExceptionBuilder;
 import io.coala.util.JsonUtil;
 
 import java.io.IOException;
-import java.util.Date;
-import java.util.regex.Pattern;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.joda.time.DateTime;
-import org.joda.time.DateTimeZone;
-import org.joda.time.ReadableDateTime;
-import org.quartz.CronScheduleBuilder;
-import org.quartz.CronTrigger;
-import org.quartz.TriggerBuilder;
 
 import rx.Observable;
 import rx.Subscriber;
-import rx.functions.Func1;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.core.JsonGenerator;
@@ -47,7 +41,6 @@ import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
-import com.google.ical.compat.jodatime.DateTimeIteratorFactory;
 
 /**
  * {@link TriggerPattern} wraps a pattern value and its resulting observable
@@ -67,81 +60,63 @@ public class TriggerPattern
 			.getLogger(TriggerPattern.class);
 
 	/** */
-	private static final Pattern dtStartTimePattern = Pattern
-			.compile("DTSTART[.]*:(.*)");
+	private Object value;
 
-	/** */
-	private static final Pattern dtStartZonePattern = Pattern
-			.compile("TZID=([^:;]*)");
+	/** the {@link CompiledPattern}, once {@link #compile() compiled} */
+	private volatile CompiledPattern compiled = null;
 
-	/** */
-	private Object value;
+	/** the {@link #normalized()} value, cached */
+	private volatile String normalized = null;
 
 	/**
-	 * @param measure
-	 * @return
+	 * @param json the pattern to parse
+	 * @return an {@link Observable} of the pattern's {@link Instant}s
 	 * 
-	 * @see CronScheduleBuilder#cronSchedule(String)
-	 * @see DateTimeIteratorFactory#createDateTimeIterable(String,
-	 *      ReadableDateTime, DateTimeZone, boolean)
+	 * @see #parseCursor(String)
 	 */
 	public static final Observable<Instant> parseInstantOrIntervalOrRule(
 			final String json)
 	{
-		try
+		return toObservable(new TriggerPattern(json));
+	}
+
+	/**
+	 * @param json the CRON expression, RRULE or {@link Instant} to parse
+	 * @return a {@link Cursor} over the pattern's {@link Instant}s
+	 * 
+	 * @see CompiledPattern#compile(String)
+	 */
+	public static final Cursor parseCursor(final String json)
+	{
+		return CompiledPattern.compile(json).cursor();
+	}
+
+	/**
+	 * @param pattern the {@link TriggerPattern} to expand
+	 * @return an {@link Observable} that pulls each {@link Instant} from a new
+	 *         {@link Cursor} only while its {@link Subscriber} is subscribed
+	 */
+	protected static Observable<Instant> toObservable(
+			final TriggerPattern pattern)
+	{
+		return Observable.create(new Observable.OnSubscribe<Instant>()
 		{
-			// example: "0/20 * * * * ?"
-			final CronTrigger trigger = TriggerBuilder.newTrigger()
-					.withSchedule(CronScheduleBuilder.cronSchedule(json))
-					.build();
-			return Observable.create(new Observable.OnSubscribe<Instant>()
+			@Override
+			public void call(final Subscriber<? super Instant> sub)
 			{
-				@Override
-				public void call(final Subscriber<? super Instant> sub)
+				try
 				{
-					Date current = trigger.getStartTime();
-					while (current != null)
-					{
-						sub.onNext(Instant.valueOf(current.getTime()));
-						current = trigger.getFireTimeAfter(current);
-					}
+					final Cursor cursor = pattern.cursor();
+					while (!sub.isUnsubscribed() && cursor.hasNext())
+						sub.onNext(cursor.next());
+					if (!sub.isUnsubscribed())
+						sub.onCompleted();
+				} catch (final Throwable t)
+				{
+					sub.onError(t);
 				}
-			});
-		} catch (final Exception e)
-		{
-			try
-			{
-				final boolean strict = false;
-				// String ical =
-				// "DTSTART;TZID=US-Eastern:19970902T090000\r\n"+"RRULE:FREQ=DAILY;"
-				// + "UNTIL=20130430T083000Z;"
-				// + "INTERVAL=1;";
-
-				// FIXME parse DTSTART (see
-				// http://www.kanzaki.com/docs/ical/rrule.html)
-				final DateTimeZone zone = DateTimeZone.forID(dtStartZonePattern
-						.matcher(json).group());
-				final DateTime start = DateTime.parse(
-						dtStartTimePattern.matcher(json).group())
-						.withZone(zone);
-
-				// convert DateTime to Instant
-				return Observable.from(
-						DateTimeIteratorFactory.createDateTimeIterable(json,
-								start, zone, strict)).map(
-						new Func1<DateTime, Instant>()
-						{
-							@Override
-							public Instant call(final DateTime dt)
-							{
-								return Instant.valueOf(dt);
-							}
-						});
-			} catch (final Exception e1)
-			{
-				return Observable.just(Instant.valueOf(json));
 			}
-		}
+		});
 	}
 
 	/**
@@ -199,26 +174,89 @@ public class TriggerPattern
 		return getValue().toString();
 	}
 
+	/**
+	 * @return the normalized value to compare by, i.e. the
+	 *         {@link CompiledPattern#canonical(String) canonical} pattern, or
+	 *         the value's {@link Object#toString()} otherwise
+	 */
+	@JsonIgnore
+	protected String normalized()
+	{
+		String result = this.normalized;
+		if (result == null)
+		{
+			result = getValue() instanceof String ? CompiledPattern
+					.canonical((String) getValue()) : getValue().toString();
+			this.normalized = result;
+		}
+		return result;
+	}
+
 	@Override
 	public int hashCode()
 	{
-		return getValue().hashCode();
+		return normalized().hashCode();
+	}
+
+	@Override
+	public boolean equals(final Object other)
+	{
+		if (this == other)
+			return true;
+		if (!(other instanceof TriggerPattern))
+			return false;
+		return normalized().equals(((TriggerPattern) other).normalized());
 	}
 
 	/**
-	 * @return
+	 * @return an {@link Observable} of this pattern's {@link Instant}s,
+	 *         generated lazily while subscribed
 	 */
 	@JsonIgnore
 	public Observable<Instant> asObservable()
 	{
-		if (getValue() instanceof Instant)
-			return Observable.just((Instant) getValue());
+		return toObservable(this);
+	}
 
-		if (getValue() instanceof String)
-			return parseInstantOrIntervalOrRule((String) getValue());
+	/**
+	 * @return a new {@link Cursor} over this pattern's {@link Instant}s
+	 */
+	@JsonIgnore
+	public Cursor cursor()
+	{
+		return compile().cursor();
+	}
+
+	/**
+	 * @param from the {@link Instant} to start from, or {@code null}
+	 * @return a new {@link Cursor} over this pattern's {@link Instant}s at or
+	 *         after specified {@link Instant}
+	 */
+	@JsonIgnore
+	public Cursor cursor(final Instant from)
+	{
+		return compile().cursor(from);
+	}
 
-		throw new IllegalArgumentException("Can't convert "
-				+ getValue().getClass().getName());
+	/**
+	 * @return the (shared) {@link CompiledPattern} of this pattern's value
+	 */
+	@JsonIgnore
+	public CompiledPattern compile()
+	{
+		CompiledPattern result = this.compiled;
+		if (result != null)
+			return result;
+
+		if (getValue() instanceof Instant)
+			result = CompiledPattern.of((Instant) getValue());
+		else if (getValue() instanceof String)
+			result = CompiledPattern.compile((String) getValue());
+		else
+			throw new IllegalArgumentException("Can't convert "
+					+ getValue().getClass().getName());
+		this.compiled = result;
+		return result;
 	}
 
 	/*public static Iterable<Instant> createIterableInstant(
@@ -269,6 +307,61 @@ public class TriggerPattern
 		return JsonUtil.valueOf(json, TriggerPattern.class);
 	}
 
+	/**
+	 * {@link Cursor} iterates over the {@link Instant}s of a
+	 * {@link TriggerPattern}, generating each only when pulled
+	 * 
+	 * @date $Date$
+	 * @version $Id$
+	 * @author <a href="mailto:rick@almende.org">Rick</a>
+	 */
+	public static abstract class Cursor implements Iterator<Instant>
+	{
+		@Override
+		public void remove()
+		{
+			throw ExceptionBuilder.unchecked("NOT SUPPORTED").build();
+		}
+
+		/**
+		 * @return the next {@link Instant} in nanoseconds since the EPOCH,
+		 *         which some cursors generate without allocating an
+		 *         {@link Instant}
+		 */
+		public long nextNanos()
+		{
+			return next().toNanosLong();
+		}
+
+		/**
+		 * @param instant the single {@link Instant} to generate
+		 * @return a {@link Cursor} over specified {@link Instant} only
+		 */
+		public static Cursor of(final Instant instant)
+		{
+			return new Cursor()
+			{
+				private Instant next = instant;
+
+				@Override
+				public boolean hasNext()
+				{
+					return this.next != null;
+				}
+
+				@Override
+				public Instant next()
+				{
+					if (this.next == null)
+						throw new NoSuchElementException();
+					final Instant result = this.next;
+					this.next = null;
+					return result;
+				}
+			};
+		}
+	}
+
 	public static class JsonSerializer extends
 			com.fasterxml.jackson.databind.JsonSerializer<TriggerPattern>
 	{
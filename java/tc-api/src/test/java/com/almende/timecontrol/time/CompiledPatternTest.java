@@ -0,0 +1,136 @@
+/* $Id$
+ *
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Copyright (c) 2015 Almende B.V.
+ */
+package com.almende.timecontrol.time;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+/**
+ * {@link CompiledPatternTest}
+ *
+ * @date $Date$
+ * @version $Id$
+ * @author <a href="mailto:rick@almende.org">Rick</a>
+ */
+public class CompiledPatternTest
+{
+
+	@Test
+	public void detectsType()
+	{
+		assertEquals(RecurrenceRuleType.CRON_RULE,
+				CompiledPattern.detect("0/20 * * * * ?"));
+		assertEquals(RecurrenceRuleType.ICAL_RULE,
+				CompiledPattern.detect("RRULE:FREQ=DAILY;COUNT=3"));
+		assertEquals(RecurrenceRuleType.PERIODIC,
+				CompiledPattern.detect("R/0 ms/PT15M"));
+		assertEquals(RecurrenceRuleType.PERIODIC,
+				CompiledPattern.detect("R3/1 s/500 ms"));
+		assertEquals(RecurrenceRuleType.ONCE, CompiledPattern.detect("5 ms"));
+		assertEquals(RecurrenceRuleType.ONCE,
+				CompiledPattern.detect("2015-01-01T00:00:00Z"));
+	}
+
+	@Test
+	public void cachesCanonical()
+	{
+		final CompiledPattern cron = CompiledPattern.compile("0 0/15 * * * ?");
+		assertSame(cron, CompiledPattern.compile(" 0  0/15 * * *\t? "));
+		assertSame(cron, new TriggerPattern("0 0/15 * * * ?").compile());
+		assertTrue(cron.cursor().hasNext());
+
+		final TriggerPattern pattern = new TriggerPattern("0 0/15 * * * ?");
+		assertEquals(pattern, new TriggerPattern(" 0  0/15 * * *\t? "));
+		assertEquals(pattern.hashCode(),
+				new TriggerPattern(" 0  0/15 * * *\t? ").hashCode());
+		assertFalse(pattern.equals(new TriggerPattern("0 0/30 * * * ?")));
+	}
+
+	@Test
+	public void parsesRuleStart()
+	{
+		final TriggerPattern.Cursor cursor = CompiledPattern.compile(
+				"DTSTART;TZID=Europe/Amsterdam:19970902T090000\n"
+						+ "RRULE:FREQ=DAILY;COUNT=2").cursor();
+		final DateTimeZone zone = DateTimeZone.forID("Europe/Amsterdam");
+		assertEquals(new DateTime(1997, 9, 2, 9, 0, zone).getMillis(), cursor
+				.next().toMillisLong());
+		assertEquals(new DateTime(1997, 9, 3, 9, 0, zone).getMillis(), cursor
+				.next().toMillisLong());
+		assertFalse(cursor.hasNext());
+	}
+
+	@Test
+	public void generatesPeriodic()
+	{
+		final CompiledPattern periodic = CompiledPattern
+				.compile("R3/1 s/500 ms");
+		final TriggerPattern.Cursor cursor = periodic.cursor();
+		assertEquals(1000000000L, cursor.nextNanos());
+		assertEquals(1500000000L, cursor.nextNanos());
+		assertEquals(2000L, cursor.next().toMillisLong());
+		assertFalse(cursor.hasNext());
+
+		// seek to the first occurrence at or after some instant
+		assertEquals(1500L, periodic.cursor(Instant.valueOf("1001 ms")).next()
+				.toMillisLong());
+		assertEquals(1500L, periodic.cursor(Instant.valueOf("1500 ms")).next()
+				.toMillisLong());
+		assertFalse(periodic.cursor(Instant.valueOf("2001 ms")).hasNext());
+		// sub-nanosecond instants seek from the next whole nanosecond
+		assertEquals(1500000000L,
+				periodic.cursor(Instant.valueOf("1000.0000001 ms"))
+						.nextNanos());
+		assertEquals(1500000000L,
+				periodic.cursor(Instant.valueOf("1499.9999999 ms"))
+						.nextNanos());
+		assertEquals(60000000000L * 15 * 4 * 24 * 365,
+				CompiledPattern.compile("R/0 ms/PT15M")
+						.cursor(Instant.valueOf("P365D")).nextNanos());
+		assertFalse(CompiledPattern.compile("5 ms")
+				.cursor(Instant.valueOf("6 ms")).hasNext());
+	}
+
+	@Test
+	public void seeksCronAndRule()
+	{
+		final DateTimeZone zone = DateTimeZone.forID("Europe/Amsterdam");
+		final long from = new DateTime(2015, 3, 1, 10, 7, zone).getMillis();
+		// every quarter hour, skipping all earlier occurrences
+		final TriggerPattern.Cursor cron = CompiledPattern.compile(
+				"0 0/15 * * * ?").cursor(Instant.valueOf(from + " ms"));
+		assertEquals(new DateTime(2015, 3, 1, 10, 15, zone).getMillis(), cron
+				.next().toMillisLong());
+
+		final CompiledPattern rule = CompiledPattern
+				.compile("DTSTART;TZID=Europe/Amsterdam:19970902T090000\n"
+						+ "RRULE:FREQ=DAILY");
+		final TriggerPattern.Cursor daily = rule.cursor(Instant.valueOf(from
+				+ " ms"));
+		assertEquals(new DateTime(2015, 3, 2, 9, 0, zone).getMillis(), daily
+				.next().toMillisLong());
+		assertEquals(new DateTime(2015, 3, 3, 9, 0, zone).getMillis(), daily
+				.next().toMillisLong());
+	}
+}
@@ -0,0 +1,87 @@
+/* $Id$
+ *
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Copyright (c) 2015 Almende B.V.
+ */
+package com.almende.timecontrol.time;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+
+import javax.measure.DecimalMeasure;
+
+import org.junit.Test;
+
+import com.almende.timecontrol.TimeControl;
+
+/**
+ * {@link TimeSpanTest}
+ *
+ * @date $Date$
+ * @version $Id$
+ * @author <a href="mailto:rick@almende.org">Rick</a>
+ */
+public class TimeSpanTest
+{
+
+	@Test
+	public void exactNanos()
+	{
+		assertTrue(TimeSpan.valueOf("1.5 ms").isExact());
+		assertEquals(1500000L, TimeSpan.valueOf("1.5 ms").toNanosLong());
+		assertEquals(3600000L, TimeSpan.valueOf("PT1H").toMillisLong());
+		assertFalse(TimeSpan.valueOf("0.5 ns").isExact());
+		assertFalse(TimeSpan.valueOf("1E20 s").isExact());
+	}
+
+	@Test
+	public void roundsLikeMeasure()
+	{
+		for (long nanos : new long[] { 1499999, 1500000, -1500000, -1500001,
+				-2000000, 7 })
+		{
+			final DecimalMeasure<javax.measure.quantity.Duration> expected = DecimalMeasure
+					.valueOf(BigDecimal.valueOf(nanos), TimeControl.NANOS);
+			assertEquals(expected.longValue(TimeControl.MILLIS), TimeSpan
+					.valueOfNanos(nanos).toMillisLong());
+		}
+	}
+
+	@Test
+	public void compareAndArithmetic()
+	{
+		final Duration a = Duration.valueOf("2 s");
+		final Duration b = Duration.valueOf("1999 ms");
+		assertTrue(a.compareTo(b) > 0);
+		assertEquals(1000000L, a.subtract(b).toNanosLong());
+		assertEquals(3999L, a.add(b).toMillisLong());
+
+		final Instant offset = Instant.valueOf("1 s");
+		assertEquals(0, Duration.valueOf("4 s").compareTo(
+				Instant.valueOf("5000 ms").toDuration(offset)));
+		assertEquals(6000L, offset.add(Duration.valueOf("5 s")).toMillisLong());
+
+		// falls back to exact decimals beyond nanosecond precision/range
+		final Duration fine = Duration.valueOf("0.25 ns");
+		assertEquals(0, Duration.valueOf("1.25 ns")
+				.compareTo(fine.add(Duration.valueOfNanos(1))));
+		final Duration huge = Duration.valueOfNanos(Long.MAX_VALUE);
+		assertFalse(huge.add(huge).getValue().isExact());
+		assertEquals(0, huge.add(huge).subtract(huge).compareTo(huge));
+	}
+}
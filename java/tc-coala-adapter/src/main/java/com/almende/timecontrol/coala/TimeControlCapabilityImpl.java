@@ -283,10 +283,21 @@ public class TimeControlCapabilityImpl extends BasicCapability implements
 		this.timeUpdates.onNext(time);
 	}
 
+	/**
+	 * @return the latest pushed time, or the root clock's time as extrapolated
+	 *         locally by the {@link TimeManagerClientAgent} if that is later,
+	 *         without asking the master
+	 */
 	@Override
 	public synchronized SimTime getTime()
 	{
-		return this.time;
+		final Duration local = this.timeManagerClient.getTime();
+		if (local == null)
+			return this.time;
+		final SimTime result = this.newTime.create(local.toNanosLong(),
+				TimeUnit.NANOS).toUnit(this.baseTimeUnit);
+		return this.time != null && !this.time.isBefore(result) ? this.time
+				: result;
 	}
 
 	private final SortedMap<TriggerConfig.ID, Job<?>> PENDING_JOBS = Collections
@@ -308,7 +319,7 @@ public class TimeControlCapabilityImpl extends BasicCapability implements
 			final TriggerConfig trig = TriggerConfig.Builder.fromID(id)
 					.withPattern(rule).build();
 			PENDING_JOBS.put(trig.id(), job);
-			this.timeManagerClient.registerTrigger(rule).subscribe(
+			this.timeManagerClient.registerTrigger(null, trig).subscribe(
 					this.jobObserver);
 		}
 	}
@@ -361,8 +372,9 @@ public class TimeControlCapabilityImpl extends BasicCapability implements
 		{
 			final TriggerConfig.ID id = TriggerConfig.ID.valueOf(job.getID()
 					.toString());
-			// this.timeManagerClient.unregisterTrigger(id);
-			PENDING_JOBS.remove(id);
+			if (PENDING_JOBS.remove(id) == null)
+				return false;
+			this.timeManagerClient.unregisterTrigger(id);
 			return true;
 		}
 	}
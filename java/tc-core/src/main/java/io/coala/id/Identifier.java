@@ -71,13 +71,23 @@ public abstract class Identifier<T extends Comparable<T>> implements
 	@Override
 	public int hashCode()
 	{
-		return getValue().hashCode();
+		return getValue() == null ? 0 : getValue().hashCode();
 	}
 
+	/**
+	 * @return {@code true} iff specified object is an {@link Identifier} of
+	 *         the same type wrapping an equal reference value, allowing use as
+	 *         (hash) key
+	 */
 	@Override
 	public boolean equals(final Object that)
 	{
-		return getValue() == null ? that == null : getValue().equals(that);
+		if (this == that)
+			return true;
+		if (that == null || getClass() != that.getClass())
+			return false;
+		final Object value = ((Identifier<?>) that).getValue();
+		return getValue() == null ? value == null : getValue().equals(value);
 	}
 
 	@Override
@@ -435,7 +435,7 @@ public class DynaBean implements Cloneable
 
 							// remove bean property in favor of changed
 							// default config
-							// bean.remove(change.getPropertyName());
+							bean.remove(change.getPropertyName());
 
 							/* TODO parse actual value into bean
 							try
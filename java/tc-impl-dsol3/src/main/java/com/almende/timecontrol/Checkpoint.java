@@ -0,0 +1,354 @@
+/* $Id$
+ * $URL$
+ *
+ * Part of the EU project Inertia, see http://www.inertia-project.eu/
+ *
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Copyright (c) 2015 Almende B.V.
+ */
+package com.almende.timecontrol;
+
+import io.coala.util.JsonUtil;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import com.almende.timecontrol.time.Instant;
+import com.almende.timecontrol.time.TriggerPattern;
+
+/**
+ * {@link Checkpoint} reads and writes the compact binary checkpoint of a
+ * timer, i.e. its {@link com.almende.timecontrol.entity.TimerConfig} followed
+ * by each {@link ClockTuple#writeTo clock's} state and pending triggers,
+ * through a memory-mapped {@link FileChannel}. All values are big-endian
+ * primitives, and strings are length-prefixed UTF-8.
+ *
+ * @date $Date$
+ * @version $Id$
+ * @author <a href="mailto:rick@almende.org">rick</a>
+ */
+public class Checkpoint
+{
+
+	/** identifies a checkpoint file, i.e. "TCKP" */
+	public static final int MAGIC = 0x54434B50;
+
+	/** the format version */
+	public static final int VERSION = 2;
+
+	/** */
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/** a {@link TriggerPattern} of some {@link String} value */
+	private static final byte PATTERN_STRING = 0;
+
+	/** a {@link TriggerPattern} of a single {@link Instant} */
+	private static final byte PATTERN_INSTANT = 1;
+
+	/** the initial size to map for writing */
+	private static final int INITIAL_SIZE = 1 << 16;
+
+	/**
+	 * {@link Output} writes primitives, strings and patterns to a
+	 * {@link ByteBuffer} that its sub-type grows on demand
+	 */
+	public static abstract class Output
+	{
+		/** */
+		protected ByteBuffer buffer;
+
+		/**
+		 * @param bytes the number of bytes about to be written
+		 * @throws IOException
+		 */
+		protected abstract void ensure(int bytes) throws IOException;
+
+		public void writeInt(final int value) throws IOException
+		{
+			ensure(4);
+			this.buffer.putInt(value);
+		}
+
+		public void writeLong(final long value) throws IOException
+		{
+			ensure(8);
+			this.buffer.putLong(value);
+		}
+
+		public void writeByte(final byte value) throws IOException
+		{
+			ensure(1);
+			this.buffer.put(value);
+		}
+
+		public void writeString(final String value) throws IOException
+		{
+			final byte[] bytes = value.getBytes(UTF8);
+			ensure(4 + bytes.length);
+			this.buffer.putInt(bytes.length);
+			this.buffer.put(bytes);
+		}
+
+		/**
+		 * @param bean the (dynamic) bean to write as JSON
+		 * @param type the bean's (interface) type to serialize
+		 * @throws IOException
+		 */
+		public <T> void writeJSON(final T bean, final Class<T> type)
+				throws IOException
+		{
+			JsonUtil.checkRegistered(JsonUtil.getJOM(), type);
+			writeString(JsonUtil.toJSON(bean));
+		}
+
+		/**
+		 * @param pattern the {@link TriggerPattern} to write, keeping single
+		 *            {@link Instant}s binary
+		 * @throws IOException
+		 */
+		public void writePattern(final TriggerPattern pattern)
+				throws IOException
+		{
+			if (pattern.getValue() instanceof Instant)
+			{
+				writeByte(PATTERN_INSTANT);
+				writeLong(((Instant) pattern.getValue()).toNanosLong());
+			} else
+			{
+				writeByte(PATTERN_STRING);
+				writeString(pattern.toString());
+			}
+		}
+	}
+
+	/**
+	 * {@link Input} reads what an {@link Output} wrote from a
+	 * {@link ByteBuffer}
+	 */
+	public static class Input
+	{
+		/** */
+		protected final ByteBuffer buffer;
+
+		/**
+		 * {@link Input} constructor
+		 *
+		 * @param buffer the {@link ByteBuffer} to read from
+		 */
+		public Input(final ByteBuffer buffer)
+		{
+			this.buffer = buffer;
+		}
+
+		public int readInt()
+		{
+			return this.buffer.getInt();
+		}
+
+		public long readLong()
+		{
+			return this.buffer.getLong();
+		}
+
+		public byte readByte()
+		{
+			return this.buffer.get();
+		}
+
+		public String readString()
+		{
+			final byte[] bytes = new byte[this.buffer.getInt()];
+			this.buffer.get(bytes);
+			return new String(bytes, UTF8);
+		}
+
+		/**
+		 * @return the {@link TriggerPattern} as {@link Output#writePattern
+		 *         written}
+		 * @throws IOException
+		 */
+		public TriggerPattern readPattern() throws IOException
+		{
+			final byte type = readByte();
+			switch (type)
+			{
+			case PATTERN_INSTANT:
+				return new TriggerPattern(Instant.valueOfNanos(readLong()));
+			case PATTERN_STRING:
+				return new TriggerPattern(readString());
+			default:
+				throw new IOException("Unknown pattern type: " + type);
+			}
+		}
+	}
+
+	/**
+	 * {@link Writer} maps its file in growing regions, writing to a temporary
+	 * file first that replaces the target file once {@link #commit()
+	 * committed}, or is discarded if {@link #close() closed} before
+	 */
+	public static class Writer extends Output implements Closeable
+	{
+		/** */
+		private final File file;
+
+		/** */
+		private final File temp;
+
+		/** */
+		private final RandomAccessFile raf;
+
+		/** */
+		private final FileChannel channel;
+
+		/** */
+		private boolean committed = false;
+
+		/**
+		 * {@link Writer} constructor
+		 *
+		 * @param file the checkpoint {@link File} to (over)write
+		 * @throws IOException
+		 */
+		public Writer(final File file) throws IOException
+		{
+			this.file = file;
+			this.temp = new File(file.getPath() + ".tmp");
+			this.raf = new RandomAccessFile(this.temp, "rw");
+			this.channel = this.raf.getChannel();
+			this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0,
+					INITIAL_SIZE);
+			writeInt(MAGIC);
+			writeInt(VERSION);
+		}
+
+		@Override
+		protected void ensure(final int bytes) throws IOException
+		{
+			if (this.buffer.remaining() >= bytes)
+				return;
+			final int position = this.buffer.position();
+			final long size = Math.max(2L * this.buffer.capacity(),
+					(long) position + bytes);
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("Checkpoint exceeds 2GB: " + this.file);
+			this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0,
+					size);
+			this.buffer.position(position);
+		}
+
+		/**
+		 * flush, then replace the target file
+		 * 
+		 * @throws IOException
+		 */
+		public void commit() throws IOException
+		{
+			final int size = this.buffer.position();
+			((MappedByteBuffer) this.buffer).force();
+			this.buffer = null;
+			this.channel.truncate(size);
+			this.channel.force(true);
+			this.raf.close();
+			Files.move(this.temp.toPath(), this.file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			this.committed = true;
+		}
+
+		/** discard the temporary file unless {@link #commit() committed} */
+		@Override
+		public void close() throws IOException
+		{
+			if (this.committed)
+				return;
+			this.buffer = null;
+			this.raf.close();
+			Files.deleteIfExists(this.temp.toPath());
+		}
+	}
+
+	/**
+	 * {@link Reader} maps its entire file read-only
+	 */
+	public static class Reader extends Input implements Closeable
+	{
+		/** */
+		private final RandomAccessFile raf;
+
+		/**
+		 * {@link Reader} constructor
+		 *
+		 * @param file the checkpoint {@link File} to read
+		 * @throws IOException if specified file is no (supported) checkpoint
+		 */
+		public Reader(final File file) throws IOException
+		{
+			this(new RandomAccessFile(file, "r"));
+			try
+			{
+				if (this.buffer.remaining() < 8 || readInt() != MAGIC)
+					throw new IOException("Not a checkpoint: " + file);
+				final int version = readInt();
+				if (version != VERSION)
+					throw new IOException("Unsupported checkpoint version "
+							+ version + ": " + file);
+			} catch (final IOException e)
+			{
+				this.raf.close();
+				throw e;
+			}
+		}
+
+		private Reader(final RandomAccessFile raf) throws IOException
+		{
+			super(map(raf));
+			this.raf = raf;
+		}
+
+		/**
+		 * @param raf the {@link RandomAccessFile} to map, closed on failure
+		 * @return the read-only {@link MappedByteBuffer} of its entire file
+		 * @throws IOException
+		 */
+		private static MappedByteBuffer map(final RandomAccessFile raf)
+				throws IOException
+		{
+			try
+			{
+				return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+						raf.length());
+			} catch (final IOException e)
+			{
+				raf.close();
+				throw e;
+			}
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			this.raf.close();
+		}
+	}
+}
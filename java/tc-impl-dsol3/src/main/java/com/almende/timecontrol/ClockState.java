@@ -0,0 +1,217 @@
+/* $Id$
+ * $URL$
+ * 
+ * Part of the EU project Inertia, see http://www.inertia-project.eu/
+ * 
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * Copyright (c) 2014 Almende B.V. 
+ */
+package com.almende.timecontrol;
+
+import javax.measure.unit.Unit;
+
+import com.almende.timecontrol.entity.ClockConfig;
+import com.almende.timecontrol.entity.ClockConfig.Status;
+import com.almende.timecontrol.entity.ClockEvent;
+import com.almende.timecontrol.time.Duration;
+import com.almende.timecontrol.time.Rate;
+
+/**
+ * {@link ClockState} is an immutable snapshot of a clock's dynamic properties,
+ * i.e. its time (in nanoseconds), {@link Status}, drag and until. Each change
+ * yields a new {@link ClockState} to publish atomically, so that any thread
+ * reads a consistent snapshot without locking and without (de)serializing the
+ * {@link ClockConfig} properties
+ * 
+ * @date $Date$
+ * @version $Id$
+ * @author <a href="mailto:rick@almende.org">rick</a>
+ */
+public class ClockState
+{
+
+	/** the initial {@link ClockState}, at time zero and without status */
+	public static final ClockState INITIAL = new ClockState(0L, null, null,
+			null);
+
+	/** the current time in nanoseconds */
+	private final long timeNanos;
+
+	/** */
+	private final Status status;
+
+	/** the drag as configured, or {@code null} */
+	private final Rate drag;
+
+	/** the drag factor, {@code <= 0} for as-fast-as-possible */
+	private final double dragFactor;
+
+	/** */
+	private final Duration until;
+
+	/** the until in nanoseconds, or {@link Long#MAX_VALUE} for none */
+	private final long untilNanos;
+
+	/**
+	 * {@link ClockState} constructor
+	 * 
+	 * @param timeNanos the current time in nanoseconds
+	 * @param status the {@link Status}, or {@code null}
+	 * @param drag the drag {@link Rate}, or {@code null}
+	 * @param until the {@link Duration} to run until, or {@code null}
+	 */
+	public ClockState(final long timeNanos, final Status status,
+			final Rate drag, final Duration until)
+	{
+		this.timeNanos = timeNanos;
+		this.status = status;
+		this.drag = drag;
+		this.dragFactor = drag == null ? 0 : drag.doubleValue(Unit.ONE);
+		this.until = until;
+		this.untilNanos = until == null ? Long.MAX_VALUE : until
+				.toNanosLong();
+	}
+
+	/**
+	 * @param config the {@link ClockConfig} to take a snapshot of
+	 * @return the new {@link ClockState}
+	 */
+	public static ClockState valueOf(final ClockConfig config)
+	{
+		final Duration time = config.time();
+		return new ClockState(time == null ? 0L : time.toNanosLong(),
+				config.status(), config.drag(), config.until());
+	}
+
+	/** @return the current time in nanoseconds */
+	public long getTimeNanos()
+	{
+		return this.timeNanos;
+	}
+
+	/** @return the current time in (fractional) milliseconds */
+	public double getMillis()
+	{
+		return this.timeNanos / 1000000d;
+	}
+
+	/** @return the current time as {@link Duration} */
+	public Duration getTime()
+	{
+		return Duration.valueOfNanos(this.timeNanos);
+	}
+
+	/** @return the {@link Status}, or {@code null} if unknown */
+	public Status getStatus()
+	{
+		return this.status;
+	}
+
+	/** @return {@code true} iff the {@link Status} is RUNNING */
+	public boolean isRunning()
+	{
+		return this.status == Status.RUNNING;
+	}
+
+	/** @return {@code true} iff the {@link Status} is COMPLETED or FAILED */
+	public boolean isFinal()
+	{
+		return this.status == Status.COMPLETED || this.status == Status.FAILED;
+	}
+
+	/** @return the drag {@link Rate}, or {@code null} */
+	public Rate getDrag()
+	{
+		return this.drag;
+	}
+
+	/** @return the drag factor, {@code <= 0} for as-fast-as-possible */
+	public double getDragFactor()
+	{
+		return this.dragFactor;
+	}
+
+	/** @return the {@link Duration} to run until, or {@code null} */
+	public Duration getUntil()
+	{
+		return this.until;
+	}
+
+	/**
+	 * @param timeNanos a time in nanoseconds
+	 * @return {@code true} iff the until has been reached at specified time
+	 */
+	public boolean isUntil(final long timeNanos)
+	{
+		return timeNanos >= this.untilNanos;
+	}
+
+	/**
+	 * @param timeNanos the new time in nanoseconds
+	 * @return the new {@link ClockState}, or this one if unchanged
+	 */
+	public ClockState withTime(final long timeNanos)
+	{
+		return timeNanos == this.timeNanos ? this : new ClockState(timeNanos,
+				this.status, this.drag, this.until);
+	}
+
+	/**
+	 * @param status the new {@link Status}
+	 * @return the new {@link ClockState}, or this one if unchanged
+	 */
+	public ClockState withStatus(final Status status)
+	{
+		return status == this.status ? this : new ClockState(this.timeNanos,
+				status, this.drag, this.until);
+	}
+
+	/**
+	 * @param drag the new drag {@link Rate}
+	 * @return the new {@link ClockState}
+	 */
+	public ClockState withDrag(final Rate drag)
+	{
+		return new ClockState(this.timeNanos, this.status, drag, this.until);
+	}
+
+	/**
+	 * @param until the new {@link Duration} to run until
+	 * @return the new {@link ClockState}
+	 */
+	public ClockState withUntil(final Duration until)
+	{
+		return new ClockState(this.timeNanos, this.status, this.drag, until);
+	}
+
+	/**
+	 * @param clockId the {@link ClockConfig.ID} of the clock
+	 * @return a new {@link ClockEvent} of this {@link ClockState}
+	 */
+	public ClockEvent toEvent(final ClockConfig.ID clockId)
+	{
+		return ClockEvent.Builder.fromClockId(clockId).withTime(getTime())
+				.withStatus(this.status).withDrag(this.drag)
+				.withUntil(this.until).build();
+	}
+
+	@Override
+	public String toString()
+	{
+		return getClass().getSimpleName() + "[t=" + this.timeNanos + "ns, "
+				+ this.status + ", drag=" + this.drag + ", until="
+				+ this.until + "]";
+	}
+}
@@ -20,31 +20,45 @@
  */
 package com.almende.timecontrol;
 
+import io.coala.error.ExceptionBuilder;
 import io.coala.util.JsonUtil;
 
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-import javax.measure.unit.Unit;
-
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import rx.Subscriber;
+import rx.observers.Subscribers;
 import rx.subjects.PublishSubject;
 import rx.subjects.Subject;
 
 import com.almende.timecontrol.entity.ClockConfig;
 import com.almende.timecontrol.entity.ClockEvent;
+import com.almende.timecontrol.entity.TimerConfig;
 import com.almende.timecontrol.entity.TriggerConfig;
 import com.almende.timecontrol.entity.TriggerEvent;
 import com.almende.timecontrol.entity.ClockConfig.Status;
+import com.almende.timecontrol.rx.PendingQueue;
 import com.almende.timecontrol.time.Duration;
 import com.almende.timecontrol.time.Instant;
+import com.almende.timecontrol.time.RecurrenceRuleType;
 import com.almende.timecontrol.time.TriggerPattern;
 
 /**
@@ -60,6 +74,19 @@ public abstract class ClockTuple
 	/** */
 	private static final Logger LOG = LogManager.getLogger(ClockTuple.class);
 
+	/** orders {@link PendingQueue.Entry entries} by registration sequence */
+	protected static final Comparator<PendingQueue.Entry> BY_SEQUENCE = new Comparator<PendingQueue.Entry>()
+	{
+		@Override
+		public int compare(final PendingQueue.Entry o1,
+				final PendingQueue.Entry o2)
+		{
+			final long s1 = o1.trigger.getSequence(), s2 = o2.trigger
+					.getSequence();
+			return s1 < s2 ? -1 : s1 == s2 ? 0 : 1;
+		}
+	};
+
 	/** */
 	protected final Subject<ClockEvent, ClockEvent> events = PublishSubject
 			.create();
@@ -68,35 +95,58 @@ public abstract class ClockTuple
 	protected final Subject<PropertyChangeEvent, PropertyChangeEvent> changes = PublishSubject
 			.create();
 
-	/** */
+	/** the registered triggers, i.e. the members of {@link #multicasts} */
 	protected final SortedMap<TriggerConfig.ID, TriggerTuple> triggers = Collections
 			.synchronizedSortedMap(new TreeMap<TriggerConfig.ID, TriggerTuple>());
 
+	/** the single scheduled {@link TriggerMulticast} of each pattern */
+	protected final ConcurrentMap<TriggerPattern, TriggerMulticast> multicasts = new ConcurrentHashMap<>();
+
+	/** the {@link TriggerMulticast} of each registered trigger */
+	protected final Map<TriggerConfig.ID, TriggerMulticast> memberships = new ConcurrentHashMap<>();
+
+	/** the clock of each trigger registered in the timer, or {@code null} */
+	protected volatile ConcurrentMap<TriggerConfig.ID, ClockTuple> owners = null;
+
 	protected final ReentrantReadWriteLock semaphore = new ReentrantReadWriteLock();
 
+	/** the {@link TimerConfig} of the timer containing this clock, if any */
+	protected TimerConfig timer;
+
 	/** */
 	protected ClockConfig config;
 
 	/** cached from ClockConfig to increase Owner deserialization performance */
 	protected String configID;
 
-	/** cached from ClockConfig to increase Owner deserialization performance */
-	protected volatile Duration until;
+	/**
+	 * the current time, status, drag and until, replaced atomically on each
+	 * change so any thread reads a consistent snapshot without locking; the
+	 * {@link #config} is updated only on {@link #getConfig() demand}
+	 */
+	protected final AtomicReference<ClockState> state = new AtomicReference<>(
+			ClockState.INITIAL);
 
-	/** cached from ClockConfig to increase Owner deserialization performance */
-	protected volatile Status status;
+	/** {@code true} while {@link #getConfig()} updates the {@link #config} */
+	private boolean materializing = false;
 
-	/** cached from ClockConfig to increase Owner deserialization performance */
-	protected volatile Double millis;
+	/** maps simulated times to wall-clock deadlines given the drag */
+	protected Pacer pacer = new Pacer(null);
 
-	/** cached from ClockConfig to increase Owner deserialization performance */
-	protected volatile Number drag;
+	/** where this clock was forked from its parent, or {@code null} */
+	protected ForkPoint forkPoint = null;
+
+	/** the {@link Journal} to record dispatch progress to, or {@code null} */
+	protected volatile Journal journal = null;
+
+	/** the {@link DispatchLog.Recorder} of notifications, or {@code null} */
+	protected volatile DispatchLog.Recorder recorder = null;
 
-	/** required for wall-clock delay calculations */
-	protected volatile long dragWallclockOffset;
+	/** the maximum number of {@link TriggerEvent}s retained per trigger */
+	private int historySize = TriggerHistory.DEFAULT_SIZE;
 
-	/** required for wall-clock delay calculations */
-	protected volatile Double dragSimclockOffset;
+	/** the time window of {@link TriggerEvent}s retained per trigger */
+	private Duration historyWindow = null;
 
 	/**
 	 * {@link ClockTuple} constructor
@@ -107,6 +157,22 @@ public abstract class ClockTuple
 	{
 	}
 
+	/**
+	 * @param timer the {@link TimerConfig} of the timer containing this clock
+	 * @param config the {@link ClockConfig}
+	 * @return this {@link ClockTuple}
+	 */
+	protected ClockTuple reset(final TimerConfig timer,
+			final ClockConfig config)
+	{
+		this.timer = timer;
+		this.pacer = new Pacer(timer == null ? null : timer.spinThreshold());
+		this.historySize = timer == null || timer.historySize() == null
+				? TriggerHistory.DEFAULT_SIZE : timer.historySize().intValue();
+		this.historyWindow = timer == null ? null : timer.historyWindow();
+		return reset(config);
+	}
+
 	/**
 	 * {@link ClockTuple} constructor
 	 * 
@@ -116,11 +182,15 @@ public abstract class ClockTuple
 	{
 		this.config = config;
 		this.configID = config.id().getValue();
+		this.state.set(ClockState.valueOf(config));
 		this.config.addPropertyChangeListener(new PropertyChangeListener()
 		{
 			@Override
 			public void propertyChange(final PropertyChangeEvent evt)
 			{
+				// ignore the snapshot being materialized by getConfig()
+				if (materializing && Thread.holdsLock(ClockTuple.this.config))
+					return;
 				LOG.trace("Handling clock config property change: {}",
 						JsonUtil.toTree(evt));
 				if (evt.getNewValue() == evt.getOldValue()) // same or both null
@@ -142,38 +212,53 @@ public abstract class ClockTuple
 	protected void onChange(final String key, final Object newValue)
 	{
 		LOG.trace("Handling config change: {} = {}", key, newValue);
-		// synchronized (this.config)
+		if (key.equals(TimeControl.STATUS_KEY))
 		{
-			final ClockEvent event = ClockEvent.Builder.fromClockConfig(
-					this.config).build();
-			LOG.trace("Publishing current clock config: {} [t={}] as event: {}",
-					this.config, event.time(), event);
-			this.events.onNext(event);
-
+			final Status status = this.config.status();
+			if (status != this.state.get().getStatus())
+				setStatus(status);
+			return;
+		}
+		ClockState oldState, newState;
+		do
+		{
+			oldState = this.state.get();
 			if (key.equals(TimeControl.UNTIL_KEY))
+				newState = oldState.withUntil(this.config.until());
+			else if (key.equals(TimeControl.DRAG_KEY))
+				newState = oldState.withDrag(this.config.drag());
+			else if (key.equals(TimeControl.TIME_KEY))
 			{
-				this.until = this.config.until();
-				LOG.trace("{} now until {}", this.configID, this.until);
-			} else if (key.equals(TimeControl.DRAG_KEY))
-			{
-				this.drag = this.config.drag().doubleValue(Unit.ONE);
-				LOG.trace("{} drag now {}", this.configID, this.drag);
-			} else if (key.equals(TimeControl.STATUS_KEY))
-			{
-				final Status oldStatus = this.status;
-				this.status = this.config.status();
-				try
-				{
-					if (this.status != Status.RUNNING)
-						stop();
-					else if (oldStatus != Status.RUNNING)
-						start();
-				} catch (final Throwable e)
-				{
-					LOG.error("Problem manipulating simulator", e);
-				}
-			}
-		}
+				final Duration time = this.config.time();
+				newState = oldState.withTime(time == null ? 0L : time
+						.toNanosLong());
+			} else
+				newState = oldState;
+		} while (!this.state.compareAndSet(oldState, newState));
+
+		if (key.equals(TimeControl.DRAG_KEY))
+		{
+			// re-anchor so the new pace applies from the current time
+			if (newState.isRunning())
+				this.pacer.reset(currentMillis(), newState.getDragFactor());
+			LOG.trace("{} drag now {}", this.configID, newState.getDrag());
+		} else if (key.equals(TimeControl.UNTIL_KEY))
+			LOG.trace("{} now until {}", this.configID, newState.getUntil());
+		publish(newState);
+	}
+
+	/**
+	 * @param state the {@link ClockState} to publish as {@link ClockEvent}
+	 */
+	protected void publish(final ClockState state)
+	{
+		final ClockEvent event = state.toEvent(this.config.id());
+		LOG.trace("Publishing clock state: {} as event: {}", state, event);
+		final Journal journal = this.journal;
+		if (journal != null)
+			journal.progress(this.config.id(), state.getTimeNanos(),
+					state.getStatus());
+		this.events.onNext(event);
 	}
 
 	/**
@@ -181,21 +266,31 @@ public abstract class ClockTuple
 	 */
 	protected void setStatus(final Status status)
 	{
-		// synchronized (this.config)
+		ClockState oldState;
+		do
 		{
-			if (this.status == Status.COMPLETED || this.status == Status.FAILED
-					|| this.status == status)
+			oldState = this.state.get();
+			if (oldState.isFinal() || oldState.getStatus() == status)
 			{
 				LOG.warn("{} ignoring status update {} => {}", this.configID,
-						this.status, status);
+						oldState.getStatus(), status);
 				return;
 			}
-			if (status == Status.RUNNING)
-			{
-				this.dragWallclockOffset = System.currentTimeMillis();
-				this.dragSimclockOffset = this.millis;
-			}
-			this.config.setProperty(TimeControl.STATUS_KEY, status.name());
+		} while (!this.state.compareAndSet(oldState,
+				oldState.withStatus(status)));
+
+		if (status == Status.RUNNING)
+			this.pacer.reset(currentMillis(), oldState.getDragFactor());
+		publish(this.state.get());
+		try
+		{
+			if (status != Status.RUNNING)
+				stop();
+			else if (oldState.getStatus() != Status.RUNNING)
+				start();
+		} catch (final Throwable e)
+		{
+			LOG.error("Problem manipulating simulator", e);
 		}
 	}
 
@@ -204,20 +299,67 @@ public abstract class ClockTuple
 	 */
 	protected void setTime(final double millis)
 	{
-		// synchronized (this.config)
+		setTime(Math.round(millis * 1000000d));
+	}
+
+	/**
+	 * advance the {@link #state} and publish it, without touching the
+	 * {@link #config}
+	 * 
+	 * @param the new time in nanoseconds
+	 */
+	protected void setTime(final long nanos)
+	{
+		ClockState oldState, newState;
+		do
 		{
-			if (this.status != Status.RUNNING)
-				LOG.warn("{} ignoring time update {} with status {}",
-						this.configID, millis, this.status);
-			else
+			oldState = this.state.get();
+			if (!oldState.isRunning())
+			{
+				LOG.warn("{} ignoring time update {}ns with status {}",
+						this.configID, nanos, oldState.getStatus());
+				newState = oldState;
+				break;
+			}
+			newState = oldState.withTime(nanos);
+		} while (!this.state.compareAndSet(oldState, newState));
+		if (newState != oldState)
+			publish(newState);
+		if (newState.isUntil(nanos))
+			setStatus(Status.COMPLETED);
+	}
+
+	/**
+	 * @return the current {@link ClockState} snapshot, read wait-free
+	 */
+	public ClockState getState()
+	{
+		return this.state.get();
+	}
+
+	/**
+	 * @return the {@link ClockConfig}, with its time and status updated to
+	 *         the current {@link ClockState}
+	 */
+	public ClockConfig getConfig()
+	{
+		final ClockState state = this.state.get();
+		synchronized (this.config)
+		{
+			this.materializing = true;
+			try
+			{
+				this.config.setProperty(TimeControl.TIME_KEY, state.getTime()
+						.toString());
+				if (state.getStatus() != null)
+					this.config.setProperty(TimeControl.STATUS_KEY, state
+							.getStatus().name());
+			} finally
 			{
-				this.millis = millis;
-				this.config.setProperty(TimeControl.TIME_KEY,
-						Double.toString(millis));
+				this.materializing = false;
 			}
-			if (this.until != null && millis >= this.until.toMillisLong())
-				setStatus(Status.COMPLETED);
 		}
+		return this.config;
 	}
 
 	/** clean up */
@@ -226,63 +368,696 @@ public abstract class ClockTuple
 		// synchronized (this.config)
 		{
 			this.events.onCompleted();
-			this.triggers.clear();
+			synchronized (this.triggers)
+			{
+				for (TriggerConfig.ID id : new ArrayList<>(
+						this.triggers.keySet()))
+					disown(id);
+			}
+			this.multicasts.clear();
+			this.memberships.clear();
 		}
 	}
 
+	/** @return the {@link Pacer} of this clock's dragged events */
+	public Pacer getPacer()
+	{
+		return this.pacer;
+	}
+
+	/** @return the current (relative) time of this clock in milliseconds */
+	protected double currentMillis()
+	{
+		return this.state.get().getMillis();
+	}
+
 	/**
-	 * SCHEDULABLE
-	 * 
-	 * t_wall0 t_sim0 delay = t_wall0 + (t_sim - t_sim0) * drag - t_wall
+	 * @return the current absolute {@link Instant} of this clock, i.e. its
+	 *         offset plus its current time
+	 */
+	protected Instant currentInstant()
+	{
+		final Duration time = this.state.get().getTime();
+		final Instant offset = this.config.offset();
+		return offset == null ? Instant.valueOf(time.getValue()) : offset
+				.add(time);
+	}
+
+	/**
+	 * register a {@link TriggerTuple} for specified {@link TriggerPattern} and
+	 * schedule only its first {@link Instant}; each next {@link Instant} is
+	 * scheduled once the previous one {@link #fire fires}
+	 * <p>
+	 * Recurring patterns start from the clock's {@link #currentInstant()},
+	 * skipping any earlier occurrences; a single {@link Instant} that has
+	 * already passed still occurs (immediately). Registrations of an equal
+	 * {@link TriggerPattern} join its {@link TriggerMulticast}, i.e. share its
+	 * scheduled occurrences, starting from the next one
 	 * 
-	 * @param pattern
-	 * @param sub
+	 * @param pattern the {@link TriggerPattern} to register
+	 * @param sub the {@link Subscriber} to notify of {@link TriggerEvent}s
+	 * @return the registered {@link TriggerTuple}
 	 */
-	protected void onNext(final TriggerPattern pattern, final boolean isLast,
+	public TriggerTuple register(final TriggerPattern pattern,
 			final Subscriber<? super TriggerEvent> sub)
 	{
-		final long delayMS;
-		final TriggerEvent event;
-		// synchronized (this.config)
+		return register(TriggerTuple.newID(), pattern, sub);
+	}
+
+	/**
+	 * @param id the {@link TriggerConfig.ID} to {@link #unregister} by later
+	 * @param pattern the {@link TriggerPattern} to register
+	 * @param sub the {@link Subscriber} to notify of {@link TriggerEvent}s
+	 * @return the registered {@link TriggerTuple}
+	 * @see #register(TriggerPattern, Subscriber)
+	 */
+	public TriggerTuple register(final TriggerConfig.ID id,
+			final TriggerPattern pattern,
+			final Subscriber<? super TriggerEvent> sub)
+	{
+		if (unregister(id))
+			LOG.warn("{} replaced trigger with same id: {}", this.configID, id);
+		// members only publish, the multicast pulls instants from its cursor
+		final TriggerTuple trigger = new TriggerTuple(id, pattern, null, sub,
+				new TriggerHistory(this.historySize, this.historyWindow));
+		TriggerMulticast multicast;
+		boolean created = false;
+		synchronized (this.multicasts)
+		{
+			multicast = this.multicasts.get(pattern);
+			if (multicast == null || !multicast.add(trigger))
+			{
+				multicast = new TriggerMulticast(this, pattern, pattern.compile()
+						.type() == RecurrenceRuleType.ONCE ? pattern.cursor()
+						: pattern.cursor(currentInstant()));
+				multicast.add(trigger);
+				this.multicasts.put(pattern, multicast);
+				created = true;
+			}
+			this.memberships.put(id, multicast);
+			own(trigger);
+		}
+		if (created)
+			scheduleNext(multicast);
+		return trigger;
+	}
+
+	/**
+	 * inherit the state and pending schedule of a parent clock as of this
+	 * clock's {@link ClockConfig#forkTime() fork time}, by default not
+	 * supported
+	 * 
+	 * @param parent the {@link ClockTuple} of the
+	 *            {@link ClockConfig#forkParentID() parent} clock
+	 */
+	protected void fork(final ClockTuple parent)
+	{
+		throw ExceptionBuilder.unchecked(
+				getClass().getSimpleName() + " can't fork clock "
+						+ this.configID + " from " + parent.configID).build();
+	}
+
+	/**
+	 * @param parent the {@link ClockTuple} of the parent clock
+	 * @param nanos the parent's current (relative) time, i.e. the fork time
+	 */
+	protected void inherit(final ClockTuple parent, final long nanos)
+	{
+		final Duration forkTime = this.config.forkTime();
+		if (forkTime != null && forkTime.toNanosLong() != nanos)
+			throw ExceptionBuilder.unchecked(
+					"Can't fork clock " + this.configID + " at " + forkTime
+							+ ", parent " + parent.configID + " is at "
+							+ Duration.valueOfNanos(nanos)).build();
+		this.forkPoint = new ForkPoint(parent, TriggerTuple.lastSequence(),
+				parent.forkPoint);
+		ClockState oldState;
+		do
+		{
+			oldState = this.state.get();
+		} while (!this.state.compareAndSet(oldState, oldState.withTime(nanos)));
+		LOG.trace("{} forked from {} at {}", this.configID, parent.configID,
+				this.state.get().getTime());
+	}
+
+	/**
+	 * @param trigger a scheduled {@link TriggerTuple} about to occur
+	 * @return the trigger itself unless it was inherited from an ancestor
+	 *         clock, in which case this clock's own copy continuing after the
+	 *         current {@link Instant}, with a {@link #placeholder} for each
+	 *         member registered before the fork that is still subscribed and
+	 *         not registered again on this clock since, or {@code null} if
+	 *         none remain. The ancestor's registrations (and subscribers) are
+	 *         never notified, completed or failed by this clock
+	 */
+	protected TriggerTuple adopt(final TriggerTuple trigger)
+	{
+		if (this.forkPoint == null || !(trigger instanceof TriggerMulticast)
+				|| ((TriggerMulticast) trigger).getClock() == this)
+			return trigger;
+		final TriggerPattern pattern = trigger.getPattern();
+		final TriggerMulticast result = new TriggerMulticast(this, pattern,
+				pattern.cursor(currentInstant().add(Duration.valueOfNanos(1))));
+		synchronized (this.multicasts)
+		{
+			for (TriggerTuple member : getMembers(trigger))
+				synchronized (this.triggers)
+				{
+					if (this.triggers.containsKey(member.getID()))
+						continue;
+					final TriggerTuple copy = placeholder(member.getID(),
+							pattern);
+					result.add(copy);
+					own(copy);
+					this.memberships.put(member.getID(), result);
+				}
+			if (result.getMembers().isEmpty())
+			{
+				result.close();
+				return null;
+			}
+			this.multicasts.putIfAbsent(pattern, result);
+		}
+		return result;
+	}
+
+	/**
+	 * @param id the {@link TriggerConfig.ID} of some registration
+	 * @param pattern the registered {@link TriggerPattern}
+	 * @return a new registration of this clock without a subscriber, which
+	 *         keeps the id, schedule and its own history until a subscriber
+	 *         resumes it by {@link #register(TriggerConfig.ID, TriggerPattern, Subscriber)
+	 *         registering} the same id again
+	 */
+	protected TriggerTuple placeholder(final TriggerConfig.ID id,
+			final TriggerPattern pattern)
+	{
+		return new TriggerTuple(id, pattern, null,
+				Subscribers.<TriggerEvent> empty(), new TriggerHistory(
+						this.historySize, this.historyWindow));
+	}
+
+	/**
+	 * @param trigger a scheduled {@link TriggerTuple}
+	 * @return the subscribed registrations that specified trigger notifies on
+	 *         this clock, i.e. for an inherited {@link TriggerMulticast} only
+	 *         those registered before the fork
+	 */
+	protected List<TriggerTuple> getMembers(final TriggerTuple trigger)
+	{
+		final List<TriggerTuple> result = new ArrayList<>();
+		if (!(trigger instanceof TriggerMulticast))
+		{
+			if (!trigger.isUnsubscribed())
+				result.add(trigger);
+			return result;
+		}
+		final TriggerMulticast multicast = (TriggerMulticast) trigger;
+		long sequence = Long.MAX_VALUE;
+		if (multicast.getClock() != this)
+		{
+			sequence = -1L;
+			for (ForkPoint fork = this.forkPoint; fork != null; fork = fork.parent)
+				if (fork.clock == multicast.getClock())
+				{
+					sequence = fork.sequence;
+					break;
+				}
+		}
+		for (TriggerTuple member : multicast.getMembers())
+			if (member.getSequence() <= sequence && !member.isUnsubscribed())
+				result.add(member);
+		return result;
+	}
+
+	/**
+	 * write this clock's state and pending triggers, holding its
+	 * {@link #semaphore} so no time step interleaves. Each pending
+	 * occurrence is written with its {@link TriggerPattern} (from a table of
+	 * distinct patterns) and the ids of the registrations it notifies
+	 * 
+	 * @param out the {@link Checkpoint.Writer} to write to
+	 * @throws IOException
+	 */
+	protected void writeTo(final Checkpoint.Writer out) throws IOException
+	{
+		this.semaphore.writeLock().lock();
+		try
 		{
-			delayMS = this.drag == null || this.drag.doubleValue() <= 0 ? 0L
-					: (long) (this.dragWallclockOffset + (this.millis - this.dragSimclockOffset)
-							* this.drag.doubleValue())
-							- System.currentTimeMillis();
-			event = TriggerEvent.Builder
-					.fromTime(Duration.valueOf(this.millis))
-					.withLastCall(isLast).build();
+			final ClockState state = this.state.get();
+			out.writeLong(state.getTimeNanos());
+			out.writeByte(state.getStatus() == null ? (byte) -1
+					: (byte) state.getStatus().ordinal());
+			final NavigableMap<Duration, List<TriggerTuple>> pending = getPending();
+			final Map<TriggerPattern, Integer> patterns = new LinkedHashMap<>();
+			for (List<TriggerTuple> triggers : pending.values())
+				for (TriggerTuple trigger : triggers)
+					if (!patterns.containsKey(trigger.getPattern()))
+						patterns.put(trigger.getPattern(),
+								Integer.valueOf(patterns.size()));
+			out.writeInt(patterns.size());
+			for (TriggerPattern pattern : patterns.keySet())
+				out.writePattern(pattern);
+			out.writeInt(pending.size());
+			for (Map.Entry<Duration, List<TriggerTuple>> entry : pending
+					.entrySet())
+			{
+				out.writeLong(entry.getKey().toNanosLong());
+				out.writeInt(entry.getValue().size());
+				for (TriggerTuple trigger : entry.getValue())
+				{
+					out.writeInt(patterns.get(trigger.getPattern()).intValue());
+					final List<TriggerTuple> members = getMembers(trigger);
+					out.writeInt(members.size());
+					for (TriggerTuple member : members)
+						out.writeString(member.getID().getValue());
+				}
+			}
+			LOG.trace("{} checkpointed {} pending times at {}",
+					this.configID, pending.size(), state.getTime());
+		} finally
+		{
+			this.semaphore.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * restore the state and pending triggers {@link #writeTo written} before,
+	 * scheduling one {@link TriggerMulticast} per pending occurrence directly
+	 * rather than registering each trigger again. Registrations keep their
+	 * ids and schedule but not their subscribers, which may resume by
+	 * registering the same id again. A running clock is restored as
+	 * {@link Status#WAITING waiting}, for the caller to resume
+	 * 
+	 * @param in the {@link Checkpoint.Reader} to read from
+	 * @return the {@link Status} as written, or {@code null}
+	 * @throws IOException
+	 */
+	protected Status readFrom(final Checkpoint.Reader in) throws IOException
+	{
+		final long nanos = in.readLong();
+		final byte ordinal = in.readByte();
+		final Status status = ordinal < 0 ? null : Status.values()[ordinal];
+		restore(nanos, status == Status.RUNNING ? Status.WAITING : status);
+		final TriggerPattern[] patterns = new TriggerPattern[in.readInt()];
+		for (int i = 0; i < patterns.length; i++)
+			patterns[i] = in.readPattern();
+		final Instant offset = this.config.offset();
+		for (int i = in.readInt(); i > 0; i--)
+		{
+			final Duration time = Duration.valueOfNanos(in.readLong());
+			final Instant instant = offset == null ? Instant.valueOfNanos(time
+					.toNanosLong()) : offset.add(time);
+			for (int j = in.readInt(); j > 0; j--)
+			{
+				final TriggerPattern pattern = patterns[in.readInt()];
+				final TriggerMulticast multicast = new TriggerMulticast(this,
+						pattern, pattern.cursor(instant.add(Duration
+								.valueOfNanos(1))));
+				for (int k = in.readInt(); k > 0; k--)
+				{
+					final TriggerConfig.ID id = TriggerConfig.ID.valueOf(in
+							.readString());
+					final TriggerTuple member = placeholder(id, pattern);
+					multicast.add(member);
+					own(member);
+					this.memberships.put(id, multicast);
+				}
+				if (multicast.getMembers().isEmpty())
+					continue;
+				this.multicasts.putIfAbsent(pattern, multicast);
+				schedule(multicast, instant.toNanosLong(),
+						!multicast.hasNextInstant());
+			}
 		}
-		LOG.trace("[t={}ms] {} triggering for pattern {}, drag: {}ms (actual)",
-				this.millis, this.configID, pattern, delayMS);
-		if (delayMS > 0)
+		LOG.trace("{} restored {} triggers at {}", this.configID,
+				this.triggers.size(), this.state.get().getTime());
+		return status;
+	}
+
+	/**
+	 * @param nanos the (relative) time to restore, in nanoseconds
+	 * @param status the {@link Status} to restore
+	 */
+	protected void restore(final long nanos, final Status status)
+	{
+		ClockState oldState;
+		do
 		{
+			oldState = this.state.get();
+		} while (!this.state.compareAndSet(oldState, oldState.withTime(nanos)
+				.withStatus(status)));
+	}
+
+	/**
+	 * advance to a time {@link Journal journaled} before without publishing,
+	 * forgetting the occurrences before it, by default not supported
+	 * 
+	 * @param nanos the (relative) time to skip to, in nanoseconds
+	 * @param status the {@link Status} to restore
+	 */
+	protected void skipTo(final long nanos, final Status status)
+	{
+		throw ExceptionBuilder.unchecked(
+				getClass().getSimpleName() + " can't skip " + this.configID
+						+ " to " + nanos + "ns").build();
+	}
+
+	/**
+	 * @return the pending {@link TriggerTuple}s by {@link Duration time}, by
+	 *         default not supported
+	 */
+	protected NavigableMap<Duration, List<TriggerTuple>> getPending()
+	{
+		throw ExceptionBuilder.unchecked(
+				getClass().getSimpleName() + " can't list pending triggers of "
+						+ this.configID).build();
+	}
+
+	/**
+	 * cancel a registered {@link TriggerTuple}, removing its pending
+	 * occurrence (if it was the last member of its {@link TriggerMulticast})
+	 * and completing its {@link Subscriber}
+	 * 
+	 * @param id the {@link TriggerConfig.ID} of the {@link TriggerTuple}
+	 * @return {@code true} iff the trigger was registered with this clock
+	 */
+	public boolean unregister(final TriggerConfig.ID id)
+	{
+		final TriggerTuple trigger = this.triggers.get(id);
+		if (trigger == null || !leave(trigger))
+			return false;
+		trigger.onCompleted();
+		return true;
+	}
+
+	/**
+	 * @param trigger the registered {@link TriggerTuple} to cancel, and to
+	 *            remove from its {@link TriggerMulticast}
+	 * @return {@code true} iff the trigger was still registered
+	 */
+	protected boolean leave(final TriggerTuple trigger)
+	{
+		final TriggerConfig.ID id = trigger.getID();
+		synchronized (this.triggers)
+		{
+			if (this.triggers.get(id) != trigger)
+				return false;
+			disown(id);
+		}
+		trigger.cancel();
+		final TriggerMulticast multicast = this.memberships.remove(id);
+		if (multicast == null)
+			unschedule(trigger);
+		else if (multicast.remove(trigger))
+		{
+			// the last member left
+			this.multicasts.remove(multicast.getPattern(), multicast);
+			unschedule(multicast);
+		}
+		return true;
+	}
+
+	/**
+	 * @param trigger the {@link TriggerTuple} now registered with this clock,
+	 *            also indexed by the timer's {@link #owners}
+	 */
+	protected void own(final TriggerTuple trigger)
+	{
+		this.triggers.put(trigger.getID(), trigger);
+		final ConcurrentMap<TriggerConfig.ID, ClockTuple> owners = this.owners;
+		if (owners != null)
+			owners.put(trigger.getID(), this);
+	}
+
+	/**
+	 * @param id the {@link TriggerConfig.ID} no longer registered with this
+	 *            clock, also removed from the timer's {@link #owners} unless
+	 *            registered with another clock since
+	 */
+	protected void disown(final TriggerConfig.ID id)
+	{
+		this.triggers.remove(id);
+		final ConcurrentMap<TriggerConfig.ID, ClockTuple> owners = this.owners;
+		if (owners != null)
+			owners.remove(id, this);
+	}
+
+	/**
+	 * @param trigger the scheduled {@link TriggerTuple} to forget, along with
+	 *            its members if it is a {@link TriggerMulticast}
+	 */
+	protected void release(final TriggerTuple trigger)
+	{
+		if (!(trigger instanceof TriggerMulticast))
+		{
+			synchronized (this.triggers)
+			{
+				if (this.triggers.get(trigger.getID()) == trigger)
+					disown(trigger.getID());
+			}
+			return;
+		}
+		final TriggerMulticast multicast = (TriggerMulticast) trigger;
+		multicast.close();
+		this.multicasts.remove(multicast.getPattern(), multicast);
+		synchronized (this.triggers)
+		{
+			for (TriggerTuple member : multicast.getMembers())
+				if (this.triggers.get(member.getID()) == member)
+				{
+					disown(member.getID());
+					this.memberships.remove(member.getID());
+				}
+		}
+	}
+
+	/**
+	 * @param trigger the {@link TriggerTuple} to schedule the next
+	 *            {@link Instant} of, or to complete if it has none left
+	 */
+	protected void scheduleNext(final TriggerTuple trigger)
+	{
+		try
+		{
+			if (trigger.closeIfUnsubscribed() || !trigger.hasNextInstant())
+			{
+				release(trigger);
+				trigger.onCompleted();
+			} else
+			{
+				final long next = trigger.nextNanos();
+				schedule(trigger, next, !trigger.hasNextInstant());
+			}
+		} catch (final Throwable t)
+		{
+			release(trigger);
+			trigger.onError(t);
+		}
+	}
+
+	/**
+	 * publish the {@link TriggerEvent} for a scheduled {@link Instant}, then
+	 * schedule the {@link TriggerTuple}'s next {@link Instant}
+	 * 
+	 * @param trigger the {@link TriggerTuple} that occurs
+	 * @param time the current (absolute) {@link Duration time}
+	 * @param isLast {@code true} iff this is the trigger's last occurrence
+	 */
+	protected void fire(final TriggerTuple trigger, final Duration time,
+			final boolean isLast)
+	{
+		afterFire(trigger, isLast, publish(trigger, time, isLast));
+	}
+
+	/**
+	 * @param trigger the {@link TriggerTuple} that occurs
+	 * @param time the current (absolute) {@link Duration time}
+	 * @param isLast {@code true} iff this is the trigger's last occurrence
+	 * @return the problem that the subscriber raised, or {@code null}
+	 */
+	protected Throwable publish(final TriggerTuple trigger,
+			final Duration time, final boolean isLast)
+	{
+		// cancelled after its occurrence was taken from the queue
+		if (trigger.isCancelled())
+			return null;
+		if (!(trigger instanceof TriggerMulticast))
 			try
 			{
-				Thread.sleep(delayMS);
-			} catch (final InterruptedException e)
+				record(trigger, time, isLast);
+				trigger.onNext(time, isLast);
+				return null;
+			} catch (final Throwable e)
 			{
-				LOG.warn("Unexpected interrupt", e);
+				return e;
 			}
+		for (TriggerTuple member : ((TriggerMulticast) trigger).getMembers())
+			publishMember(member, time, isLast);
+		return null;
+	}
+
+	/**
+	 * @param member the {@link TriggerMulticast} member to notify, or to let
+	 *            leave if it unsubscribed or fails
+	 * @param time the current (absolute) {@link Duration time}
+	 * @param isLast {@code true} iff this is the trigger's last occurrence
+	 */
+	protected void publishMember(final TriggerTuple member,
+			final Duration time, final boolean isLast)
+	{
+		if (member.isUnsubscribed())
+			leave(member);
+		else
+			try
+			{
+				record(member, time, isLast);
+				member.onNext(time, isLast);
+			} catch (final Throwable e)
+			{
+				// fail only this member, the others remain subscribed
+				leave(member);
+				member.onError(e);
+			}
+	}
+
+	/**
+	 * @param trigger the {@link TriggerTuple} about to be notified
+	 * @param time the current (absolute) {@link Duration time}
+	 * @param isLast {@code true} iff this is the trigger's last occurrence
+	 */
+	protected void record(final TriggerTuple trigger, final Duration time,
+			final boolean isLast)
+	{
+		final DispatchLog.Recorder recorder = this.recorder;
+		if (recorder != null)
+			recorder.record(this.config.id(), trigger.getID(),
+					time.toNanosLong(), isLast);
+	}
+
+	/**
+	 * fail, complete or schedule the next {@link Instant} of a
+	 * {@link TriggerTuple} that was just {@link #publish published}
+	 * 
+	 * @param trigger the {@link TriggerTuple} that occurred
+	 * @param isLast {@code true} iff this was the trigger's last occurrence
+	 * @param error the problem that the subscriber raised, or {@code null}
+	 */
+	protected void afterFire(final TriggerTuple trigger, final boolean isLast,
+			final Throwable error)
+	{
+		if (error != null)
+		{
+			release(trigger);
+			trigger.onError(error);
+		} else if (isLast)
+			release(trigger);
+		else
+			scheduleNext(trigger);
+	}
+
+	/**
+	 * notify the subscribers of all specified {@link PendingQueue.Entry
+	 * entries}, including each {@link TriggerMulticast} member, in order of
+	 * registration sequence, then schedule their next occurrences in that
+	 * order too, independent of how the {@link PendingQueue} breaks ties
+	 * 
+	 * @param entries the {@link PendingQueue.Entry entries} to fire
+	 * @param time the current (absolute) {@link Duration time}
+	 */
+	protected void dispatchInOrder(final List<PendingQueue.Entry> entries,
+			final Duration time)
+	{
+		final List<PendingQueue.Entry> sorted = new ArrayList<>(entries);
+		Collections.sort(sorted, BY_SEQUENCE);
+		// the errors of triggers notified directly rather than as member
+		final Map<TriggerTuple, Throwable> errors = new IdentityHashMap<>();
+		final List<PendingQueue.Entry> notify = new ArrayList<>(
+				sorted.size());
+		for (PendingQueue.Entry entry : sorted)
+			if (!(entry.trigger instanceof TriggerMulticast))
+			{
+				errors.put(entry.trigger, null);
+				notify.add(entry);
+			} else if (!entry.trigger.isCancelled())
+				for (TriggerTuple member : ((TriggerMulticast) entry.trigger)
+						.getMembers())
+					notify.add(new PendingQueue.Entry(member, entry.lastCall));
+		Collections.sort(notify, BY_SEQUENCE);
+		for (PendingQueue.Entry entry : notify)
+			if (errors.containsKey(entry.trigger))
+				errors.put(entry.trigger,
+						publish(entry.trigger, time, entry.lastCall));
+			else
+				publishMember(entry.trigger, time, entry.lastCall);
+		for (PendingQueue.Entry entry : sorted)
+			afterFire(entry.trigger, entry.lastCall, errors.get(entry.trigger));
+	}
+
+	/**
+	 * SCHEDULABLE, invoked on the simulator's own thread which therefore
+	 * {@link Pacer#await awaits} the wall-clock deadline of dragged clocks
+	 * 
+	 * @param entries the {@link PendingQueue.Entry entries} occurring now
+	 */
+	protected void onNext(final List<PendingQueue.Entry> entries)
+	{
+		final ClockState state = this.state.get();
+		final double millis = state.getMillis();
+		final Duration time = state.getTime();
+		if (this.pacer.isPaced())
+		{
+			final long deadline = this.pacer.deadline(millis);
+			LOG.trace("[t={}ms] {} triggering {} occurrences, drag: {}ns",
+					millis, this.configID, entries.size(),
+					this.pacer.remaining(deadline));
+			this.pacer.await(deadline);
+			this.pacer.report(deadline);
 		}
-		sub.onNext(event);
+		dispatchInOrder(entries, time);
 	}
 
 	/**
-	 * @param pattern the original {@link TriggerPattern} describing all
-	 *            {@link Instant instants}
-	 * @param time the {@link Instant} in the {@link TriggerPattern} to schedule
+	 * @param trigger the {@link TriggerTuple} to {@link #fire} when specified
+	 *            {@link Instant instant} occurs
+	 * @param time the next {@link Instant} in the trigger's
+	 *            {@link TriggerPattern} to schedule, in nanoseconds
 	 * @param isLast {@code true} iff {@code time} is the last {@link Instant}
 	 *            in the {@link TriggerPattern}
-	 * @param sub the {@link Subscriber} to notify with a {@link TriggerEvent
-	 *            events} when specified {@link Instant instant} occurs
 	 */
-	protected abstract void schedule(final TriggerPattern pattern,
-			final Instant time, final boolean isLast,
-			final Subscriber<? super TriggerEvent> sub);
+	protected abstract void schedule(final TriggerTuple trigger,
+			final long time, final boolean isLast);
+
+	/**
+	 * @param trigger the {@link TriggerTuple} whose pending occurrence (if any)
+	 *            to remove
+	 */
+	protected abstract void unschedule(final TriggerTuple trigger);
 
 	protected abstract void start() throws Exception;
 
 	protected abstract void stop() throws Exception;
 
+	/**
+	 * {@link ForkPoint} links a forked clock to its parent clock
+	 */
+	protected static class ForkPoint
+	{
+		/** the parent clock */
+		final ClockTuple clock;
+
+		/** the last registration inherited from the parent clock */
+		final long sequence;
+
+		/** where the parent clock was forked itself, or {@code null} */
+		final ForkPoint parent;
+
+		ForkPoint(final ClockTuple clock, final long sequence,
+				final ForkPoint parent)
+		{
+			this.clock = clock;
+			this.sequence = sequence;
+			this.parent = parent;
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,315 @@
+/* $Id$
+ * $URL$
+ *
+ * Part of the EU project Inertia, see http://www.inertia-project.eu/
+ *
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Copyright (c) 2015 Almende B.V.
+ */
+package com.almende.timecontrol;
+
+import io.coala.error.ExceptionBuilder;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import rx.Observable;
+import rx.subjects.PublishSubject;
+import rx.subjects.Subject;
+
+import com.almende.timecontrol.entity.ClockConfig;
+import com.almende.timecontrol.entity.TriggerConfig;
+import com.almende.timecontrol.entity.TriggerEvent;
+import com.almende.timecontrol.time.Duration;
+
+/**
+ * {@link DispatchLog} records the sequence in which clocks notify their
+ * triggers to a binary log, and replays it to subscribers at full speed
+ * without any live clock, e.g. to re-run an incident offline. Clock and
+ * trigger identifiers are written once as symbols, and each notification as
+ * {@code [byte type][int clock][int trigger][long time (ns)][byte last]}.
+ * Replays are identical to the recorded run if that run used the
+ * {@link com.almende.timecontrol.entity.TimerConfig.DispatchMode#DETERMINISTIC
+ * deterministic} dispatch mode.
+ *
+ * @date $Date$
+ * @version $Id$
+ * @author <a href="mailto:rick@almende.org">rick</a>
+ */
+public class DispatchLog
+{
+
+	/** identifies a dispatch log file, i.e. "TCDL" */
+	public static final int MAGIC = 0x5443444C;
+
+	/** the format version */
+	public static final int VERSION = 1;
+
+	/** a new clock identifier symbol */
+	private static final byte CLOCK = 0;
+
+	/** a new trigger identifier symbol */
+	private static final byte TRIGGER = 1;
+
+	/** a trigger notification */
+	private static final byte EVENT = 2;
+
+	/**
+	 * {@link Recorder} appends the notifications of any clocks through a
+	 * buffer it drains to the file once full
+	 */
+	public static class Recorder extends Checkpoint.Output implements
+			Closeable
+	{
+		/** */
+		private final File file;
+
+		/** */
+		private final FileChannel channel;
+
+		/** the symbol index of each clock identifier */
+		private final Map<String, Integer> clocks = new HashMap<>();
+
+		/** the symbol index of each trigger identifier */
+		private final Map<String, Integer> triggers = new HashMap<>();
+
+		/** */
+		private boolean closed = false;
+
+		/**
+		 * {@link Recorder} constructor
+		 *
+		 * @param file the dispatch log {@link File} to (over)write
+		 * @throws IOException
+		 */
+		public Recorder(final File file) throws IOException
+		{
+			this.file = file;
+			this.channel = FileChannel.open(file.toPath(),
+					StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+			this.buffer = ByteBuffer.allocate(1 << 16);
+			writeInt(MAGIC);
+			writeInt(VERSION);
+		}
+
+		@Override
+		protected void ensure(final int bytes) throws IOException
+		{
+			if (this.buffer.remaining() >= bytes)
+				return;
+			drain();
+			if (this.buffer.capacity() < bytes)
+				this.buffer = ByteBuffer.allocate(bytes);
+		}
+
+		private void drain() throws IOException
+		{
+			this.buffer.flip();
+			while (this.buffer.hasRemaining())
+				this.channel.write(this.buffer);
+			this.buffer.clear();
+		}
+
+		/**
+		 * @param clockId the {@link ClockConfig.ID} of the notifying clock
+		 * @param triggerId the {@link TriggerConfig.ID} being notified
+		 * @param nanos the (absolute) time, in nanoseconds
+		 * @param isLast {@code true} iff this is the trigger's last occurrence
+		 */
+		public synchronized void record(final ClockConfig.ID clockId,
+				final TriggerConfig.ID triggerId, final long nanos,
+				final boolean isLast)
+		{
+			if (this.closed)
+				return;
+			try
+			{
+				final int clock = symbol(this.clocks, CLOCK,
+						clockId.getValue());
+				final int trigger = symbol(this.triggers, TRIGGER,
+						triggerId.getValue());
+				ensure(18);
+				this.buffer.put(EVENT).putInt(clock).putInt(trigger)
+						.putLong(nanos).put((byte) (isLast ? 1 : 0));
+			} catch (final IOException e)
+			{
+				throw ExceptionBuilder.unchecked(
+						"Problem recording to: " + this.file, e).build();
+			}
+		}
+
+		/** @return the symbol index, writing it first if it's new */
+		private int symbol(final Map<String, Integer> symbols,
+				final byte type, final String value) throws IOException
+		{
+			Integer result = symbols.get(value);
+			if (result == null)
+			{
+				result = symbols.size();
+				symbols.put(value, result);
+				writeByte(type);
+				writeString(value);
+			}
+			return result;
+		}
+
+		@Override
+		public synchronized void close() throws IOException
+		{
+			if (this.closed)
+				return;
+			this.closed = true;
+			drain();
+			this.channel.force(true);
+			this.channel.close();
+		}
+	}
+
+	/**
+	 * {@link Replayer} notifies the subscribers of each trigger identifier in
+	 * recorded order, completing them after their last occurrence or once
+	 * the log ends
+	 */
+	public static class Replayer implements Closeable
+	{
+		/** */
+		private final RandomAccessFile raf;
+
+		/** */
+		private final Checkpoint.Input in;
+
+		/** all events, in recorded order */
+		private final Subject<TriggerEvent, TriggerEvent> events = PublishSubject
+				.create();
+
+		/** the events per trigger identifier */
+		private final Map<String, Subject<TriggerEvent, TriggerEvent>> triggers = new HashMap<>();
+
+		/**
+		 * {@link Replayer} constructor
+		 *
+		 * @param file the dispatch log {@link File} to read
+		 * @throws IOException if specified file is no (supported) log
+		 */
+		public Replayer(final File file) throws IOException
+		{
+			this.raf = new RandomAccessFile(file, "r");
+			this.in = new Checkpoint.Input(this.raf.getChannel().map(
+					FileChannel.MapMode.READ_ONLY, 0, this.raf.length()));
+			if (this.in.buffer.remaining() < 8 || this.in.readInt() != MAGIC)
+				throw new IOException("Not a dispatch log: " + file);
+			final int version = this.in.readInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported dispatch log version "
+						+ version + ": " + file);
+		}
+
+		/** @return the {@link Observable} of all replayed events */
+		public Observable<TriggerEvent> observe()
+		{
+			return this.events.asObservable();
+		}
+
+		/**
+		 * @param triggerId the {@link TriggerConfig.ID} to replay
+		 * @return the {@link Observable} of its replayed events
+		 */
+		public synchronized Observable<TriggerEvent> observe(
+				final TriggerConfig.ID triggerId)
+		{
+			Subject<TriggerEvent, TriggerEvent> result = this.triggers
+					.get(triggerId.getValue());
+			if (result == null)
+			{
+				result = PublishSubject.create();
+				this.triggers.put(triggerId.getValue(), result);
+			}
+			return result.asObservable();
+		}
+
+		/**
+		 * notify the {@link #observe observers} of the remaining log
+		 *
+		 * @return the number of events replayed
+		 * @throws IOException if the log is corrupt
+		 */
+		public synchronized long run() throws IOException
+		{
+			final ByteBuffer buffer = this.in.buffer;
+			final List<TriggerConfig.ID> ids = new ArrayList<>();
+			final List<Subject<TriggerEvent, TriggerEvent>> subjects = new ArrayList<>();
+			long result = 0;
+			while (buffer.hasRemaining())
+			{
+				final byte type = buffer.get();
+				switch (type)
+				{
+				case CLOCK:
+					this.in.readString();
+					break;
+				case TRIGGER:
+					final String id = this.in.readString();
+					ids.add(TriggerConfig.ID.valueOf(id));
+					subjects.add(this.triggers.get(id));
+					break;
+				case EVENT:
+					buffer.getInt();
+					final int trigger = buffer.getInt();
+					final long nanos = buffer.getLong();
+					final boolean isLast = buffer.get() != 0;
+					final TriggerEvent event = TriggerEvent.Builder
+							.fromTime(Duration.valueOfNanos(nanos))
+							.withTriggerID(ids.get(trigger))
+							.withLastCall(isLast).build();
+					final Subject<TriggerEvent, TriggerEvent> subject = subjects
+							.get(trigger);
+					if (subject != null)
+					{
+						subject.onNext(event);
+						if (isLast)
+							subject.onCompleted();
+					}
+					this.events.onNext(event);
+					result++;
+					break;
+				default:
+					throw new IOException("Unknown dispatch log record type: "
+							+ type);
+				}
+			}
+			for (Subject<TriggerEvent, TriggerEvent> subject : this.triggers
+					.values())
+				subject.onCompleted();
+			this.events.onCompleted();
+			return result;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			this.raf.close();
+		}
+	}
+}
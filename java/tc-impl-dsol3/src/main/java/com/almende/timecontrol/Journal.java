@@ -0,0 +1,794 @@
+/* $Id$
+ * $URL$
+ *
+ * Part of the EU project Inertia, see http://www.inertia-project.eu/
+ *
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Copyright (c) 2015 Almende B.V.
+ */
+package com.almende.timecontrol;
+
+import io.coala.error.ExceptionBuilder;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import javax.measure.unit.Unit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.almende.timecontrol.entity.ClockConfig;
+import com.almende.timecontrol.entity.ClockConfig.Status;
+import com.almende.timecontrol.entity.TimerConfig.JournalSync;
+import com.almende.timecontrol.entity.TriggerConfig;
+import com.almende.timecontrol.time.Duration;
+import com.almende.timecontrol.time.Instant;
+import com.almende.timecontrol.time.Rate;
+import com.almende.timecontrol.time.TriggerPattern;
+
+/**
+ * {@link Journal} is the append-only write-ahead log of a timer between its
+ * {@link Checkpoint}s, recording trigger registrations, clock updates and
+ * removals, and dispatch progress as compact binary records of the form
+ * {@code [int length][byte type][payload][int CRC-32]}, encoded like the
+ * {@link Checkpoint}. Appends are group-committed: a single flusher thread
+ * writes (and, depending on the {@link JournalSync} policy, forces) all
+ * records appended since its previous batch at once. Clock identifiers are
+ * written once per {@link #mark() checkpoint} as symbols, and referred to by
+ * index thereafter.
+ *
+ * @date $Date$
+ * @version $Id$
+ * @author <a href="mailto:rick@almende.org">rick</a>
+ */
+public class Journal implements Closeable
+{
+
+	/** */
+	private static final Logger LOG = LogManager.getLogger(Journal.class);
+
+	/** identifies a journal file, i.e. "TCJL" */
+	public static final int MAGIC = 0x54434A4C;
+
+	/** the format version */
+	public static final int VERSION = 2;
+
+	/** the size of the file header, i.e. its magic and version */
+	private static final int HEADER_SIZE = 8;
+
+	/** the size of a record's length prefix and CRC-32 suffix */
+	private static final int FRAME_SIZE = 8;
+
+	/** a new clock identifier symbol: index, identifier */
+	private static final byte SYMBOL = 0;
+
+	/** a checkpoint mark: sequence, records before it no longer apply */
+	private static final byte CHECKPOINT = 1;
+
+	/** a trigger registration: clock, trigger identifier, pattern */
+	private static final byte REGISTER = 2;
+
+	/** a trigger cancellation: trigger identifier */
+	private static final byte UNREGISTER = 3;
+
+	/** a clock update: clock, present fields mask, fields */
+	private static final byte UPDATE_CLOCK = 4;
+
+	/** a clock removal: clock */
+	private static final byte REMOVE_CLOCK = 5;
+
+	/** a clock's dispatch progress: clock, time (ns), status ordinal */
+	private static final byte PROGRESS = 6;
+
+	/** the {@link ClockConfig} fields in an {@link #UPDATE_CLOCK} record */
+	private static final int FORK_PARENT = 1, FORK_TIME = 2, OFFSET = 4,
+			DRAG = 8, STATUS = 16, TIME = 32, UNTIL = 64;
+
+	/**
+	 * {@link Handler} applies the records of a {@link Journal} being
+	 * {@link Journal#replay replayed}
+	 */
+	public interface Handler
+	{
+		void onRegister(ClockConfig.ID clockId, TriggerConfig.ID triggerId,
+				TriggerPattern pattern);
+
+		void onUnregister(TriggerConfig.ID triggerId);
+
+		/**
+		 * @param config the {@link ClockConfig} as updated, including its
+		 *            {@link ClockConfig#status() status} if any
+		 */
+		void onUpdateClock(ClockConfig config);
+
+		void onRemoveClock(ClockConfig.ID clockId);
+
+		void onProgress(ClockConfig.ID clockId, long nanos, Status status);
+	}
+
+	/**
+	 * {@link Mark} identifies a {@link #CHECKPOINT} record, to store in the
+	 * {@link Checkpoint} taken after it and {@link #replay} from once that
+	 * {@link Checkpoint} was committed
+	 */
+	public static class Mark
+	{
+		/** the sequence of the mark, increasing within the journal */
+		public final long sequence;
+
+		/** the file offset of the mark, to {@link #compact} from */
+		final long offset;
+
+		Mark(final long sequence, final long offset)
+		{
+			this.sequence = sequence;
+			this.offset = offset;
+		}
+	}
+
+	/**
+	 * {@link Batch} buffers the records appended since the last flush on the
+	 * heap, doubling its capacity as needed
+	 */
+	private static class Batch extends Checkpoint.Output
+	{
+		/** */
+		private final CRC32 crc = new CRC32();
+
+		/** the start of the record being appended */
+		private int start;
+
+		Batch()
+		{
+			this.buffer = ByteBuffer.allocate(1 << 12);
+		}
+
+		@Override
+		protected void ensure(final int bytes)
+		{
+			if (this.buffer.remaining() >= bytes)
+				return;
+			final ByteBuffer result = ByteBuffer.allocate(Math.max(
+					2 * this.buffer.capacity(), this.buffer.position() + bytes));
+			this.buffer.flip();
+			result.put(this.buffer);
+			this.buffer = result;
+		}
+
+		void begin(final byte type) throws IOException
+		{
+			this.start = this.buffer.position();
+			writeInt(0);
+			writeByte(type);
+		}
+
+		void end() throws IOException
+		{
+			final int length = this.buffer.position() - this.start - 4;
+			this.buffer.putInt(this.start, length);
+			this.crc.reset();
+			this.crc.update(this.buffer.array(), this.start + 4, length);
+			writeInt((int) this.crc.getValue());
+		}
+
+		int size()
+		{
+			return this.buffer.position();
+		}
+	}
+
+	/** */
+	private final File file;
+
+	/** */
+	private final JournalSync sync;
+
+	/** guards all fields below */
+	private final Object lock = new Object();
+
+	/** */
+	private RandomAccessFile raf;
+
+	/** */
+	private FileChannel channel;
+
+	/** the records appended since the last batch was flushed */
+	private Batch batch = new Batch();
+
+	/** the batch being flushed, reused for the next */
+	private Batch spare = new Batch();
+
+	/** the symbol index of each clock identifier since the last mark */
+	private final Map<String, Integer> symbols = new HashMap<>();
+
+	/** the sequence of the last {@link #CHECKPOINT} record, 0 if none */
+	private long marked;
+
+	/** the file offset at the end of all appended records */
+	private long appended;
+
+	/** the file offset up to which records were written */
+	private long written;
+
+	/** the failure of the last flush, if any */
+	private IOException failure = null;
+
+	/** */
+	private boolean closed = false;
+
+	/** */
+	private final Thread flusher;
+
+	/**
+	 * {@link Journal} constructor, opening (or creating) the journal file and
+	 * truncating any torn or corrupt tail, e.g. left by a crash mid-write
+	 *
+	 * @param file the journal {@link File}
+	 * @param sync the {@link JournalSync} policy, or {@code null} for
+	 *            {@link JournalSync#BATCH}
+	 * @throws IOException
+	 */
+	public Journal(final File file, final JournalSync sync) throws IOException
+	{
+		this.file = file;
+		this.sync = sync == null ? JournalSync.BATCH : sync;
+		open(file);
+		this.flusher = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				flush();
+			}
+		}, "journal-" + file.getName());
+		this.flusher.setDaemon(true);
+		this.flusher.start();
+	}
+
+	private void open(final File file) throws IOException
+	{
+		this.raf = new RandomAccessFile(file, "rw");
+		this.channel = this.raf.getChannel();
+		final long size = this.channel.size();
+		if (size == 0)
+		{
+			final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).flip();
+			while (header.hasRemaining())
+				this.channel.write(header, HEADER_SIZE - header.remaining());
+			this.channel.force(true);
+			this.appended = HEADER_SIZE;
+			this.marked = 0;
+		} else
+		{
+			final List<String> symbols = new ArrayList<>();
+			final long end = scan(null, symbols, 0);
+			if (end < size)
+			{
+				LOG.warn("Truncating journal {} from {} to {} bytes", file,
+						size, end);
+				this.channel.truncate(end);
+				this.channel.force(true);
+			}
+			this.appended = end;
+			this.symbols.clear();
+			for (String symbol : symbols)
+				this.symbols.put(symbol, this.symbols.size());
+		}
+		this.written = this.appended;
+		this.channel.position(this.appended);
+	}
+
+	/**
+	 * @param handler the {@link Handler} to apply the records from the
+	 *            {@link #CHECKPOINT} to, or {@code null} to only validate
+	 * @param symbols the clock identifiers defined since the last
+	 *            {@link #CHECKPOINT}
+	 * @param from the sequence of the {@link #CHECKPOINT} record to apply the
+	 *            records from, or 0 to apply them all
+	 * @return the file offset at the end of the last valid record
+	 * @throws IOException if the file is no (supported) journal, or lacks
+	 *             the {@link #CHECKPOINT} record
+	 */
+	private long scan(final Handler handler, final List<String> symbols,
+			final long from) throws IOException
+	{
+		final long size = this.channel.size();
+		final Checkpoint.Input in = new Checkpoint.Input(this.channel.map(
+				FileChannel.MapMode.READ_ONLY, 0, size));
+		if (size < HEADER_SIZE || in.readInt() != MAGIC)
+			throw new IOException("Not a journal: " + this.file);
+		final int version = in.readInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported journal version " + version
+					+ ": " + this.file);
+		// find the valid end and the checkpoint to start from first
+		final ByteBuffer buffer = in.buffer;
+		final CRC32 crc = new CRC32();
+		final byte[] bytes = new byte[1 << 12];
+		int start = from == 0 ? HEADER_SIZE : -1;
+		long marked = 0;
+		while (buffer.remaining() >= FRAME_SIZE + 1)
+		{
+			final int position = buffer.position();
+			final int length = buffer.getInt();
+			if (length < 1 || length > buffer.remaining() - 4)
+				break;
+			crc.reset();
+			for (int i = 0; i < length; i += bytes.length)
+			{
+				final int n = Math.min(bytes.length, length - i);
+				buffer.get(bytes, 0, n);
+				crc.update(bytes, 0, n);
+			}
+			if (buffer.getInt() != (int) crc.getValue())
+			{
+				buffer.position(position);
+				break;
+			}
+			if (buffer.get(position + 4) == CHECKPOINT)
+			{
+				marked = buffer.getLong(position + 5);
+				if (marked == from)
+					start = position;
+			}
+		}
+		if (start < 0)
+			throw new IOException("No journal mark " + from + ": " + this.file);
+		this.marked = marked;
+		final int end = buffer.position();
+		// then apply the records since, i.e. at least its symbols
+		buffer.position(start);
+		while (buffer.position() < end)
+		{
+			final int length = buffer.getInt();
+			final int next = buffer.position() + length + 4;
+			final byte type = buffer.get();
+			if (type == CHECKPOINT)
+				symbols.clear();
+			else if (type == SYMBOL || handler != null)
+				apply(in, type, symbols, handler);
+			buffer.position(next);
+		}
+		return end;
+	}
+
+	private static void apply(final Checkpoint.Input in, final byte type,
+			final List<String> symbols, final Handler handler)
+			throws IOException
+	{
+		switch (type)
+		{
+		case SYMBOL:
+			final int index = in.readInt();
+			if (index != symbols.size())
+				throw new IOException("Unexpected journal symbol: " + index);
+			symbols.add(in.readString());
+			return;
+		case REGISTER:
+			handler.onRegister(readClock(in, symbols),
+					TriggerConfig.ID.valueOf(in.readString()),
+					in.readPattern());
+			return;
+		case UNREGISTER:
+			handler.onUnregister(TriggerConfig.ID.valueOf(in.readString()));
+			return;
+		case UPDATE_CLOCK:
+			handler.onUpdateClock(readConfig(in, symbols));
+			return;
+		case REMOVE_CLOCK:
+			handler.onRemoveClock(readClock(in, symbols));
+			return;
+		case PROGRESS:
+			handler.onProgress(readClock(in, symbols), in.readLong(),
+					readStatus(in));
+			return;
+		default:
+			throw new IOException("Unknown journal record type: " + type);
+		}
+	}
+
+	private static ClockConfig.ID readClock(final Checkpoint.Input in,
+			final List<String> symbols)
+	{
+		return ClockConfig.ID.valueOf(symbols.get(in.readInt()));
+	}
+
+	private static Status readStatus(final Checkpoint.Input in)
+	{
+		final byte ordinal = in.readByte();
+		return ordinal < 0 ? null : Status.values()[ordinal];
+	}
+
+	private static ClockConfig readConfig(final Checkpoint.Input in,
+			final List<String> symbols)
+	{
+		final ClockConfig.Builder result = ClockConfig.Builder.forID(readClock(
+				in, symbols));
+		final int mask = in.readByte();
+		if ((mask & FORK_PARENT) != 0)
+			result.withForkParentID(readClock(in, symbols));
+		if ((mask & FORK_TIME) != 0)
+			result.withForkTime(Duration.valueOfNanos(in.readLong()));
+		if ((mask & OFFSET) != 0)
+			result.withOffset(Instant.valueOfNanos(in.readLong()));
+		if ((mask & DRAG) != 0)
+			result.withDrag(Rate.valueOf(Double.longBitsToDouble(in
+					.readLong())));
+		if ((mask & STATUS) != 0)
+			result.withStatus(readStatus(in));
+		if ((mask & TIME) != 0)
+			result.withTime(Duration.valueOfNanos(in.readLong()));
+		if ((mask & UNTIL) != 0)
+			result.withUntil(Duration.valueOfNanos(in.readLong()));
+		return result.build();
+	}
+
+	/**
+	 * apply all records since a {@link #mark()}, i.e. those not yet reflected
+	 * by the {@link Checkpoint} committed after it. Later marks, e.g. of
+	 * {@link Checkpoint}s that failed, are passed over
+	 *
+	 * @param handler the {@link Handler} to apply the records to
+	 * @param from the {@link Mark#sequence} stored in the {@link Checkpoint},
+	 *            or 0 to apply all records
+	 * @throws IOException
+	 */
+	public void replay(final Handler handler, final long from)
+			throws IOException
+	{
+		synchronized (this.lock)
+		{
+			awaitWritten(this.appended);
+			scan(handler, new ArrayList<String>(), from);
+		}
+	}
+
+	/**
+	 * append a {@link #CHECKPOINT} record and wait until it is written and
+	 * forced, before taking the {@link Checkpoint} it marks. The mark only
+	 * applies once that {@link Checkpoint} stores its {@link Mark#sequence}
+	 *
+	 * @return the {@link Mark}, to {@link #compact} to afterwards
+	 */
+	public Mark mark()
+	{
+		final Mark result;
+		synchronized (this.lock)
+		{
+			result = new Mark(++this.marked, this.appended);
+			this.symbols.clear();
+			append(CHECKPOINT, null, null, null, null, result.sequence, null);
+			awaitWritten(this.appended);
+		}
+		force();
+		return result;
+	}
+
+	/**
+	 * drop the records before a {@link #mark()}, once its {@link Checkpoint}
+	 * was committed, by copying the remaining records to a new file that
+	 * atomically replaces the journal
+	 *
+	 * @param mark the {@link Mark} returned by {@link #mark()}
+	 */
+	public void compact(final Mark mark)
+	{
+		synchronized (this.lock)
+		{
+			awaitWritten(this.appended);
+			final File temp = new File(this.file.getPath() + ".tmp");
+			try
+			{
+				try (final RandomAccessFile copy = new RandomAccessFile(temp,
+						"rw"))
+				{
+					copy.setLength(0);
+					final FileChannel target = copy.getChannel();
+					final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+					header.putInt(MAGIC).putInt(VERSION).flip();
+					while (header.hasRemaining())
+						target.write(header);
+					for (long i = mark.offset; i < this.appended;)
+						i += this.channel.transferTo(i, this.appended - i,
+								target);
+					target.force(true);
+				}
+				this.raf.close();
+				Files.move(temp.toPath(), this.file.toPath(),
+						StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+				final long dropped = mark.offset - HEADER_SIZE;
+				open(this.file);
+				LOG.trace("Compacted journal {}, dropped {} bytes", this.file,
+						dropped);
+			} catch (final IOException e)
+			{
+				throw ExceptionBuilder.unchecked(
+						"Problem compacting journal: " + this.file, e).build();
+			}
+		}
+	}
+
+	public void register(final ClockConfig.ID clockId,
+			final TriggerConfig.ID triggerId, final TriggerPattern pattern)
+	{
+		append(REGISTER, clockId, triggerId, pattern, null, 0, null);
+	}
+
+	public void unregister(final TriggerConfig.ID triggerId)
+	{
+		append(UNREGISTER, null, triggerId, null, null, 0, null);
+	}
+
+	public void updateClock(final ClockConfig config)
+	{
+		append(UPDATE_CLOCK, config.id(), null, null, config, 0, null);
+	}
+
+	public void removeClock(final ClockConfig.ID clockId)
+	{
+		append(REMOVE_CLOCK, clockId, null, null, null, 0, null);
+	}
+
+	/**
+	 * @param clockId the {@link ClockConfig.ID} of the clock
+	 * @param nanos the (absolute) time dispatched, in nanoseconds
+	 * @param status the clock's {@link Status}, or {@code null}
+	 */
+	public void progress(final ClockConfig.ID clockId, final long nanos,
+			final Status status)
+	{
+		append(PROGRESS, clockId, null, null, null, nanos, status);
+	}
+
+	private void append(final byte type, final ClockConfig.ID clockId,
+			final TriggerConfig.ID triggerId, final TriggerPattern pattern,
+			final ClockConfig config, final long nanos, final Status status)
+	{
+		final long sequence;
+		synchronized (this.lock)
+		{
+			if (this.closed)
+				throw ExceptionBuilder.unchecked(
+						"Journal closed: " + this.file).build();
+			checkFailure();
+			final Batch out = this.batch;
+			final int size = out.size();
+			try
+			{
+				final int clock = clockId == null ? -1 : symbol(clockId);
+				final int parent = config == null
+						|| config.forkParentID() == null ? -1 : symbol(config
+						.forkParentID());
+				out.begin(type);
+				switch (type)
+				{
+				case CHECKPOINT:
+					out.writeLong(nanos);
+					break;
+				case REGISTER:
+					out.writeInt(clock);
+					out.writeString(triggerId.getValue());
+					out.writePattern(pattern);
+					break;
+				case UNREGISTER:
+					out.writeString(triggerId.getValue());
+					break;
+				case UPDATE_CLOCK:
+					writeConfig(out, clock, parent, config);
+					break;
+				case REMOVE_CLOCK:
+					out.writeInt(clock);
+					break;
+				case PROGRESS:
+					out.writeInt(clock);
+					out.writeLong(nanos);
+					out.writeByte(status == null ? -1 : (byte) status
+							.ordinal());
+					break;
+				default:
+				}
+				out.end();
+			} catch (final IOException e)
+			{
+				// heap buffers don't fail
+				throw ExceptionBuilder.unchecked(
+						"Problem appending to journal: " + this.file, e)
+						.build();
+			}
+			this.appended += out.size() - size;
+			sequence = this.appended;
+			this.lock.notifyAll();
+			if (this.sync == JournalSync.ALWAYS)
+				awaitWritten(sequence);
+		}
+	}
+
+	/** @return the symbol index, appending a {@link #SYMBOL} if it's new */
+	private int symbol(final ClockConfig.ID clockId) throws IOException
+	{
+		final String value = clockId.getValue();
+		Integer result = this.symbols.get(value);
+		if (result == null)
+		{
+			result = this.symbols.size();
+			this.symbols.put(value, result);
+			this.batch.begin(SYMBOL);
+			this.batch.writeInt(result);
+			this.batch.writeString(value);
+			this.batch.end();
+		}
+		return result;
+	}
+
+	private static void writeConfig(final Checkpoint.Output out,
+			final int clock, final int parent, final ClockConfig config)
+			throws IOException
+	{
+		out.writeInt(clock);
+		final Duration forkTime = config.forkTime();
+		final Instant offset = config.offset();
+		final Rate drag = config.drag();
+		final Status status = config.status();
+		final Duration time = config.time();
+		final Duration until = config.until();
+		out.writeByte((byte) ((parent < 0 ? 0 : FORK_PARENT)
+				| (forkTime == null ? 0 : FORK_TIME)
+				| (offset == null ? 0 : OFFSET) | (drag == null ? 0 : DRAG)
+				| (status == null ? 0 : STATUS) | (time == null ? 0 : TIME) | (until == null ? 0
+				: UNTIL)));
+		if (parent >= 0)
+			out.writeInt(parent);
+		if (forkTime != null)
+			out.writeLong(forkTime.toNanosLong());
+		if (offset != null)
+			out.writeLong(offset.toNanosLong());
+		if (drag != null)
+			out.writeLong(Double.doubleToLongBits(drag.doubleValue(Unit.ONE)));
+		if (status != null)
+			out.writeByte((byte) status.ordinal());
+		if (time != null)
+			out.writeLong(time.toNanosLong());
+		if (until != null)
+			out.writeLong(until.toNanosLong());
+	}
+
+	private void checkFailure()
+	{
+		if (this.failure != null)
+			throw ExceptionBuilder.unchecked(
+					"Problem writing journal: " + this.file, this.failure)
+					.build();
+	}
+
+	/** wait, holding the {@link #lock}, until the offset was written */
+	private void awaitWritten(final long offset)
+	{
+		while (this.written < offset)
+		{
+			checkFailure();
+			if (this.closed)
+				return;
+			try
+			{
+				this.lock.wait();
+			} catch (final InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw ExceptionBuilder.unchecked(
+						"Interrupted awaiting journal: " + this.file, e)
+						.build();
+			}
+		}
+		checkFailure();
+	}
+
+	private void force()
+	{
+		try
+		{
+			this.channel.force(false);
+		} catch (final IOException e)
+		{
+			throw ExceptionBuilder.unchecked(
+					"Problem forcing journal: " + this.file, e).build();
+		}
+	}
+
+	/** the {@link #flusher}'s loop, writing each batch in one go */
+	private void flush()
+	{
+		while (true)
+		{
+			final Batch out;
+			final FileChannel channel;
+			final long offset;
+			synchronized (this.lock)
+			{
+				while (this.batch.size() == 0 && !this.closed)
+					try
+					{
+						this.lock.wait();
+					} catch (final InterruptedException e)
+					{
+						return;
+					}
+				if (this.batch.size() == 0)
+					return;
+				out = this.batch;
+				this.batch = this.spare;
+				this.spare = out;
+				channel = this.channel;
+				offset = this.appended;
+			}
+			IOException failure = null;
+			try
+			{
+				final ByteBuffer buffer = out.buffer;
+				buffer.flip();
+				while (buffer.hasRemaining())
+					channel.write(buffer);
+				if (this.sync != JournalSync.NONE)
+					channel.force(false);
+			} catch (final IOException e)
+			{
+				failure = e;
+			}
+			out.buffer.clear();
+			synchronized (this.lock)
+			{
+				if (failure == null)
+					this.written = offset;
+				else
+					this.failure = failure;
+				this.lock.notifyAll();
+			}
+		}
+	}
+
+	/** flush all appended records, then close the file */
+	@Override
+	public void close() throws IOException
+	{
+		synchronized (this.lock)
+		{
+			awaitWritten(this.appended);
+			this.closed = true;
+			this.lock.notifyAll();
+		}
+		try
+		{
+			this.flusher.join();
+		} catch (final InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		this.channel.force(true);
+		this.raf.close();
+	}
+}
@@ -0,0 +1,269 @@
+/* $Id$
+ * $URL$
+ * 
+ * Part of the EU project Inertia, see http://www.inertia-project.eu/
+ * 
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * Copyright (c) 2014 Almende B.V. 
+ */
+package com.almende.timecontrol;
+
+import java.util.concurrent.locks.LockSupport;
+
+import rx.Observable;
+import rx.subjects.PublishSubject;
+import rx.subjects.Subject;
+
+import com.almende.timecontrol.time.Duration;
+
+/**
+ * {@link Pacer} maps simulated time to wall-clock deadlines on the
+ * {@link System#nanoTime()} scale, given some drag (i.e. wall-clock
+ * milliseconds per simulated millisecond) since the last {@link #reset}:
+ * 
+ * <pre>
+ * deadline = t_wall0 + (t_sim - t_sim0) * drag
+ * </pre>
+ * 
+ * Callers either {@link #await} a deadline (blocking), or park their
+ * continuation elsewhere until {@link #remaining} drops below the
+ * {@link #getSpinNanos() spin threshold}, then {@link #spin} the rest. Each
+ * occurrence should be {@link #report reported} to track the pacing error,
+ * i.e. actual minus target wall time. Wall-clock time is read from some
+ * {@link Ticker}, {@link Ticker#SYSTEM} by default.
+ * 
+ * @date $Date$
+ * @version $Id$
+ * @author <a href="mailto:rick@almende.org">rick</a>
+ */
+public class Pacer
+{
+
+	/**
+	 * {@link Ticker} provides the wall-clock time on the
+	 * {@link System#nanoTime()} scale
+	 */
+	public interface Ticker
+	{
+		/** the {@link Ticker} reading {@link System#nanoTime()} */
+		Ticker SYSTEM = new Ticker()
+		{
+			@Override
+			public long nanoTime()
+			{
+				return System.nanoTime();
+			}
+		};
+
+		/** @return the current wall-clock time in nanoseconds */
+		long nanoTime();
+	}
+
+	/**
+	 * {@link Anchor} is the immutable pace set by some {@link #reset}, so
+	 * {@link #deadline} never mixes old and new values
+	 */
+	private static class Anchor
+	{
+		/** the wall-clock nanoseconds at the {@link #reset} */
+		final long wallOrigin;
+
+		/** the simulated time (in milliseconds) at the {@link #reset} */
+		final double simOrigin;
+
+		/** wall-clock per simulated milliseconds, or {@code <= 0} if unpaced */
+		final double drag;
+
+		Anchor(final long wallOrigin, final double simOrigin, final double drag)
+		{
+			this.wallOrigin = wallOrigin;
+			this.simOrigin = simOrigin;
+			this.drag = drag;
+		}
+	}
+
+	/** */
+	private static final double NANOS_PER_MILLI = 1000000d;
+
+	/** the final nanoseconds to spin rather than sleep before a deadline */
+	private final long spinNanos;
+
+	/** */
+	private final Ticker ticker;
+
+	/** the pace set at the last {@link #reset} */
+	private volatile Anchor anchor;
+
+	/** */
+	private final Subject<Long, Long> errors = PublishSubject.create();
+
+	/** */
+	private long count = 0;
+
+	/** */
+	private long errorSum = 0;
+
+	/** */
+	private long errorMax = Long.MIN_VALUE;
+
+	/**
+	 * {@link Pacer} constructor
+	 * 
+	 * @param spinThreshold the wall-clock {@link Duration} to spin before each
+	 *            deadline, or {@code null} to only sleep
+	 */
+	public Pacer(final Duration spinThreshold)
+	{
+		this(spinThreshold, Ticker.SYSTEM);
+	}
+
+	/**
+	 * {@link Pacer} constructor
+	 * 
+	 * @param spinThreshold the wall-clock {@link Duration} to spin before each
+	 *            deadline, or {@code null} to only sleep
+	 * @param ticker the {@link Ticker} providing the wall-clock time
+	 */
+	public Pacer(final Duration spinThreshold, final Ticker ticker)
+	{
+		this.spinNanos = spinThreshold == null ? 0L : Math.max(0L,
+				spinThreshold.toNanosLong());
+		this.ticker = ticker;
+		this.anchor = new Anchor(ticker.nanoTime(), 0, 0);
+	}
+
+	/**
+	 * anchor the pace at the current wall-clock time
+	 * 
+	 * @param simMillis the current simulated time in milliseconds
+	 * @param drag the wall-clock per simulated milliseconds, or {@code null}
+	 *            or {@code <= 0} for no pacing
+	 */
+	public void reset(final double simMillis, final Number drag)
+	{
+		this.anchor = new Anchor(this.ticker.nanoTime(), simMillis,
+				drag == null ? 0 : drag.doubleValue());
+	}
+
+	/** @return {@code true} iff deadlines lie ahead of the current time */
+	public boolean isPaced()
+	{
+		return this.anchor.drag > 0;
+	}
+
+	/** @return the final nanoseconds to spin rather than sleep */
+	public long getSpinNanos()
+	{
+		return this.spinNanos;
+	}
+
+	/**
+	 * @param simMillis the simulated time in milliseconds
+	 * @return the {@link System#nanoTime()} at which specified simulated time
+	 *         should occur
+	 */
+	public long deadline(final double simMillis)
+	{
+		final Anchor anchor = this.anchor;
+		return anchor.drag <= 0 ? anchor.wallOrigin : anchor.wallOrigin
+				+ (long) ((simMillis - anchor.simOrigin) * anchor.drag
+						* NANOS_PER_MILLI);
+	}
+
+	/**
+	 * @param deadline the {@link System#nanoTime()} to reach
+	 * @return the nanoseconds until specified deadline, {@code <= 0} if passed
+	 */
+	public long remaining(final long deadline)
+	{
+		return deadline - this.ticker.nanoTime();
+	}
+
+	/**
+	 * busy-wait (without sleeping) until specified deadline
+	 * 
+	 * @param deadline the {@link System#nanoTime()} to reach
+	 */
+	public void spin(final long deadline)
+	{
+		while (deadline - this.ticker.nanoTime() > 0)
+			if (Thread.currentThread().isInterrupted())
+				return;
+	}
+
+	/**
+	 * block the current thread until specified deadline, sleeping until the
+	 * {@link #getSpinNanos() spin threshold} and spinning the rest
+	 * 
+	 * @param deadline the {@link System#nanoTime()} to reach
+	 */
+	public void await(final long deadline)
+	{
+		long remaining;
+		while ((remaining = remaining(deadline)) > this.spinNanos)
+		{
+			LockSupport.parkNanos(remaining - this.spinNanos);
+			if (Thread.currentThread().isInterrupted())
+				return;
+		}
+		spin(deadline);
+	}
+
+	/**
+	 * @param deadline the {@link System#nanoTime()} that was targeted
+	 * @return the pacing error in nanoseconds, i.e. actual minus target wall
+	 *         time
+	 */
+	public long report(final long deadline)
+	{
+		final long error = this.ticker.nanoTime() - deadline;
+		synchronized (this)
+		{
+			this.count++;
+			this.errorSum += error;
+			if (error > this.errorMax)
+				this.errorMax = error;
+		}
+		this.errors.onNext(error);
+		return error;
+	}
+
+	/**
+	 * @return an {@link Observable} of the pacing error per reported event, in
+	 *         nanoseconds
+	 */
+	public Observable<Long> errors()
+	{
+		return this.errors.asObservable();
+	}
+
+	/** @return the number of reported events */
+	public synchronized long getCount()
+	{
+		return this.count;
+	}
+
+	/** @return the mean pacing error in nanoseconds, or {@code 0} if none */
+	public synchronized long getMeanErrorNanos()
+	{
+		return this.count == 0 ? 0 : this.errorSum / this.count;
+	}
+
+	/** @return the maximum pacing error in nanoseconds, or {@code 0} if none */
+	public synchronized long getMaxErrorNanos()
+	{
+		return this.count == 0 ? 0 : this.errorMax;
+	}
+}
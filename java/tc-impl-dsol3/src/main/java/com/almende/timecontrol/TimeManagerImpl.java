@@ -1,13 +1,18 @@
 package com.almende.timecontrol;
 
 import io.coala.error.ExceptionBuilder;
+import io.coala.util.JsonUtil;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.inject.Provider;
 
@@ -18,21 +23,28 @@ import org.joda.time.DateTime;
 import rx.Observable;
 import rx.Observable.OnSubscribe;
 import rx.Subscriber;
+import rx.observers.Subscribers;
 
 import com.almende.timecontrol.api.TimeManagerAPI;
 import com.almende.timecontrol.entity.ClockConfig;
+import com.almende.timecontrol.entity.ClockConfig.Status;
 import com.almende.timecontrol.entity.ClockEvent;
 import com.almende.timecontrol.entity.ClockStatus;
 import com.almende.timecontrol.entity.TimerConfig;
 import com.almende.timecontrol.entity.TimerStatus;
+import com.almende.timecontrol.entity.TriggerConfig;
 import com.almende.timecontrol.entity.TriggerEvent;
 import com.almende.timecontrol.entity.TriggerStatus;
+import com.almende.timecontrol.rx.AckWindow;
+import com.almende.timecontrol.rx.ClockEventCoalescer;
+import com.almende.timecontrol.rx.Coordinator;
 import com.almende.timecontrol.rx.RxClock;
 import com.almende.timecontrol.time.Duration;
 import com.almende.timecontrol.time.Instant;
 import com.almende.timecontrol.time.Rate;
 import com.almende.timecontrol.time.TriggerPattern;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.JsonNode;
 
 /**
  * {@link TimeManagerImpl}
@@ -57,6 +69,18 @@ public class TimeManagerImpl implements TimeManagerAPI
 
 	private final Provider<ClockTuple> clockProvider;
 
+	/** the {@link Journal} of changes since the last checkpoint, if any */
+	private volatile Journal journal = null;
+
+	/** the {@link DispatchLog.Recorder} of all clocks, if any */
+	private volatile DispatchLog.Recorder recorder = null;
+
+	/** the {@link Coordinator} of any {@link #link linked} clocks */
+	private Coordinator coordinator = null;
+
+	/** the clock of each registered trigger, for {@link #unregisterTrigger} */
+	private final ConcurrentMap<TriggerConfig.ID, ClockTuple> owners = new ConcurrentHashMap<>();
+
 	/**
 	 * {@link TimeManagerImpl} constructor
 	 * 
@@ -79,6 +103,20 @@ public class TimeManagerImpl implements TimeManagerAPI
 		return this.config;
 	}
 
+	/**
+	 * @param config the {@link ClockConfig} of the new clock
+	 * @return a new {@link ClockTuple} reset for this timer
+	 */
+	protected ClockTuple newClock(final ClockConfig config)
+	{
+		final ClockTuple result = this.clockProvider.get().reset(
+				getTimerConfig(), config);
+		result.journal = this.journal;
+		result.recorder = this.recorder;
+		result.owners = this.owners;
+		return result;
+	}
+
 	@JsonIgnore
 	protected ClockTuple getClockTuple(final ClockConfig.ID clockId)
 	{
@@ -107,7 +145,7 @@ public class TimeManagerImpl implements TimeManagerAPI
 	{
 		final List<ClockStatus> result = new ArrayList<>();
 		for (ClockTuple clock : this.clocks.values())
-			result.add(ClockStatus.Builder.fromConfig(clock.config)
+			result.add(ClockStatus.Builder.fromConfig(clock.getConfig())
 					.withTriggers(getTriggersStatus(clock.config.id())).build());
 		return result;
 	}
@@ -131,7 +169,7 @@ public class TimeManagerImpl implements TimeManagerAPI
 	@Override
 	public ClockConfig getClock(final ClockConfig.ID clockId)
 	{
-		final ClockConfig result = getClockTuple(clockId).config;
+		final ClockConfig result = getClockTuple(clockId).getConfig();
 		LOG.trace("Found clock {} config: {}", clockId, result);
 		return result;
 	}
@@ -147,17 +185,30 @@ public class TimeManagerImpl implements TimeManagerAPI
 			result = this.clocks.get(clockId);
 			if (result == null)
 			{
-				this.clocks
-						.put(clockId, this.clockProvider.get().reset(config));
+				final ClockTuple clock = newClock(config);
+				final ClockConfig.ID parentId = config.forkParentID();
+				if (parentId != null)
+				{
+					final ClockTuple parent = this.clocks.get(parentId);
+					if (parent == null)
+						throw ExceptionBuilder.unchecked(
+								"Can't fork clock " + clockId
+										+ " from unknown parent: " + parentId)
+								.build();
+					clock.fork(parent);
+				}
+				this.clocks.put(clockId, clock);
 				LOG.trace("{} updating new clock {}", this.config.id(), config);
 			}
 		}
 		if (result != null)
+		{
+			final ClockConfig current = result.getConfig();
 			for (String key : config.propertyNames())
 			{
 				if (key.equals(TimeControl.ID_KEY))
 					continue;
-				final String oldValue = this.config.getProperty(key);
+				final String oldValue = current.getProperty(key);
 				final String newValue = config.getProperty(key);
 
 				// LOG.trace("Checking clock property {}", key);
@@ -165,16 +216,19 @@ public class TimeManagerImpl implements TimeManagerAPI
 				// ignore if unchanged
 				if (oldValue == newValue
 						|| (oldValue != null && oldValue.equals(newValue)))
-					return;
+					continue;
 
 				// LOG.trace("Updating clock config {} => {}", key, newValue);
 
-				if (result.config != null)
-					result.config.setProperty(key, newValue);
+				current.setProperty(key, newValue);
 				result.onChange(key, newValue);
 				// if (key.equals(TimeControl.DRAG_KEY))
 				// reschedule(clockId, config.drag());
 			}
+		}
+		final Journal journal = this.journal;
+		if (journal != null)
+			journal.updateClock(config);
 	}
 
 	@Override
@@ -205,14 +259,15 @@ public class TimeManagerImpl implements TimeManagerAPI
 					throw ExceptionBuilder.unchecked(
 							"CLOCK UNKNOWN: " + clockId).build();
 
-				clock = this.clockProvider.get().reset(
-						new ClockConfig.Builder().withId(clockId).build());
+				clock = newClock(new ClockConfig.Builder().withId(clockId)
+						.build());
 				this.clocks.put(clockId, clock);
 				LOG.warn("Root clock not initialized, using defaults: "
 						+ clock.config);
 
 			}
-			return clock.events.asObservable();
+			return ClockEventCoalescer.coalesce(clock.events.asObservable(),
+					cfg);
 		}
 	}
 
@@ -223,6 +278,9 @@ public class TimeManagerImpl implements TimeManagerAPI
 			throw ExceptionBuilder.unchecked(
 					"Can't remove root clock: " + clockId).build();
 		destroyClock(clockId);
+		final Journal journal = this.journal;
+		if (journal != null)
+			journal.removeClock(clockId);
 	}
 
 	@Override
@@ -256,35 +314,370 @@ public class TimeManagerImpl implements TimeManagerAPI
 			@Override
 			public void call(final Subscriber<? super TriggerEvent> sub)
 			{
-				pattern.asObservable().subscribe(new Subscriber<Instant>()
+				journal(clockId, clock.register(pattern, sub));
+			}
+		});
+	}
+
+	@Override
+	public Observable<TriggerEvent> registerTrigger(final ClockConfig.ID id,
+			final TriggerConfig trigger)
+	{
+		final ClockConfig.ID clockId = id == null ? getTimerConfig()
+				.rootClockId() : id;
+		LOG.trace("Registering trigger {} on clock {}", trigger, clockId);
+
+		final ClockTuple clock;
+		synchronized (this.clocks)
+		{
+			clock = this.clocks.get(clockId);
+		}
+		if (clock == null)
+		{
+			LOG.warn("Could not schedule trigger, clock not found {}", id);
+			return Observable.empty();
+		}
+		final TriggerConfig.ID triggerId = trigger.id();
+		final TriggerPattern pattern = trigger.pattern();
+		// only schedule pattern if anyone is actually listening
+		return Observable.create(new OnSubscribe<TriggerEvent>()
+		{
+			@Override
+			public void call(final Subscriber<? super TriggerEvent> sub)
+			{
+				journal(clockId, triggerId == null ? clock.register(pattern,
+						sub) : clock.register(triggerId, pattern, sub));
+			}
+		});
+	}
+
+	/**
+	 * @param clockId the {@link ClockConfig.ID} of the clock registered with
+	 * @param trigger the registered {@link TriggerTuple} to journal, if any
+	 */
+	protected void journal(final ClockConfig.ID clockId,
+			final TriggerTuple trigger)
+	{
+		final Journal journal = this.journal;
+		if (journal != null)
+			journal.register(clockId, trigger.getID(), trigger.getPattern());
+	}
+
+	/**
+	 * looks up the trigger's clock in the {@link #owners} index, filled on
+	 * registration and cleared as the trigger leaves, fires its last or its
+	 * clock is removed, so unregistering takes O(1) plus the O(log n) removal
+	 * of any pending occurrence
+	 */
+	@Override
+	public void unregisterTrigger(final TriggerConfig.ID triggerId)
+	{
+		final ClockTuple clock = this.owners.get(triggerId);
+		if (clock != null && clock.unregister(triggerId))
+		{
+			LOG.trace("Unregistered trigger {} from clock {}", triggerId,
+					clock.configID);
+			final Journal journal = this.journal;
+			if (journal != null)
+				journal.unregister(triggerId);
+			return;
+		}
+		LOG.trace("Trigger not (or no longer) registered: {}", triggerId);
+	}
+
+	/**
+	 * synchronize two clocks conservatively, so they may run in parallel
+	 * while the target never dispatches a time the source may still affect
+	 * 
+	 * @param sourceId the {@link ClockConfig.ID} of the affecting clock
+	 * @param targetId the {@link ClockConfig.ID} of the affected clock
+	 * @param lookahead the minimum (positive) {@link Duration} between a
+	 *            source time and its effect on the target, e.g. by
+	 *            registering a trigger there
+	 * @see Coordinator
+	 */
+	public void link(final ClockConfig.ID sourceId,
+			final ClockConfig.ID targetId, final Duration lookahead)
+	{
+		synchronized (this.clocks)
+		{
+			final ClockTuple source = this.clocks.get(sourceId);
+			final ClockTuple target = this.clocks.get(targetId);
+			if (!(source instanceof RxClock) || !(target instanceof RxClock))
+				throw ExceptionBuilder.unchecked(
+						"Can't link clock " + sourceId + " (" + source
+								+ ") to " + targetId + " (" + target + ")")
+						.build();
+			if (this.coordinator == null)
+				this.coordinator = new Coordinator();
+			this.coordinator.link((RxClock) source, (RxClock) target,
+					lookahead);
+		}
+	}
+
+	/**
+	 * hold a clock to the acknowledgements of its observers, so it dispatches
+	 * at most some number of instants beyond the slowest one
+	 * 
+	 * @param clockId the {@link ClockConfig.ID} of the clock to hold
+	 * @param size the (positive) number of unacknowledged instants to dispatch
+	 * @return the clock's new {@link AckWindow}
+	 * @see AckWindow
+	 */
+	public AckWindow hold(final ClockConfig.ID clockId, final int size)
+	{
+		synchronized (this.clocks)
+		{
+			final ClockTuple clock = this.clocks.get(clockId);
+			if (!(clock instanceof RxClock))
+				throw ExceptionBuilder.unchecked(
+						"Can't hold clock " + clockId + " (" + clock
+								+ ") to acknowledgements").build();
+			return AckWindow.attach((RxClock) clock, size);
+		}
+	}
+
+	/**
+	 * write a {@link Checkpoint} of the {@link Journal.Mark} it follows, the
+	 * {@link TimerConfig} and each clock's state and pending triggers, then
+	 * drop the {@link Journal} records it covers, if any
+	 * 
+	 * @param file the {@link File} to (over)write
+	 */
+	public void checkpoint(final File file)
+	{
+		final Journal journal = this.journal;
+		final Journal.Mark mark = journal == null ? null : journal.mark();
+		try (final Checkpoint.Writer out = new Checkpoint.Writer(file))
+		{
+			out.writeLong(mark == null ? 0 : mark.sequence);
+			out.writeJSON(getTimerConfig(), TimerConfig.class);
+			synchronized (this.clocks)
+			{
+				out.writeInt(this.clocks.size());
+				for (ClockTuple clock : this.clocks.values())
+				{
+					// the bean serializer may not render the id
+					out.writeString(clock.configID);
+					out.writeJSON(clock.getConfig(), ClockConfig.class);
+					clock.writeTo(out);
+				}
+			}
+			out.commit();
+		} catch (final IOException e)
+		{
+			throw ExceptionBuilder.unchecked(
+					"Problem writing checkpoint: " + file, e).build();
+		}
+		if (journal != null)
+			journal.compact(mark);
+		LOG.trace("{} checkpointed to {}", this.config.id(), file);
+	}
+
+	/**
+	 * replace the {@link TimerConfig} and all clocks by those of a
+	 * {@link #checkpoint}, resuming the clocks that were running
+	 * 
+	 * @param file the {@link File} to read
+	 */
+	public void restore(final File file)
+	{
+		recover(file, null);
+	}
+
+	/**
+	 * replace the {@link TimerConfig} and all clocks by those of a
+	 * {@link #checkpoint} (if any), replay the {@link Journal} records
+	 * appended since, then keep journaling to it and resume the clocks that
+	 * were running. Occurrences at the last journaled time of each clock are
+	 * dispatched again, and registrations resume without subscribers
+	 * 
+	 * @param checkpoint the {@link Checkpoint} {@link File}, or {@code null}
+	 * @param journal the {@link Journal} {@link File} to replay and append
+	 *            to, or {@code null} to stop journaling
+	 */
+	public void recover(final File checkpoint, final File journal)
+	{
+		final Map<ClockConfig.ID, Status> statuses = new TreeMap<>();
+		synchronized (this.clocks)
+		{
+			closeJournal();
+			long mark = 0;
+			if (checkpoint != null && checkpoint.exists())
+				mark = read(checkpoint, statuses);
+			if (journal != null)
+				replay(journal, mark, statuses);
+			for (Map.Entry<ClockConfig.ID, ClockTuple> entry : this.clocks
+					.entrySet())
+			{
+				final ClockTuple clock = entry.getValue();
+				final ClockState state = clock.getState();
+				final Status status = statuses.containsKey(entry.getKey()) ? statuses
+						.get(entry.getKey()) : state.getStatus();
+				clock.restore(state.getTimeNanos(),
+						status == Status.RUNNING ? Status.WAITING : status);
+				clock.journal = this.journal;
+				if (status == Status.RUNNING)
+					clock.setStatus(Status.RUNNING);
+			}
+		}
+		LOG.trace("{} recovered from {} and {}", this.config.id(), checkpoint,
+				journal);
+	}
+
+	/**
+	 * @param file the {@link Checkpoint} {@link File} to restore from
+	 * @param statuses the {@link Status} of each restored clock as written,
+	 *            to update
+	 * @return the {@link Journal.Mark#sequence} to replay from, or 0
+	 */
+	private long read(final File file,
+			final Map<ClockConfig.ID, Status> statuses)
+	{
+		try (final Checkpoint.Reader in = new Checkpoint.Reader(file))
+		{
+			final long result = in.readLong();
+			final TimerConfig timer = JsonUtil.valueOf(in.readString(),
+					TimerConfig.class);
+			for (ClockConfig.ID id : new ArrayList<>(this.clocks.keySet()))
+				destroyClock(id);
+			setTimerConfig(timer);
+			for (int i = in.readInt(); i > 0; i--)
+			{
+				final ClockConfig.ID id = ClockConfig.ID.valueOf(in
+						.readString());
+				final JsonNode tree = JsonUtil.toTree(in.readString());
+				final ClockConfig config = ClockConfig.Builder.fromJSON(tree)
+						.withId(id).withOffset(tree.get(TimeControl.OFFSET_KEY))
+						.build();
+				final ClockTuple clock = newClock(config);
+				statuses.put(id, clock.readFrom(in));
+				this.clocks.put(config.id(), clock);
+			}
+			return result;
+		} catch (final IOException e)
+		{
+			throw ExceptionBuilder.unchecked(
+					"Problem reading checkpoint: " + file, e).build();
+		}
+	}
+
+	/**
+	 * @param file the {@link Journal} {@link File} to replay, then append to
+	 * @param mark the {@link Journal.Mark#sequence} to replay from, or 0
+	 * @param statuses the {@link Status} of each clock, to update
+	 */
+	private void replay(final File file, final long mark,
+			final Map<ClockConfig.ID, Status> statuses)
+	{
+		final TimerConfig timer = getTimerConfig();
+		try
+		{
+			final Journal result = new Journal(file, timer == null ? null
+					: timer.journalSync());
+			result.replay(new Journal.Handler()
+			{
+				@Override
+				public void onRegister(final ClockConfig.ID clockId,
+						final TriggerConfig.ID triggerId,
+						final TriggerPattern pattern)
+				{
+					final ClockTuple clock = clocks.get(clockId);
+					if (clock == null)
+						LOG.warn("Ignoring trigger {} of unknown clock {}",
+								triggerId, clockId);
+					else
+						clock.register(triggerId, pattern,
+								Subscribers.<TriggerEvent> empty());
+				}
+
+				@Override
+				public void onUnregister(final TriggerConfig.ID triggerId)
 				{
-					private Instant previous = null;
+					unregisterTrigger(triggerId);
+				}
 
-					@Override
-					public void onCompleted()
-					{
-						if (this.previous != null)
-							clock.schedule(pattern, this.previous, true, sub);
-					}
+				@Override
+				public void onUpdateClock(final ClockConfig config)
+				{
+					updateClock(config);
+				}
 
-					@Override
-					public void onError(final Throwable e)
-					{
-						// if (this.previous != null)
-						// clock.schedule(pattern, this.previous, true, sub);
-						sub.onError(e);
-					}
+				@Override
+				public void onRemoveClock(final ClockConfig.ID clockId)
+				{
+					destroyClock(clockId);
+					statuses.remove(clockId);
+				}
 
-					@Override
-					public void onNext(final Instant time)
-					{
-						if (this.previous != null)
-							clock.schedule(pattern, this.previous, false, sub);
-						this.previous = time;
-					}
-				});
+				@Override
+				public void onProgress(final ClockConfig.ID clockId,
+						final long nanos, final Status status)
+				{
+					final ClockTuple clock = clocks.get(clockId);
+					if (clock == null)
+						return;
+					clock.skipTo(nanos, status);
+					statuses.put(clockId, status);
+				}
+			}, mark);
+			this.journal = result;
+		} catch (final IOException e)
+		{
+			throw ExceptionBuilder.unchecked(
+					"Problem replaying journal: " + file, e).build();
+		}
+	}
+
+	/** stop journaling, flushing and closing the {@link Journal} if any */
+	protected void closeJournal()
+	{
+		final Journal journal = this.journal;
+		if (journal == null)
+			return;
+		this.journal = null;
+		synchronized (this.clocks)
+		{
+			for (ClockTuple clock : this.clocks.values())
+				clock.journal = null;
+		}
+		try
+		{
+			journal.close();
+		} catch (final IOException e)
+		{
+			throw ExceptionBuilder.unchecked("Problem closing journal", e)
+					.build();
+		}
+	}
+
+	/**
+	 * record the order in which all clocks notify their triggers to a
+	 * {@link DispatchLog}, to {@link DispatchLog.Replayer replay} offline
+	 * 
+	 * @param file the {@link File} to (over)write, or {@code null} to stop
+	 *            recording
+	 */
+	public void record(final File file)
+	{
+		synchronized (this.clocks)
+		{
+			final DispatchLog.Recorder old = this.recorder;
+			try
+			{
+				final DispatchLog.Recorder result = file == null ? null
+						: new DispatchLog.Recorder(file);
+				this.recorder = result;
+				for (ClockTuple clock : this.clocks.values())
+					clock.recorder = result;
+				if (old != null)
+					old.close();
+			} catch (final IOException e)
+			{
+				throw ExceptionBuilder.unchecked(
+						"Problem recording dispatch to: " + file, e).build();
 			}
-		});
+		}
 	}
 
 	protected void destroyClock(final ClockConfig.ID clockId)
@@ -300,10 +693,12 @@ public class TimeManagerImpl implements TimeManagerAPI
 	@Override
 	public void destroy()
 	{
+		closeJournal();
+		record(null);
 		// destroy all clocks
 		synchronized (this.clocks)
 		{
-			for (ClockConfig.ID id : this.clocks.keySet())
+			for (ClockConfig.ID id : new ArrayList<>(this.clocks.keySet()))
 				destroyClock(id);
 		}
 	}
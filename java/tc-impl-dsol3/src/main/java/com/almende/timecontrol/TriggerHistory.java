@@ -0,0 +1,240 @@
+/* $Id$
+ * $URL$
+ * 
+ * Part of the EU project Inertia, see http://www.inertia-project.eu/
+ * 
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * Copyright (c) 2014 Almende B.V. 
+ */
+package com.almende.timecontrol;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.almende.timecontrol.entity.TriggerConfig;
+import com.almende.timecontrol.entity.TriggerEvent;
+import com.almende.timecontrol.time.Duration;
+import com.eaio.uuid.UUID;
+
+/**
+ * {@link TriggerHistory} retains the latest occurrences of a single trigger in
+ * primitive columns (time in nanoseconds, event {@link UUID} and last-call
+ * flag) of a ring buffer, materializing {@link TriggerEvent}s only on
+ * {@link #toEvents demand}. Retention is bounded by a maximum size and/or a
+ * simulated time window before the latest occurrence.
+ * 
+ * @date $Date$
+ * @version $Id$
+ * @author <a href="mailto:rick@almende.org">rick</a>
+ */
+public class TriggerHistory
+{
+
+	/** the default maximum number of occurrences to retain */
+	public static final int DEFAULT_SIZE = 100;
+
+	/** */
+	private static final int INITIAL_CAPACITY = 8;
+
+	/** the maximum number of occurrences, or {@code < 0} for unbounded */
+	private final int maxSize;
+
+	/** the window in nanoseconds, or {@code < 0} for unbounded */
+	private final long windowNanos;
+
+	/** */
+	private long[] times;
+
+	/** */
+	private long[] idTimes;
+
+	/** */
+	private long[] idNodes;
+
+	/** */
+	private boolean[] lastCalls;
+
+	/** index of the oldest occurrence */
+	private int head = 0;
+
+	/** */
+	private int size = 0;
+
+	/** the total number of occurrences so far, including discarded ones */
+	private long count = 0;
+
+	/**
+	 * {@link TriggerHistory} constructor, retaining the latest
+	 * {@link #DEFAULT_SIZE} occurrences
+	 */
+	public TriggerHistory()
+	{
+		this(DEFAULT_SIZE, null);
+	}
+
+	/**
+	 * {@link TriggerHistory} constructor
+	 * 
+	 * @param maxSize the maximum number of occurrences to retain, {@code 0}
+	 *            for none or {@code < 0} for unbounded
+	 * @param window the simulated time {@link Duration} before the latest
+	 *            occurrence to retain occurrences for, or {@code null} for any
+	 */
+	public TriggerHistory(final int maxSize, final Duration window)
+	{
+		this.maxSize = maxSize;
+		this.windowNanos = window == null ? -1L : window.toNanosLong();
+		final int capacity = maxSize < 0 ? INITIAL_CAPACITY : Math.min(
+				maxSize, INITIAL_CAPACITY);
+		this.times = new long[capacity];
+		this.idTimes = new long[capacity];
+		this.idNodes = new long[capacity];
+		this.lastCalls = new boolean[capacity];
+	}
+
+	/**
+	 * @param event the {@link TriggerEvent} to record
+	 */
+	public void add(final TriggerEvent event)
+	{
+		final Duration time = event.time();
+		final UUID id = event.id() == null ? null : event.id().getValue();
+		add(time == null ? Long.MIN_VALUE : time.toNanosLong(),
+				id == null ? 0L : id.getTime(),
+				id == null ? 0L : id.getClockSeqAndNode(), event.lastCall());
+	}
+
+	/**
+	 * @param timeNanos the occurrence time in nanoseconds
+	 * @param idTime the time bits of the event's {@link UUID}
+	 * @param idNode the clock sequence and node bits of the event's
+	 *            {@link UUID}
+	 * @param lastCall {@code true} iff this was the last occurrence
+	 */
+	public synchronized void add(final long timeNanos, final long idTime,
+			final long idNode, final boolean lastCall)
+	{
+		this.count++;
+		if (this.maxSize == 0)
+			return;
+		if (this.windowNanos >= 0)
+			while (this.size > 0
+					&& timeNanos - this.times[this.head] > this.windowNanos)
+				discardOldest();
+		if (this.size == this.maxSize)
+			discardOldest();
+		else if (this.size == this.times.length)
+			grow();
+		final int i = (this.head + this.size) % this.times.length;
+		this.times[i] = timeNanos;
+		this.idTimes[i] = idTime;
+		this.idNodes[i] = idNode;
+		this.lastCalls[i] = lastCall;
+		this.size++;
+	}
+
+	/** */
+	private void discardOldest()
+	{
+		this.head = (this.head + 1) % this.times.length;
+		this.size--;
+	}
+
+	/** double the capacity, up to the maximum size (if any) */
+	private void grow()
+	{
+		final int capacity = this.maxSize < 0 ? this.times.length * 2 : Math
+				.min(this.maxSize, this.times.length * 2);
+		this.times = unwrap(this.times, capacity);
+		this.idTimes = unwrap(this.idTimes, capacity);
+		this.idNodes = unwrap(this.idNodes, capacity);
+		final boolean[] lastCalls = new boolean[capacity];
+		for (int i = 0; i < this.size; i++)
+			lastCalls[i] = this.lastCalls[(this.head + i)
+					% this.lastCalls.length];
+		this.lastCalls = lastCalls;
+		this.head = 0;
+	}
+
+	/**
+	 * @param column the ring buffer column to copy
+	 * @param capacity the new capacity
+	 * @return a new column with the retained values from index 0
+	 */
+	private long[] unwrap(final long[] column, final int capacity)
+	{
+		final long[] result = Arrays.copyOf(column, capacity);
+		if (this.head > 0)
+		{
+			final int first = column.length - this.head;
+			System.arraycopy(column, this.head, result, 0, first);
+			System.arraycopy(column, 0, result, first, this.size - first);
+		}
+		return result;
+	}
+
+	/** @return the number of retained occurrences */
+	public synchronized int size()
+	{
+		return this.size;
+	}
+
+	/** @return the total number of occurrences, including discarded ones */
+	public synchronized long count()
+	{
+		return this.count;
+	}
+
+	/**
+	 * @param triggerId the {@link TriggerConfig.ID} of the trigger
+	 * @return the retained occurrences as new {@link TriggerEvent}s, oldest
+	 *         first
+	 */
+	public List<TriggerEvent> toEvents(final TriggerConfig.ID triggerId)
+	{
+		final long[] times, idTimes, idNodes;
+		final boolean[] lastCalls;
+		synchronized (this)
+		{
+			times = new long[this.size];
+			idTimes = new long[this.size];
+			idNodes = new long[this.size];
+			lastCalls = new boolean[this.size];
+			for (int i = 0; i < this.size; i++)
+			{
+				final int j = (this.head + i) % this.times.length;
+				times[i] = this.times[j];
+				idTimes[i] = this.idTimes[j];
+				idNodes[i] = this.idNodes[j];
+				lastCalls[i] = this.lastCalls[j];
+			}
+		}
+		final List<TriggerEvent> result = new ArrayList<>(times.length);
+		for (int i = 0; i < times.length; i++)
+		{
+			final TriggerEvent.ID id = new TriggerEvent.ID();
+			id.setValue(new UUID(idTimes[i], idNodes[i]));
+			result.add(new TriggerEvent.Builder()
+					.withId(id)
+					.withTime(
+							times[i] == Long.MIN_VALUE ? null : Duration
+									.valueOfNanos(times[i]))
+					.withTriggerID(triggerId).withLastCall(lastCalls[i])
+					.build());
+		}
+		return result;
+	}
+}
@@ -0,0 +1,177 @@
+/* $Id$
+ * $URL$
+ * 
+ * Part of the EU project Inertia, see http://www.inertia-project.eu/
+ * 
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ * 
+ * Copyright (c) 2014 Almende B.V. 
+ */
+package com.almende.timecontrol;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rx.observers.Subscribers;
+
+import com.almende.timecontrol.entity.TriggerEvent;
+import com.almende.timecontrol.time.TriggerPattern;
+
+/**
+ * {@link TriggerMulticast} is the single scheduled {@link TriggerTuple} of
+ * some {@link TriggerPattern} on a clock, pulling its instants from a shared
+ * {@link TriggerPattern.Cursor} and notifying each of its member
+ * registrations. It is reference-counted: once its last member leaves, it
+ * is {@link #isUnsubscribed() unsubscribed} and no longer rescheduled.
+ * Members that unsubscribe without leaving are only counted out once the
+ * clock finds them unsubscribed when publishing, so neither joining,
+ * leaving nor rescheduling ever scans all members
+ * 
+ * @date $Date$
+ * @version $Id$
+ * @author <a href="mailto:rick@almende.org">rick</a>
+ */
+public class TriggerMulticast extends TriggerTuple
+{
+
+	/** the clock that scheduled this multicast */
+	private final ClockTuple clock;
+
+	/** orders members by registration sequence, unique per registration */
+	private static final Comparator<TriggerTuple> BY_SEQUENCE = new Comparator<TriggerTuple>()
+	{
+		@Override
+		public int compare(final TriggerTuple o1, final TriggerTuple o2)
+		{
+			return Long.compare(o1.getSequence(), o2.getSequence());
+		}
+	};
+
+	/** the member registrations, each with its own id and subscriber */
+	private final NavigableSet<TriggerTuple> members = new ConcurrentSkipListSet<>(
+			BY_SEQUENCE);
+
+	/** the number of {@link #members} that have not left */
+	private final AtomicInteger live = new AtomicInteger();
+
+	/**
+	 * {@link TriggerMulticast} constructor
+	 * 
+	 * @param clock the {@link ClockTuple} scheduling this multicast
+	 * @param pattern the shared {@link TriggerPattern}
+	 * @param cursor the shared {@link TriggerPattern.Cursor}
+	 */
+	public TriggerMulticast(final ClockTuple clock,
+			final TriggerPattern pattern, final TriggerPattern.Cursor cursor)
+	{
+		super(newID(), pattern, cursor, Subscribers.<TriggerEvent> empty(),
+				new TriggerHistory(0, null));
+		this.clock = clock;
+	}
+
+	/**
+	 * @return the {@link ClockTuple} that scheduled this multicast, which
+	 *         differs for an occurrence inherited from a parent clock
+	 */
+	public ClockTuple getClock()
+	{
+		return this.clock;
+	}
+
+	/**
+	 * @param member the {@link TriggerTuple} registration to notify as well
+	 * @return {@code true} iff added, i.e. this multicast was not (yet)
+	 *         {@link #close() closed}
+	 */
+	public synchronized boolean add(final TriggerTuple member)
+	{
+		if (isCancelled())
+			return false;
+		if (this.members.add(member))
+			this.live.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * @param member the {@link TriggerTuple} registration to stop notifying
+	 * @return {@code true} iff this was the last (subscribed) member, in which
+	 *         case this multicast is now {@link #cancel() cancelled}
+	 */
+	public synchronized boolean remove(final TriggerTuple member)
+	{
+		if (this.members.remove(member))
+			this.live.decrementAndGet();
+		if (!isUnsubscribed())
+			return false;
+		cancel();
+		return true;
+	}
+
+	/** stop accepting members, e.g. once the pattern has no more instants */
+	public synchronized void close()
+	{
+		cancel();
+	}
+
+	/**
+	 * @return {@code true} iff this multicast is now {@link #close() closed}
+	 *         because none of its members is still subscribed
+	 */
+	@Override
+	public synchronized boolean closeIfUnsubscribed()
+	{
+		return super.closeIfUnsubscribed();
+	}
+
+	/** @return the current member registrations, in registration order */
+	public Collection<TriggerTuple> getMembers()
+	{
+		return this.members;
+	}
+
+	/** @return the number of members that have not left, in O(1) */
+	public int getMemberCount()
+	{
+		return this.live.get();
+	}
+
+	/**
+	 * @return {@code true} iff {@link #cancel() cancelled} or all members
+	 *         have left
+	 */
+	@Override
+	public boolean isUnsubscribed()
+	{
+		return isCancelled() || this.live.get() == 0;
+	}
+
+	@Override
+	public void onCompleted()
+	{
+		for (TriggerTuple member : this.members)
+			member.onCompleted();
+		super.onCompleted();
+	}
+
+	@Override
+	public void onError(final Throwable e)
+	{
+		for (TriggerTuple member : this.members)
+			member.onError(e);
+		super.onError(e);
+	}
+}
@@ -20,8 +20,8 @@
  */
 package com.almende.timecontrol;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import rx.Observable;
 import rx.Observer;
@@ -33,10 +33,14 @@ import com.almende.timecontrol.entity.TriggerConfig;
 import com.almende.timecontrol.entity.TriggerEvent;
 import com.almende.timecontrol.entity.TriggerStatus;
 import com.almende.timecontrol.time.Duration;
+import com.almende.timecontrol.time.Instant;
 import com.almende.timecontrol.time.TriggerPattern;
+import com.eaio.uuid.UUID;
 
 /**
- * {@link TriggerTuple}
+ * {@link TriggerTuple} tracks a single registration of some
+ * {@link TriggerPattern}, pulling its {@link Instant}s from a
+ * {@link TriggerPattern.Cursor} one at a time, as each is scheduled
  * 
  * @date $Date$
  * @version $Id$
@@ -45,7 +49,14 @@ import com.almende.timecontrol.time.TriggerPattern;
 public class TriggerTuple implements Observer<TriggerEvent>
 {
 
-	private final List<TriggerEvent> events = new ArrayList<>();
+	/** the last registration sequence number issued */
+	private static final AtomicLong SEQUENCE = new AtomicLong();
+
+	/** the order in which this registration was created */
+	private final long sequence = SEQUENCE.incrementAndGet();
+
+	/** the retained occurrences, materialized on {@link #getEvents()} */
+	private final TriggerHistory history;
 
 	private final Subject<TriggerEvent, TriggerEvent> eventPublisher = PublishSubject
 			.create();
@@ -54,14 +65,154 @@ public class TriggerTuple implements Observer<TriggerEvent>
 
 	private final TriggerConfig.ID id;
 
+	/** the registered {@link Subscriber} */
+	private final Subscriber<? super TriggerEvent> subscriber;
+
+	/** generates the {@link #pattern}'s instants, only when scheduled */
+	private final TriggerPattern.Cursor cursor;
+
+	/** {@code true} iff this registration was {@link #cancel() cancelled} */
+	private volatile boolean cancelled = false;
+
 	public TriggerTuple(final TriggerPattern pattern,
 			final Subscriber<? super TriggerEvent> subscriber)
 	{
+		this(newID(), pattern, subscriber);
+	}
+
+	public TriggerTuple(final TriggerConfig.ID id,
+			final TriggerPattern pattern,
+			final Subscriber<? super TriggerEvent> subscriber)
+	{
+		this(id, pattern, pattern.cursor(), subscriber);
+	}
+
+	public TriggerTuple(final TriggerConfig.ID id,
+			final TriggerPattern pattern, final TriggerPattern.Cursor cursor,
+			final Subscriber<? super TriggerEvent> subscriber)
+	{
+		this(id, pattern, cursor, subscriber, new TriggerHistory());
+	}
+
+	public TriggerTuple(final TriggerConfig.ID id,
+			final TriggerPattern pattern, final TriggerPattern.Cursor cursor,
+			final Subscriber<? super TriggerEvent> subscriber,
+			final TriggerHistory history)
+	{
+		this.history = history;
 		this.pattern = pattern;
-		this.id = new TriggerConfig.ID();
+		this.id = id;
+		this.subscriber = subscriber;
+		this.cursor = cursor;
 		this.eventPublisher.subscribe(subscriber);
 	}
 
+	/**
+	 * @return a new (unique) {@link TriggerConfig.ID}
+	 */
+	protected static TriggerConfig.ID newID()
+	{
+		final TriggerConfig.ID result = new TriggerConfig.ID();
+		result.setValue(new UUID().toString());
+		return result;
+	}
+
+	/**
+	 * @return the last registration sequence number issued so far
+	 */
+	protected static long lastSequence()
+	{
+		return SEQUENCE.get();
+	}
+
+	/**
+	 * @return the order in which this registration was created, across all
+	 *         clocks
+	 */
+	public long getSequence()
+	{
+		return this.sequence;
+	}
+
+	/**
+	 * @return the {@link TriggerConfig.ID} of this registration
+	 */
+	public TriggerConfig.ID getID()
+	{
+		return this.id;
+	}
+
+	/**
+	 * @return the registered {@link TriggerPattern}
+	 */
+	public TriggerPattern getPattern()
+	{
+		return this.pattern;
+	}
+
+	/**
+	 * @return {@code true} iff the registered {@link Subscriber} is no longer
+	 *         interested, or this registration was {@link #cancel() cancelled}
+	 */
+	public boolean isUnsubscribed()
+	{
+		return this.cancelled || this.subscriber.isUnsubscribed();
+	}
+
+	/** stop publishing any further {@link TriggerEvent}s */
+	public void cancel()
+	{
+		this.cancelled = true;
+	}
+
+	/**
+	 * @return {@code true} iff this registration is now {@link #cancel()
+	 *         cancelled} because it was {@link #isUnsubscribed()
+	 *         unsubscribed}
+	 */
+	public boolean closeIfUnsubscribed()
+	{
+		if (!isUnsubscribed())
+			return false;
+		cancel();
+		return true;
+	}
+
+	/** @return {@code true} iff this registration was {@link #cancel cancelled} */
+	public boolean isCancelled()
+	{
+		return this.cancelled;
+	}
+
+	/**
+	 * @return the next {@link Instant} from the {@link TriggerPattern}, or
+	 *         {@code null} if none remain
+	 */
+	public Instant nextInstant()
+	{
+		return this.cursor.hasNext() ? this.cursor.next() : null;
+	}
+
+	/**
+	 * @return the next {@link Instant} from the {@link TriggerPattern} in
+	 *         nanoseconds, which some patterns generate without allocating;
+	 *         check {@link #hasNextInstant()} first
+	 */
+	public long nextNanos()
+	{
+		return this.cursor.nextNanos();
+	}
+
+	/**
+	 * @return {@code true} iff the {@link TriggerPattern} has more
+	 *         {@link Instant}s after the last {@link #nextInstant()} or
+	 *         {@link #nextNanos()}
+	 */
+	public boolean hasNextInstant()
+	{
+		return this.cursor.hasNext();
+	}
+
 	/**
 	 * @return the {@link TriggerConfig}
 	 */
@@ -78,11 +229,19 @@ public class TriggerTuple implements Observer<TriggerEvent>
 	}
 
 	/**
-	 * @return the events published so far
+	 * @return the (retained) events published so far
 	 */
 	public List<TriggerEvent> getEvents()
 	{
-		return this.events;
+		return this.history.toEvents(this.id);
+	}
+
+	/**
+	 * @return the {@link TriggerHistory} of events published so far
+	 */
+	public TriggerHistory getHistory()
+	{
+		return this.history;
 	}
 
 	/**
@@ -119,7 +278,7 @@ public class TriggerTuple implements Observer<TriggerEvent>
 	@Override
 	public void onNext(final TriggerEvent event)
 	{
-		this.events.add(event);
+		this.history.add(event);
 		this.eventPublisher.onNext(event);
 	}
 }
\ No newline at end of file
@@ -21,12 +21,18 @@
 package com.almende.timecontrol.dsol;
 
 import java.rmi.RemoteException;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 import javax.inject.Provider;
 
 import nl.tudelft.simulation.dsol.SimRuntimeException;
 import nl.tudelft.simulation.dsol.eventlists.RedBlackTree;
+import nl.tudelft.simulation.dsol.formalisms.eventscheduling.SimEvent;
 import nl.tudelft.simulation.dsol.formalisms.eventscheduling.SimEventInterface;
 import nl.tudelft.simulation.dsol.simtime.SimTimeCalendarDouble;
 import nl.tudelft.simulation.dsol.simtime.UnitTimeDouble;
@@ -38,15 +44,15 @@ import nl.tudelft.simulation.event.EventListenerInterface;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import rx.Subscriber;
-
 import com.almende.timecontrol.ClockTuple;
+import com.almende.timecontrol.TriggerMulticast;
+import com.almende.timecontrol.TriggerTuple;
 import com.almende.timecontrol.entity.ClockConfig;
 import com.almende.timecontrol.entity.ClockConfig.Status;
-import com.almende.timecontrol.entity.TriggerEvent;
+import com.almende.timecontrol.entity.TimerConfig;
+import com.almende.timecontrol.rx.PendingQueue;
 import com.almende.timecontrol.time.Duration;
 import com.almende.timecontrol.time.Instant;
-import com.almende.timecontrol.time.TriggerPattern;
 
 /**
  * {@link DsolClockTuple}
@@ -63,11 +69,38 @@ public class DsolClockTuple extends ClockTuple
 			.getLogger(DsolClockTuple.class);
 
 	/** */
-	private static final String ON_NEXT = "onNext";
+	private static final String ON_TIME = "onTime";
+
+	/**
+	 * {@link Slot} holds the occurrences pending at the same time, fired by a
+	 * single DSOL event in order of {@link TriggerTuple#getSequence()
+	 * registration sequence} as in
+	 * {@link TimerConfig.DispatchMode#DETERMINISTIC} mode, so DSOL's own
+	 * (total) event order never needs to break ties between triggers
+	 */
+	private static class Slot
+	{
+		/** the DSOL event that fires this slot */
+		final SimEventInterface<SimTimeCalendarDouble> event;
+
+		/** the pending occurrences, in order of scheduling */
+		final List<PendingQueue.Entry> entries = new ArrayList<>();
+
+		Slot(final SimEventInterface<SimTimeCalendarDouble> event)
+		{
+			this.event = event;
+		}
+	}
 
 	/** */
 	protected DEVDESSSimulator<Calendar, UnitTimeDouble, SimTimeCalendarDouble> scheduler;
 
+	/** the pending {@link Slot}s by (absolute) time in nanoseconds */
+	private final Map<Long, Slot> slots = new HashMap<>();
+
+	/** the pending time of each {@link TriggerTuple}, guarded by slots */
+	private final Map<TriggerTuple, Long> pending = new HashMap<>();
+
 	/**
 	 * {@link DsolClockTuple} constructor
 	 * 
@@ -82,7 +115,6 @@ public class DsolClockTuple extends ClockTuple
 	public ClockTuple reset(final ClockConfig config)
 	{
 		super.reset(config);
-		this.until = config.until();
 
 		final Duration time = config.time();
 		this.scheduler = new DEVDESSSimulator.CalendarDouble(DsolUtil.toDSOL(
@@ -180,27 +212,102 @@ public class DsolClockTuple extends ClockTuple
 	}
 
 	/**
-	 * @param time
-	 * @param sub
+	 * @param trigger
+	 * @param nanos the {@link Instant} in nanoseconds
+	 * @param isLast
 	 */
 	@Override
-	public void schedule(final TriggerPattern pattern, final Instant time,
-			final boolean isLast, final Subscriber<? super TriggerEvent> sub)
+	public void schedule(final TriggerTuple trigger, final long nanos,
+			final boolean isLast)
 	{
-		// TODO group triggers for same Instant/millis AND "recursiveness" level
-		// into same DSOL event
 		try
 		{
-			final SimTimeCalendarDouble cal = DsolUtil.toDSOL(time,
-					SimTimeCalendarDouble.class);
-			LOG.trace("{} scheduling pattern {} instant {} => {}",
-					this.configID, pattern, time, cal);
-			this.scheduler.scheduleEvent(DsolUtil.toDSOL(cal,
-					SimEventInterface.NORMAL_PRIORITY, this, this, ON_NEXT,
-					pattern, sub));
+			synchronized (this.slots)
+			{
+				Slot slot = this.slots.get(nanos);
+				if (slot == null)
+				{
+					final Instant time = Instant.valueOfNanos(nanos);
+					final SimTimeCalendarDouble cal = DsolUtil.toDSOL(time,
+							SimTimeCalendarDouble.class);
+					LOG.trace("{} scheduling instant {} => {}", this.configID,
+							time, cal);
+					slot = new Slot(new SimEvent<SimTimeCalendarDouble>(cal,
+							SimEventInterface.NORMAL_PRIORITY, this, this,
+							ON_TIME, new Object[] { nanos }));
+					this.scheduler.scheduleEvent(slot.event);
+					this.slots.put(nanos, slot);
+				}
+				slot.entries.add(new PendingQueue.Entry(trigger, isLast));
+				this.pending.put(trigger, nanos);
+			}
 		} catch (final Throwable t)
 		{
-			sub.onError(t);
+			if (!(trigger instanceof TriggerMulticast))
+			{
+				leave(trigger);
+				trigger.onError(t);
+				return;
+			}
+			// the members leave and report the error, dropping the multicast
+			final TriggerMulticast multicast = (TriggerMulticast) trigger;
+			this.multicasts.remove(multicast.getPattern(), multicast);
+			for (TriggerTuple member : new ArrayList<>(multicast.getMembers()))
+				if (leave(member))
+					member.onError(t);
+		}
+	}
+
+	/**
+	 * SCHEDULABLE, invoked on the simulator's own thread to fire the
+	 * occurrences still pending in a {@link Slot}
+	 * 
+	 * @param nanos the (absolute) time of the {@link Slot}, in nanoseconds
+	 */
+	protected void onTime(final long nanos)
+	{
+		final Slot slot;
+		synchronized (this.slots)
+		{
+			slot = this.slots.remove(nanos);
+			if (slot == null)
+				return;
+			for (PendingQueue.Entry entry : slot.entries)
+				this.pending.remove(entry.trigger);
+		}
+		onNext(slot.entries);
+	}
+
+	/**
+	 * remove the trigger's pending occurrence from its {@link Slot}, and the
+	 * slot's event from the DSOL event list once empty, which takes O(log n)
+	 * in its {@link RedBlackTree}
+	 */
+	@Override
+	protected void unschedule(final TriggerTuple trigger)
+	{
+		final Slot slot;
+		synchronized (this.slots)
+		{
+			final Long nanos = this.pending.remove(trigger);
+			if (nanos == null)
+				return;
+			slot = this.slots.get(nanos);
+			for (Iterator<PendingQueue.Entry> i = slot.entries.iterator(); i
+					.hasNext();)
+				if (i.next().trigger == trigger)
+					i.remove();
+			if (!slot.entries.isEmpty())
+				return;
+			this.slots.remove(nanos);
+		}
+		try
+		{
+			this.scheduler.cancelEvent(slot.event);
+		} catch (final Exception e)
+		{
+			LOG.warn("Problem cancelling event for trigger: "
+					+ trigger.getID(), e);
 		}
 	}
 
@@ -209,6 +316,11 @@ public class DsolClockTuple extends ClockTuple
 	protected void destroy()
 	{
 		super.destroy();
+		synchronized (this.slots)
+		{
+			this.slots.clear();
+			this.pending.clear();
+		}
 		synchronized (this.config)
 		{
 			if (this.scheduler != null)
@@ -231,7 +343,7 @@ public class DsolClockTuple extends ClockTuple
 			this.scheduler.start();
 
 		LOG.trace("{} status now: {}, DSOL running: {}", this.configID,
-				this.status, this.scheduler.isRunning());
+				this.state.get().getStatus(), this.scheduler.isRunning());
 	}
 
 	/** @see com.almende.timecontrol.ClockTuple#stop() */
@@ -241,7 +353,7 @@ public class DsolClockTuple extends ClockTuple
 		this.scheduler.stop();
 
 		LOG.trace("{} status now: {}, DSOL running: {}", this.configID,
-				this.status, this.scheduler.isRunning());
+				this.state.get().getStatus(), this.scheduler.isRunning());
 	}
 
 	public static class DefaultProvider implements Provider<ClockTuple>
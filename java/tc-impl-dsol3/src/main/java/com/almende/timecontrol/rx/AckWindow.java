@@ -0,0 +1,235 @@
+/* $Id$
+ * $URL$
+ *
+ * Part of the EU project Inertia, see http://www.inertia-project.eu/
+ *
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Copyright (c) 2014 Almende B.V.
+ */
+package com.almende.timecontrol.rx;
+
+import io.coala.error.ExceptionBuilder;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import rx.Observable;
+import rx.subjects.PublishSubject;
+import rx.subjects.Subject;
+
+/**
+ * {@link AckWindow} holds an {@link RxClock} in (loose) lock-step with its
+ * remote observers: each observer {@link #expect expects} the instants it was
+ * notified of, and {@link #acknowledge acknowledges} them cumulatively once
+ * processed, while the clock dispatches at most {@link #size()} instants from
+ * the oldest one still unacknowledged on. Otherwise it parks, publishing the
+ * instant it {@link #holds() holds} at (e.g. to flush pending notifications),
+ * until woken by the acknowledgement that reopens its window. A window of one
+ * instant thus yields strict lock-step, a wider one lets observers pipeline.
+ *
+ * @date $Date$
+ * @version $Id$
+ * @author <a href="mailto:rick@almende.org">rick</a>
+ */
+public class AckWindow
+{
+
+	/** */
+	private static final Logger LOG = LogManager.getLogger(AckWindow.class);
+
+	/** */
+	private final RxClock clock;
+
+	/** */
+	private final int size;
+
+	/** the dispatched instants (ns) from the oldest unacknowledged one on */
+	private final NavigableSet<Long> dispatched = new TreeSet<>();
+
+	/** the observers yet to acknowledge each instant (ns) */
+	private final NavigableMap<Long, Set<String>> unacknowledged = new TreeMap<>();
+
+	/** the latest instant (ns) acknowledged by each observer */
+	private final Map<String, Long> acknowledged = new HashMap<>();
+
+	/** */
+	private final Subject<Long, Long> holds = PublishSubject.create();
+
+	/**
+	 * {@link AckWindow} constructor
+	 *
+	 * @param clock the {@link RxClock} to hold
+	 * @param size the number of unacknowledged instants to dispatch
+	 */
+	protected AckWindow(final RxClock clock, final int size)
+	{
+		this.clock = clock;
+		this.size = size;
+	}
+
+	/**
+	 * @param clock the {@link RxClock} to hold
+	 * @param size the (positive) number of instants to dispatch beyond the
+	 *            oldest one still unacknowledged
+	 * @return the new {@link AckWindow}, replacing any previous one
+	 */
+	public static AckWindow attach(final RxClock clock, final int size)
+	{
+		if (size < 1)
+			throw ExceptionBuilder.unchecked(
+					"Can't hold clock " + clock.getConfig().id()
+							+ " to acknowledgement window of " + size).build();
+		final AckWindow result = new AckWindow(clock, size);
+		clock.window = result;
+		clock.wake();
+		LOG.trace("Holding clock {} to acknowledgement window of {}", clock
+				.getConfig().id(), size);
+		return result;
+	}
+
+	/** @return the number of unacknowledged instants to dispatch */
+	public int size()
+	{
+		return this.size;
+	}
+
+	/** @return the instants (ns) at which the clock parked */
+	public Observable<Long> holds()
+	{
+		return this.holds.asObservable();
+	}
+
+	/** @return the number of dispatched instants not yet acknowledged */
+	public synchronized int getBacklog()
+	{
+		prune();
+		return this.dispatched.size();
+	}
+
+	/**
+	 * @param observer the key of the observer notified of specified instant
+	 * @param nanos the (absolute) instant in nanoseconds
+	 */
+	public synchronized void expect(final String observer, final long nanos)
+	{
+		final Long acknowledged = this.acknowledged.get(observer);
+		if (acknowledged != null && acknowledged >= nanos)
+			return;
+		Set<String> observers = this.unacknowledged.get(nanos);
+		if (observers == null)
+		{
+			observers = new HashSet<>();
+			this.unacknowledged.put(nanos, observers);
+		}
+		observers.add(observer);
+	}
+
+	/**
+	 * @param observer the key of the observer that processed all instants it
+	 *            was notified of up to specified instant
+	 * @param nanos the (absolute) instant in nanoseconds
+	 */
+	public void acknowledge(final String observer, final long nanos)
+	{
+		synchronized (this)
+		{
+			final Long acknowledged = this.acknowledged.get(observer);
+			if (acknowledged == null || acknowledged < nanos)
+				this.acknowledged.put(observer, nanos);
+			for (Iterator<Set<String>> it = this.unacknowledged
+					.headMap(nanos, true).values().iterator(); it.hasNext();)
+			{
+				final Set<String> observers = it.next();
+				if (observers.remove(observer) && observers.isEmpty())
+					it.remove();
+			}
+			prune();
+			if (this.dispatched.size() >= this.size)
+				return;
+		}
+		this.clock.wake();
+	}
+
+	/**
+	 * @param observer the key of the observer to stop waiting for, e.g. once
+	 *            disconnected
+	 */
+	public void release(final String observer)
+	{
+		synchronized (this)
+		{
+			for (Iterator<Set<String>> it = this.unacknowledged.values()
+					.iterator(); it.hasNext();)
+			{
+				final Set<String> observers = it.next();
+				if (observers.remove(observer) && observers.isEmpty())
+					it.remove();
+			}
+			this.acknowledged.remove(observer);
+			prune();
+		}
+		this.clock.wake();
+	}
+
+	/**
+	 * @param nanos the (absolute) instant in nanoseconds the clock is about to
+	 *            dispatch
+	 * @return {@code true} iff the instant lies within the window; otherwise
+	 *         the clock parks until {@link RxClock#wake() woken} by an
+	 *         acknowledgement, using the {@link RxClock#parked} flag it shares
+	 *         with the {@link Coordinator}: a wake by either merely makes the
+	 *         clock re-check both
+	 */
+	protected boolean admit(final long nanos)
+	{
+		this.clock.parked.set(true);
+		final int backlog;
+		synchronized (this)
+		{
+			prune();
+			backlog = this.dispatched.size();
+			if (backlog < this.size)
+			{
+				this.dispatched.add(nanos);
+				this.clock.parked.set(false);
+				return true;
+			}
+		}
+		LOG.trace("{} held before {}ns, {} instant(s) unacknowledged",
+				this.clock.getConfig().id(), nanos, backlog);
+		this.holds.onNext(nanos);
+		return false;
+	}
+
+	/** drop the instants before the oldest unacknowledged one */
+	private void prune()
+	{
+		if (this.unacknowledged.isEmpty())
+			this.dispatched.clear();
+		else
+			this.dispatched.headSet(this.unacknowledged.firstKey(), false)
+					.clear();
+	}
+}
@@ -0,0 +1,216 @@
+/* $Id$
+ * $URL$
+ *
+ * Part of the EU project Inertia, see http://www.inertia-project.eu/
+ *
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Copyright (c) 2014 Almende B.V.
+ */
+package com.almende.timecontrol.rx;
+
+import java.util.concurrent.Executor;
+
+import rx.Observable;
+import rx.Subscriber;
+
+import com.almende.timecontrol.entity.ClockConfig.Status;
+import com.almende.timecontrol.entity.ClockEvent;
+import com.almende.timecontrol.entity.TimerConfig;
+import com.almende.timecontrol.entity.TimerConfig.ClockEventMode;
+import com.almende.timecontrol.time.Duration;
+
+/**
+ * {@link ClockEventCoalescer} thins out the {@link ClockEvent}s of time steps
+ * to at most one per {@link TimerConfig#resolution() resolution} of simulated
+ * time or per wall-clock interval, while always passing status changes
+ * immediately. In wall-clock mode, the latest withheld event is delivered
+ * once its interval expires, so observers eventually see the current time
+ * 
+ * @date $Date$
+ * @version $Id$
+ * @author <a href="mailto:rick@almende.org">rick</a>
+ */
+public class ClockEventCoalescer implements
+		Observable.Operator<ClockEvent, ClockEvent>
+{
+
+	/** the simulated time between events in nanoseconds, or {@code 0} */
+	private final long resolutionNanos;
+
+	/** the wall-clock time between events in nanoseconds, or {@code 0} */
+	private final long intervalNanos;
+
+	/** */
+	private final ClockExecutionService service;
+
+	/**
+	 * {@link ClockEventCoalescer} constructor
+	 * 
+	 * @param resolutionNanos the simulated time between events, or {@code 0}
+	 * @param intervalNanos the wall-clock time between events, or {@code 0}
+	 * @param service the {@link ClockExecutionService} to deliver withheld
+	 *            events on
+	 */
+	protected ClockEventCoalescer(final long resolutionNanos,
+			final long intervalNanos, final ClockExecutionService service)
+	{
+		this.resolutionNanos = resolutionNanos;
+		this.intervalNanos = intervalNanos;
+		this.service = service;
+	}
+
+	/**
+	 * @param resolution the simulated time {@link Duration} between events
+	 * @return a new {@link ClockEventCoalescer}
+	 */
+	public static ClockEventCoalescer perResolution(final Duration resolution)
+	{
+		return new ClockEventCoalescer(resolution.toNanosLong(), 0L, null);
+	}
+
+	/**
+	 * @param interval the wall-clock {@link Duration} between events
+	 * @return a new {@link ClockEventCoalescer}
+	 */
+	public static ClockEventCoalescer perInterval(final Duration interval)
+	{
+		return new ClockEventCoalescer(0L, interval.toNanosLong(),
+				ClockExecutionService.getInstance());
+	}
+
+	/**
+	 * @param events the {@link ClockEvent}s to coalesce
+	 * @param timer the {@link TimerConfig}, or {@code null} for defaults
+	 * @return the {@link ClockEvent}s coalesced according to the
+	 *         {@link TimerConfig#clockEvents() configured} mode
+	 */
+	public static Observable<ClockEvent> coalesce(
+			final Observable<ClockEvent> events, final TimerConfig timer)
+	{
+		final ClockEventMode mode = timer == null ? null : timer
+				.clockEvents();
+		if (mode == ClockEventMode.RESOLUTION && timer.resolution() != null
+				&& timer.resolution().toNanosLong() > 0)
+			return events.lift(perResolution(timer.resolution()));
+		if (mode == ClockEventMode.INTERVAL
+				&& timer.clockEventInterval() != null
+				&& timer.clockEventInterval().toNanosLong() > 0)
+			return events.lift(perInterval(timer.clockEventInterval()));
+		return events;
+	}
+
+	@Override
+	public Subscriber<? super ClockEvent> call(
+			final Subscriber<? super ClockEvent> child)
+	{
+		return new Subscriber<ClockEvent>(child)
+		{
+			/** runs withheld events, in order with other clocks' tasks */
+			private final Executor worker = service == null ? null : service
+					.newSerialExecutor();
+
+			/** the {@link Status} of the last delivered event */
+			private Status status = null;
+
+			/** the resolution slot of the last delivered event */
+			private long slot = Long.MIN_VALUE;
+
+			/** the wall-clock {@link System#nanoTime()} of the last delivery */
+			private long delivered = 0L;
+
+			/** the latest withheld event, if any */
+			private ClockEvent withheld = null;
+
+			/** {@code true} while a delivery of {@link #withheld} is pending */
+			private boolean flushing = false;
+
+			/** {@code true} once completed or failed */
+			private boolean done = false;
+
+			@Override
+			public synchronized void onNext(final ClockEvent event)
+			{
+				if (this.done)
+					return;
+				final Duration time = event.time();
+				final boolean changed = this.status == null
+						|| event.status() != this.status || time == null;
+				if (resolutionNanos > 0)
+				{
+					final long next = time == null ? this.slot : time
+							.toNanosLong() / resolutionNanos;
+					if (changed || next != this.slot)
+						deliver(event);
+					return;
+				}
+				final long now = System.nanoTime();
+				if (changed || now - this.delivered >= intervalNanos)
+				{
+					deliver(event);
+					return;
+				}
+				this.withheld = event;
+				if (this.flushing)
+					return;
+				this.flushing = true;
+				service.schedule(this.worker, new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						flush();
+					}
+				}, intervalNanos - (now - this.delivered));
+			}
+
+			/** deliver the latest {@link #withheld} event, if any */
+			private synchronized void flush()
+			{
+				this.flushing = false;
+				if (this.withheld != null && !this.done)
+					deliver(this.withheld);
+			}
+
+			/**
+			 * @param event the {@link ClockEvent} to deliver
+			 */
+			private void deliver(final ClockEvent event)
+			{
+				this.withheld = null;
+				this.status = event.status();
+				if (event.time() != null && resolutionNanos > 0)
+					this.slot = event.time().toNanosLong() / resolutionNanos;
+				this.delivered = System.nanoTime();
+				child.onNext(event);
+			}
+
+			@Override
+			public synchronized void onCompleted()
+			{
+				if (this.withheld != null)
+					deliver(this.withheld);
+				this.done = true;
+				child.onCompleted();
+			}
+
+			@Override
+			public synchronized void onError(final Throwable e)
+			{
+				this.done = true;
+				child.onError(e);
+			}
+		};
+	}
+}
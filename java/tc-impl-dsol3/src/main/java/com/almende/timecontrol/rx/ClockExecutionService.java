@@ -0,0 +1,327 @@
+/* $Id$
+ * $URL$
+ *
+ * Part of the EU project Inertia, see http://www.inertia-project.eu/
+ *
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Copyright (c) 2014 Almende B.V.
+ */
+package com.almende.timecontrol.rx;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * {@link ClockExecutionService} multiplexes any number of clocks onto a single
+ * bounded work-stealing {@link ForkJoinPool}. Each clock obtains its own
+ * {@link #newSerialExecutor() serial} {@link Executor} that runs its tasks one
+ * at a time and in submission order, but yields the pool's thread to other
+ * clocks after each task, so the number of clocks is no longer limited by the
+ * number of threads. Clocks that must wait for some wall-clock deadline
+ * {@link #schedule park} their continuation rather than holding a thread.
+ * Clocks that {@link #invokeAll fan out} their subscribers do so on a
+ * separate pool, so waiting for them never runs another clock's task.
+ * 
+ * @date $Date$
+ * @version $Id$
+ * @author <a href="mailto:rick@almende.org">rick</a>
+ */
+public class ClockExecutionService
+{
+
+	/** */
+	private static final Logger LOG = LogManager
+			.getLogger(ClockExecutionService.class);
+
+	/** the JVM-wide instance, see {@link #getInstance()} */
+	private static ClockExecutionService INSTANCE = null;
+
+	/**
+	 * @return the JVM-wide {@link ClockExecutionService}, with one thread per
+	 *         available processor
+	 */
+	public static synchronized ClockExecutionService getInstance()
+	{
+		if (INSTANCE == null)
+			INSTANCE = new ClockExecutionService(Runtime.getRuntime()
+					.availableProcessors());
+		return INSTANCE;
+	}
+
+	/** the shared (daemon) threads */
+	private final ForkJoinPool pool;
+
+	/** the (daemon) threads notifying subscribers {@link #invokeAll} */
+	private final ForkJoinPool dispatcher;
+
+	/** a single (daemon) thread handing delayed tasks to their executor */
+	private final ScheduledExecutorService timer = new ScheduledThreadPoolExecutor(
+			1, new ThreadFactory()
+			{
+				@Override
+				public Thread newThread(final Runnable r)
+				{
+					final Thread result = new Thread(r, "clock-timer");
+					result.setDaemon(true);
+					return result;
+				}
+			});
+
+	/**
+	 * {@link ClockExecutionService} constructor
+	 * 
+	 * @param parallelism the maximum number of clocks running simultaneously
+	 */
+	public ClockExecutionService(final int parallelism)
+	{
+		final Thread.UncaughtExceptionHandler handler = new Thread.UncaughtExceptionHandler()
+		{
+			@Override
+			public void uncaughtException(final Thread t, final Throwable e)
+			{
+				LOG.error("Uncaught problem in clock thread: " + t.getName(),
+						e);
+			}
+		};
+		this.pool = new ForkJoinPool(parallelism,
+				ForkJoinPool.defaultForkJoinWorkerThreadFactory, handler, true);
+		this.dispatcher = new ForkJoinPool(parallelism,
+				ForkJoinPool.defaultForkJoinWorkerThreadFactory, handler,
+				false);
+	}
+
+	/**
+	 * @return a new {@link Executor} for a single clock, running its tasks in
+	 *         strict submission order on this service's pool
+	 */
+	public Executor newSerialExecutor()
+	{
+		return new SerialExecutor(this.pool);
+	}
+
+	/**
+	 * @param executor the (serial) {@link Executor} to eventually run on
+	 * @param task the {@link Runnable} to run
+	 * @param delayNanos the minimum wall-clock delay in nanoseconds
+	 */
+	public void schedule(final Executor executor, final Runnable task,
+			final long delayNanos)
+	{
+		this.timer.schedule(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				executor.execute(task);
+			}
+		}, delayNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * run specified tasks across the dispatcher pool and return once all have
+	 * completed. A clock thread waits without joining, i.e. without helping
+	 * and thus picking up another clock's (possibly blocking) task, while its
+	 * pool may add a thread to compensate
+	 * 
+	 * @param tasks the {@link Runnable}s to run, which should not throw
+	 */
+	public void invokeAll(final List<? extends Runnable> tasks)
+	{
+		final Fork fork = new Fork(tasks, 0, tasks.size());
+		if (ForkJoinTask.getPool() == this.dispatcher)
+		{
+			fork.invoke();
+			return;
+		}
+		final CountDownLatch done = new CountDownLatch(1);
+		this.dispatcher.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					fork.invoke();
+				} finally
+				{
+					done.countDown();
+				}
+			}
+		});
+		boolean interrupted = false;
+		while (true)
+			try
+			{
+				ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker()
+				{
+					@Override
+					public boolean block() throws InterruptedException
+					{
+						done.await();
+						return true;
+					}
+
+					@Override
+					public boolean isReleasable()
+					{
+						return done.getCount() == 0;
+					}
+				});
+				break;
+			} catch (final InterruptedException e)
+			{
+				interrupted = true;
+			}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/** @return the maximum number of clocks running simultaneously */
+	public int getParallelism()
+	{
+		return this.pool.getParallelism();
+	}
+
+	/** stop accepting tasks, letting submitted ones complete */
+	public void shutdown()
+	{
+		this.timer.shutdown();
+		this.pool.shutdown();
+		this.dispatcher.shutdown();
+	}
+
+	/**
+	 * {@link Fork} splits a range of tasks in halves until
+	 * {@link #THRESHOLD} remain, which it runs in turn
+	 * 
+	 * @date $Date$
+	 * @version $Id$
+	 * @author <a href="mailto:rick@almende.org">rick</a>
+	 */
+	static class Fork extends RecursiveAction
+	{
+		/** */
+		private static final long serialVersionUID = 1L;
+
+		/** the number of tasks worth running on a single thread */
+		private static final int THRESHOLD = 8;
+
+		/** */
+		private final List<? extends Runnable> tasks;
+
+		/** */
+		private final int from;
+
+		/** */
+		private final int to;
+
+		/**
+		 * {@link Fork} constructor
+		 * 
+		 * @param tasks
+		 * @param from the first index (inclusive)
+		 * @param to the last index (exclusive)
+		 */
+		Fork(final List<? extends Runnable> tasks, final int from, final int to)
+		{
+			this.tasks = tasks;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (this.to - this.from <= THRESHOLD)
+			{
+				for (int i = this.from; i < this.to; i++)
+					this.tasks.get(i).run();
+				return;
+			}
+			final int mid = (this.from + this.to) >>> 1;
+			invokeAll(new Fork(this.tasks, this.from, mid), new Fork(
+					this.tasks, mid, this.to));
+		}
+	}
+
+	/**
+	 * {@link SerialExecutor} runs at most one of its tasks at any time, in
+	 * submission order, re-submitting itself to the pool between tasks
+	 * 
+	 * @date $Date$
+	 * @version $Id$
+	 * @author <a href="mailto:rick@almende.org">rick</a>
+	 */
+	static class SerialExecutor implements Executor, Runnable
+	{
+		/** */
+		private final Executor pool;
+
+		/** the tasks yet to run */
+		private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+		/** the number of tasks submitted but not yet completed */
+		private final AtomicInteger count = new AtomicInteger();
+
+		/**
+		 * {@link SerialExecutor} constructor
+		 * 
+		 * @param pool
+		 */
+		SerialExecutor(final Executor pool)
+		{
+			this.pool = pool;
+		}
+
+		@Override
+		public void execute(final Runnable task)
+		{
+			this.tasks.add(task);
+			// only the first pending task starts draining
+			if (this.count.getAndIncrement() == 0)
+				this.pool.execute(this);
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				this.tasks.poll().run();
+			} catch (final Throwable e)
+			{
+				LOG.error("Problem running clock task", e);
+			} finally
+			{
+				if (this.count.decrementAndGet() > 0)
+					this.pool.execute(this);
+			}
+		}
+	}
+}
@@ -0,0 +1,181 @@
+/* $Id$
+ * $URL$
+ *
+ * Part of the EU project Inertia, see http://www.inertia-project.eu/
+ *
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Copyright (c) 2014 Almende B.V.
+ */
+package com.almende.timecontrol.rx;
+
+import io.coala.error.ExceptionBuilder;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.almende.timecontrol.time.Duration;
+
+/**
+ * {@link Coordinator} synchronizes the {@link RxClock}s of a timer
+ * conservatively, in the style of Chandy-Misra-Bryant: each {@link #link}
+ * declares that its source clock affects its target clock no sooner than its
+ * lookahead, e.g. by scheduling a message. Each clock publishes its horizon,
+ * the time before which it will not dispatch, and only dispatches times
+ * before its {@link #safeTime safe time}, i.e. before the earliest horizon
+ * plus lookahead over its inbound links. Otherwise it parks until a source
+ * advances, publishing its own lower bound like a null message so cycles of
+ * (positive) lookahead make progress. Linked clocks thus run in parallel on
+ * the {@link ClockExecutionService} without racing ahead of each other.
+ * 
+ * @date $Date$
+ * @version $Id$
+ * @author <a href="mailto:rick@almende.org">rick</a>
+ */
+public class Coordinator
+{
+
+	/** */
+	private static final Logger LOG = LogManager.getLogger(Coordinator.class);
+
+	/** the horizon of a final clock, or the safe time without inbound links */
+	public static final long UNBOUNDED = Long.MAX_VALUE;
+
+	/**
+	 * {@link Link} declares that its source affects its target no sooner
+	 * than its lookahead
+	 */
+	protected static class Link
+	{
+		/** */
+		protected final RxClock source;
+
+		/** */
+		protected final RxClock target;
+
+		/** the lookahead in nanoseconds */
+		protected final long lookahead;
+
+		protected Link(final RxClock source, final RxClock target,
+				final long lookahead)
+		{
+			this.source = source;
+			this.target = target;
+			this.lookahead = lookahead;
+		}
+	}
+
+	/** the inbound {@link Link}s per target clock */
+	private final ConcurrentMap<RxClock, List<Link>> inbound = new ConcurrentHashMap<>();
+
+	/** the outbound {@link Link}s per source clock */
+	private final ConcurrentMap<RxClock, List<Link>> outbound = new ConcurrentHashMap<>();
+
+	/**
+	 * @param source the {@link RxClock} that affects the target
+	 * @param target the {@link RxClock} to hold back
+	 * @param lookahead the minimum (positive) {@link Duration} between a
+	 *            source time and its effect on the target
+	 */
+	public void link(final RxClock source, final RxClock target,
+			final Duration lookahead)
+	{
+		final long nanos = lookahead.toNanosLong();
+		if (nanos <= 0 || source == target)
+			throw ExceptionBuilder.unchecked(
+					"Can't link clock " + source.getConfig().id() + " to "
+							+ target.getConfig().id() + " with lookahead "
+							+ lookahead).build();
+		final Link link = new Link(source, target, nanos);
+		links(this.inbound, target).add(link);
+		links(this.outbound, source).add(link);
+		source.coordinator = this;
+		target.coordinator = this;
+		LOG.trace("Linked clock {} to {} with lookahead {}", source
+				.getConfig().id(), target.getConfig().id(), lookahead);
+	}
+
+	/**
+	 * remove all links of a clock, e.g. once destroyed, releasing its
+	 * targets
+	 * 
+	 * @param clock the {@link RxClock} to unlink
+	 */
+	public void unlink(final RxClock clock)
+	{
+		final List<Link> sources = this.inbound.remove(clock);
+		if (sources != null)
+			for (Link link : sources)
+				links(this.outbound, link.source).remove(link);
+		final List<Link> targets = this.outbound.remove(clock);
+		if (targets != null)
+			for (Link link : targets)
+			{
+				links(this.inbound, link.target).remove(link);
+				link.target.wake();
+			}
+	}
+
+	private static List<Link> links(final ConcurrentMap<RxClock, List<Link>> map,
+			final RxClock clock)
+	{
+		final List<Link> result = map.get(clock);
+		if (result != null)
+			return result;
+		map.putIfAbsent(clock, new CopyOnWriteArrayList<Link>());
+		return map.get(clock);
+	}
+
+	/**
+	 * @param clock the {@link RxClock} to dispatch
+	 * @return the (absolute) time in nanoseconds before which the clock may
+	 *         dispatch, or {@link #UNBOUNDED}
+	 */
+	public long safeTime(final RxClock clock)
+	{
+		long result = UNBOUNDED;
+		final List<Link> links = this.inbound.get(clock);
+		if (links != null)
+			for (Link link : links)
+			{
+				final long horizon = link.source.horizon;
+				if (horizon != UNBOUNDED)
+					result = Math.min(result, horizon + link.lookahead);
+			}
+		return result;
+	}
+
+	/**
+	 * publish a clock's horizon, waking its targets if it changed
+	 * 
+	 * @param clock the {@link RxClock} that advanced
+	 * @param horizon the (absolute) time in nanoseconds before which it will
+	 *            not dispatch, or {@link #UNBOUNDED} if final
+	 */
+	public void advance(final RxClock clock, final long horizon)
+	{
+		if (clock.horizon == horizon)
+			return;
+		clock.horizon = horizon;
+		final List<Link> links = this.outbound.get(clock);
+		if (links != null)
+			for (Link link : links)
+				link.target.wake();
+	}
+}
@@ -0,0 +1,117 @@
+/* $Id$
+ * $URL$
+ *
+ * Part of the EU project Inertia, see http://www.inertia-project.eu/
+ *
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Copyright (c) 2014 Almende B.V.
+ */
+package com.almende.timecontrol.rx;
+
+import java.util.List;
+import java.util.NavigableMap;
+
+import com.almende.timecontrol.TriggerTuple;
+import com.almende.timecontrol.time.Duration;
+
+/**
+ * {@link PendingQueue} holds the {@link TriggerTuple}s that an {@link RxClock}
+ * has yet to dispatch, grouped by the (absolute) {@link Duration time} at which
+ * they occur. Each {@link TriggerTuple} has at most one pending
+ * {@link Entry}, i.e. its next occurrence.
+ *
+ * @date $Date$
+ * @version $Id$
+ * @author <a href="mailto:rick@almende.org">rick</a>
+ */
+public interface PendingQueue
+{
+
+	/**
+	 * @param time the absolute time of occurrence, in nanoseconds
+	 * @param trigger the {@link TriggerTuple} to notify
+	 * @param lastCall {@code true} iff this is the trigger's last occurrence
+	 */
+	void add(long time, TriggerTuple trigger, boolean lastCall);
+
+	/**
+	 * @param trigger the {@link TriggerTuple} to cancel
+	 * @return {@code true} iff specified trigger's {@link Entry} was pending
+	 */
+	boolean remove(TriggerTuple trigger);
+
+	/** @return {@code true} iff no {@link Entry entries} are pending */
+	boolean isEmpty();
+
+	/** @return the number of pending {@link Entry entries} */
+	int size();
+
+	/**
+	 * @return the earliest pending {@link Duration time}, or {@code null} if
+	 *         {@link #isEmpty()}
+	 */
+	Duration firstTime();
+
+	/**
+	 * @return the (possibly empty) {@link List} of {@link Entry entries} that
+	 *         were pending at {@link #firstTime()}, in order of addition
+	 */
+	List<Entry> pollFirst();
+
+	/** remove all pending {@link Entry entries} */
+	void clear();
+
+	/**
+	 * @return the pending {@link TriggerTuple}s by {@link Duration time}, each
+	 *         in order of occurrence, e.g. for checkpointing
+	 */
+	NavigableMap<Duration, List<TriggerTuple>> snapshot();
+
+	/**
+	 * @return a new {@link PendingQueue} holding the same {@link Entry
+	 *         entries}, from then on evolving independently of this one
+	 *         (optional operation)
+	 * @throws UnsupportedOperationException if this type can't fork
+	 */
+	PendingQueue fork();
+
+	/**
+	 * {@link Entry} of a {@link PendingQueue}
+	 *
+	 * @date $Date$
+	 * @version $Id$
+	 * @author <a href="mailto:rick@almende.org">rick</a>
+	 */
+	class Entry
+	{
+		/** the {@link TriggerTuple} to notify */
+		public final TriggerTuple trigger;
+
+		/** {@code true} iff this is the trigger's last occurrence */
+		public final boolean lastCall;
+
+		/**
+		 * {@link Entry} constructor
+		 *
+		 * @param trigger
+		 * @param lastCall
+		 */
+		public Entry(final TriggerTuple trigger, final boolean lastCall)
+		{
+			this.trigger = trigger;
+			this.lastCall = lastCall;
+		}
+	}
+}
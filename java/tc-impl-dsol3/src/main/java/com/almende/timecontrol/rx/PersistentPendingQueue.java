@@ -0,0 +1,443 @@
+/* $Id$
+ * $URL$
+ *
+ * Part of the EU project Inertia, see http://www.inertia-project.eu/
+ *
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Copyright (c) 2015 Almende B.V.
+ */
+package com.almende.timecontrol.rx;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import com.almende.timecontrol.TriggerTuple;
+import com.almende.timecontrol.time.Duration;
+
+/**
+ * {@link PersistentPendingQueue} is a {@link PendingQueue} built from
+ * immutable (persistent) structures, i.e. a leftist heap of {@link Node}s
+ * ordered by {@link Duration time} and addition, and a hash trie mapping each
+ * {@link TriggerTuple} to its pending {@link Node}. Any {@link Node} no longer
+ * indexed is skipped when it reaches the top of the heap. As updates copy only
+ * the O(log n) nodes on their path, {@link #fork()} simply shares both
+ * structures in O(1), e.g. for forking a clock with a large schedule.
+ *
+ * @date $Date$
+ * @version $Id$
+ * @author <a href="mailto:rick@almende.org">rick</a>
+ */
+public class PersistentPendingQueue implements PendingQueue
+{
+
+	/** the heap of pending (and lazily removed) {@link Node}s */
+	private Heap heap;
+
+	/** the pending {@link Node} of each {@link TriggerTuple} */
+	private Trie index;
+
+	/** */
+	private int size;
+
+	/** the order of addition, for breaking ties */
+	private long sequence;
+
+	/**
+	 * {@link PersistentPendingQueue} constructor
+	 */
+	public PersistentPendingQueue()
+	{
+		this(null, Trie.EMPTY, 0, 0L);
+	}
+
+	/**
+	 * {@link PersistentPendingQueue} constructor
+	 *
+	 * @param heap
+	 * @param index
+	 * @param size
+	 * @param sequence
+	 */
+	private PersistentPendingQueue(final Heap heap, final Trie index,
+			final int size, final long sequence)
+	{
+		this.heap = heap;
+		this.index = index;
+		this.size = size;
+		this.sequence = sequence;
+	}
+
+	/**
+	 * @param queue the {@link PendingQueue} to take all entries from, in
+	 *            order of time and addition
+	 * @return a new {@link PersistentPendingQueue} holding those entries, e.g.
+	 *         to fork a clock that uses another type, taking O(n log n)
+	 */
+	public static PersistentPendingQueue drain(final PendingQueue queue)
+	{
+		final PersistentPendingQueue result = new PersistentPendingQueue();
+		for (Duration time = queue.firstTime(); time != null; time = queue
+				.firstTime())
+		{
+			final long nanos = time.toNanosLong();
+			for (Entry entry : queue.pollFirst())
+				result.add(nanos, entry.trigger, entry.lastCall);
+		}
+		return result;
+	}
+
+	@Override
+	public synchronized void add(final long time,
+			final TriggerTuple trigger, final boolean lastCall)
+	{
+		remove(trigger);
+		final Node node = new Node(time, this.sequence++, trigger, lastCall);
+		this.heap = Heap.merge(this.heap, new Heap(node, null, null));
+		this.index = this.index.put(trigger.hashCode(), node, 0);
+		this.size++;
+	}
+
+	@Override
+	public synchronized boolean remove(final TriggerTuple trigger)
+	{
+		final int hash = trigger.hashCode();
+		if (this.index.get(hash, trigger, 0) == null)
+			return false;
+		this.index = this.index.remove(hash, trigger, 0);
+		this.size--;
+		return true;
+	}
+
+	@Override
+	public synchronized boolean isEmpty()
+	{
+		return this.size == 0;
+	}
+
+	@Override
+	public synchronized int size()
+	{
+		return this.size;
+	}
+
+	/** pop any removed or replaced {@link Node}s off the heap */
+	private void skipRemoved()
+	{
+		while (this.heap != null
+				&& this.index.get(this.heap.node.trigger.hashCode(),
+						this.heap.node.trigger, 0) != this.heap.node)
+			this.heap = Heap.merge(this.heap.left, this.heap.right);
+	}
+
+	@Override
+	public synchronized Duration firstTime()
+	{
+		skipRemoved();
+		return this.heap == null ? null : Duration
+				.valueOfNanos(this.heap.node.time);
+	}
+
+	@Override
+	public synchronized List<Entry> pollFirst()
+	{
+		skipRemoved();
+		if (this.heap == null)
+			return Collections.emptyList();
+		final long time = this.heap.node.time;
+		final List<Entry> result = new ArrayList<>();
+		while (this.heap != null && this.heap.node.time == time)
+		{
+			final Node node = this.heap.node;
+			result.add(node);
+			this.index = this.index.remove(node.trigger.hashCode(),
+					node.trigger, 0);
+			this.size--;
+			this.heap = Heap.merge(this.heap.left, this.heap.right);
+			skipRemoved();
+		}
+		return result;
+	}
+
+	@Override
+	public synchronized NavigableMap<Duration, List<TriggerTuple>> snapshot()
+	{
+		final NavigableMap<Duration, List<TriggerTuple>> result = new TreeMap<>();
+		List<TriggerTuple> triggers = null;
+		for (Heap heap = this.heap; heap != null; heap = Heap.merge(
+				heap.left, heap.right))
+		{
+			final Node node = heap.node;
+			if (this.index.get(node.trigger.hashCode(), node.trigger, 0) != node)
+				continue;
+			if (triggers == null
+					|| result.lastKey().toNanosLong() != node.time)
+			{
+				triggers = new ArrayList<>();
+				result.put(Duration.valueOfNanos(node.time), triggers);
+			}
+			triggers.add(node.trigger);
+		}
+		return result;
+	}
+
+	/**
+	 * @return a {@link PersistentPendingQueue} sharing this queue's current
+	 *         (immutable) structures, in O(1)
+	 */
+	@Override
+	public synchronized PendingQueue fork()
+	{
+		return new PersistentPendingQueue(this.heap, this.index, this.size,
+				this.sequence);
+	}
+
+	@Override
+	public synchronized void clear()
+	{
+		this.heap = null;
+		this.index = Trie.EMPTY;
+		this.size = 0;
+	}
+
+	/**
+	 * {@link Node} is an immutable {@link Entry} with its time (in
+	 * nanoseconds) and sequence number
+	 */
+	static class Node extends Entry
+	{
+		/** */
+		final long time;
+
+		/** */
+		final long sequence;
+
+		Node(final long time, final long sequence,
+				final TriggerTuple trigger, final boolean lastCall)
+		{
+			super(trigger, lastCall);
+			this.time = time;
+			this.sequence = sequence;
+		}
+
+		int compareTo(final Node that)
+		{
+			final int result = Long.compare(this.time, that.time);
+			return result != 0 ? result : Long.compare(this.sequence,
+					that.sequence);
+		}
+	}
+
+	/**
+	 * {@link Heap} is an immutable leftist heap, keeping its right spine
+	 * (along which it merges) at most O(log n) long
+	 */
+	static class Heap
+	{
+		/** */
+		final Node node;
+
+		/** */
+		final Heap left;
+
+		/** */
+		final Heap right;
+
+		/** the length of the right spine */
+		final int rank;
+
+		Heap(final Node node, final Heap left, final Heap right)
+		{
+			this.node = node;
+			// keep the shorter spine on the right
+			if (rank(left) < rank(right))
+			{
+				this.left = right;
+				this.right = left;
+			} else
+			{
+				this.left = left;
+				this.right = right;
+			}
+			this.rank = rank(this.right) + 1;
+		}
+
+		static int rank(final Heap heap)
+		{
+			return heap == null ? 0 : heap.rank;
+		}
+
+		static Heap merge(final Heap a, final Heap b)
+		{
+			if (a == null)
+				return b;
+			if (b == null)
+				return a;
+			if (a.node.compareTo(b.node) <= 0)
+				return new Heap(a.node, a.left, merge(a.right, b));
+			return new Heap(b.node, b.left, merge(b.right, a));
+		}
+	}
+
+	/**
+	 * {@link Trie} is an immutable hash array mapped trie of {@link Node}s by
+	 * their {@link TriggerTuple} (identity), branching on 5 hash bits per level
+	 * and chaining any full hash collisions
+	 */
+	static class Trie
+	{
+		/** */
+		static final Trie EMPTY = new Trie(0, new Object[0]);
+
+		/** */
+		private static final int BITS = 5;
+
+		/** */
+		private static final int MASK = (1 << BITS) - 1;
+
+		/** occupied branches */
+		final int bitmap;
+
+		/** a {@link Trie} or {@link Leaf} per occupied branch */
+		final Object[] slots;
+
+		Trie(final int bitmap, final Object[] slots)
+		{
+			this.bitmap = bitmap;
+			this.slots = slots;
+		}
+
+		Node get(final int hash, final TriggerTuple trigger, final int shift)
+		{
+			final int bit = 1 << ((hash >>> shift) & MASK);
+			if ((this.bitmap & bit) == 0)
+				return null;
+			final Object slot = this.slots[Integer.bitCount(this.bitmap
+					& (bit - 1))];
+			if (slot instanceof Trie)
+				return ((Trie) slot).get(hash, trigger, shift + BITS);
+			for (Leaf leaf = (Leaf) slot; leaf != null; leaf = leaf.next)
+				if (leaf.node.trigger == trigger)
+					return leaf.node;
+			return null;
+		}
+
+		Trie put(final int hash, final Node node, final int shift)
+		{
+			final int bit = 1 << ((hash >>> shift) & MASK);
+			final int i = Integer.bitCount(this.bitmap & (bit - 1));
+			if ((this.bitmap & bit) == 0)
+			{
+				final Object[] slots = new Object[this.slots.length + 1];
+				System.arraycopy(this.slots, 0, slots, 0, i);
+				slots[i] = new Leaf(hash, node, null);
+				System.arraycopy(this.slots, i, slots, i + 1, this.slots.length
+						- i);
+				return new Trie(this.bitmap | bit, slots);
+			}
+			final Object slot = this.slots[i];
+			final Object result;
+			if (slot instanceof Trie)
+				result = ((Trie) slot).put(hash, node, shift + BITS);
+			else
+			{
+				final Leaf leaf = (Leaf) slot;
+				if (leaf.hash == hash)
+					result = new Leaf(hash, node, leaf.without(node.trigger));
+				else
+					// split on the next hash bits
+					result = of(leaf, shift + BITS).put(hash, node, shift
+							+ BITS);
+			}
+			return with(i, result);
+		}
+
+		/** @return a {@link Trie} holding just specified {@link Leaf} chain */
+		private static Trie of(final Leaf leaf, final int shift)
+		{
+			final int bit = 1 << ((leaf.hash >>> shift) & MASK);
+			return new Trie(bit, new Object[] { leaf });
+		}
+
+		Trie remove(final int hash, final TriggerTuple trigger,
+				final int shift)
+		{
+			final int bit = 1 << ((hash >>> shift) & MASK);
+			if ((this.bitmap & bit) == 0)
+				return this;
+			final int i = Integer.bitCount(this.bitmap & (bit - 1));
+			final Object slot = this.slots[i];
+			final Object result;
+			if (slot instanceof Trie)
+			{
+				final Trie trie = ((Trie) slot).remove(hash, trigger, shift
+						+ BITS);
+				result = trie.bitmap == 0 ? null : trie;
+			} else
+				result = ((Leaf) slot).without(trigger);
+			if (result == slot)
+				return this;
+			if (result != null)
+				return with(i, result);
+			final Object[] slots = new Object[this.slots.length - 1];
+			System.arraycopy(this.slots, 0, slots, 0, i);
+			System.arraycopy(this.slots, i + 1, slots, i, slots.length - i);
+			return new Trie(this.bitmap & ~bit, slots);
+		}
+
+		private Trie with(final int i, final Object slot)
+		{
+			final Object[] slots = this.slots.clone();
+			slots[i] = slot;
+			return new Trie(this.bitmap, slots);
+		}
+	}
+
+	/**
+	 * {@link Leaf} chains the {@link Node}s of (fully) colliding hashes
+	 */
+	static class Leaf
+	{
+		/** */
+		final int hash;
+
+		/** */
+		final Node node;
+
+		/** */
+		final Leaf next;
+
+		Leaf(final int hash, final Node node, final Leaf next)
+		{
+			this.hash = hash;
+			this.node = node;
+			this.next = next;
+		}
+
+		/** @return this chain without specified trigger, possibly empty */
+		Leaf without(final TriggerTuple trigger)
+		{
+			if (this.node.trigger == trigger)
+				return this.next;
+			if (this.next == null)
+				return this;
+			final Leaf next = this.next.without(trigger);
+			return next == this.next ? this : new Leaf(this.hash, this.node,
+					next);
+		}
+	}
+}
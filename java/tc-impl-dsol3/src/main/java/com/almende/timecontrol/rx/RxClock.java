@@ -20,27 +20,30 @@
  */
 package com.almende.timecontrol.rx;
 
-import java.util.HashMap;
-import java.util.Map;
+import io.coala.error.ExceptionBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NavigableMap;
-import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import rx.Subscriber;
-
+import com.almende.timecontrol.ClockState;
 import com.almende.timecontrol.ClockTuple;
+import com.almende.timecontrol.Pacer;
 import com.almende.timecontrol.TimeControl;
 import com.almende.timecontrol.TriggerTuple;
 import com.almende.timecontrol.entity.ClockConfig;
 import com.almende.timecontrol.entity.ClockConfig.Status;
-import com.almende.timecontrol.entity.TriggerEvent;
+import com.almende.timecontrol.entity.TimerConfig;
+import com.almende.timecontrol.entity.TimerConfig.DispatchMode;
 import com.almende.timecontrol.time.Duration;
 import com.almende.timecontrol.time.Instant;
-import com.almende.timecontrol.time.TriggerPattern;
 
 /**
  * {@link RxClock}
@@ -55,19 +58,48 @@ public class RxClock extends ClockTuple implements Runnable
 	/** */
 	private static final Logger LOG = LogManager.getLogger(RxClock.class);
 
-	protected final ScheduledExecutorService worker = Executors
-			.newSingleThreadScheduledExecutor();
+	/** the maximum number of distinct times to dispatch per {@link #run()} */
+	protected static final int SLICE_SIZE = 64;
 
-	protected final NavigableMap<Duration, Map<TriggerTuple, Boolean>> pending = new ConcurrentSkipListMap<>();
+	/** the shared pool running all {@link RxClock}s */
+	protected final ClockExecutionService service = ClockExecutionService
+			.getInstance();
 
-	protected Instant offset;
+	/** runs this clock's slices in order on the shared pool */
+	protected final Executor worker = newWorker();
 
-	protected double untilMS;
+	/**
+	 * the {@link PendingQueue} of triggers yet to dispatch, replaced by a
+	 * {@link PersistentPendingQueue} once this clock is first forked
+	 */
+	protected volatile PendingQueue pending = new SkipListPendingQueue();
+
+	protected Instant offset;
 
 	protected volatile Duration now = null;
 
 	protected volatile boolean continuing = false;
 
+	/** how to dispatch the triggers that occur at the same time */
+	protected DispatchMode dispatchMode = DispatchMode.SEQUENTIAL;
+
+	/** synchronizes this clock with {@link Coordinator#link linked} clocks */
+	protected volatile Coordinator coordinator = null;
+
+	/** the (absolute) time in nanoseconds before which this won't dispatch */
+	protected volatile long horizon = 0L;
+
+	/** holds this clock to its observers' acknowledgements, if any */
+	protected volatile AckWindow window = null;
+
+	/**
+	 * {@code true} while waiting for a {@link Coordinator#safeTime} or an
+	 * {@link AckWindow} acknowledgement; both share this flag on purpose, as
+	 * the worker parks on at most one of them per pass and any
+	 * {@link #wake()} resumes it exactly once to re-check both
+	 */
+	protected final AtomicBoolean parked = new AtomicBoolean();
+
 	/**
 	 * {@link RxClock} constructor
 	 * 
@@ -83,64 +115,227 @@ public class RxClock extends ClockTuple implements Runnable
 	{
 		super.reset(config);
 
-		this.until = config.until();
-		this.untilMS = this.until == null ? Double.MAX_VALUE : this.until
-				.getValue().doubleValue(TimeControl.MILLIS);
+		this.pending = newPendingQueue(this.timer);
+		final DispatchMode mode = this.timer == null ? null : this.timer
+				.dispatchMode();
+		this.dispatchMode = mode == null ? DispatchMode.SEQUENTIAL : mode;
 		this.offset = config.offset();
 		final Duration now = config.time();
 		setTime(now == null ? Duration.ZERO : now);
+		this.horizon = this.now.toNanosLong();
 		return this;
 	}
 
+	/**
+	 * share the parent's {@link PendingQueue} by {@link PendingQueue#fork()
+	 * forking} it in O(1), first moving the parent to a
+	 * {@link PersistentPendingQueue} (once, in O(n log n)) unless it already
+	 * uses one. Inherited triggers are only {@link #adopt adopted} once they
+	 * occur on this clock, as registrations of its own without subscribers
+	 * until registered again
+	 * 
+	 * @param parent the parent {@link RxClock}, at this clock's fork time
+	 */
+	@Override
+	protected void fork(final ClockTuple parent)
+	{
+		if (!(parent instanceof RxClock))
+		{
+			super.fork(parent);
+			return;
+		}
+		final RxClock source = (RxClock) parent;
+		final Instant offset = this.config.offset();
+		if (offset != null
+				&& (source.offset == null || offset.compareTo(source.offset) != 0))
+			throw ExceptionBuilder.unchecked(
+					"Can't fork clock " + this.configID + " with offset "
+							+ offset + " from offset " + source.offset).build();
+		// hold the parent still between its time steps
+		source.semaphore.writeLock().lock();
+		try
+		{
+			final Duration now = source.now == null ? Duration.ZERO
+					: source.now;
+			inherit(source, now.toNanosLong());
+			this.offset = source.offset;
+			this.now = now;
+			this.horizon = now.toNanosLong();
+			final PendingQueue queue = source.pending;
+			if (!(queue instanceof PersistentPendingQueue))
+				// block additions until they see the replacement
+				synchronized (queue)
+				{
+					source.pending = PersistentPendingQueue.drain(queue);
+				}
+			this.pending = source.pending.fork();
+			LOG.trace("{} inherited {} pending triggers", this.configID,
+					this.pending.size());
+		} finally
+		{
+			source.semaphore.writeLock().unlock();
+		}
+	}
+
+	@Override
+	protected NavigableMap<Duration, List<TriggerTuple>> getPending()
+	{
+		return this.pending.snapshot();
+	}
+
+	@Override
+	protected void restore(final long nanos, final Status status)
+	{
+		this.now = Duration.valueOfNanos(nanos);
+		this.horizon = nanos;
+		super.restore(nanos, status);
+	}
+
+	/**
+	 * pass each pending time before the specified one as if dispatched, i.e.
+	 * scheduling its triggers' next occurrences but not notifying them
+	 */
+	@Override
+	protected void skipTo(final long nanos, final Status status)
+	{
+		final Duration target = Duration.valueOfNanos(nanos);
+		this.semaphore.writeLock().lock();
+		try
+		{
+			for (Duration time = this.pending.firstTime(); time != null
+					&& time.compareTo(target) < 0; time = this.pending
+					.firstTime())
+			{
+				this.now = time;
+				for (PendingQueue.Entry entry : adopt(this.pending.pollFirst()))
+					if (entry.lastCall)
+						release(entry.trigger);
+					else
+						scheduleNext(entry.trigger);
+			}
+			restore(nanos, status);
+		} finally
+		{
+			this.semaphore.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the {@link Executor} to run this clock on, by default a serial
+	 *         one on the JVM-wide {@link ClockExecutionService}
+	 */
+	protected Executor newWorker()
+	{
+		return this.service.newSerialExecutor();
+	}
+
+	/**
+	 * @param timer the {@link TimerConfig}, or {@code null} for defaults
+	 * @return a new {@link PendingQueue} of the
+	 *         {@link TimerConfig#pendingQueueType() configured} type, by
+	 *         default a {@link SkipListPendingQueue}
+	 */
+	protected PendingQueue newPendingQueue(final TimerConfig timer)
+	{
+		final Class<?> type = timer == null ? null : timer.pendingQueueType();
+		if (type == null)
+			return new SkipListPendingQueue();
+
+		final Class<? extends PendingQueue> queueType = type
+				.asSubclass(PendingQueue.class);
+		try
+		{
+			try
+			{
+				return queueType.getConstructor(Duration.class).newInstance(
+						timer.resolution());
+			} catch (final NoSuchMethodException e)
+			{
+				return queueType.newInstance();
+			}
+		} catch (final Exception e)
+		{
+			throw ExceptionBuilder.unchecked(
+					"Problem providing pending queue of type: " + type, e)
+					.build();
+		}
+	}
+
+	/**
+	 * dispatch up to {@link #SLICE_SIZE} distinct times, then hand the
+	 * {@link #worker} to other clocks by re-submitting the next slice. While
+	 * dragged, the next slice is parked until the {@link Pacer} deadline of
+	 * the next time, minus the spin threshold which is spun
+	 */
 	@Override
 	public void run()
 	{
 		try
 		{
-			LOG.trace("Simulator is {}, t={} < end={}, #pending={}, #locks={}",
-					this.continuing ? "STARTING" : "<?>", this.millis,
-					this.untilMS, this.pending.size(),
-					this.semaphore.getReadLockCount());
+			LOG.trace("Simulator is {}, {}, #pending={}, #locks={}",
+					this.continuing ? "STARTING" : "<?>", this.state.get(),
+					this.pending.size(), this.semaphore.getReadLockCount());
 
-			while (this.continuing && !this.pending.isEmpty()
-					&& (this.millis == null || this.millis < this.untilMS))
+			int slice = 0;
+			while (this.continuing && !isUntil())
 			{
-				this.semaphore.writeLock().lock();
-				setTime(this.pending.firstKey());
-				final Map<TriggerTuple, Boolean> next = this.pending
-						.remove(this.now);
-				if (next == null || next.isEmpty())
+				if (slice++ == SLICE_SIZE && !this.pending.isEmpty())
 				{
-					LOG.trace("No triggers remaining for time: {}", this.now);
+					this.worker.execute(this);
 					return;
-				} else
-					LOG.trace("{} triggers for time: {}", next.size(), this.now);
-				for (Map.Entry<TriggerTuple, Boolean> entry : next.entrySet())
+				}
+				this.semaphore.writeLock().lock();
+				try
 				{
-					try
-					{
-						entry.getKey().onNext(this.now, entry.getValue());
-					} catch (final Throwable e)
+					final Duration time = this.pending.firstTime();
+					final Coordinator coordinator = this.coordinator;
+					if (coordinator != null && !proceed(coordinator, time))
+						return;
+					if (time == null)
+						break;
+					if (this.pacer.isPaced())
 					{
-						entry.getKey().onError(e);
+						final long deadline = this.pacer.deadline(time
+								.getValue().doubleValue(TimeControl.MILLIS));
+						final long remaining = this.pacer.remaining(deadline);
+						if (remaining > this.pacer.getSpinNanos())
+						{
+							this.service.schedule(this.worker, this, remaining
+									- this.pacer.getSpinNanos());
+							return;
+						}
+						this.pacer.spin(deadline);
+						this.pacer.report(deadline);
 					}
+					final AckWindow window = this.window;
+					if (window != null && !window.admit(time.toNanosLong()))
+						return;
+					setTime(time);
+					final List<PendingQueue.Entry> next = adopt(this.pending
+							.pollFirst());
+					LOG.trace("{} triggers for time: {}", next.size(),
+							this.now);
+					dispatch(next, this.now);
+				} finally
+				{
+					this.semaphore.writeLock().unlock();
 				}
-				this.semaphore.writeLock().unlock();
 			}
+			final Duration until = this.state.get().getUntil();
 			LOG.trace("Simulator is {}, t_last={}, end={}, #pending={}",
 					this.continuing ? "COMPLETED" : "WAITING", this.now,
-					this.until, this.pending.size());
+					until, this.pending.size());
 			// this.semaphore.writeLock().lock();
-			if (this.until != null)
-				setTime(this.until);
-			// else
-			// setTime(this.untilMS);
-			if (this.continuing)// this.millis == null || this.millis <
-								// this.untilMS)
+			if (until != null)
+				setTime(until);
+			if (this.continuing)
 				setStatus(Status.COMPLETED);
 			else
 				setStatus(Status.WAITING);
 			this.continuing = false;
+			final Coordinator coordinator = this.coordinator;
+			if (coordinator != null && this.state.get().isFinal())
+				coordinator.advance(this, Coordinator.UNBOUNDED);
 			// this.semaphore.writeLock().unlock();
 		} catch (final Throwable e)
 		{
@@ -150,44 +345,181 @@ public class RxClock extends ClockTuple implements Runnable
 	}
 
 	/**
-	 * @param the new time in milliseconds
+	 * @param coordinator the {@link Coordinator} of this clock
+	 * @param time the next pending {@link Duration time}, or {@code null}
+	 * @return {@code true} iff the next time is safe to dispatch, or without
+	 *         one to complete; otherwise this clock publishes its lower bound
+	 *         and parks until {@link #wake() woken} by a source clock
 	 */
-	protected void setTime(final Duration time)
+	protected boolean proceed(final Coordinator coordinator,
+			final Duration time)
 	{
-		this.now = time;
-		if (this.status != Status.RUNNING)
-			LOG.warn("{} ignoring time update {} with status {}",
-					this.configID, millis, this.status);
-		else
+		this.parked.set(true);
+		final long safe = coordinator.safeTime(this);
+		final long next = time == null ? Coordinator.UNBOUNDED : time
+				.toNanosLong();
+		final Duration until = this.state.get().getUntil();
+		if (time == null ? safe == Coordinator.UNBOUNDED
+				|| (until != null && safe >= until.toNanosLong()) : next < safe)
 		{
-			this.millis = time.getValue().doubleValue(TimeControl.MILLIS);
-			this.config.setProperty(TimeControl.TIME_KEY, time.toString());
+			this.parked.set(false);
+			if (time != null)
+				coordinator.advance(this, next);
+			return true;
 		}
-		if (this.until != null && millis >= this.until.toMillisLong())
-			setStatus(Status.COMPLETED);
+		final long now = this.now == null ? 0L : this.now.toNanosLong();
+		LOG.trace("{} parked at {}ns before {}ns, safe until {}ns",
+				this.configID, now, next, safe);
+		coordinator.advance(this, Math.max(now, Math.min(next, safe)));
+		return false;
+	}
+
+	/** resume dispatching if {@link #parked} for a safe time */
+	protected void wake()
+	{
+		if (this.continuing && this.parked.compareAndSet(true, false))
+			this.worker.execute(this);
 	}
 
 	/**
-	 * @param instant
-	 * @param sub
+	 * @param entries the {@link PendingQueue.Entry entries} about to occur
+	 * @return the {@link PendingQueue.Entry entries} of this clock's own
+	 *         triggers, i.e. with any inherited from a parent clock
+	 *         {@link #adopt(TriggerTuple) adopted}
 	 */
-	@Override
-	public void schedule(final TriggerPattern pattern, final Instant instant,
-			final boolean isLast, final Subscriber<? super TriggerEvent> sub)
-	{
-		LOG.trace("Scheduling instant {}, last={}, locks={}", instant, isLast,
-				this.semaphore.getReadLockCount());
-		final Duration absTime = instant.toDuration(this.offset);
-		// this.semaphore.writeLock().lock();
-		Map<TriggerTuple, Boolean> triggers = this.pending.get(absTime);
-		if (triggers == null)
-		{
-			triggers = new HashMap<>();
-			this.pending.put(absTime, triggers);
+	protected List<PendingQueue.Entry> adopt(
+			final List<PendingQueue.Entry> entries)
+	{
+		if (this.forkPoint == null)
+			return entries;
+		final List<PendingQueue.Entry> result = new ArrayList<>(
+				entries.size());
+		for (PendingQueue.Entry entry : entries)
+		{
+			final TriggerTuple trigger = adopt(entry.trigger);
+			if (trigger == entry.trigger)
+				result.add(entry);
+			else if (trigger != null)
+				result.add(new PendingQueue.Entry(trigger, entry.lastCall));
+		}
+		return result;
+	}
+
+	/**
+	 * fire all specified {@link PendingQueue.Entry entries} according to the
+	 * {@link #dispatchMode}, returning only once all subscribers returned
+	 * 
+	 * @param entries the {@link PendingQueue.Entry entries} to fire
+	 * @param time the current (absolute) {@link Duration time}
+	 */
+	protected void dispatch(final List<PendingQueue.Entry> entries,
+			final Duration time)
+	{
+		if (this.dispatchMode == DispatchMode.DETERMINISTIC)
+		{
+			dispatchInOrder(entries, time);
+			return;
+		}
+		if (this.dispatchMode == DispatchMode.SEQUENTIAL
+				|| entries.size() < 2)
+		{
+			for (PendingQueue.Entry entry : entries)
+				fire(entry.trigger, time, entry.lastCall);
+			return;
 		}
-		triggers.put(new TriggerTuple(pattern, sub), isLast);
-		LOG.trace("Registered t={} ({}) for {}", absTime, instant, pattern);
+		// publish concurrently, but schedule next occurrences on this thread
+		final boolean ordered = this.dispatchMode == DispatchMode.PARALLEL_ORDERED;
+		final Throwable[] errors = new Throwable[entries.size()];
+		final Queue<Integer> returned = new ConcurrentLinkedQueue<>();
+		final List<Runnable> tasks = new ArrayList<>(entries.size());
+		for (int i = 0; i < entries.size(); i++)
+		{
+			final int index = i;
+			final PendingQueue.Entry entry = entries.get(i);
+			tasks.add(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					errors[index] = publish(entry.trigger, time,
+							entry.lastCall);
+					returned.add(index);
+				}
+			});
+		}
+		this.service.invokeAll(tasks);
+		if (ordered)
+			for (int i = 0; i < errors.length; i++)
+				afterFire(entries.get(i).trigger, entries.get(i).lastCall,
+						errors[i]);
+		else
+			for (int i : returned)
+				afterFire(entries.get(i).trigger, entries.get(i).lastCall,
+						errors[i]);
+	}
+
+	/** @return {@code true} iff the current time reached the until */
+	protected boolean isUntil()
+	{
+		final ClockState state = this.state.get();
+		return state.isUntil(state.getTimeNanos());
+	}
+
+	/**
+	 * @param the new time
+	 */
+	protected void setTime(final Duration time)
+	{
+		this.now = time;
+		setTime(time.toNanosLong());
+	}
+
+	/**
+	 * @param trigger
+	 * @param instant the {@link Instant} in nanoseconds, relative to the
+	 *            {@link #offset}
+	 * @param isLast
+	 */
+	@Override
+	public void schedule(final TriggerTuple trigger, final long instant,
+			final boolean isLast)
+	{
+		final Instant offset = this.offset;
+		final long time = offset == null ? instant : instant
+				- offset.toNanosLong();
+		// instants that already passed occur now
+		final Duration now = this.now;
+		long absTime = now == null ? time : Math.max(time, now.toNanosLong());
+		// nor before the horizon already published to linked clocks
+		final Coordinator coordinator = this.coordinator;
+		final long horizon = this.horizon;
+		if (coordinator != null && horizon != Coordinator.UNBOUNDED
+				&& absTime < horizon)
+			absTime = horizon;
+		// retry if the queue was replaced meanwhile, see #fork
+		PendingQueue pending;
+		do
+		{
+			pending = this.pending;
+			pending.add(absTime, trigger, isLast);
+		} while (pending != this.pending);
+		LOG.trace("Registered t={}ns ({}ns) for {}, last={}", absTime,
+				instant, trigger.getPattern(), isLast);
 		// this.semaphore.writeLock().unlock();
+		if (coordinator != null)
+			wake();
+	}
+
+	@Override
+	protected void unschedule(final TriggerTuple trigger)
+	{
+		// retry if the queue was replaced meanwhile, see #fork
+		PendingQueue pending;
+		do
+		{
+			pending = this.pending;
+			pending.remove(trigger);
+		} while (pending != this.pending);
 	}
 
 	@Override
@@ -206,10 +538,29 @@ public class RxClock extends ClockTuple implements Runnable
 		this.continuing = false;
 	}
 
+	@Override
+	protected double currentMillis()
+	{
+		final Duration now = this.now;
+		return now == null ? 0 : now.getValue().doubleValue(
+				TimeControl.MILLIS);
+	}
+
+	@Override
+	protected Instant currentInstant()
+	{
+		final Duration now = this.now == null ? Duration.ZERO : this.now;
+		return this.offset == null ? Instant.valueOf(now.getValue())
+				: this.offset.add(now);
+	}
+
 	/** clean up */
 	@Override
 	protected void destroy()
 	{
+		final Coordinator coordinator = this.coordinator;
+		if (coordinator != null)
+			coordinator.unlink(this);
 		super.destroy();
 		this.semaphore.writeLock().lock();
 		this.pending.clear();
@@ -0,0 +1,154 @@
+/* $Id$
+ * $URL$
+ *
+ * Part of the EU project Inertia, see http://www.inertia-project.eu/
+ *
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Copyright (c) 2014 Almende B.V.
+ */
+package com.almende.timecontrol.rx;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import com.almende.timecontrol.TriggerTuple;
+import com.almende.timecontrol.time.Duration;
+
+/**
+ * {@link SkipListPendingQueue} is the default {@link PendingQueue}, mapping
+ * each distinct time (in nanoseconds) to its {@link Entry entries} in a
+ * {@link ConcurrentSkipListMap}, and each {@link TriggerTuple} to its time for
+ * {@link #remove removal} in O(log n)
+ *
+ * @date $Date$
+ * @version $Id$
+ * @author <a href="mailto:rick@almende.org">rick</a>
+ */
+public class SkipListPendingQueue implements PendingQueue
+{
+
+	/** */
+	private final NavigableMap<Long, Map<TriggerTuple, Entry>> pending = new ConcurrentSkipListMap<>();
+
+	/** the time (in nanoseconds) of each pending {@link TriggerTuple} */
+	private final Map<TriggerTuple, Long> index = new HashMap<>();
+
+	/** */
+	private int size = 0;
+
+	@Override
+	public synchronized void add(final long time,
+			final TriggerTuple trigger, final boolean lastCall)
+	{
+		remove(trigger);
+		Map<TriggerTuple, Entry> entries = this.pending.get(time);
+		if (entries == null)
+		{
+			entries = new LinkedHashMap<>();
+			this.pending.put(time, entries);
+		}
+		entries.put(trigger, new Entry(trigger, lastCall));
+		this.index.put(trigger, time);
+		this.size++;
+	}
+
+	@Override
+	public synchronized boolean remove(final TriggerTuple trigger)
+	{
+		final Long time = this.index.remove(trigger);
+		if (time == null)
+			return false;
+		final Map<TriggerTuple, Entry> entries = this.pending.get(time);
+		entries.remove(trigger);
+		if (entries.isEmpty())
+			this.pending.remove(time);
+		this.size--;
+		return true;
+	}
+
+	@Override
+	public synchronized boolean isEmpty()
+	{
+		return this.size == 0;
+	}
+
+	@Override
+	public synchronized int size()
+	{
+		return this.size;
+	}
+
+	@Override
+	public synchronized Duration firstTime()
+	{
+		return this.pending.isEmpty() ? null : Duration
+				.valueOfNanos(this.pending.firstKey());
+	}
+
+	@Override
+	public synchronized List<Entry> pollFirst()
+	{
+		final Map.Entry<Long, Map<TriggerTuple, Entry>> first = this.pending
+				.pollFirstEntry();
+		if (first == null)
+			return Collections.emptyList();
+		this.size -= first.getValue().size();
+		this.index.keySet().removeAll(first.getValue().keySet());
+		return new ArrayList<>(first.getValue().values());
+	}
+
+	@Override
+	public synchronized NavigableMap<Duration, List<TriggerTuple>> snapshot()
+	{
+		final NavigableMap<Duration, List<TriggerTuple>> result = new TreeMap<>();
+		for (Map.Entry<Long, Map<TriggerTuple, Entry>> entry : this.pending
+				.entrySet())
+			result.put(Duration.valueOfNanos(entry.getKey()), new ArrayList<>(
+					entry.getValue().keySet()));
+		return result;
+	}
+
+	/**
+	 * @return a copy of this {@link SkipListPendingQueue}, taking O(n); see
+	 *         {@link PersistentPendingQueue} for forking in O(1)
+	 */
+	@Override
+	public synchronized PendingQueue fork()
+	{
+		final SkipListPendingQueue result = new SkipListPendingQueue();
+		for (Map.Entry<Long, Map<TriggerTuple, Entry>> entry : this.pending
+				.entrySet())
+			result.pending.put(entry.getKey(), new LinkedHashMap<>(entry
+					.getValue()));
+		result.index.putAll(this.index);
+		result.size = this.size;
+		return result;
+	}
+
+	@Override
+	public synchronized void clear()
+	{
+		this.pending.clear();
+		this.index.clear();
+		this.size = 0;
+	}
+}
@@ -0,0 +1,482 @@
+/* $Id$
+ * $URL$
+ *
+ * Part of the EU project Inertia, see http://www.inertia-project.eu/
+ *
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Copyright (c) 2014 Almende B.V.
+ */
+package com.almende.timecontrol.rx;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import javax.measure.DecimalMeasure;
+import javax.measure.unit.Unit;
+
+import com.almende.timecontrol.TimeControl;
+import com.almende.timecontrol.TriggerTuple;
+import com.almende.timecontrol.time.Duration;
+
+/**
+ * {@link TimingWheelPendingQueue} is a hierarchical timing wheel keyed on
+ * primitive {@code long} ticks, i.e. the {@link Duration time} of occurrence
+ * rounded up to a multiple of the resolution. Each of the {@link #LEVELS}
+ * wheels holds {@link #SLOTS} slots, covering the next byte of the tick; ticks
+ * that differ from the current tick beyond the wheels' range wait in an
+ * overflow map until the wheels reach them. Insertion and removal are O(1)
+ * amortized, as each entry cascades down at most {@link #LEVELS} times.
+ * Slots hold doubly-linked chains, indexed by {@link TriggerTuple}, so
+ * {@link #remove removal} takes O(1) (or O(log n) for overflow chains).
+ * <p>
+ * As the wheels only move forward, entries that are added for a tick before
+ * the last {@link #firstTime()} are due at that first time instead.
+ *
+ * @date $Date$
+ * @version $Id$
+ * @author <a href="mailto:rick@almende.org">rick</a>
+ */
+public class TimingWheelPendingQueue implements PendingQueue
+{
+
+	/** number of tick bits covered by each wheel */
+	private static final int BITS = 8;
+
+	/** number of slots per wheel */
+	private static final int SLOTS = 1 << BITS;
+
+	/** */
+	private static final int MASK = SLOTS - 1;
+
+	/** number of wheels, together covering 32 tick bits */
+	private static final int LEVELS = 4;
+
+	/** the default resolution, if none was configured */
+	private static final long DEFAULT_RESOLUTION_NANOS = 1000000L;
+
+	/** */
+	private static final long NANOS_PER_MILLI = 1000000L;
+
+	/** the resolution of each tick, in nanoseconds */
+	private final long resolutionNanos;
+
+	/** first {@link Node} per slot per wheel */
+	private final Node[][] heads = new Node[LEVELS][SLOTS];
+
+	/** last {@link Node} per slot per wheel, for appending in order */
+	private final Node[][] tails = new Node[LEVELS][SLOTS];
+
+	/** slot occupancy bitmap per wheel */
+	private final long[][] occupied = new long[LEVELS][SLOTS / Long.SIZE];
+
+	/** chains beyond the wheels' range, by tick bits above the wheels */
+	private final TreeMap<Long, Node[]> overflow = new TreeMap<>();
+
+	/** the pending {@link Node} of each {@link TriggerTuple} */
+	private final Map<TriggerTuple, Node> index = new HashMap<>();
+
+	/** the tick of the earliest possible occurrence */
+	private long current = Long.MIN_VALUE;
+
+	/** */
+	private int size = 0;
+
+	/** cached {@link Duration} for {@link #firstTick} */
+	private Duration firstTime = null;
+
+	/** */
+	private long firstTick;
+
+	/**
+	 * {@link TimingWheelPendingQueue} constructor
+	 */
+	public TimingWheelPendingQueue()
+	{
+		this(null);
+	}
+
+	/**
+	 * {@link TimingWheelPendingQueue} constructor
+	 *
+	 * @param resolution the tick {@link Duration}, or {@code null} for 1 ms
+	 */
+	public TimingWheelPendingQueue(final Duration resolution)
+	{
+		final long nanos = resolution == null ? DEFAULT_RESOLUTION_NANOS
+				: resolution.toNanosLong();
+		this.resolutionNanos = nanos > 0 ? nanos : DEFAULT_RESOLUTION_NANOS;
+	}
+
+	/**
+	 * @param nanos the time (in nanoseconds) to quantize
+	 * @return the first tick at or after specified time
+	 */
+	protected long toTick(final long nanos)
+	{
+		final long tick = nanos / this.resolutionNanos;
+		return nanos > tick * this.resolutionNanos ? tick + 1 : tick;
+	}
+
+	/**
+	 * @param tick the tick to convert
+	 * @return the {@link Duration} of specified tick
+	 */
+	protected Duration toTime(final long tick)
+	{
+		final BigDecimal nanos = BigDecimal.valueOf(tick).multiply(
+				BigDecimal.valueOf(this.resolutionNanos));
+		final Unit<javax.measure.quantity.Duration> unit;
+		final BigDecimal value;
+		if (this.resolutionNanos % NANOS_PER_MILLI == 0)
+		{
+			unit = TimeControl.MILLIS;
+			value = nanos.divide(BigDecimal.valueOf(NANOS_PER_MILLI));
+		} else
+		{
+			unit = TimeControl.NANOS;
+			value = nanos;
+		}
+		return Duration.valueOf(DecimalMeasure.valueOf(value, unit));
+	}
+
+	@Override
+	public synchronized void add(final long time,
+			final TriggerTuple trigger, final boolean lastCall)
+	{
+		final long tick = toTick(time);
+		remove(trigger);
+		final Node node = new Node(tick < this.current ? this.current : tick,
+				trigger, lastCall);
+		insert(node);
+		this.index.put(trigger, node);
+		this.size++;
+	}
+
+	@Override
+	public synchronized boolean remove(final TriggerTuple trigger)
+	{
+		final Node node = this.index.remove(trigger);
+		if (node == null)
+			return false;
+		if (node.level < LEVELS)
+		{
+			final int slot = (int) (node.tick >>> (node.level * BITS)) & MASK;
+			if (node.prev == null)
+				this.heads[node.level][slot] = node.next;
+			else
+				node.prev.next = node.next;
+			if (node.next == null)
+				this.tails[node.level][slot] = node.prev;
+			else
+				node.next.prev = node.prev;
+			if (this.heads[node.level][slot] == null)
+				this.occupied[node.level][slot >>> 6] &= ~(1L << slot);
+		} else
+		{
+			final Long key = Long.valueOf(node.tick >> (LEVELS * BITS));
+			final Node[] chain = this.overflow.get(key);
+			if (node.prev == null)
+				chain[0] = node.next;
+			else
+				node.prev.next = node.next;
+			if (node.next == null)
+				chain[1] = node.prev;
+			else
+				node.next.prev = node.prev;
+			if (chain[0] == null)
+				this.overflow.remove(key);
+		}
+		node.prev = node.next = null;
+		this.size--;
+		return true;
+	}
+
+	@Override
+	public synchronized boolean isEmpty()
+	{
+		return this.size == 0;
+	}
+
+	@Override
+	public synchronized int size()
+	{
+		return this.size;
+	}
+
+	@Override
+	public synchronized Duration firstTime()
+	{
+		if (!advance())
+			return null;
+		if (this.firstTime == null || this.firstTick != this.current)
+		{
+			this.firstTick = this.current;
+			this.firstTime = toTime(this.current);
+		}
+		return this.firstTime;
+	}
+
+	@Override
+	public synchronized List<Entry> pollFirst()
+	{
+		if (!advance())
+			return Collections.emptyList();
+		final int slot = (int) this.current & MASK;
+		final List<Entry> result = new ArrayList<>();
+		for (Node node = this.heads[0][slot]; node != null; node = node.next)
+		{
+			result.add(node);
+			this.index.remove(node.trigger);
+		}
+		unlink(0, slot);
+		this.size -= result.size();
+		return result;
+	}
+
+	@Override
+	public synchronized NavigableMap<Duration, List<TriggerTuple>> snapshot()
+	{
+		// collect the chains per tick, from the overflow down to the lowest
+		final TreeMap<Long, List<TriggerTuple>> ticks = new TreeMap<>();
+		for (Node[] chain : this.overflow.values())
+			collect(chain[0], ticks);
+		for (int level = LEVELS - 1; level >= 0; level--)
+			for (Node head : this.heads[level])
+				collect(head, ticks);
+		final NavigableMap<Duration, List<TriggerTuple>> result = new TreeMap<>();
+		for (Map.Entry<Long, List<TriggerTuple>> entry : ticks.entrySet())
+			result.put(toTime(entry.getKey().longValue()), entry.getValue());
+		return result;
+	}
+
+	/**
+	 * @param chain the first {@link Node} of a chain
+	 * @param ticks the {@link TriggerTuple}s per tick to append to
+	 */
+	private static void collect(final Node chain,
+			final Map<Long, List<TriggerTuple>> ticks)
+	{
+		for (Node node = chain; node != null; node = node.next)
+		{
+			final Long tick = Long.valueOf(node.tick);
+			List<TriggerTuple> triggers = ticks.get(tick);
+			if (triggers == null)
+			{
+				triggers = new ArrayList<>();
+				ticks.put(tick, triggers);
+			}
+			triggers.add(node.trigger);
+		}
+	}
+
+	/**
+	 * not supported, as the wheels link their {@link Entry entries} in place;
+	 * see {@link PersistentPendingQueue} for forking in O(1)
+	 */
+	@Override
+	public PendingQueue fork()
+	{
+		throw new UnsupportedOperationException(getClass().getSimpleName()
+				+ " can't fork, use " + PersistentPendingQueue.class.getName());
+	}
+
+	@Override
+	public synchronized void clear()
+	{
+		for (int level = 0; level < LEVELS; level++)
+		{
+			Arrays.fill(this.heads[level], null);
+			Arrays.fill(this.tails[level], null);
+			Arrays.fill(this.occupied[level], 0L);
+		}
+		this.overflow.clear();
+		this.index.clear();
+		this.current = Long.MIN_VALUE;
+		this.size = 0;
+		this.firstTime = null;
+	}
+
+	/**
+	 * move {@link #current} to the earliest occupied tick, cascading higher
+	 * wheels and overflow chains down as their range is reached
+	 *
+	 * @return {@code false} iff no entries are pending
+	 */
+	private boolean advance()
+	{
+		if (this.size == 0)
+			return false;
+		while (true)
+		{
+			final int slot = nextOccupied(0, (int) this.current & MASK);
+			if (slot >= 0)
+			{
+				this.current = (this.current & ~(long) MASK) | slot;
+				return true;
+			}
+			boolean cascaded = false;
+			for (int level = 1; level < LEVELS && !cascaded; level++)
+			{
+				final int shift = level * BITS;
+				final int from = (int) (this.current >>> shift) & MASK;
+				final int next = from == MASK ? -1
+						: nextOccupied(level, from + 1);
+				if (next < 0)
+					continue;
+				// jump to the start of the next occupied slot, then cascade
+				this.current = ((this.current >>> shift >>> BITS) << BITS | next) << shift;
+				final Node chain = unlink(level, next);
+				for (Node node = chain, tmp; node != null; node = tmp)
+				{
+					tmp = node.next;
+					insert(node);
+				}
+				cascaded = true;
+			}
+			if (cascaded)
+				continue;
+			final Map.Entry<Long, Node[]> block = this.overflow
+					.pollFirstEntry();
+			if (block == null)
+				throw new IllegalStateException("Missing " + this.size
+						+ " pending entries");
+			this.current = block.getKey().longValue() << (LEVELS * BITS);
+			for (Node node = block.getValue()[0], tmp; node != null; node = tmp)
+			{
+				tmp = node.next;
+				insert(node);
+			}
+		}
+	}
+
+	/**
+	 * append specified {@link Node} to the slot of the lowest wheel that
+	 * covers its tick relative to {@link #current}
+	 *
+	 * @param node the {@link Node} to insert
+	 */
+	private void insert(final Node node)
+	{
+		node.next = null;
+		final long diff = node.tick ^ this.current;
+		final int level = diff == 0 ? 0 : (Long.SIZE - 1 - Long
+				.numberOfLeadingZeros(diff)) / BITS;
+		if (level >= LEVELS)
+		{
+			node.level = LEVELS;
+			final Long key = Long.valueOf(node.tick >> (LEVELS * BITS));
+			final Node[] chain = this.overflow.get(key);
+			if (chain == null)
+			{
+				node.prev = null;
+				this.overflow.put(key, new Node[] { node, node });
+			} else
+			{
+				node.prev = chain[1];
+				chain[1].next = node;
+				chain[1] = node;
+			}
+			return;
+		}
+		node.level = level;
+		final int slot = (int) (node.tick >>> (level * BITS)) & MASK;
+		final Node tail = this.tails[level][slot];
+		node.prev = tail;
+		if (tail == null)
+		{
+			this.heads[level][slot] = node;
+			this.occupied[level][slot >>> 6] |= 1L << slot;
+		} else
+			tail.next = node;
+		this.tails[level][slot] = node;
+	}
+
+	/**
+	 * @param level the wheel
+	 * @param slot the slot to empty
+	 * @return the chain of {@link Node}s that was in specified slot
+	 */
+	private Node unlink(final int level, final int slot)
+	{
+		final Node result = this.heads[level][slot];
+		this.heads[level][slot] = null;
+		this.tails[level][slot] = null;
+		this.occupied[level][slot >>> 6] &= ~(1L << slot);
+		return result;
+	}
+
+	/**
+	 * @param level the wheel
+	 * @param from the first slot to consider
+	 * @return the first occupied slot at or after {@code from}, or {@code -1}
+	 */
+	private int nextOccupied(final int level, final int from)
+	{
+		final long[] bits = this.occupied[level];
+		int word = from >>> 6;
+		long mask = bits[word] & (-1L << from);
+		while (mask == 0)
+		{
+			if (++word == bits.length)
+				return -1;
+			mask = bits[word];
+		}
+		return (word << 6) + Long.numberOfTrailingZeros(mask);
+	}
+
+	/**
+	 * {@link Node} is an {@link Entry} that links to the previous and next
+	 * {@link Entry} in its slot
+	 *
+	 * @date $Date$
+	 * @version $Id$
+	 * @author <a href="mailto:rick@almende.org">rick</a>
+	 */
+	private static class Node extends Entry
+	{
+		/** the tick of occurrence */
+		final long tick;
+
+		/** the wheel holding this {@link Node}, {@link #LEVELS} if overflow */
+		int level;
+
+		/** the previous {@link Node} in the same slot */
+		Node prev;
+
+		/** the next {@link Node} in the same slot */
+		Node next;
+
+		/**
+		 * {@link Node} constructor
+		 *
+		 * @param tick
+		 * @param trigger
+		 * @param lastCall
+		 */
+		Node(final long tick, final TriggerTuple trigger,
+				final boolean lastCall)
+		{
+			super(trigger, lastCall);
+			this.tick = tick;
+		}
+	}
+}
@@ -0,0 +1,175 @@
+/* $Id$
+ *
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Copyright (c) 2015 Almende B.V.
+ */
+package com.almende.timecontrol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.NavigableMap;
+
+import javax.inject.Provider;
+
+import org.junit.Test;
+
+import rx.observers.TestSubscriber;
+
+import com.almende.timecontrol.entity.ClockConfig;
+import com.almende.timecontrol.entity.ClockConfig.Status;
+import com.almende.timecontrol.entity.TimerConfig;
+import com.almende.timecontrol.entity.TriggerConfig;
+import com.almende.timecontrol.entity.TriggerEvent;
+import com.almende.timecontrol.rx.RxClock;
+import com.almende.timecontrol.time.Duration;
+import com.almende.timecontrol.time.Instant;
+import com.almende.timecontrol.time.TriggerPattern;
+
+/**
+ * {@link CheckpointTest}
+ *
+ * @date $Date$
+ * @version $Id$
+ * @author <a href="mailto:rick@almende.org">Rick</a>
+ */
+public class CheckpointTest
+{
+
+	@Test
+	public void restoresPendingTriggers() throws IOException
+	{
+		final ClockConfig.ID id = ClockConfig.ID.valueOf("clock");
+		final TimeManagerImpl timer = Fixtures.newTimer();
+		timer.setTimerConfig(TimerConfig.Builder.forID("timer")
+				.withClock(ClockConfig.Builder.forID(id).build()).build());
+		timer.updateClock(ClockConfig.Builder.forID(id)
+				.withTime(Duration.valueOf("PT10S")).build());
+		final ClockTuple clock = timer.getClockTuple(id);
+		for (int i = 0; i < 1000; i++)
+			clock.register(i % 2 == 0 ? new TriggerPattern("R/PT0S/PT1S")
+					: new TriggerPattern(Instant.valueOf((20000 + i) + " ms")),
+					new TestSubscriber<TriggerEvent>());
+
+		final File file = File.createTempFile("timer", ".ckp");
+		file.deleteOnExit();
+		timer.checkpoint(file);
+
+		final TimeManagerImpl restored = Fixtures.newTimer();
+		restored.restore(file);
+		final ClockTuple result = restored.getClockTuple(id);
+		assertNotNull(result);
+		assertEquals(clock.getState().getTimeNanos(), result.getState()
+				.getTimeNanos());
+		assertEquals(1000, result.triggers.size());
+		assertEquals(clock.multicasts.size(), result.multicasts.size());
+		final NavigableMap<Duration, List<TriggerTuple>> expected = clock
+				.getPending();
+		final NavigableMap<Duration, List<TriggerTuple>> actual = result
+				.getPending();
+		assertEquals(expected.keySet(), actual.keySet());
+		for (Duration time : expected.keySet())
+			assertEquals(expected.get(time).size(), actual.get(time).size());
+	}
+
+	@Test
+	public void reattachesReregisteredTriggers() throws Exception
+	{
+		final ClockConfig.ID id = ClockConfig.ID.valueOf("clock");
+		final TriggerConfig.ID triggerId = TriggerConfig.ID.valueOf("trigger");
+		final TriggerPattern pattern = new TriggerPattern("R/PT0S/PT1S");
+		final TimeManagerImpl timer = Fixtures.newTimer();
+		timer.updateClock(ClockConfig.Builder.forID(id)
+				.withTime(Duration.valueOf("PT10S")).build());
+		timer.getClockTuple(id).register(triggerId, pattern,
+				new TestSubscriber<TriggerEvent>());
+		final File file = Fixtures.newFile(".ckp");
+		timer.checkpoint(file);
+		timer.destroy();
+
+		final TimeManagerImpl restored = Fixtures.newTimer();
+		restored.restore(file);
+		restored.updateClock(ClockConfig.Builder.forID(id)
+				.withUntil(Duration.valueOf("PT12S")).build());
+		final ClockTuple clock = restored.getClockTuple(id);
+		final Duration next = clock.getPending().firstKey();
+		// restored members have no subscriber until registered again
+		final TestSubscriber<TriggerEvent> sub = new TestSubscriber<>();
+		clock.register(triggerId, pattern, sub);
+		assertEquals(1, clock.triggers.size());
+		clock.setStatus(Status.RUNNING);
+		for (int i = 0; i < 100 && !clock.getState().isFinal(); i++)
+			Thread.sleep(50);
+		restored.destroy();
+
+		final List<TriggerEvent> events = sub.getOnNextEvents();
+		assertFalse(events.isEmpty());
+		assertEquals(0, next.compareTo(events.get(0).time()));
+		assertEquals(triggerId, events.get(0).triggerId());
+	}
+
+	@Test
+	public void keepsLastCheckpointOnFailure() throws IOException
+	{
+		final ClockConfig.ID id = ClockConfig.ID.valueOf("clock");
+		final File file = Fixtures.newFile(".ckp");
+		final TimeManagerImpl timer = Fixtures.newTimer();
+		timer.updateClock(ClockConfig.Builder.forID(id).build());
+		timer.checkpoint(file);
+		final long length = file.length();
+
+		final TimeManagerImpl failing = new TimeManagerImpl(
+				new Provider<ClockTuple>()
+				{
+					@Override
+					public ClockTuple get()
+					{
+						return new RxClock()
+						{
+							@Override
+							protected void writeTo(final Checkpoint.Writer out)
+									throws IOException
+							{
+								out.writeLong(0L);
+								throw new IOException("Disk full");
+							}
+						};
+					}
+				});
+		failing.setTimerConfig(timer.getTimerConfig());
+		failing.updateClock(ClockConfig.Builder.forID(id).build());
+		try
+		{
+			failing.checkpoint(file);
+			fail("Checkpoint should fail");
+		} catch (final RuntimeException e)
+		{
+			// expected
+		}
+		assertEquals(length, file.length());
+		assertFalse(new File(file.getPath() + ".tmp").exists());
+		final TimeManagerImpl restored = Fixtures.newTimer();
+		restored.restore(file);
+		assertNotNull(restored.getClockTuple(id));
+		restored.destroy();
+		failing.destroy();
+		timer.destroy();
+	}
+}
@@ -0,0 +1,114 @@
+/* $Id$
+ *
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Copyright (c) 2015 Almende B.V.
+ */
+package com.almende.timecontrol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import rx.observers.TestSubscriber;
+
+import com.almende.timecontrol.entity.ClockConfig;
+import com.almende.timecontrol.entity.ClockConfig.Status;
+import com.almende.timecontrol.entity.ClockEvent;
+import com.almende.timecontrol.rx.RxClock;
+import com.almende.timecontrol.time.Duration;
+import com.almende.timecontrol.time.Rate;
+
+/**
+ * {@link ClockStateTest}
+ *
+ * @date $Date$
+ * @version $Id$
+ * @author <a href="mailto:rick@almende.org">Rick</a>
+ */
+public class ClockStateTest
+{
+
+	@Test
+	public void snapshotsChanges()
+	{
+		final ClockState state = ClockState.valueOf(ClockConfig.Builder
+				.forID("clock").withTime(Duration.valueOf("PT1S"))
+				.withStatus(Status.WAITING).withUntil(Duration.valueOf("PT2S"))
+				.build());
+		assertEquals(1000000000L, state.getTimeNanos());
+		assertEquals(1000d, state.getMillis(), 0d);
+		assertEquals(Status.WAITING, state.getStatus());
+		assertNull(state.getDrag());
+		assertEquals(0d, state.getDragFactor(), 0d);
+
+		// unchanged values keep the snapshot
+		assertSame(state, state.withTime(1000000000L));
+		assertSame(state, state.withStatus(Status.WAITING));
+
+		// changes yield a new snapshot, leaving the old one as it was
+		final ClockState running = state.withTime(1500000000L).withStatus(
+				Status.RUNNING);
+		assertNotSame(state, running);
+		assertEquals(1000000000L, state.getTimeNanos());
+		assertFalse(state.isRunning());
+		assertEquals(1500000000L, running.getTimeNanos());
+		assertTrue(running.isRunning());
+		assertEquals(state.getUntil(), running.getUntil());
+		assertFalse(running.withStatus(Status.WAITING).isFinal());
+		assertTrue(running.withStatus(Status.COMPLETED).isFinal());
+
+		final ClockState dragged = running.withDrag(Rate.valueOf(2));
+		assertEquals(2d, dragged.getDragFactor(), 0d);
+		assertEquals(1500000000L, dragged.getTimeNanos());
+		assertEquals(0d, dragged.withDrag(null).getDragFactor(), 0d);
+	}
+
+	@Test
+	public void reachesUntil()
+	{
+		final ClockState state = ClockState.INITIAL.withUntil(Duration
+				.valueOf("PT2S"));
+		assertFalse(state.isUntil(1999999999L));
+		assertTrue(state.isUntil(2000000000L));
+		assertTrue(state.isUntil(2000000001L));
+		// without until, no time is reached
+		assertFalse(state.withUntil(null).isUntil(Long.MAX_VALUE - 1));
+		assertFalse(ClockState.INITIAL.isUntil(Long.MAX_VALUE - 1));
+	}
+
+	@Test
+	public void materializesConfigSilently()
+	{
+		final ClockTuple clock = new RxClock();
+		clock.reset(ClockConfig.Builder.forID("clock")
+				.withTime(Duration.ZERO).withStatus(Status.WAITING).build());
+		clock.restore(5000000L, Status.COMPLETED);
+		final ClockState state = clock.getState();
+		final TestSubscriber<ClockEvent> events = new TestSubscriber<>();
+		clock.events.subscribe(events);
+
+		final ClockConfig config = clock.getConfig();
+		assertEquals(5000000L, config.time().toNanosLong());
+		assertEquals(Status.COMPLETED, config.status());
+		// reflecting the state doesn't change or publish it again
+		assertSame(state, clock.getState());
+		assertTrue(events.getOnNextEvents().isEmpty());
+	}
+}
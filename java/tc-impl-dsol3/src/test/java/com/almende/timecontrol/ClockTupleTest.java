@@ -0,0 +1,256 @@
+/* $Id$
+ *
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Copyright (c) 2015 Almende B.V.
+ */
+package com.almende.timecontrol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import rx.Subscriber;
+import rx.observers.TestSubscriber;
+
+import com.almende.timecontrol.entity.ClockConfig;
+import com.almende.timecontrol.entity.ClockConfig.Status;
+import com.almende.timecontrol.entity.TimerConfig;
+import com.almende.timecontrol.entity.TriggerEvent;
+import com.almende.timecontrol.rx.AckWindow;
+import com.almende.timecontrol.rx.Coordinator;
+import com.almende.timecontrol.rx.RxClock;
+import com.almende.timecontrol.time.Duration;
+import com.almende.timecontrol.time.Instant;
+import com.almende.timecontrol.time.TriggerPattern;
+
+/**
+ * {@link ClockTupleTest}
+ *
+ * @date $Date$
+ * @version $Id$
+ * @author <a href="mailto:rick@almende.org">Rick</a>
+ */
+public class ClockTupleTest
+{
+
+	@Test
+	public void multicastsEqualPatterns()
+	{
+		final RxClock clock = new RxClock();
+		clock.reset(ClockConfig.Builder.forID("clock")
+				.withTime(Duration.ZERO).build());
+		final List<TriggerTuple> triggers = new ArrayList<>();
+		for (int i = 0; i < 1000; i++)
+			triggers.add(clock.register(new TriggerPattern(
+					i % 2 == 0 ? "R/PT0S/PT1S" : " R/PT0S/PT1S "),
+					new TestSubscriber<TriggerEvent>()));
+		clock.register(new TriggerPattern("R/PT0S/PT2S"),
+				new TestSubscriber<TriggerEvent>());
+		// one scheduled multicast per distinct pattern
+		assertEquals(1001, clock.triggers.size());
+		assertEquals(2, clock.multicasts.size());
+		final TriggerMulticast multicast = clock.multicasts
+				.get(new TriggerPattern("R/PT0S/PT1S"));
+		assertEquals(1000, multicast.getMembers().size());
+		assertEquals(1000, multicast.getMemberCount());
+		assertSame(multicast, clock.memberships.get(triggers.get(1).getID()));
+
+		// the multicast remains until its last member leaves
+		for (int i = 1; i < triggers.size(); i++)
+			assertTrue(clock.unregister(triggers.get(i).getID()));
+		assertFalse(multicast.isCancelled());
+		assertEquals(1, multicast.getMemberCount());
+		assertSame(triggers.get(0), multicast.getMembers().iterator().next());
+		assertTrue(clock.unregister(triggers.get(0).getID()));
+		assertFalse(clock.unregister(triggers.get(0).getID()));
+		assertTrue(multicast.isCancelled());
+		assertEquals(1, clock.multicasts.size());
+		assertEquals(1, clock.triggers.size());
+	}
+
+	@Test
+	public void forksPendingSchedule() throws InterruptedException
+	{
+		// the default queue, replaced by a persistent one on forking
+		final TimerConfig timer = TimerConfig.Builder.forID("timer").build();
+		final ClockTuple parent = new RxClock().reset(timer, ClockConfig.Builder
+				.forID("parent").withTime(Duration.ZERO).build());
+		final TriggerPattern pattern = new TriggerPattern("R/PT0S/PT1S");
+		final TestSubscriber<TriggerEvent> before = new TestSubscriber<>();
+		final TriggerTuple resumed = parent.register(pattern, before);
+		final TestSubscriber<TriggerEvent> other = new TestSubscriber<>();
+		final TriggerTuple inherited = parent.register(pattern, other);
+
+		final ClockTuple child = new RxClock().reset(timer, ClockConfig.Builder
+				.forID("child").withForkParentID(parent.config.id())
+				.withForkTime(Duration.ZERO).withUntil(Duration.valueOf("PT3S"))
+				.build());
+		child.fork(parent);
+		// joins the parent's multicast after the fork
+		final TestSubscriber<TriggerEvent> after = new TestSubscriber<>();
+		parent.register(pattern, after);
+		// resumes an inherited registration on the child
+		final TestSubscriber<TriggerEvent> branch = new TestSubscriber<>();
+		child.register(resumed.getID(), pattern, branch);
+
+		child.setStatus(Status.RUNNING);
+		for (int i = 0; i < 100 && !child.getState().isFinal(); i++)
+			Thread.sleep(50);
+		assertEquals(Status.COMPLETED, child.getState().getStatus());
+		// the child never notifies (nor completes) the parent's subscribers
+		assertEquals(0, before.getOnNextEvents().size());
+		assertEquals(0, other.getOnNextEvents().size());
+		assertEquals(0, after.getOnNextEvents().size());
+		assertEquals(0, other.getOnCompletedEvents().size());
+		assertEquals(0, inherited.getEvents().size());
+		// but only its own registrations, incl. one kept for the other id
+		assertEquals(4, branch.getOnNextEvents().size());
+		final TriggerTuple copy = child.triggers.get(inherited.getID());
+		assertNotSame(inherited, copy);
+		assertEquals(4, copy.getEvents().size());
+		assertEquals(0, parent.getState().getTimeNanos());
+	}
+
+	@Test
+	public void linksClocksConservatively() throws InterruptedException
+	{
+		final TimerConfig timer = TimerConfig.Builder.forID("timer").build();
+		final ClockTuple source = new RxClock().reset(timer, ClockConfig.Builder
+				.forID("source").withTime(Duration.ZERO)
+				.withUntil(Duration.valueOf("PT5S")).build());
+		final ClockTuple target = new RxClock().reset(timer, ClockConfig.Builder
+				.forID("target").withTime(Duration.ZERO)
+				.withUntil(Duration.valueOf("PT5S")).build());
+		new Coordinator().link((RxClock) source, (RxClock) target,
+				Duration.valueOf("PT1S"));
+		final List<Long> messages = Collections
+				.synchronizedList(new ArrayList<Long>());
+		// a slow source sending a message to arrive one second later
+		source.register(new TriggerPattern("R/PT0S/PT1S"),
+				new Subscriber<TriggerEvent>()
+				{
+					@Override
+					public void onNext(final TriggerEvent event)
+					{
+						try
+						{
+							Thread.sleep(20);
+						} catch (final InterruptedException e)
+						{
+							return;
+						}
+						target.register(new TriggerPattern(Instant.valueOf((event
+								.time().toNanosLong() / 1000000 + 1000)
+								+ " ms")), new Subscriber<TriggerEvent>()
+						{
+							@Override
+							public void onNext(final TriggerEvent event)
+							{
+								messages.add(event.time().toNanosLong());
+							}
+
+							@Override
+							public void onCompleted()
+							{
+							}
+
+							@Override
+							public void onError(final Throwable e)
+							{
+							}
+						});
+					}
+
+					@Override
+					public void onCompleted()
+					{
+					}
+
+					@Override
+					public void onError(final Throwable e)
+					{
+					}
+				});
+		// a fast target
+		target.register(new TriggerPattern("R/PT0S/PT0.1S"),
+				new TestSubscriber<TriggerEvent>());
+
+		target.setStatus(Status.RUNNING);
+		source.setStatus(Status.RUNNING);
+		for (int i = 0; i < 100 && !target.getState().isFinal(); i++)
+			Thread.sleep(50);
+		assertEquals(Status.COMPLETED, source.getState().getStatus());
+		assertEquals(Status.COMPLETED, target.getState().getStatus());
+		// each message arrived at its time, i.e. the target never ran ahead
+		assertEquals(5, messages.size());
+		for (int i = 0; i < 5; i++)
+			assertEquals((i + 1) * 1000000000L, messages.get(i).longValue());
+	}
+
+	@Test
+	public void holdsToAcknowledgements() throws InterruptedException
+	{
+		final TimerConfig timer = TimerConfig.Builder.forID("timer").build();
+		final ClockTuple clock = new RxClock().reset(timer, ClockConfig.Builder
+				.forID("clock").withTime(Duration.ZERO)
+				.withUntil(Duration.valueOf("PT5S")).build());
+		final AckWindow window = AckWindow.attach((RxClock) clock, 1);
+		final List<Long> notified = Collections
+				.synchronizedList(new ArrayList<Long>());
+		clock.register(new TriggerPattern("R/PT0S/PT1S"),
+				new Subscriber<TriggerEvent>()
+				{
+					@Override
+					public void onNext(final TriggerEvent event)
+					{
+						window.expect("slave", event.time().toNanosLong());
+						notified.add(event.time().toNanosLong());
+					}
+
+					@Override
+					public void onCompleted()
+					{
+					}
+
+					@Override
+					public void onError(final Throwable e)
+					{
+					}
+				});
+
+		clock.setStatus(Status.RUNNING);
+		Thread.sleep(200);
+		// held in lock-step until the slave acknowledges its first instant
+		assertEquals(1, notified.size());
+		assertEquals(1, window.getBacklog());
+		assertFalse(clock.getState().isFinal());
+
+		for (int i = 0; i < 100 && !clock.getState().isFinal(); i++)
+		{
+			window.acknowledge("slave", notified.get(notified.size() - 1));
+			Thread.sleep(20);
+		}
+		assertEquals(Status.COMPLETED, clock.getState().getStatus());
+		assertEquals(6, notified.size());
+	}
+}
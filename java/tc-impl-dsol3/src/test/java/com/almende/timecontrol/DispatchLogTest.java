@@ -0,0 +1,109 @@
+/* $Id$
+ *
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Copyright (c) 2015 Almende B.V.
+ */
+package com.almende.timecontrol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import rx.functions.Action1;
+
+import com.almende.timecontrol.entity.ClockConfig;
+import com.almende.timecontrol.entity.ClockConfig.Status;
+import com.almende.timecontrol.entity.TimerConfig;
+import com.almende.timecontrol.entity.TimerConfig.DispatchMode;
+import com.almende.timecontrol.entity.TriggerConfig;
+import com.almende.timecontrol.entity.TriggerEvent;
+import com.almende.timecontrol.time.Duration;
+import com.almende.timecontrol.time.TriggerPattern;
+
+/**
+ * {@link DispatchLogTest}
+ *
+ * @date $Date$
+ * @version $Id$
+ * @author <a href="mailto:rick@almende.org">Rick</a>
+ */
+public class DispatchLogTest
+{
+
+	private static Action1<TriggerEvent> collect(final List<String> result)
+	{
+		return new Action1<TriggerEvent>()
+		{
+			@Override
+			public void call(final TriggerEvent event)
+			{
+				result.add(event.time().toNanosLong() + ":"
+						+ event.triggerId().getValue());
+			}
+		};
+	}
+
+	@Test
+	public void replaysRecordedOrder() throws Exception
+	{
+		final ClockConfig.ID id = ClockConfig.ID.valueOf("clock");
+		final TimeManagerImpl timer = Fixtures.newTimer(TimerConfig.Builder
+				.forID("timer").withDispatchMode(DispatchMode.DETERMINISTIC)
+				.build());
+		timer.updateClock(ClockConfig.Builder.forID(id)
+				.withUntil(Duration.valueOf("PT5S")).build());
+		final List<String> live = Collections
+				.synchronizedList(new ArrayList<String>());
+		// a and c share a multicast, yet b was registered in between
+		final String[] patterns = { "R/PT0S/PT1S", "R/PT0S/PT2S",
+				"R/PT0S/PT1S" };
+		for (int i = 0; i < patterns.length; i++)
+			timer.registerTrigger(
+					id,
+					TriggerConfig.Builder.fromID(String.valueOf((char) ('a' + i)))
+							.withPattern(new TriggerPattern(patterns[i]))
+							.build()).subscribe(collect(live));
+
+		final File file = File.createTempFile("timer", ".log");
+		file.deleteOnExit();
+		timer.record(file);
+		final ClockTuple clock = timer.getClockTuple(id);
+		clock.setStatus(Status.RUNNING);
+		for (int i = 0; i < 100 && !clock.getState().isFinal(); i++)
+			Thread.sleep(50);
+		timer.record(null);
+		timer.destroy();
+
+		final int b = live.indexOf("2000000000:b");
+		assertTrue(b > 0);
+		assertEquals("2000000000:a", live.get(b - 1));
+		assertEquals("2000000000:c", live.get(b + 1));
+
+		final List<String> replayed = new ArrayList<>();
+		try (final DispatchLog.Replayer replayer = new DispatchLog.Replayer(
+				file))
+		{
+			replayer.observe().subscribe(collect(replayed));
+			assertEquals(live.size(), replayer.run());
+		}
+		assertEquals(live, replayed);
+	}
+}
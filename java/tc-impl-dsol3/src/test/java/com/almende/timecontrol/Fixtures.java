@@ -0,0 +1,98 @@
+/* $Id$
+ *
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Copyright (c) 2015 Almende B.V.
+ */
+package com.almende.timecontrol;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.inject.Provider;
+
+import rx.observers.Subscribers;
+
+import com.almende.timecontrol.entity.TimerConfig;
+import com.almende.timecontrol.entity.TriggerEvent;
+import com.almende.timecontrol.rx.RxClock;
+import com.almende.timecontrol.time.Instant;
+import com.almende.timecontrol.time.TriggerPattern;
+
+/**
+ * {@link Fixtures} shared by the timer and pending queue tests
+ *
+ * @date $Date$
+ * @version $Id$
+ * @author <a href="mailto:rick@almende.org">Rick</a>
+ */
+public final class Fixtures
+{
+
+	/** */
+	private Fixtures()
+	{
+		// static helpers only
+	}
+
+	/**
+	 * @return a default configured {@link TimeManagerImpl} providing
+	 *         {@link RxClock}s
+	 */
+	public static TimeManagerImpl newTimer()
+	{
+		return newTimer(TimerConfig.Builder.forID("timer").build());
+	}
+
+	/**
+	 * @param config the {@link TimerConfig} to apply
+	 * @return a {@link TimeManagerImpl} providing {@link RxClock}s
+	 */
+	public static TimeManagerImpl newTimer(final TimerConfig config)
+	{
+		final TimeManagerImpl result = new TimeManagerImpl(
+				new Provider<ClockTuple>()
+				{
+					@Override
+					public ClockTuple get()
+					{
+						return new RxClock();
+					}
+				});
+		result.setTimerConfig(config);
+		return result;
+	}
+
+	/**
+	 * @param suffix the file name suffix
+	 * @return a temporary {@link File} that does not exist yet
+	 * @throws IOException
+	 */
+	public static File newFile(final String suffix) throws IOException
+	{
+		final File result = File.createTempFile("timer", suffix);
+		result.delete();
+		result.deleteOnExit();
+		return result;
+	}
+
+	/**
+	 * @return an unsubscribed {@link TriggerTuple} occurring once at zero
+	 */
+	public static TriggerTuple newTrigger()
+	{
+		return new TriggerTuple(new TriggerPattern(Instant.valueOf(0)),
+				Subscribers.<TriggerEvent> empty());
+	}
+}
@@ -0,0 +1,220 @@
+/* $Id$
+ *
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Copyright (c) 2015 Almende B.V.
+ */
+package com.almende.timecontrol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.inject.Provider;
+
+import org.junit.Test;
+
+import rx.observers.TestSubscriber;
+
+import com.almende.timecontrol.entity.ClockConfig;
+import com.almende.timecontrol.entity.ClockConfig.Status;
+import com.almende.timecontrol.entity.TimerConfig;
+import com.almende.timecontrol.entity.TimerConfig.JournalSync;
+import com.almende.timecontrol.entity.TriggerConfig;
+import com.almende.timecontrol.entity.TriggerEvent;
+import com.almende.timecontrol.rx.RxClock;
+import com.almende.timecontrol.time.Duration;
+import com.almende.timecontrol.time.TriggerPattern;
+
+/**
+ * {@link JournalTest}
+ *
+ * @date $Date$
+ * @version $Id$
+ * @author <a href="mailto:rick@almende.org">Rick</a>
+ */
+public class JournalTest
+{
+
+	/** the {@link TimerConfig} journaling every change */
+	private static final TimerConfig JOURNALED = TimerConfig.Builder
+			.forID("timer").withJournalSync(JournalSync.ALWAYS).build();
+
+	@Test
+	public void recoversSinceCheckpoint() throws Exception
+	{
+		final ClockConfig.ID id = ClockConfig.ID.valueOf("clock");
+		final File checkpoint = Fixtures.newFile(".ckp");
+		final File journal = Fixtures.newFile(".jnl");
+		final TimeManagerImpl timer = Fixtures.newTimer(JOURNALED);
+		timer.recover(null, journal);
+		timer.updateClock(ClockConfig.Builder.forID(id)
+				.withTime(Duration.valueOf("PT10S"))
+				.withUntil(Duration.valueOf("PT13S")).build());
+		for (int i = 0; i < 10; i++)
+		{
+			if (i == 5)
+				timer.checkpoint(checkpoint);
+			timer.registerTrigger(
+					id,
+					TriggerConfig.Builder.fromID("trigger" + i)
+							.withPattern(new TriggerPattern("R/PT0S/PT1S"))
+							.build()).subscribe(
+					new TestSubscriber<TriggerEvent>());
+		}
+		final ClockTuple clock = timer.getClockTuple(id);
+		clock.setStatus(Status.RUNNING);
+		for (int i = 0; i < 100 && !clock.getState().isFinal(); i++)
+			Thread.sleep(50);
+		assertEquals(Status.COMPLETED, clock.getState().getStatus());
+
+		// recover as if crashed, i.e. without closing the journal first
+		final TimeManagerImpl recovered = Fixtures.newTimer(JOURNALED);
+		recovered.recover(checkpoint, journal);
+		final ClockTuple result = recovered.getClockTuple(id);
+		assertEquals(clock.getState().getTimeNanos(), result.getState()
+				.getTimeNanos());
+		assertEquals(Status.COMPLETED, result.getState().getStatus());
+		assertEquals(10, result.triggers.size());
+		// occurrences at the last journaled time are due again
+		assertEquals(clock.getState().getTimeNanos(), result.getPending()
+				.firstKey().toNanosLong());
+		recovered.destroy();
+		timer.destroy();
+	}
+
+	@Test
+	public void replaysPastFailedCheckpoint() throws Exception
+	{
+		final ClockConfig.ID id = ClockConfig.ID.valueOf("clock");
+		final File checkpoint = Fixtures.newFile(".ckp");
+		final File journal = Fixtures.newFile(".jnl");
+		final AtomicBoolean failing = new AtomicBoolean();
+		final TimeManagerImpl timer = new TimeManagerImpl(
+				new Provider<ClockTuple>()
+				{
+					@Override
+					public ClockTuple get()
+					{
+						return new RxClock()
+						{
+							@Override
+							protected void writeTo(final Checkpoint.Writer out)
+									throws IOException
+							{
+								if (failing.get())
+									throw new IOException("Disk full");
+								super.writeTo(out);
+							}
+						};
+					}
+				});
+		timer.setTimerConfig(JOURNALED);
+		timer.recover(null, journal);
+		timer.updateClock(ClockConfig.Builder.forID(id).build());
+		for (int i = 0; i < 10; i++)
+		{
+			if (i == 2)
+				timer.checkpoint(checkpoint);
+			if (i == 5)
+				try
+				{
+					failing.set(true);
+					timer.checkpoint(checkpoint);
+					fail("Checkpoint should fail");
+				} catch (final RuntimeException e)
+				{
+					failing.set(false);
+				}
+			timer.registerTrigger(
+					id,
+					TriggerConfig.Builder.fromID("trigger" + i)
+							.withPattern(new TriggerPattern("R/PT0S/PT1S"))
+							.build()).subscribe(
+					new TestSubscriber<TriggerEvent>());
+		}
+
+		// the failed checkpoint's mark must not hide the records before it
+		final TimeManagerImpl recovered = Fixtures.newTimer(JOURNALED);
+		recovered.recover(checkpoint, journal);
+		assertEquals(10, recovered.getClockTuple(id).triggers.size());
+		recovered.destroy();
+		timer.destroy();
+	}
+
+	@Test
+	public void truncatesTornTail() throws IOException
+	{
+		final File file = Fixtures.newFile(".jnl");
+		final ClockConfig.ID clockId = ClockConfig.ID.valueOf("clock");
+		try (final Journal journal = new Journal(file, JournalSync.NONE))
+		{
+			for (int i = 0; i < 3; i++)
+				journal.register(clockId, TriggerConfig.ID.valueOf("t" + i),
+						new TriggerPattern("R/PT0S/PT1S"));
+		}
+		final long length = file.length();
+		try (final RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+		{
+			// a crash halfway through appending the next record
+			raf.seek(length);
+			raf.writeInt(100);
+			raf.write(new byte[] { 2, 0, 0 });
+		}
+		final List<TriggerConfig.ID> registered = new ArrayList<>();
+		try (final Journal journal = new Journal(file, JournalSync.NONE))
+		{
+			assertEquals(length, file.length());
+			journal.replay(new Journal.Handler()
+			{
+				@Override
+				public void onRegister(final ClockConfig.ID clockId,
+						final TriggerConfig.ID triggerId,
+						final TriggerPattern pattern)
+				{
+					registered.add(triggerId);
+				}
+
+				@Override
+				public void onUnregister(final TriggerConfig.ID triggerId)
+				{
+				}
+
+				@Override
+				public void onUpdateClock(final ClockConfig config)
+				{
+				}
+
+				@Override
+				public void onRemoveClock(final ClockConfig.ID clockId)
+				{
+				}
+
+				@Override
+				public void onProgress(final ClockConfig.ID clockId,
+						final long nanos, final Status status)
+				{
+				}
+			}, 0);
+		}
+		assertEquals(3, registered.size());
+		assertEquals("t2", registered.get(2).getValue());
+	}
+}
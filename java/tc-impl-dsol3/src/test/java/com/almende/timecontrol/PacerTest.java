@@ -0,0 +1,114 @@
+/* $Id$
+ *
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Copyright (c) 2015 Almende B.V.
+ */
+package com.almende.timecontrol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.almende.timecontrol.time.Duration;
+
+/**
+ * {@link PacerTest}
+ *
+ * @date $Date$
+ * @version $Id$
+ * @author <a href="mailto:rick@almende.org">Rick</a>
+ */
+public class PacerTest
+{
+
+	/** a {@link Pacer.Ticker} advancing a fixed step on each reading */
+	static class SteppingTicker implements Pacer.Ticker
+	{
+		long now;
+
+		final long step;
+
+		SteppingTicker(final long start, final long step)
+		{
+			this.now = start;
+			this.step = step;
+		}
+
+		@Override
+		public long nanoTime()
+		{
+			return this.now += this.step;
+		}
+	}
+
+	@Test
+	public void mapsSimulatedToWallTime()
+	{
+		final SteppingTicker ticker = new SteppingTicker(1000L, 0L);
+		final Pacer pacer = new Pacer(null, ticker);
+		assertFalse(pacer.isPaced());
+		assertEquals(1000L, pacer.deadline(5000));
+
+		ticker.now = 7000L;
+		pacer.reset(1000, 0.5);
+		assertTrue(pacer.isPaced());
+		assertEquals(7000L, pacer.deadline(1000));
+		assertEquals(7000L + 500000000L, pacer.deadline(2000));
+		assertEquals(7000L - 250000L, pacer.deadline(999.5));
+		assertEquals(500000000L, pacer.remaining(pacer.deadline(2000)));
+
+		pacer.reset(3000, null);
+		assertFalse(pacer.isPaced());
+		assertEquals(7000L, pacer.deadline(4000));
+	}
+
+	@Test
+	public void spinsBeforeDeadline()
+	{
+		// each reading advances 100us: the pacer must spin exactly until
+		// its deadline, reporting an error below one step
+		final SteppingTicker ticker = new SteppingTicker(0L, 100000L);
+		final Pacer pacer = new Pacer(Duration.valueOf("2 ms"), ticker);
+		pacer.reset(0, 1);
+		for (int i = 0; i < 20; i++)
+		{
+			final long deadline = pacer.deadline(10 + 2 * i);
+			pacer.await(deadline);
+			assertTrue(ticker.now >= deadline);
+			final long error = pacer.report(deadline);
+			assertTrue("error: " + error, error >= 0 && error <= 200000L);
+		}
+		assertEquals(20, pacer.getCount());
+		assertTrue(pacer.getMaxErrorNanos() <= 200000L);
+	}
+
+	@Test
+	public void neverWakesEarlyOnSystemTime()
+	{
+		final Pacer pacer = new Pacer(Duration.valueOf("1 ms"));
+		pacer.reset(0, 1);
+		for (int i = 0; i < 5; i++)
+		{
+			final long deadline = pacer.deadline(5 + 5 * i);
+			pacer.await(deadline);
+			assertTrue(pacer.report(deadline) >= 0);
+		}
+		// coarse smoke bound only, as the scheduler may preempt any thread
+		assertTrue("mean error: " + pacer.getMeanErrorNanos(),
+				pacer.getMeanErrorNanos() < 50000000L);
+	}
+}
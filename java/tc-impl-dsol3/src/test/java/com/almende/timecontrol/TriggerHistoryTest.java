@@ -0,0 +1,84 @@
+/* $Id$
+ *
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Copyright (c) 2015 Almende B.V.
+ */
+package com.almende.timecontrol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.almende.timecontrol.entity.TriggerConfig;
+import com.almende.timecontrol.entity.TriggerEvent;
+import com.almende.timecontrol.time.Duration;
+
+/**
+ * {@link TriggerHistoryTest}
+ *
+ * @date $Date$
+ * @version $Id$
+ * @author <a href="mailto:rick@almende.org">Rick</a>
+ */
+public class TriggerHistoryTest
+{
+
+	@Test
+	public void retainsLatestBySize()
+	{
+		final TriggerHistory history = new TriggerHistory(20, null);
+		final TriggerEvent last = TriggerEvent.Builder
+				.fromTime(Duration.valueOfNanos(99)).withLastCall(true).build();
+		for (int i = 0; i < 99; i++)
+			history.add(TriggerEvent.Builder
+					.fromTime(Duration.valueOfNanos(i)).withLastCall(false)
+					.build());
+		history.add(last);
+		assertEquals(100L, history.count());
+		assertEquals(20, history.size());
+
+		final TriggerConfig.ID id = TriggerConfig.ID.valueOf("trig");
+		final List<TriggerEvent> events = history.toEvents(id);
+		assertEquals(20, events.size());
+		for (int i = 0; i < events.size(); i++)
+			assertEquals(80L + i, events.get(i).time().toNanosLong());
+		final TriggerEvent copy = events.get(19);
+		assertTrue(copy.lastCall());
+		assertEquals(0, last.id().compareTo(copy.id()));
+		assertEquals(0, id.compareTo(copy.triggerId()));
+	}
+
+	@Test
+	public void retainsWithinWindow()
+	{
+		final TriggerHistory history = new TriggerHistory(-1,
+				Duration.valueOf("10 ms"));
+		for (int i = 0; i <= 1000; i++)
+			history.add(TriggerEvent.Builder
+					.fromTime(Duration.valueOf(i + " ms")).withLastCall(false)
+					.build());
+		assertEquals(11, history.size());
+		assertEquals(990L, history.toEvents(null).get(0).time().toMillisLong());
+
+		final TriggerHistory none = new TriggerHistory(0, null);
+		none.add(TriggerEvent.Builder.fromTime(Duration.ZERO)
+				.withLastCall(true).build());
+		assertEquals(0, none.size());
+		assertEquals(1L, none.count());
+	}
+}
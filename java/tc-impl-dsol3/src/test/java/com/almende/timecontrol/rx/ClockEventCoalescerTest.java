@@ -0,0 +1,107 @@
+/* $Id$
+ *
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Copyright (c) 2015 Almende B.V.
+ */
+package com.almende.timecontrol.rx;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import rx.functions.Action1;
+import rx.subjects.PublishSubject;
+
+import com.almende.timecontrol.entity.ClockConfig;
+import com.almende.timecontrol.entity.ClockConfig.Status;
+import com.almende.timecontrol.entity.ClockEvent;
+import com.almende.timecontrol.time.Duration;
+
+/**
+ * {@link ClockEventCoalescerTest}
+ *
+ * @date $Date$
+ * @version $Id$
+ * @author <a href="mailto:rick@almende.org">Rick</a>
+ */
+public class ClockEventCoalescerTest
+{
+
+	private static final ClockConfig.ID CLOCK_ID = ClockConfig.ID
+			.valueOf("clock");
+
+	private static ClockEvent event(final long millis, final Status status)
+	{
+		return ClockEvent.Builder.fromClockId(CLOCK_ID)
+				.withTime(Duration.valueOf(millis + " ms")).withStatus(status)
+				.build();
+	}
+
+	private static List<Long> subscribe(final PublishSubject<ClockEvent> events,
+			final ClockEventCoalescer coalescer)
+	{
+		final List<Long> result = new ArrayList<>();
+		events.lift(coalescer).subscribe(new Action1<ClockEvent>()
+		{
+			@Override
+			public void call(final ClockEvent event)
+			{
+				synchronized (result)
+				{
+					result.add(event.time().toMillisLong());
+				}
+			}
+		});
+		return result;
+	}
+
+	@Test
+	public void coalescesPerResolution()
+	{
+		final PublishSubject<ClockEvent> events = PublishSubject.create();
+		final List<Long> result = subscribe(events,
+				ClockEventCoalescer.perResolution(Duration.valueOf("10 ms")));
+		for (int i = 0; i < 35; i++)
+			events.onNext(event(i, Status.RUNNING));
+		// status changes are never withheld
+		events.onNext(event(34, Status.WAITING));
+		events.onCompleted();
+		assertEquals(Arrays.asList(0L, 10L, 20L, 30L, 34L), result);
+	}
+
+	@Test
+	public void deliversLatestPerInterval() throws InterruptedException
+	{
+		final PublishSubject<ClockEvent> events = PublishSubject.create();
+		final List<Long> result = subscribe(events,
+				ClockEventCoalescer.perInterval(Duration.valueOf("1 s")));
+		for (int i = 0; i < 100; i++)
+			events.onNext(event(i, Status.RUNNING));
+		synchronized (result)
+		{
+			assertEquals(1, result.size());
+		}
+		// the latest withheld event follows once the interval expires
+		Thread.sleep(1500);
+		synchronized (result)
+		{
+			assertEquals(Arrays.asList(0L, 99L), result);
+		}
+	}
+}
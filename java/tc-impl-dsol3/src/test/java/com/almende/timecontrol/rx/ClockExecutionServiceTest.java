@@ -0,0 +1,157 @@
+/* $Id$
+ *
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Copyright (c) 2015 Almende B.V.
+ */
+package com.almende.timecontrol.rx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * {@link ClockExecutionServiceTest}
+ *
+ * @date $Date$
+ * @version $Id$
+ * @author <a href="mailto:rick@almende.org">Rick</a>
+ */
+public class ClockExecutionServiceTest
+{
+
+	@Test
+	public void runsEachClockSerially() throws InterruptedException
+	{
+		final ClockExecutionService service = new ClockExecutionService(2);
+		final int clocks = 500, tasks = 100;
+		final CountDownLatch done = new CountDownLatch(clocks * tasks);
+		final AtomicBoolean overlap = new AtomicBoolean(false);
+		final List<List<Integer>> results = new ArrayList<>();
+		for (int c = 0; c < clocks; c++)
+		{
+			final Executor serial = service.newSerialExecutor();
+			final List<Integer> result = new ArrayList<>();
+			final AtomicBoolean busy = new AtomicBoolean(false);
+			results.add(result);
+			for (int t = 0; t < tasks; t++)
+			{
+				final int task = t;
+				serial.execute(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						if (!busy.compareAndSet(false, true))
+							overlap.set(true);
+						result.add(task);
+						busy.set(false);
+						done.countDown();
+					}
+				});
+			}
+		}
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		service.shutdown();
+		assertEquals(false, overlap.get());
+		for (List<Integer> result : results)
+			for (int t = 0; t < tasks; t++)
+				assertEquals(t, result.get(t).intValue());
+	}
+
+	@Test
+	public void invokesAllBeforeReturning()
+	{
+		final ClockExecutionService service = new ClockExecutionService(4);
+		final AtomicInteger count = new AtomicInteger();
+		final List<Runnable> tasks = new ArrayList<>();
+		for (int t = 0; t < 1000; t++)
+			tasks.add(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					count.incrementAndGet();
+				}
+			});
+		service.invokeAll(tasks);
+		assertEquals(tasks.size(), count.get());
+		service.shutdown();
+	}
+
+	@Test
+	public void fansOutWithoutRunningOtherClocks()
+			throws InterruptedException
+	{
+		final ClockExecutionService service = new ClockExecutionService(1);
+		final Executor clock = service.newSerialExecutor();
+		final Executor other = service.newSerialExecutor();
+		final AtomicBoolean dispatching = new AtomicBoolean();
+		final AtomicBoolean interleaved = new AtomicBoolean();
+		final CountDownLatch done = new CountDownLatch(2);
+		final List<Runnable> tasks = new ArrayList<>();
+		for (int t = 0; t < 16; t++)
+			tasks.add(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						Thread.sleep(5);
+					} catch (final InterruptedException e)
+					{
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+		final Thread[] dispatcher = new Thread[1];
+		clock.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				dispatcher[0] = Thread.currentThread();
+				// queue another clock's task behind this one
+				other.execute(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						if (dispatching.get()
+								&& Thread.currentThread() == dispatcher[0])
+							interleaved.set(true);
+						done.countDown();
+					}
+				});
+				dispatching.set(true);
+				service.invokeAll(tasks);
+				dispatching.set(false);
+				done.countDown();
+			}
+		});
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		service.shutdown();
+		assertEquals(false, interleaved.get());
+	}
+}
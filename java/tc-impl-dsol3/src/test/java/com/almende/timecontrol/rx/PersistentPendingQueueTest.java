@@ -0,0 +1,101 @@
+/* $Id$
+ *
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Copyright (c) 2015 Almende B.V.
+ */
+package com.almende.timecontrol.rx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.almende.timecontrol.Fixtures;
+import com.almende.timecontrol.TriggerTuple;
+
+/**
+ * {@link PersistentPendingQueueTest}
+ *
+ * @date $Date$
+ * @version $Id$
+ * @author <a href="mailto:rick@almende.org">Rick</a>
+ */
+public class PersistentPendingQueueTest
+{
+
+	private static void assertSameOrder(final PendingQueue expected,
+			final PendingQueue actual)
+	{
+		assertEquals(expected.size(), actual.size());
+		while (!expected.isEmpty())
+		{
+			assertEquals(0, expected.firstTime().compareTo(actual.firstTime()));
+			final List<PendingQueue.Entry> next = expected.pollFirst();
+			final List<PendingQueue.Entry> result = actual.pollFirst();
+			assertEquals(next.size(), result.size());
+			for (int i = 0; i < next.size(); i++)
+			{
+				assertSame(next.get(i).trigger, result.get(i).trigger);
+				assertEquals(next.get(i).lastCall, result.get(i).lastCall);
+			}
+		}
+		assertTrue(actual.isEmpty());
+	}
+
+	@Test
+	public void forksIndependently()
+	{
+		final PendingQueue expected = new SkipListPendingQueue();
+		final PendingQueue actual = new PersistentPendingQueue();
+		final Random rnd = new Random(1234L);
+		final List<TriggerTuple> triggers = new ArrayList<>();
+		for (int i = 0; i < 5000; i++)
+		{
+			final long time = rnd.nextInt(1000) * 1000000L;
+			final TriggerTuple trigger = Fixtures.newTrigger();
+			triggers.add(trigger);
+			expected.add(time, trigger, i % 7 == 0);
+			actual.add(time, trigger, i % 7 == 0);
+		}
+		for (int i = 0; i < 100; i++)
+			assertEquals(expected.pollFirst().size(), actual.pollFirst().size());
+		final PendingQueue expectedFork = expected.fork();
+		final PendingQueue actualFork = actual.fork();
+
+		// diverge: cancel and reschedule in one, leave the other as forked
+		for (int i = 0; i < 2000; i++)
+		{
+			final TriggerTuple trigger = triggers.get(rnd.nextInt(triggers
+					.size()));
+			if (i % 2 == 0)
+				assertEquals(expected.remove(trigger), actual.remove(trigger));
+			else
+			{
+				final long time = rnd.nextInt(2000) * 1000000L;
+				expected.add(time, trigger, false);
+				actual.add(time, trigger, false);
+			}
+		}
+		assertSameOrder(expected, actual);
+		assertSameOrder(expectedFork, actualFork);
+		assertFalse(actualFork.remove(triggers.get(0)));
+	}
+}
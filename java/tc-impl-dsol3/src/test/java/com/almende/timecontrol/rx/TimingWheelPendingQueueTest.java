@@ -0,0 +1,146 @@
+/* $Id$
+ *
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Copyright (c) 2015 Almende B.V.
+ */
+package com.almende.timecontrol.rx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Test;
+
+import com.almende.timecontrol.Fixtures;
+import com.almende.timecontrol.TriggerTuple;
+import com.almende.timecontrol.time.Duration;
+
+/**
+ * {@link TimingWheelPendingQueueTest}
+ *
+ * @date $Date$
+ * @version $Id$
+ * @author <a href="mailto:rick@almende.org">Rick</a>
+ */
+public class TimingWheelPendingQueueTest
+{
+
+	/** */
+	private static final Logger LOG = LogManager
+			.getLogger(TimingWheelPendingQueueTest.class);
+
+	@Test
+	public void matchesSkipListOrder()
+	{
+		final PendingQueue expected = new SkipListPendingQueue();
+		final PendingQueue actual = new TimingWheelPendingQueue(
+				Duration.valueOf("1 ms"));
+		final Random rnd = new Random(1234L);
+		for (int i = 0; i < 5000; i++)
+		{
+			// mix near, far and very far (overflow) instants
+			final long millis = i % 10 == 0 ? rnd.nextInt(1000) * 100000000L
+					: rnd.nextInt(i % 3 == 0 ? 100000000 : 1000);
+			final long time = millis * 1000000L;
+			final TriggerTuple trigger = Fixtures.newTrigger();
+			expected.add(time, trigger, i % 7 == 0);
+			actual.add(time, trigger, i % 7 == 0);
+		}
+		assertEquals(expected.size(), actual.size());
+		LOG.trace("Comparing {} pending entries", actual.size());
+		while (!expected.isEmpty())
+		{
+			assertEquals(0, expected.firstTime().compareTo(actual.firstTime()));
+			final List<PendingQueue.Entry> next = expected.pollFirst();
+			final List<PendingQueue.Entry> result = actual.pollFirst();
+			assertEquals(next.size(), result.size());
+			for (int i = 0; i < next.size(); i++)
+			{
+				assertSame(next.get(i).trigger, result.get(i).trigger);
+				assertEquals(next.get(i).lastCall, result.get(i).lastCall);
+			}
+		}
+		assertTrue(actual.isEmpty());
+		assertNull(actual.firstTime());
+	}
+
+	@Test
+	public void quantizesAndClamps()
+	{
+		final PendingQueue queue = new TimingWheelPendingQueue(
+				Duration.valueOf("10 ms"));
+		queue.add(21000000L, Fixtures.newTrigger(), false);
+		queue.add(29000000L, Fixtures.newTrigger(), false);
+		assertEquals(0, Duration.valueOf("30 ms").compareTo(queue.firstTime()));
+		assertEquals(2, queue.pollFirst().size());
+
+		queue.add(100000000L, Fixtures.newTrigger(), false);
+		assertEquals(0, Duration.valueOf("100 ms")
+				.compareTo(queue.firstTime()));
+		// no going back in time
+		queue.add(50000000L, Fixtures.newTrigger(), true);
+		assertEquals(2, queue.pollFirst().size());
+		assertTrue(queue.isEmpty());
+	}
+
+	@Test
+	public void removesCancelled()
+	{
+		final PendingQueue expected = new SkipListPendingQueue();
+		final PendingQueue actual = new TimingWheelPendingQueue(
+				Duration.valueOf("1 ms"));
+		final Random rnd = new Random(4321L);
+		final List<TriggerTuple> triggers = new ArrayList<>();
+		for (int i = 0; i < 5000; i++)
+		{
+			final long millis = i % 10 == 0 ? rnd.nextInt(1000) * 100000000L
+					: rnd.nextInt(1000);
+			final TriggerTuple trigger = Fixtures.newTrigger();
+			triggers.add(trigger);
+			expected.add(millis * 1000000L, trigger, false);
+			actual.add(millis * 1000000L, trigger, false);
+		}
+		// advance the wheels, cascading some entries down
+		for (int i = 0; i < 100; i++)
+			assertEquals(expected.pollFirst().size(), actual.pollFirst().size());
+		for (int i = 0; i < 2000; i++)
+		{
+			// cancel any trigger, whether polled, cascaded or overflown
+			final TriggerTuple cancel = triggers.get(rnd.nextInt(triggers
+					.size()));
+			assertEquals(expected.remove(cancel), actual.remove(cancel));
+		}
+		assertEquals(expected.size(), actual.size());
+		while (!expected.isEmpty())
+		{
+			assertEquals(0, expected.firstTime().compareTo(actual.firstTime()));
+			final List<PendingQueue.Entry> next = expected.pollFirst();
+			final List<PendingQueue.Entry> result = actual.pollFirst();
+			assertEquals(next.size(), result.size());
+			for (int i = 0; i < next.size(); i++)
+				assertSame(next.get(i).trigger, result.get(i).trigger);
+		}
+		assertTrue(actual.isEmpty());
+		assertFalse(actual.remove(triggers.get(0)));
+	}
+}
@@ -0,0 +1,839 @@
+/* $Id$
+ * $URL$
+ *
+ * Part of the EU project Inertia, see http://www.inertia-project.eu/
+ *
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Copyright (c) 2014 Almende B.V.
+ */
+package com.almende.timecontrol.eve;
+
+import io.coala.util.LogUtil;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.Logger;
+
+import rx.Subscription;
+import rx.subscriptions.CompositeSubscription;
+
+import com.almende.timecontrol.api.eve.EveTimeAgentAPI.SubscriptionID;
+import com.almende.timecontrol.api.eve.EveTimeObserverClientAPI;
+import com.almende.timecontrol.entity.ClockConfig;
+import com.almende.timecontrol.entity.ClockEvent;
+import com.almende.timecontrol.entity.TriggerEvent;
+import com.almende.timecontrol.time.Duration;
+
+/**
+ * {@link NotificationBatcher} buffers the {@link ClockEvent}s and
+ * {@link TriggerEvent}s for one observer, in order, and delivers them by
+ * {@link EveTimeObserverClientAPI#notifyClocks} and
+ * {@link EveTimeObserverClientAPI#notifyTriggers} once the buffer reaches its
+ * size limit, or its oldest event reaches the latency limit. Each run of
+ * consecutive events of the same type takes one call, so the observer
+ * receives all events in the order they occurred. Batches of an
+ * observer that {@link #isEndingInstants() acknowledges} instants also end
+ * when the simulation instant of a clock with buffered events
+ * {@link #endInstant ends}, so the clocks awaiting it need not wait out the
+ * latency limit.
+ * <p>
+ * Full batches join a bounded outbound queue, drained by a sender task on a
+ * pool of {@link #SENDER_THREADS} threads shared by all observers, so that a
+ * slow or dead observer cannot stall the clocks it observes, unless its
+ * {@link Overflow} policy is to {@link Overflow#BLOCK}. Only the clock thread
+ * that fills a batch ever blocks: batches due at their latency limit are
+ * pulled by the sender once it drained the queue, rather than pushed by the
+ * shared latency timer.
+ * <p>
+ * An optional {@link Acknowledger} learns which instants the observer was
+ * notified of, and which it acknowledged cumulatively by its reply to each
+ * batch. Batches that are dropped or fail count as acknowledged, so a lost
+ * observer never holds a clock.
+ *
+ * @date $Date$
+ * @version $Id$
+ * @author <a href="mailto:rick@almende.org">rick</a>
+ */
+public class NotificationBatcher
+{
+
+	/** */
+	private static final Logger LOG = LogUtil
+			.getLogger(NotificationBatcher.class);
+
+	/** */
+	public static final int DEFAULT_MAX_SIZE = 256;
+
+	/** */
+	public static final long DEFAULT_MAX_LATENCY_MILLIS = 10;
+
+	/** */
+	public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+	/**
+	 * {@link Overflow} policies for batches that don't fit the queue
+	 */
+	public enum Overflow
+	{
+		/** wait for the sender, stalling the clock (conservative) */
+		BLOCK,
+
+		/** discard the batch and flag the observer as having missed events */
+		DROP,
+
+		/** discard all queued events and unsubscribe the observer */
+		DISCONNECT,
+
+		;
+	}
+
+	/**
+	 * {@link Acknowledger} tracks the instants notified to one observer until
+	 * it acknowledges them
+	 */
+	public interface Acknowledger
+	{
+		/**
+		 * @param clockId the id of the clock whose instant was notified
+		 * @param nanos the (absolute) instant in nanoseconds
+		 */
+		void expect(String clockId, long nanos);
+
+		/**
+		 * @param clockId the id of the clock whose instants were processed
+		 * @param nanos the latest (absolute) instant in nanoseconds processed,
+		 *            including all before it
+		 */
+		void acknowledge(String clockId, long nanos);
+
+		/**
+		 * @param clockId the id of the clock to stop awaiting the observer
+		 *            for, once it unsubscribed or was disconnected
+		 */
+		void release(String clockId);
+	}
+
+	/** the maximum number of threads delivering batches of all observers */
+	public static final int SENDER_THREADS = Math.max(4, 2 * Runtime
+			.getRuntime().availableProcessors());
+
+	/** the number of batches a sender delivers before yielding its thread */
+	private static final int SEND_QUANTUM = 16;
+
+	/** a bounded pool of (daemon) threads delivering the queued batches */
+	private static final ExecutorService SENDERS;
+
+	static
+	{
+		final ThreadPoolExecutor pool = new ThreadPoolExecutor(SENDER_THREADS,
+				SENDER_THREADS, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+				{
+					/** */
+					private final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(final Runnable r)
+					{
+						final Thread result = new Thread(r, "notify-sender-"
+								+ this.count.incrementAndGet());
+						result.setDaemon(true);
+						return result;
+					}
+				});
+		pool.allowCoreThreadTimeOut(true);
+		SENDERS = pool;
+	}
+
+	/**
+	 * a single (daemon) thread marking batches due at their latency limit,
+	 * which must never block on a full queue
+	 */
+	private static final ScheduledExecutorService TIMER = new ScheduledThreadPoolExecutor(
+			1, new ThreadFactory()
+			{
+				@Override
+				public Thread newThread(final Runnable r)
+				{
+					final Thread result = new Thread(r, "notify-timer");
+					result.setDaemon(true);
+					return result;
+				}
+			});
+
+	/** */
+	private final EveTimeObserverClientAPI observer;
+
+	/** */
+	private final int maxSize;
+
+	/** */
+	private final long maxLatencyMillis;
+
+	/** the maximum number of events queued for the sender */
+	private final int capacity;
+
+	/** */
+	private final Overflow overflow;
+
+	/** serializes enqueueing, so batches arrive in the order they filled */
+	private final Object enqueueLock = new Object();
+
+	/** the batches awaiting the sender */
+	private final Deque<Batch> queue = new ArrayDeque<>();
+
+	/** the number of events queued or in flight, guarded by {@link #queue} */
+	private int queued = 0;
+
+	/** {@code true} while a sender task is pending, guarded by {@link #queue} */
+	private boolean sending = false;
+
+	/** set once the buffered events reached their latency limit */
+	private volatile boolean due = false;
+
+	/** */
+	private volatile boolean disconnected = false;
+
+	/** set once some batch was {@link Overflow#DROP dropped} */
+	private volatile boolean overflowed = false;
+
+	/** */
+	private final AtomicLong sent = new AtomicLong();
+
+	/** */
+	private final AtomicLong dropped = new AtomicLong();
+
+	/** the observer's subscriptions, cancelled on disconnect */
+	private final CompositeSubscription subscriptions = new CompositeSubscription();
+
+	/** the number of live subscriptions per clock, guarded by itself */
+	private final Map<String, Integer> subscribed = new HashMap<>();
+
+	/** */
+	private final Runnable sendLoop = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			send();
+		}
+	};
+
+	/** */
+	private final Runnable flusher = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			expire();
+		}
+	};
+
+	/** the buffered events, in order */
+	private List<Notification> events = new ArrayList<>();
+
+	/** the latest instant (ns) of each clock with events in this batch */
+	private final Map<String, Long> instants = new HashMap<>();
+
+	/** */
+	private volatile Acknowledger acknowledger = null;
+
+	/** {@code false} once the observer declined to acknowledge */
+	private volatile boolean acknowledging = true;
+
+	/** */
+	private ScheduledFuture<?> deadline = null;
+
+	/**
+	 * {@link NotificationBatcher} constructor
+	 *
+	 * @param observer the (proxy of the) {@link EveTimeObserverClientAPI} to
+	 *            deliver to
+	 * @param maxSize the maximum number of events per batch
+	 * @param maxLatencyMillis the maximum delay of the oldest buffered event
+	 */
+	public NotificationBatcher(final EveTimeObserverClientAPI observer,
+			final int maxSize, final long maxLatencyMillis)
+	{
+		this(observer, maxSize, maxLatencyMillis, DEFAULT_CAPACITY,
+				Overflow.BLOCK);
+	}
+
+	/**
+	 * {@link NotificationBatcher} constructor
+	 *
+	 * @param observer the (proxy of the) {@link EveTimeObserverClientAPI} to
+	 *            deliver to
+	 * @param maxSize the maximum number of events per batch
+	 * @param maxLatencyMillis the maximum delay of the oldest buffered event
+	 * @param capacity the maximum number of events queued for the sender
+	 * @param overflow the {@link Overflow} policy once the queue is full
+	 */
+	public NotificationBatcher(final EveTimeObserverClientAPI observer,
+			final int maxSize, final long maxLatencyMillis,
+			final int capacity, final Overflow overflow)
+	{
+		this.observer = observer;
+		this.maxSize = Math.max(1, maxSize);
+		this.maxLatencyMillis = maxLatencyMillis;
+		this.capacity = Math.max(1, capacity);
+		this.overflow = overflow == null ? Overflow.BLOCK : overflow;
+	}
+
+	/**
+	 * @param acknowledger the {@link Acknowledger} of the observer's instants
+	 */
+	public void setAcknowledger(final Acknowledger acknowledger)
+	{
+		this.acknowledger = acknowledger;
+	}
+
+	/**
+	 * @return {@code true} unless the observer replied that it does not
+	 *         acknowledge
+	 */
+	public boolean isAcknowledging()
+	{
+		return this.acknowledging;
+	}
+
+	/**
+	 * @return {@code true} iff an {@link Acknowledger} awaits the observer,
+	 *         whose batches therefore end at instant boundaries
+	 */
+	public boolean isEndingInstants()
+	{
+		return this.acknowledger != null && this.acknowledging;
+	}
+
+	/**
+	 * @param subscription a {@link Subscription} feeding this batcher, to
+	 *            cancel on {@link Overflow#DISCONNECT disconnect}
+	 */
+	public void add(final Subscription subscription)
+	{
+		this.subscriptions.add(subscription);
+	}
+
+	/**
+	 * @param clockId the {@link ClockConfig.ID} of a clock the observer
+	 *            subscribed to
+	 */
+	public void subscribed(final ClockConfig.ID clockId)
+	{
+		final String key = String.valueOf(clockId);
+		synchronized (this.subscribed)
+		{
+			final Integer count = this.subscribed.get(key);
+			this.subscribed.put(key, count == null ? 1 : count + 1);
+		}
+	}
+
+	/**
+	 * release the observer's {@link Acknowledger acknowledgements} of
+	 * specified clock once its last subscription to it ended
+	 * 
+	 * @param clockId the {@link ClockConfig.ID} of a clock the observer
+	 *            unsubscribed from, e.g. as its events completed
+	 */
+	public void unsubscribed(final ClockConfig.ID clockId)
+	{
+		final String key = String.valueOf(clockId);
+		synchronized (this.subscribed)
+		{
+			final Integer count = this.subscribed.get(key);
+			if (count == null)
+				return;
+			if (count > 1)
+			{
+				this.subscribed.put(key, count - 1);
+				return;
+			}
+			this.subscribed.remove(key);
+		}
+		final Acknowledger acknowledger = this.acknowledger;
+		if (acknowledger != null)
+			acknowledger.release(key);
+	}
+
+	/**
+	 * @param clockId the {@link ClockConfig.ID} of the observed clock
+	 * @param callbackID the observer's {@link SubscriptionID}
+	 * @param clock the {@link ClockEvent} to deliver, which also
+	 *            {@link #endInstant ends} the previous instant of its clock
+	 */
+	public void notifyClock(final ClockConfig.ID clockId,
+			final SubscriptionID callbackID, final ClockEvent clock)
+	{
+		if (this.disconnected)
+			return;
+		endInstant(clockId);
+		final boolean full;
+		synchronized (this)
+		{
+			this.events.add(new Notification(callbackID, clock, null));
+			full = added(clockId, clock.time());
+		}
+		if (full)
+			flush();
+	}
+
+	/**
+	 * @param clockId the {@link ClockConfig.ID} of the triggering clock
+	 * @param callbackID the observer's {@link SubscriptionID}
+	 * @param job the {@link TriggerEvent} to deliver
+	 */
+	public void notifyTrigger(final ClockConfig.ID clockId,
+			final SubscriptionID callbackID, final TriggerEvent job)
+	{
+		if (this.disconnected)
+			return;
+		final boolean full;
+		synchronized (this)
+		{
+			this.events.add(new Notification(callbackID, null, job));
+			full = added(clockId, job.time());
+		}
+		if (full)
+			flush();
+	}
+
+	/**
+	 * flush the buffered events if they include specified clock's instant
+	 * and the observer {@link #isEndingInstants() acknowledges} instants,
+	 * leaving other observers to the size and latency limits
+	 * 
+	 * @param clockId the {@link ClockConfig.ID} of the clock that left its
+	 *            current instant, e.g. by advancing its time or status
+	 */
+	public void endInstant(final ClockConfig.ID clockId)
+	{
+		if (!isEndingInstants())
+			return;
+		final boolean pending;
+		synchronized (this)
+		{
+			pending = this.instants.containsKey(String.valueOf(clockId));
+		}
+		if (pending)
+			flush();
+	}
+
+	/** queue all buffered events for the sender */
+	public void flush()
+	{
+		synchronized (this.enqueueLock)
+		{
+			final Batch batch;
+			synchronized (this)
+			{
+				if (this.deadline != null)
+				{
+					this.deadline.cancel(false);
+					this.deadline = null;
+				}
+				if (this.events.isEmpty())
+					return;
+				batch = new Batch(this.events, new HashMap<>(this.instants));
+				this.events = new ArrayList<>();
+				this.instants.clear();
+			}
+			if (enqueue(batch))
+			{
+				disconnect();
+				drop(batch);
+			}
+		}
+	}
+
+	/** flush, leaving the sender to deliver all queued events */
+	public void close()
+	{
+		flush();
+	}
+
+	/** @return the number of events buffered, queued or in flight */
+	public int getDepth()
+	{
+		final int buffered;
+		synchronized (this)
+		{
+			buffered = this.events.size();
+		}
+		synchronized (this.queue)
+		{
+			return buffered + this.queued;
+		}
+	}
+
+	/** @return the number of events delivered so far */
+	public long getSent()
+	{
+		return this.sent.get();
+	}
+
+	/** @return the number of events discarded on overflow so far */
+	public long getDropped()
+	{
+		return this.dropped.get();
+	}
+
+	/** @return {@code true} iff some batch was {@link Overflow#DROP dropped} */
+	public boolean isOverflowed()
+	{
+		return this.overflowed;
+	}
+
+	/** @return {@code true} iff the observer was disconnected on overflow */
+	public boolean isDisconnected()
+	{
+		return this.disconnected;
+	}
+
+	/**
+	 * @param batch the {@link Batch} to queue for the sender
+	 * @return {@code true} iff the observer must be disconnected
+	 */
+	private boolean enqueue(final Batch batch)
+	{
+		synchronized (this.queue)
+		{
+			// an oversized batch may still pass an empty queue
+			while (!this.disconnected && this.queued > 0
+					&& this.queued + batch.size() > this.capacity)
+				switch (this.overflow)
+				{
+				case DROP:
+					if (!this.overflowed)
+						LOG.warn("Observer queue full at {} events, "
+								+ "dropping batches", this.queued);
+					this.overflowed = true;
+					drop(batch);
+					return false;
+				case DISCONNECT:
+					return true;
+				default:
+					try
+					{
+						this.queue.wait();
+					} catch (final InterruptedException e)
+					{
+						Thread.currentThread().interrupt();
+						drop(batch);
+						return false;
+					}
+				}
+			if (this.disconnected)
+			{
+				drop(batch);
+				return false;
+			}
+			this.queue.add(batch);
+			this.queued += batch.size();
+			startSending();
+			return false;
+		}
+	}
+
+	/**
+	 * mark the buffered events due at their latency limit, for the sender to
+	 * pull once it drained the queue, without blocking the (shared) timer
+	 */
+	private void expire()
+	{
+		synchronized (this)
+		{
+			this.deadline = null;
+			if (this.events.isEmpty())
+				return;
+			this.due = true;
+		}
+		synchronized (this.queue)
+		{
+			if (!this.disconnected)
+				startSending();
+		}
+	}
+
+	/** submit a sender task unless one is pending, guarded by {@link #queue} */
+	private void startSending()
+	{
+		if (this.sending)
+			return;
+		this.sending = true;
+		SENDERS.execute(this.sendLoop);
+	}
+
+	/**
+	 * @return a {@link Batch} of the buffered events if they are due and no
+	 *         older batch is queued, or {@code null}
+	 */
+	private Batch pull()
+	{
+		// a clock thread waiting in enqueue() holds this lock, but with the
+		// queue drained its (older) batch passes and is polled first
+		synchronized (this.enqueueLock)
+		{
+			synchronized (this.queue)
+			{
+				if (!this.queue.isEmpty())
+					return null;
+			}
+			final Batch batch;
+			synchronized (this)
+			{
+				this.due = false;
+				if (this.events.isEmpty())
+					return null;
+				if (this.deadline != null)
+				{
+					this.deadline.cancel(false);
+					this.deadline = null;
+				}
+				batch = new Batch(this.events, new HashMap<>(this.instants));
+				this.events = new ArrayList<>();
+				this.instants.clear();
+			}
+			synchronized (this.queue)
+			{
+				this.queued += batch.size();
+			}
+			return batch;
+		}
+	}
+
+	/** discard all queued events and cancel the observer's subscriptions */
+	private void disconnect()
+	{
+		synchronized (this.queue)
+		{
+			if (this.disconnected)
+				return;
+			this.disconnected = true;
+			for (Batch batch : this.queue)
+				drop(batch);
+			this.queue.clear();
+			this.queue.notifyAll();
+		}
+		LOG.warn("Observer queue full, disconnecting");
+		this.subscriptions.unsubscribe();
+		final List<String> clockIds;
+		synchronized (this.subscribed)
+		{
+			clockIds = new ArrayList<>(this.subscribed.keySet());
+			this.subscribed.clear();
+		}
+		final Acknowledger acknowledger = this.acknowledger;
+		if (acknowledger != null)
+			for (String clockId : clockIds)
+				acknowledger.release(clockId);
+	}
+
+	/**
+	 * deliver queued batches in order, then any due buffered events, yielding the (shared) thread every
+	 * {@link #SEND_QUANTUM} batches
+	 */
+	private void send()
+	{
+		for (int n = 0;; n++)
+		{
+			Batch batch;
+			synchronized (this.queue)
+			{
+				if (this.disconnected
+						|| (this.queue.isEmpty() && !this.due))
+				{
+					this.sending = false;
+					return;
+				}
+				if (n == SEND_QUANTUM)
+				{
+					SENDERS.execute(this.sendLoop);
+					return;
+				}
+				batch = this.queue.poll();
+			}
+			if (batch == null)
+			{
+				batch = pull();
+				if (batch == null)
+					continue;
+			}
+			LOG.trace("Delivering {} event(s)", batch.size());
+			try
+			{
+				final boolean acknowledged = deliver(batch.events);
+				this.sent.addAndGet(batch.size());
+				if (!acknowledged && this.acknowledging)
+				{
+					LOG.info("Observer does not acknowledge, "
+							+ "no longer awaiting it");
+					this.acknowledging = false;
+				}
+			} catch (final Throwable t)
+			{
+				LOG.error("Problem delivering batch of " + batch.size()
+						+ " events", t);
+			}
+			acknowledge(batch);
+			synchronized (this.queue)
+			{
+				this.queued -= batch.size();
+				this.queue.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * @param events the {@link Notification}s to deliver, in order, by one
+	 *            call per run of the same type
+	 * @return {@code true} iff the observer acknowledged all calls
+	 */
+	private boolean deliver(final List<Notification> events)
+	{
+		boolean result = true;
+		for (int i = 0, j; i < events.size(); i = j)
+		{
+			final boolean isClock = events.get(i).clock != null;
+			final List<SubscriptionID> ids = new ArrayList<>();
+			final List<ClockEvent> clocks = new ArrayList<>();
+			final List<TriggerEvent> jobs = new ArrayList<>();
+			for (j = i; j < events.size()
+					&& (events.get(j).clock != null) == isClock; j++)
+			{
+				final Notification event = events.get(j);
+				ids.add(event.id);
+				if (isClock)
+					clocks.add(event.clock);
+				else
+					jobs.add(event.trigger);
+			}
+			if (isClock)
+				result &= this.observer.notifyClocks(ids, clocks);
+			else
+				result &= this.observer.notifyTriggers(ids, jobs);
+		}
+		return result;
+	}
+
+	/**
+	 * @param batch the {@link Batch} discarded on overflow, acknowledged so
+	 *            as not to hold its clocks
+	 */
+	private void drop(final Batch batch)
+	{
+		this.dropped.addAndGet(batch.size());
+		acknowledge(batch);
+	}
+
+	/**
+	 * @param batch the {@link Batch} whose instants the observer processed,
+	 *            or will never receive
+	 */
+	private void acknowledge(final Batch batch)
+	{
+		final Acknowledger acknowledger = this.acknowledger;
+		if (acknowledger != null)
+			for (Map.Entry<String, Long> instant : batch.instants.entrySet())
+				if (instant.getValue() >= 0)
+					acknowledger.acknowledge(instant.getKey(),
+							instant.getValue());
+	}
+
+	/**
+	 * @param clockId the {@link ClockConfig.ID} of the event just added
+	 * @param time the event's {@link Duration time}, or {@code null}
+	 * @return {@code true} iff the batch reached its size limit
+	 */
+	private boolean added(final ClockConfig.ID clockId, final Duration time)
+	{
+		final String key = String.valueOf(clockId);
+		final long nanos = time == null ? -1L : time.toNanosLong();
+		final Long latest = this.instants.get(key);
+		this.instants.put(key, latest == null ? nanos : Math.max(latest,
+				nanos));
+		final Acknowledger acknowledger = this.acknowledger;
+		if (acknowledger != null && this.acknowledging && time != null)
+			acknowledger.expect(key, nanos);
+		final int size = this.events.size();
+		if (size == 1 && this.maxSize > 1)
+			this.deadline = TIMER.schedule(this.flusher,
+					this.maxLatencyMillis, TimeUnit.MILLISECONDS);
+		return size >= this.maxSize;
+	}
+
+	/**
+	 * {@link Notification} is a buffered {@link ClockEvent} or
+	 * {@link TriggerEvent} and the observer's {@link SubscriptionID} for it
+	 */
+	static class Notification
+	{
+		/** */
+		final SubscriptionID id;
+
+		/** the {@link ClockEvent}, or {@code null} */
+		final ClockEvent clock;
+
+		/** the {@link TriggerEvent}, or {@code null} */
+		final TriggerEvent trigger;
+
+		Notification(final SubscriptionID id, final ClockEvent clock,
+				final TriggerEvent trigger)
+		{
+			this.id = id;
+			this.clock = clock;
+			this.trigger = trigger;
+		}
+	}
+
+	/**
+	 * {@link Batch} holds the events of one delivery
+	 */
+	static class Batch
+	{
+		/** the events, in order */
+		final List<Notification> events;
+
+		/** the latest instant (ns) of each clock with events in this batch */
+		final Map<String, Long> instants;
+
+		Batch(final List<Notification> events,
+				final Map<String, Long> instants)
+		{
+			this.events = events;
+			this.instants = instants;
+		}
+
+		int size()
+		{
+			return this.events.size();
+		}
+	}
+}
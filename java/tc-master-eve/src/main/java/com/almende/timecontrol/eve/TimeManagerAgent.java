@@ -5,10 +5,14 @@ import io.coala.util.JsonUtil;
 import io.coala.util.LogUtil;
 
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
@@ -16,22 +20,28 @@ import org.apache.logging.log4j.Logger;
 
 import rx.Observable;
 import rx.Observer;
+import rx.functions.Action1;
 import rx.subjects.ReplaySubject;
 import rx.subjects.Subject;
 
 import com.almende.eve.agent.Agent;
 import com.almende.eve.agent.AgentConfig;
 import com.almende.eve.agent.AgentProxyFactory;
+import com.almende.eve.protocol.jsonrpc.annotation.Access;
+import com.almende.eve.protocol.jsonrpc.annotation.AccessType;
 import com.almende.timecontrol.TimeManagerImpl;
 import com.almende.timecontrol.api.TimeManagerAPI;
 import com.almende.timecontrol.api.eve.EveTimeManagerAPI;
 import com.almende.timecontrol.api.eve.EveTimeObserverClientAPI;
 import com.almende.timecontrol.api.eve.EveUtil;
+import com.almende.timecontrol.api.eve.ShardRing;
 import com.almende.timecontrol.entity.ClockConfig;
 import com.almende.timecontrol.entity.ClockEvent;
 import com.almende.timecontrol.entity.TimerConfig;
 import com.almende.timecontrol.entity.TimerStatus;
+import com.almende.timecontrol.entity.TriggerConfig;
 import com.almende.timecontrol.entity.TriggerEvent;
+import com.almende.timecontrol.rx.AckWindow;
 import com.almende.timecontrol.time.TriggerPattern;
 import com.fasterxml.jackson.databind.JsonNode;
 
@@ -52,6 +62,25 @@ public class TimeManagerAgent extends Agent implements EveTimeManagerAPI
 	/** */
 	public static final String MASTER_CONFIG_KEY = "time-manager-config";
 
+	/** the maximum number of events per batch delivered to an observer */
+	public static final String NOTIFY_BATCH_SIZE_KEY = "notify-batch-size";
+
+	/** the maximum delay (ms) of events batched for an observer */
+	public static final String NOTIFY_BATCH_LATENCY_KEY = "notify-batch-latency";
+
+	/** the maximum number of events queued for a (slow) observer */
+	public static final String NOTIFY_QUEUE_CAPACITY_KEY = "notify-queue-capacity";
+
+	/** the {@link NotificationBatcher.Overflow} policy of a full queue */
+	public static final String NOTIFY_OVERFLOW_KEY = "notify-overflow";
+
+	/**
+	 * the number of instants an observed clock may dispatch beyond the oldest
+	 * one its observers did not yet acknowledge, or {@code 0} (default) to
+	 * notify them fire-and-forget
+	 */
+	public static final String ACK_WINDOW_KEY = "ack-window";
+
 	/** */
 	private final Subject<AgentEventType, AgentEventType> events = ReplaySubject
 			.create();
@@ -64,6 +93,30 @@ public class TimeManagerAgent extends Agent implements EveTimeManagerAPI
 
 	private final SortedMap<URI, EveTimeObserverClientAPI> observerProxyCache = new TreeMap<>();
 
+	/** the outbound {@link NotificationBatcher} per observer {@link URI} */
+	private final SortedMap<URI, NotificationBatcher> batcherCache = new TreeMap<>();
+
+	/** the {@link AckWindow} of each clock held to acknowledgements */
+	private final Map<String, AckWindow> windows = new HashMap<>();
+
+	/** the ids of clocks whose instants end the batches of all observers */
+	private final Set<String> observedInstants = new HashSet<>();
+
+	/** */
+	private volatile int batchSize = NotificationBatcher.DEFAULT_MAX_SIZE;
+
+	/** */
+	private volatile long batchLatency = NotificationBatcher.DEFAULT_MAX_LATENCY_MILLIS;
+
+	/** */
+	private volatile int queueCapacity = NotificationBatcher.DEFAULT_CAPACITY;
+
+	/** */
+	private volatile NotificationBatcher.Overflow overflow = NotificationBatcher.Overflow.BLOCK;
+
+	/** */
+	private volatile int ackWindow = 0;
+
 	protected EveTimeObserverClientAPI getObserverProxy(final URI slaveURI)
 	{
 		synchronized (this.observerProxyCache)
@@ -80,10 +133,282 @@ public class TimeManagerAgent extends Agent implements EveTimeManagerAPI
 		}
 	}
 
+	/**
+	 * @param slaveURI the {@link URI} of the observer to notify
+	 * @return the {@link NotificationBatcher} for specified observer
+	 */
+	protected NotificationBatcher getBatcher(final URI slaveURI)
+	{
+		synchronized (this.batcherCache)
+		{
+			NotificationBatcher result = this.batcherCache.get(slaveURI);
+			// a disconnected observer starts afresh when it subscribes again
+			if (result == null || result.isDisconnected())
+			{
+				result = new NotificationBatcher(getObserverProxy(slaveURI),
+						this.batchSize, this.batchLatency, this.queueCapacity,
+						this.overflow);
+				// only acknowledging observers need batches per instant
+				if (this.ackWindow > 0)
+				{
+					final String observer = slaveURI.toASCIIString();
+					result.setAcknowledger(new NotificationBatcher.Acknowledger()
+					{
+						@Override
+						public void expect(final String clockId,
+								final long nanos)
+						{
+							final AckWindow window = getWindow(clockId);
+							if (window != null)
+								window.expect(observer, nanos);
+						}
+
+						@Override
+						public void acknowledge(final String clockId,
+								final long nanos)
+						{
+							final AckWindow window = getWindow(clockId);
+							if (window != null)
+								window.acknowledge(observer, nanos);
+						}
+
+						@Override
+						public void release(final String clockId)
+						{
+							final AckWindow window = getWindow(clockId);
+							if (window != null)
+								window.release(observer);
+						}
+					});
+				}
+				this.batcherCache.put(slaveURI, result);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * @return the number of events buffered, queued or in flight for each
+	 *         observer {@link URI}, i.e. how far each observer lags behind
+	 */
+	@Access(AccessType.PUBLIC)
+	public Map<String, Integer> getOutboundDepths()
+	{
+		final Map<String, Integer> result = new TreeMap<>();
+		synchronized (this.batcherCache)
+		{
+			for (Map.Entry<URI, NotificationBatcher> entry : this.batcherCache
+					.entrySet())
+				result.put(entry.getKey().toASCIIString(), entry.getValue()
+						.getDepth());
+		}
+		return result;
+	}
+
+	/**
+	 * @return the number of events discarded on overflow for each observer
+	 *         {@link URI}, i.e. how many it missed
+	 */
+	@Access(AccessType.PUBLIC)
+	public Map<String, Long> getOutboundDrops()
+	{
+		final Map<String, Long> result = new TreeMap<>();
+		synchronized (this.batcherCache)
+		{
+			for (Map.Entry<URI, NotificationBatcher> entry : this.batcherCache
+					.entrySet())
+				result.put(entry.getKey().toASCIIString(), entry.getValue()
+						.getDropped());
+		}
+		return result;
+	}
+
+	/**
+	 * @return for each observer {@link URI} whether some batch to it was
+	 *         dropped on overflow
+	 */
+	@Access(AccessType.PUBLIC)
+	public Map<String, Boolean> getOutboundOverflows()
+	{
+		final Map<String, Boolean> result = new TreeMap<>();
+		synchronized (this.batcherCache)
+		{
+			for (Map.Entry<URI, NotificationBatcher> entry : this.batcherCache
+					.entrySet())
+				result.put(entry.getKey().toASCIIString(), entry.getValue()
+						.isOverflowed());
+		}
+		return result;
+	}
+
+	/**
+	 * @return the number of instants each held clock dispatched that some
+	 *         observer did not yet acknowledge
+	 */
+	@Access(AccessType.PUBLIC)
+	public Map<String, Integer> getAckBacklogs()
+	{
+		final Map<String, Integer> result = new TreeMap<>();
+		synchronized (this.windows)
+		{
+			for (Map.Entry<String, AckWindow> entry : this.windows.entrySet())
+				result.put(entry.getKey(), entry.getValue().getBacklog());
+		}
+		return result;
+	}
+
+	/**
+	 * @param clockId the id of the clock
+	 * @return the clock's {@link AckWindow}, or {@code null} if not held
+	 */
+	protected AckWindow getWindow(final String clockId)
+	{
+		synchronized (this.windows)
+		{
+			return this.windows.get(clockId);
+		}
+	}
+
+	/**
+	 * hold specified clock to the acknowledgements of its observers, if so
+	 * {@link #ACK_WINDOW_KEY configured}, flushing the batches of all
+	 * observers whenever it parks so they can acknowledge
+	 * 
+	 * @param clockId the {@link ClockConfig.ID} of the observed clock
+	 */
+	protected void hold(final ClockConfig.ID clockId)
+	{
+		if (this.ackWindow < 1)
+			return;
+		synchronized (this.windows)
+		{
+			if (this.windows.containsKey(String.valueOf(clockId)))
+				return;
+			final TimeManagerAPI timer = getTimer();
+			if (!(timer instanceof TimeManagerImpl))
+			{
+				LOG.warn("Not holding clock {} of timer {}", clockId, timer);
+				return;
+			}
+			final AckWindow window;
+			try
+			{
+				window = ((TimeManagerImpl) timer).hold(clockId,
+						this.ackWindow);
+			} catch (final Throwable t)
+			{
+				LOG.warn("Not holding clock " + clockId
+						+ " to acknowledgements", t);
+				return;
+			}
+			window.holds().subscribe(new Action1<Long>()
+			{
+				@Override
+				public void call(final Long nanos)
+				{
+					endInstant(clockId);
+				}
+			});
+			this.windows.put(String.valueOf(clockId), window);
+		}
+	}
+
+	/**
+	 * @param clockId the {@link ClockConfig.ID} of the clock that left its
+	 *            current instant, ending the batches of all observers that
+	 *            {@link NotificationBatcher#isEndingInstants() acknowledge}
+	 */
+	protected void endInstant(final ClockConfig.ID clockId)
+	{
+		final List<NotificationBatcher> batchers;
+		synchronized (this.batcherCache)
+		{
+			batchers = new ArrayList<>(this.batcherCache.values());
+		}
+		for (NotificationBatcher batcher : batchers)
+			batcher.endInstant(clockId);
+	}
+
+	/**
+	 * flush the batches of acknowledging observers as soon as specified
+	 * clock leaves an instant, i.e. publishes its next time or status before
+	 * dispatching on, if the {@link #ACK_WINDOW_KEY acknowledgement window}
+	 * is enabled; instants between {@link TimerConfig#clockEvents()
+	 * coalesced} events, and all instants otherwise, rely on the size and
+	 * latency limits instead
+	 * 
+	 * @param clockId the {@link ClockConfig.ID} of the clock to observe
+	 */
+	protected void observeInstants(final ClockConfig.ID clockId)
+	{
+		if (this.ackWindow < 1)
+			return;
+		synchronized (this.observedInstants)
+		{
+			if (!this.observedInstants.add(String.valueOf(clockId)))
+				return;
+		}
+		final Observable<ClockEvent> clock;
+		try
+		{
+			clock = getTimer().observeClock(clockId);
+		} catch (final Throwable t)
+		{
+			LOG.warn("Not observing instants of clock: " + clockId, t);
+			synchronized (this.observedInstants)
+			{
+				this.observedInstants.remove(String.valueOf(clockId));
+			}
+			return;
+		}
+		clock.subscribe(new Observer<ClockEvent>()
+		{
+			@Override
+			public void onCompleted()
+			{
+				onNext(null);
+			}
+
+			@Override
+			public void onError(final Throwable e)
+			{
+				onNext(null);
+			}
+
+			@Override
+			public void onNext(final ClockEvent clock)
+			{
+				endInstant(clockId);
+			}
+		});
+	}
+
+	/**
+	 * @param clockId the {@link ClockConfig.ID} or {@code null} for the root
+	 * @return the {@link ClockConfig.ID} of specified or root clock
+	 */
+	protected ClockConfig.ID resolve(final ClockConfig.ID clockId)
+	{
+		return clockId != null ? clockId : getTimerConfig().rootClockId();
+	}
+
 	@Override
 	protected void loadConfig()
 	{
 		super.loadConfig();
+		if (getConfig().has(NOTIFY_BATCH_SIZE_KEY))
+			this.batchSize = getConfig().get(NOTIFY_BATCH_SIZE_KEY).asInt();
+		if (getConfig().has(NOTIFY_BATCH_LATENCY_KEY))
+			this.batchLatency = getConfig().get(NOTIFY_BATCH_LATENCY_KEY)
+					.asLong();
+		if (getConfig().has(NOTIFY_QUEUE_CAPACITY_KEY))
+			this.queueCapacity = getConfig().get(NOTIFY_QUEUE_CAPACITY_KEY)
+					.asInt();
+		if (getConfig().has(NOTIFY_OVERFLOW_KEY))
+			this.overflow = NotificationBatcher.Overflow.valueOf(getConfig()
+					.get(NOTIFY_OVERFLOW_KEY).asText().toUpperCase());
+		if (getConfig().has(ACK_WINDOW_KEY))
+			this.ackWindow = getConfig().get(ACK_WINDOW_KEY).asInt();
 		setTimerConfig(TimerConfig.Builder.fromJSON(
 				getConfig().get(MASTER_CONFIG_KEY)).build());
 		this.events.onNext(AgentEventType.AGENT_INITIALIZED);
@@ -123,6 +448,11 @@ public class TimeManagerAgent extends Agent implements EveTimeManagerAPI
 	public void destroy()
 	{
 		super.destroy();
+		synchronized (this.batcherCache)
+		{
+			for (NotificationBatcher batcher : this.batcherCache.values())
+				batcher.close();
+		}
 		getTimer().destroy();
 		this.events.onNext(AgentEventType.AGENT_DESTROYED);
 		this.events.onCompleted();
@@ -172,21 +502,28 @@ public class TimeManagerAgent extends Agent implements EveTimeManagerAPI
 			final String callbackURI)
 	{
 		final SubscriptionID callbackID = new SubscriptionID();
-		getTimer().observeClock(id).subscribe(new Observer<ClockEvent>()
+		final ClockConfig.ID clockId = resolve(id);
+		final NotificationBatcher batcher = getBatcher(URI.create(callbackURI));
+		final Observable<ClockEvent> events = getTimer().observeClock(id);
+		hold(clockId);
+		batcher.subscribed(clockId);
+		batcher.add(events.subscribe(new Observer<ClockEvent>()
 		{
-			private final URI uri = URI.create(callbackURI);
-
 			@Override
 			public void onCompleted()
 			{
 				LOG.trace("Completed clock: {}", id);
+				batcher.endInstant(clockId);
+				batcher.unsubscribed(clockId);
 			}
 
 			@Override
 			public void onError(final Throwable e)
 			{
 				LOG.error("Problem observing trigger " + id
-						+ " for callbackURI " + this.uri, e);
+						+ " for callbackURI " + callbackURI, e);
+				batcher.endInstant(clockId);
+				batcher.unsubscribed(clockId);
 			}
 
 			@Override
@@ -195,12 +532,19 @@ public class TimeManagerAgent extends Agent implements EveTimeManagerAPI
 				// if (clock.time() == null)
 				// onError(new NullPointerException("No time in event: "
 				// + clock));
-				getObserverProxy(this.uri).notifyClock(callbackID, clock);
+				batcher.notifyClock(clockId, callbackID, clock);
 			}
-		});
+		}));
 		return callbackID;
 	}
 
+	@Override
+	public SubscriptionID observeClockIdCallback(final ClockConfig.ID id,
+			final String callbackURI)
+	{
+		return observeClockCallback(id, callbackURI);
+	}
+
 	@Override
 	public void removeClock(final String clockId)
 	{
@@ -211,6 +555,14 @@ public class TimeManagerAgent extends Agent implements EveTimeManagerAPI
 	public void removeClock(final ClockConfig.ID clockId)
 	{
 		getTimer().removeClock(clockId);
+		synchronized (this.windows)
+		{
+			this.windows.remove(String.valueOf(clockId));
+		}
+		synchronized (this.observedInstants)
+		{
+			this.observedInstants.remove(String.valueOf(clockId));
+		}
 	}
 
 	@Override
@@ -236,24 +588,79 @@ public class TimeManagerAgent extends Agent implements EveTimeManagerAPI
 	@Override
 	public SubscriptionID registerTriggerCallback(final ClockConfig.ID clockId,
 			final TriggerPattern pattern, final String callbackURI)
+	{
+		return subscribeCallback(clockId,
+				getTimer().registerTrigger(clockId, pattern), pattern,
+				callbackURI);
+	}
+
+	@Override
+	public SubscriptionID registerClockTriggerCallback(
+			final ClockConfig.ID clockId, final TriggerPattern pattern,
+			final String callbackURI)
+	{
+		return registerTriggerCallback(clockId, pattern, callbackURI);
+	}
+
+	@Override
+	public Observable<TriggerEvent> registerTrigger(
+			final ClockConfig.ID clockId, final TriggerConfig trigger)
+	{
+		return getTimer().registerTrigger(clockId, trigger);
+	}
+
+	@Override
+	public SubscriptionID registerTriggerConfigCallback(
+			final ClockConfig.ID clockId, final TriggerConfig trigger,
+			final String callbackURI)
+	{
+		return subscribeCallback(clockId,
+				getTimer().registerTrigger(clockId, trigger),
+				trigger.pattern(), callbackURI);
+	}
+
+	@Override
+	public void unregisterTrigger(final TriggerConfig.ID triggerId)
+	{
+		getTimer().unregisterTrigger(triggerId);
+	}
+
+	/**
+	 * @param id the {@link ClockConfig.ID} of the triggering clock, or
+	 *            {@code null} for the root clock
+	 * @param events the {@link TriggerEvent}s to forward
+	 * @param pattern the registered {@link TriggerPattern}
+	 * @param callbackURI the {@link URI} of the observer to notify
+	 * @return the {@link SubscriptionID} for the observer to filter by
+	 */
+	protected SubscriptionID subscribeCallback(final ClockConfig.ID id,
+			final Observable<TriggerEvent> events,
+			final TriggerPattern pattern, final String callbackURI)
 	{
 		final SubscriptionID callbackID = new SubscriptionID();
-		getTimer().registerTrigger(clockId, pattern).subscribe(
-				new Observer<TriggerEvent>()
+		final ClockConfig.ID clockId = resolve(id);
+		observeInstants(clockId);
+		hold(clockId);
+		final NotificationBatcher batcher = getBatcher(URI.create(callbackURI));
+		batcher.subscribed(clockId);
+		batcher.add(events.subscribe(new Observer<TriggerEvent>()
 				{
-					private final URI uri = URI.create(callbackURI);
-
 					@Override
 					public void onCompleted()
 					{
 						LOG.trace("Completed trigger pattern: " + pattern);
+						batcher.endInstant(clockId);
+						batcher.unsubscribed(clockId);
 					}
 
 					@Override
 					public void onError(final Throwable e)
 					{
 						LOG.error("Problem observing trigger pattern: "
-								+ pattern + " for callbackURI: " + this.uri, e);
+								+ pattern + " for callbackURI: " + callbackURI,
+								e);
+						batcher.endInstant(clockId);
+						batcher.unsubscribed(clockId);
 					}
 
 					@Override
@@ -261,10 +668,9 @@ public class TimeManagerAgent extends Agent implements EveTimeManagerAPI
 					{
 						LOG.trace("Callback for trigger {} pattern: {}",
 								callbackID, pattern);
-						getObserverProxy(this.uri).notifyTrigger(callbackID,
-								job);
+						batcher.notifyTrigger(clockId, callbackID, job);
 					}
-				});
+				}));
 		LOG.trace("Registered trigger {} pattern: {}", callbackID, pattern);
 		return callbackID;
 	}
@@ -310,7 +716,8 @@ public class TimeManagerAgent extends Agent implements EveTimeManagerAPI
 	{
 		synchronized (INSTANCES)
 		{
-			TimeManagerAgent result = INSTANCES.get(config.id());
+			// keyed by agent id, as shards of one timer share its config id
+			TimeManagerAgent result = INSTANCES.get(agentConfig.getId());
 			if (result != null)
 				result.setTimerConfig(config);
 			else
@@ -320,12 +727,31 @@ public class TimeManagerAgent extends Agent implements EveTimeManagerAPI
 						agentConfig,
 						entry(TimeManagerAgent.MASTER_CONFIG_KEY,
 								JsonUtil.toTree(config)));
-				INSTANCES.put(config.id().getValue(), result);
+				INSTANCES.put(agentConfig.getId(), result);
 			}
 			return result;
 		}
 	}
 
+	/**
+	 * @param config the {@link TimerConfig} for each shard
+	 * @param count the number of shards to partition clocks across
+	 * @return the {@link URI}s of the (in-process) master shards, for a
+	 *         client to route by on a {@link ShardRing}
+	 */
+	public static List<URI> getShards(final TimerConfig config,
+			final int count)
+	{
+		for (int i = 0; i < count; i++)
+		{
+			final AgentConfig cfg = new AgentConfig(ShardRing.shardId(
+					config.id(), i));
+			cfg.setClassName(TimeManagerAgent.class.getName());
+			getInstance(config, cfg);
+		}
+		return ShardRing.localShards(config.id(), count);
+	}
+
 	/**
 	 * @return
 	 */
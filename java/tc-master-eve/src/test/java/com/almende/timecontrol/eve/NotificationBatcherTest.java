@@ -0,0 +1,383 @@
+/* $Id$
+ *
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Copyright (c) 2015 Almende B.V.
+ */
+package com.almende.timecontrol.eve;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import rx.Observable;
+import rx.Subscription;
+import rx.subscriptions.BooleanSubscription;
+
+import com.almende.eve.agent.AgentConfig;
+import com.almende.timecontrol.api.eve.EveTimeAgentAPI.SubscriptionID;
+import com.almende.timecontrol.api.eve.EveTimeObserverClientAPI;
+import com.almende.timecontrol.entity.ClockConfig;
+import com.almende.timecontrol.entity.ClockEvent;
+import com.almende.timecontrol.entity.TriggerEvent;
+import com.almende.timecontrol.time.Duration;
+
+/**
+ * {@link NotificationBatcherTest} tests {@link NotificationBatcher}
+ *
+ * @date $Date$
+ * @version $Id$
+ * @author <a href="mailto:rick@almende.org">Rick</a>
+ */
+public class NotificationBatcherTest
+{
+
+	/** records each delivered batch by its event times */
+	static class Observer implements EveTimeObserverClientAPI
+	{
+		final List<String> batches = Collections
+				.synchronizedList(new ArrayList<String>());
+
+		final Semaphore delivered = new Semaphore(0);
+
+		/** released to let (initially stalled) deliveries through */
+		final CountDownLatch stall;
+
+		Observer(final int stalled)
+		{
+			this.stall = new CountDownLatch(stalled);
+		}
+
+		Observer()
+		{
+			this(0);
+		}
+
+		/** @return the n-th delivered batch, awaiting it if necessary */
+		String batch(final int n) throws InterruptedException
+		{
+			assertTrue("batch " + n, this.delivered.tryAcquire(5,
+					TimeUnit.SECONDS));
+			return this.batches.get(n);
+		}
+
+		private void stall()
+		{
+			try
+			{
+				this.stall.await();
+			} catch (final InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		@Override
+		public void notifyClock(final SubscriptionID callbackId,
+				final ClockEvent clock)
+		{
+			notifyClocks(Collections.singletonList(callbackId),
+					Collections.singletonList(clock));
+		}
+
+		@Override
+		public void notifyTrigger(final SubscriptionID callbackId,
+				final TriggerEvent job)
+		{
+			notifyTriggers(Collections.singletonList(callbackId),
+					Collections.singletonList(job));
+		}
+
+		@Override
+		public boolean notifyClocks(final List<SubscriptionID> callbackIds,
+				final List<ClockEvent> clocks)
+		{
+			stall();
+			final StringBuilder batch = new StringBuilder("clocks");
+			for (ClockEvent clock : clocks)
+				batch.append(' ').append(clock.time().toNanosLong());
+			this.batches.add(batch.toString());
+			this.delivered.release();
+			return true;
+		}
+
+		@Override
+		public boolean notifyTriggers(final List<SubscriptionID> callbackIds,
+				final List<TriggerEvent> jobs)
+		{
+			stall();
+			final StringBuilder batch = new StringBuilder("triggers");
+			for (TriggerEvent job : jobs)
+				batch.append(' ').append(job.time().toNanosLong());
+			this.batches.add(batch.toString());
+			this.delivered.release();
+			return true;
+		}
+
+		@Override
+		public Observable<AgentEventType> events()
+		{
+			return Observable.empty();
+		}
+
+		@Override
+		public String getId()
+		{
+			return "observer";
+		}
+
+		@Override
+		public String getType()
+		{
+			return null;
+		}
+
+		@Override
+		public List<Object> getMethods()
+		{
+			return null;
+		}
+
+		@Override
+		public List<URI> getUrls()
+		{
+			return null;
+		}
+
+		@Override
+		public AgentConfig getConfig()
+		{
+			return null;
+		}
+	}
+
+	/** an {@link NotificationBatcher.Acknowledger} ignoring all instants */
+	private static final NotificationBatcher.Acknowledger IGNORE = new NotificationBatcher.Acknowledger()
+	{
+		@Override
+		public void expect(final String clockId, final long nanos)
+		{
+			// ignore
+		}
+
+		@Override
+		public void acknowledge(final String clockId, final long nanos)
+		{
+			// ignore
+		}
+
+		@Override
+		public void release(final String clockId)
+		{
+			// ignore
+		}
+	};
+
+	private static TriggerEvent job(final long nanos)
+	{
+		return TriggerEvent.Builder.fromTime(Duration.valueOf(nanos + " ns"))
+				.build();
+	}
+
+	@Test
+	public void flushesOnSizeOrInstantEnd() throws InterruptedException
+	{
+		final Observer observer = new Observer();
+		final NotificationBatcher batcher = new NotificationBatcher(observer,
+				3, TimeUnit.HOURS.toMillis(1));
+		batcher.setAcknowledger(IGNORE);
+		final ClockConfig.ID clock = ClockConfig.ID.valueOf("clock");
+		final ClockConfig.ID other = ClockConfig.ID.valueOf("other");
+		final SubscriptionID sub = new SubscriptionID();
+
+		batcher.notifyTrigger(clock, sub, job(1));
+		batcher.notifyTrigger(clock, sub, job(1));
+		assertEquals(0, observer.batches.size());
+		batcher.notifyTrigger(clock, sub, job(1));
+		assertEquals("triggers 1 1 1", observer.batch(0));
+
+		batcher.notifyTrigger(clock, sub, job(2));
+		batcher.endInstant(other);
+		assertFalse(observer.delivered
+				.tryAcquire(50, TimeUnit.MILLISECONDS));
+		batcher.endInstant(clock);
+		assertEquals("triggers 2", observer.batch(1));
+
+		// a clock event ends the instant of the triggers before it
+		batcher.notifyTrigger(clock, sub, job(3));
+		batcher.notifyClock(clock, sub, ClockEvent.Builder.fromClockId(clock)
+				.withTime(Duration.valueOf("4 ns")).build());
+		assertEquals("triggers 3", observer.batch(2));
+		batcher.flush();
+		assertEquals("clocks 4", observer.batch(3));
+	}
+
+	@Test
+	public void leavesInstantEndToLatencyUnlessAcknowledging()
+			throws InterruptedException
+	{
+		final Observer observer = new Observer();
+		final NotificationBatcher batcher = new NotificationBatcher(observer,
+				3, 100);
+		final ClockConfig.ID clock = ClockConfig.ID.valueOf("clock");
+		batcher.notifyTrigger(clock, new SubscriptionID(), job(1));
+		batcher.endInstant(clock);
+		assertFalse(observer.delivered.tryAcquire(20, TimeUnit.MILLISECONDS));
+		assertEquals("triggers 1", observer.batch(0));
+	}
+
+	@Test
+	public void deliversEventsInOrder() throws InterruptedException
+	{
+		final Observer observer = new Observer();
+		final NotificationBatcher batcher = new NotificationBatcher(observer,
+				100, TimeUnit.HOURS.toMillis(1));
+		final ClockConfig.ID clock = ClockConfig.ID.valueOf("clock");
+		final SubscriptionID sub = new SubscriptionID();
+		batcher.notifyTrigger(clock, sub, job(1));
+		batcher.notifyClock(clock, sub, ClockEvent.Builder.fromClockId(clock)
+				.withTime(Duration.valueOf("2 ns")).build());
+		batcher.notifyTrigger(clock, sub, job(2));
+		batcher.notifyTrigger(clock, sub, job(3));
+		batcher.flush();
+		assertEquals("triggers 1", observer.batch(0));
+		assertEquals("clocks 2", observer.batch(1));
+		assertEquals("triggers 2 3", observer.batch(2));
+	}
+
+	@Test
+	public void flushesOnLatency() throws InterruptedException
+	{
+		final Observer observer = new Observer();
+		final NotificationBatcher batcher = new NotificationBatcher(observer,
+				100, 10);
+		batcher.notifyTrigger(ClockConfig.ID.valueOf("clock"),
+				new SubscriptionID(), job(1));
+		assertEquals("triggers 1", observer.batch(0));
+	}
+
+	@Test
+	public void blockedObserverDoesNotStallLatencyTimer()
+			throws InterruptedException
+	{
+		final ClockConfig.ID clock = ClockConfig.ID.valueOf("clock");
+		final SubscriptionID sub = new SubscriptionID();
+		// blocking: the first batch stalls in flight, filling the queue
+		final Observer stalled = new Observer(1);
+		final NotificationBatcher blocking = new NotificationBatcher(stalled,
+				100, 1, 1, NotificationBatcher.Overflow.BLOCK);
+		blocking.notifyTrigger(clock, sub, job(1));
+		Thread.sleep(50);
+		blocking.notifyTrigger(clock, sub, job(2));
+		Thread.sleep(50);
+
+		// the shared timer still flushes other observers at their deadline
+		final Observer other = new Observer();
+		new NotificationBatcher(other, 100, 1).notifyTrigger(clock, sub,
+				job(3));
+		assertEquals("triggers 3", other.batch(0));
+
+		stalled.stall.countDown();
+		assertEquals("triggers 1", stalled.batch(0));
+		assertEquals("triggers 2", stalled.batch(1));
+	}
+
+	@Test
+	public void acknowledgesDeliveredInstants() throws InterruptedException
+	{
+		final List<String> acks = Collections
+				.synchronizedList(new ArrayList<String>());
+		final Semaphore acknowledged = new Semaphore(0);
+		final NotificationBatcher batcher = new NotificationBatcher(
+				new Observer(), 100, TimeUnit.HOURS.toMillis(1));
+		batcher.setAcknowledger(new NotificationBatcher.Acknowledger()
+		{
+			@Override
+			public void expect(final String clockId, final long nanos)
+			{
+				acks.add("expect " + clockId + " " + nanos);
+			}
+
+			@Override
+			public void acknowledge(final String clockId, final long nanos)
+			{
+				acks.add("ack " + clockId + " " + nanos);
+				acknowledged.release();
+			}
+
+			@Override
+			public void release(final String clockId)
+			{
+				acks.add("release " + clockId);
+			}
+		});
+		final ClockConfig.ID clock = ClockConfig.ID.valueOf("clock");
+		final SubscriptionID sub = new SubscriptionID();
+		batcher.notifyTrigger(clock, sub, job(1));
+		batcher.notifyTrigger(clock, sub, job(2));
+		batcher.flush();
+		assertTrue(acknowledged.tryAcquire(5, TimeUnit.SECONDS));
+		// one cumulative acknowledgement per clock and batch
+		assertEquals("[expect clock 1, expect clock 2, ack clock 2]",
+				acks.toString());
+
+		// released once the last subscription to the clock ended
+		batcher.subscribed(clock);
+		batcher.subscribed(clock);
+		batcher.unsubscribed(clock);
+		assertEquals(3, acks.size());
+		batcher.unsubscribed(clock);
+		assertEquals("release clock", acks.get(3));
+	}
+
+	@Test
+	public void slowObserverDoesNotStallClock() throws InterruptedException
+	{
+		final ClockConfig.ID clock = ClockConfig.ID.valueOf("clock");
+		final SubscriptionID sub = new SubscriptionID();
+
+		// dropping: the sender holds one batch, the queue one more
+		final Observer slow = new Observer(1);
+		final NotificationBatcher dropping = new NotificationBatcher(slow, 1,
+				1, 1, NotificationBatcher.Overflow.DROP);
+		for (int i = 0; i < 10; i++)
+			dropping.notifyTrigger(clock, sub, job(i));
+		assertTrue(dropping.isOverflowed());
+		assertTrue(dropping.getDropped() >= 8);
+		slow.stall.countDown();
+		assertEquals("triggers 0", slow.batch(0));
+
+		// disconnecting: the observer's subscriptions are cancelled
+		final Observer dead = new Observer(1);
+		final NotificationBatcher disconnecting = new NotificationBatcher(
+				dead, 1, 1, 1, NotificationBatcher.Overflow.DISCONNECT);
+		final Subscription subscription = BooleanSubscription.create();
+		disconnecting.add(subscription);
+		for (int i = 0; i < 10; i++)
+			disconnecting.notifyTrigger(clock, sub, job(i));
+		assertTrue(disconnecting.isDisconnected());
+		assertTrue(subscription.isUnsubscribed());
+		dead.stall.countDown();
+	}
+}
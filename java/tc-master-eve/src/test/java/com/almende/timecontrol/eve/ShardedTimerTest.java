@@ -0,0 +1,119 @@
+/* $Id$
+ *
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Copyright (c) 2015 Almende B.V.
+ */
+package com.almende.timecontrol.eve;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.almende.timecontrol.api.eve.ShardRing;
+import com.almende.timecontrol.entity.ClockConfig;
+import com.almende.timecontrol.entity.ClockStatus;
+import com.almende.timecontrol.entity.TimerConfig;
+import com.almende.timecontrol.time.TriggerPattern;
+
+/**
+ * {@link ShardedTimerTest} tests {@link TimeManagerClientAgent} routing across
+ * in-process {@link TimeManagerAgent} shards
+ *
+ * @date $Date$
+ * @version $Id$
+ * @author <a href="mailto:rick@almende.org">Rick</a>
+ */
+public class ShardedTimerTest
+{
+
+	@Test
+	public void routesClocksToOwningShard()
+	{
+		final TimerConfig config = TimerConfig.Builder.forID("shardedTimer")
+				.build();
+		final List<URI> shards = TimeManagerAgent.getShards(config, 3);
+		final ShardRing ring = new ShardRing(shards);
+		final TimeManagerClientAgent client = TimeManagerClientAgent.valueOf(
+				config.id(), "shardedClient", shards);
+
+		final Set<URI> owners = new HashSet<>();
+		for (int i = 0; i < 12; i++)
+		{
+			final ClockConfig.ID id = ClockConfig.ID.valueOf("clock" + i);
+			final int[] before = clockCounts(config, shards.size());
+			client.updateClock(ClockConfig.Builder.forID(id).build());
+			assertNotNull(client.getClock(id));
+			final int[] after = clockCounts(config, shards.size());
+			owners.add(ring.shardOf(id));
+			// the owner may also create its root clock on first update
+			for (int j = 0; j < shards.size(); j++)
+				if (shards.get(j).equals(ring.shardOf(id)))
+					assertTrue("owner shard " + j, after[j] > before[j]);
+				else
+					assertEquals("other shard " + j, before[j], after[j]);
+		}
+		assertTrue("clocks spread over shards: " + owners, owners.size() > 1);
+
+		// a trigger registered through the client lands on the owner's clock
+		final ClockConfig.ID id = ClockConfig.ID.valueOf("clock0");
+		final int[] before = triggerCounts(config, shards.size());
+		client.registerTrigger(id, new TriggerPattern("0/20 * * * * ?"));
+		final int[] after = triggerCounts(config, shards.size());
+		for (int j = 0; j < shards.size(); j++)
+			assertEquals("trigger count of shard " + j, before[j]
+					+ (shards.get(j).equals(ring.shardOf(id)) ? 1 : 0),
+					after[j]);
+	}
+
+	/**
+	 * @param config the sharded {@link TimerConfig}
+	 * @param count the number of shards
+	 * @return the number of clocks each shard holds
+	 */
+	protected static int[] clockCounts(final TimerConfig config,
+			final int count)
+	{
+		final int[] result = new int[count];
+		for (int j = 0; j < count; j++)
+			result[j] = TimeManagerAgent
+					.getInstance(ShardRing.shardId(config.id(), j))
+					.getTimerStatus().clocks().size();
+		return result;
+	}
+
+	/**
+	 * @param config the sharded {@link TimerConfig}
+	 * @param count the number of shards
+	 * @return the number of triggers registered on each shard's clocks
+	 */
+	protected static int[] triggerCounts(final TimerConfig config,
+			final int count)
+	{
+		final int[] result = new int[count];
+		for (int j = 0; j < count; j++)
+			for (ClockStatus clock : TimeManagerAgent
+					.getInstance(ShardRing.shardId(config.id(), j))
+					.getTimerStatus().clocks())
+				result[j] += clock.triggers().size();
+		return result;
+	}
+}
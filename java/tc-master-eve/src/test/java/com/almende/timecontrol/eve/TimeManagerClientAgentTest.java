@@ -0,0 +1,106 @@
+/* $Id$
+ *
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Copyright (c) 2015 Almende B.V.
+ */
+package com.almende.timecontrol.eve;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import rx.Observer;
+
+import com.almende.timecontrol.api.eve.EveTimeAgentAPI.SubscriptionID;
+import com.almende.timecontrol.entity.TimerConfig;
+import com.almende.timecontrol.entity.TriggerEvent;
+import com.almende.timecontrol.time.Duration;
+
+/**
+ * {@link TimeManagerClientAgentTest} tests {@link TimeManagerClientAgent}
+ * event routing
+ *
+ * @date $Date$
+ * @version $Id$
+ * @author <a href="mailto:rick@almende.org">Rick</a>
+ */
+public class TimeManagerClientAgentTest
+{
+
+	/** records the event times of some subscription, and its completion */
+	static class Recorder implements Observer<TriggerEvent>
+	{
+		final List<Long> times = new ArrayList<>();
+
+		boolean completed = false;
+
+		@Override
+		public void onNext(final TriggerEvent job)
+		{
+			this.times.add(job.time().toNanosLong());
+		}
+
+		@Override
+		public void onCompleted()
+		{
+			this.completed = true;
+		}
+
+		@Override
+		public void onError(final Throwable e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static TriggerEvent job(final long nanos, final boolean lastCall)
+	{
+		return TriggerEvent.Builder.fromTime(Duration.valueOf(nanos + " ns"))
+				.withLastCall(lastCall).build();
+	}
+
+	@Test
+	public void routesEventsBySubscription()
+	{
+		final TimerConfig config = TimerConfig.Builder.forID("routingTimer")
+				.build();
+		final TimeManagerClientAgent client = TimeManagerClientAgent.valueOf(
+				config.id(), "routingClient",
+				TimeManagerAgent.getShards(config, 1));
+		final SubscriptionID sub = new SubscriptionID();
+		final SubscriptionID other = new SubscriptionID();
+		final Recorder subEvents = new Recorder();
+		final Recorder otherEvents = new Recorder();
+		client.observeTrigger(sub).subscribe(subEvents);
+		client.observeTrigger(other).subscribe(otherEvents);
+
+		// as deserialized, i.e. an equal value in another wrapper
+		final SubscriptionID copy = new SubscriptionID();
+		copy.setValue(sub.getValue());
+		client.notifyTrigger(copy, job(1, false));
+		client.notifyTrigger(other, job(2, false));
+		client.notifyTrigger(copy, job(3, true));
+
+		assertEquals("[1]", subEvents.times.toString());
+		assertTrue(subEvents.completed);
+		assertEquals("[2]", otherEvents.times.toString());
+		assertFalse(otherEvents.completed);
+	}
+}
@@ -0,0 +1,124 @@
+/* $Id$
+ * $URL$
+ *
+ * Part of the EU project Inertia, see http://www.inertia-project.eu/
+ *
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Copyright (c) 2014 Almende B.V.
+ */
+package com.almende.timecontrol.eve;
+
+import javax.measure.unit.Unit;
+
+import com.almende.timecontrol.entity.ClockConfig.Status;
+import com.almende.timecontrol.entity.ClockEvent;
+import com.almende.timecontrol.time.Duration;
+import com.almende.timecontrol.time.Rate;
+
+/**
+ * {@link LocalClock} models some master clock on the slave, seeded by the last
+ * {@link ClockEvent} it was {@link #update updated} with, extrapolating the
+ * simulated time on the {@link System#nanoTime()} scale while the clock is
+ * {@link Status#RUNNING running} with a positive drag (i.e. wall-clock per
+ * simulated time):
+ *
+ * <pre>
+ * t_sim = t_sim0 + (t_wall - t_wall0) / drag
+ * </pre>
+ *
+ * up to the clock's {@link ClockEvent#until() pause time}, if any. Clocks
+ * running "as fast as possible" (drag {@code <= 0}) or not running at all keep
+ * the time of their last event. Each update corrects the model, but within
+ * one running segment its {@link #time()} never rewinds: after an overshoot
+ * it holds until the corrected extrapolation catches up. Updates that change
+ * the status, or that move the master clock itself back (e.g. on a reset),
+ * start afresh from the pushed time.
+ *
+ * @date $Date$
+ * @version $Id$
+ * @author <a href="mailto:rick@almende.org">rick</a>
+ */
+public class LocalClock
+{
+
+	/** the wall-clock {@link System#nanoTime()} at the last {@link #update} */
+	private long wallOrigin = System.nanoTime();
+
+	/** the simulated time (in nanoseconds) at the last {@link #update} */
+	private long simOrigin = 0;
+
+	/** the simulated time (in nanoseconds) to pause at, or {@code -1} */
+	private long simUntil = -1;
+
+	/** wall-clock per simulated time, or {@code <= 0} if not extrapolating */
+	private double drag = 0;
+
+	/** the latest simulated time (in nanoseconds) returned by {@link #time()} */
+	private long last = 0;
+
+	/** the last {@link ClockEvent}, or {@code null} if not yet seeded */
+	private ClockEvent event = null;
+
+	/**
+	 * @param event the latest {@link ClockEvent} pushed by the master
+	 */
+	public synchronized void update(final ClockEvent event)
+	{
+		this.wallOrigin = System.nanoTime();
+		final long previous = this.simOrigin;
+		if (event.time() != null)
+			this.simOrigin = event.time().toNanosLong();
+		// only hold overshoots within the same running segment
+		if (this.event == null || event.status() != Status.RUNNING
+				|| this.event.status() != Status.RUNNING
+				|| this.simOrigin < previous)
+			this.last = this.simOrigin;
+		this.simUntil = event.until() == null ? -1 : event.until()
+				.toNanosLong();
+		final Rate drag = event.drag();
+		this.drag = event.status() != Status.RUNNING || drag == null ? 0
+				: drag.doubleValue(Unit.ONE);
+		this.event = event;
+	}
+
+	/** @return the last {@link ClockEvent}, or {@code null} if none yet */
+	public synchronized ClockEvent event()
+	{
+		return this.event;
+	}
+
+	/**
+	 * @return the extrapolated simulated time, or {@code null} if no
+	 *         {@link ClockEvent} was received yet
+	 */
+	public Duration time()
+	{
+		final long result;
+		synchronized (this)
+		{
+			if (this.event == null)
+				return null;
+			long time = this.simOrigin;
+			if (this.drag > 0)
+			{
+				time += (long) ((System.nanoTime() - this.wallOrigin) / this.drag);
+				if (this.simUntil >= this.simOrigin)
+					time = Math.min(time, this.simUntil);
+			}
+			this.last = result = Math.max(this.last, time);
+		}
+		return Duration.valueOfNanos(result);
+	}
+}
@@ -24,16 +24,20 @@ import static org.aeonbits.owner.util.Collections.entry;
 import io.coala.util.JsonUtil;
 
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import rx.Observable;
 import rx.functions.Action0;
-import rx.functions.Func1;
+import rx.functions.Action1;
 import rx.subjects.PublishSubject;
 import rx.subjects.ReplaySubject;
 import rx.subjects.Subject;
@@ -44,17 +48,24 @@ import com.almende.timecontrol.api.TimeManagerAPI;
 import com.almende.timecontrol.api.eve.EveTimeManagerAPI;
 import com.almende.timecontrol.api.eve.EveTimeObserverClientAPI;
 import com.almende.timecontrol.api.eve.EveUtil;
+import com.almende.timecontrol.api.eve.ShardRing;
 import com.almende.timecontrol.entity.ClockConfig;
 import com.almende.timecontrol.entity.ClockEvent;
+import com.almende.timecontrol.entity.ClockStatus;
 import com.almende.timecontrol.entity.TimerConfig;
 import com.almende.timecontrol.entity.TimerStatus;
+import com.almende.timecontrol.entity.TriggerConfig;
 import com.almende.timecontrol.entity.TriggerEvent;
+import com.almende.timecontrol.time.Duration;
 import com.almende.timecontrol.time.TriggerPattern;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 
 /**
  * {@link TimeManagerClientAgent} is a simple client of some
- * {@link EveTimeManagerAPI} instance
+ * {@link EveTimeManagerAPI} instance, or a thin router across several master
+ * shards (see {@link #MASTER_URIS_KEY}) that sends each clock's calls to the
+ * shard owning it on a {@link ShardRing}
  * 
  * @date $Date$
  * @version $Revision$
@@ -71,17 +82,24 @@ public class TimeManagerClientAgent extends Agent implements
 	/** */
 	public static final String MASTER_URI_KEY = "time-manager-agent-uri";
 
+	/** the URIs of master shards to partition clocks across, if any */
+	public static final String MASTER_URIS_KEY = "time-manager-agent-uris";
+
 	/** */
 	private static final Logger LOG = LogManager
 			.getLogger(TimeManagerClientAgent.class);
 
-	/** */
-	private final Subject<EventWrapper<ClockEvent>, EventWrapper<ClockEvent>> clockEvents = PublishSubject
-			.create();
+	/** routes each {@link ClockEvent} directly to its subscription */
+	private final Map<SubscriptionID, Subject<ClockEvent, ClockEvent>> clockRoutes = new ConcurrentHashMap<>();
 
-	/** */
-	private final Subject<EventWrapper<TriggerEvent>, EventWrapper<TriggerEvent>> triggerEvents = PublishSubject
-			.create();
+	/** routes each {@link TriggerEvent} directly to its subscription */
+	private final Map<SubscriptionID, Subject<TriggerEvent, TriggerEvent>> triggerRoutes = new ConcurrentHashMap<>();
+
+	/** the {@link LocalClock} of each observed clock, saving time RPCs */
+	private final Map<ClockConfig.ID, LocalClock> localClocks = new ConcurrentHashMap<>();
+
+	/** the {@link SubscriptionID} of each registered {@link TriggerConfig} */
+	private final Map<TriggerConfig.ID, SubscriptionID> triggerSubscriptions = new ConcurrentHashMap<>();
 
 	/** */
 	private final Map<ClockConfig.ID, Observable<ClockEvent>> clockObservableCache = new HashMap<>();
@@ -94,7 +112,10 @@ public class TimeManagerClientAgent extends Agent implements
 			.create();
 
 	/** */
-	private volatile EveTimeManagerAPI timerProxy;
+	private volatile ShardRing shards;
+
+	/** the {@link EveTimeManagerAPI} proxy of each shard's {@link URI} */
+	private final Map<URI, EveTimeManagerAPI> timerProxies = new HashMap<>();
 
 	/** */
 	private volatile boolean initialized = false;
@@ -180,33 +201,74 @@ public class TimeManagerClientAgent extends Agent implements
 		// this.status = SlaveStatus.Builder.forSlave(config).build();
 		// LOG.trace("Initialized! Status: " + this.status);
 
-		final URI timerAgentURI;
-		if (getConfig().has(MASTER_URI_KEY))
-			timerAgentURI = URI
-					.create(getConfig().get(MASTER_URI_KEY).asText());
+		final List<URI> timerAgentURIs = new ArrayList<>();
+		if (getConfig().has(MASTER_URIS_KEY))
+			for (JsonNode uri : (ArrayNode) getConfig().get(MASTER_URIS_KEY))
+				timerAgentURIs.add(URI.create(uri.asText()));
+		else if (getConfig().has(MASTER_URI_KEY))
+			timerAgentURIs.add(URI.create(getConfig().get(MASTER_URI_KEY)
+					.asText()));
 		else
-			timerAgentURI = URI.create("local:" + timerID);
+			timerAgentURIs.add(URI.create("local:" + timerID));
 
-		this.timerProxy = AgentProxyFactory.genProxy(this, timerAgentURI,
-				EveTimeManagerAPI.class);
+		this.shards = new ShardRing(timerAgentURIs);
+		synchronized (this.timerProxies)
+		{
+			for (URI uri : timerAgentURIs)
+				this.timerProxies.put(uri, AgentProxyFactory.genProxy(this,
+						uri, EveTimeManagerAPI.class));
+		}
 
-		this.timerConfig = this.timerProxy.getTimerConfig();
-		this.rootClock = this.timerProxy.getClock(this.timerConfig
-				.rootClockId());
+		final EveTimeManagerAPI proxy = getTimerProxy();
+		this.timerConfig = proxy.getTimerConfig();
+		this.rootClock = getTimerProxy(this.timerConfig.rootClockId())
+				.getClock(this.timerConfig.rootClockId());
 		LOG.warn(
-				"Connected to time control master at uri: {}, got timer config: {}",
-				timerAgentURI, this.timerConfig);
+				"Connected to time control master at uri(s): {}, got timer config: {}",
+				timerAgentURIs, this.timerConfig);
 
 		this.initialized = true;
 		this.events.onNext(AgentEventType.AGENT_INITIALIZED);
 	}
 
 	/**
-	 * @return
+	 * @return the {@link EveTimeManagerAPI} proxy of the shard owning the
+	 *         root clock, for timer-wide calls
 	 */
 	protected EveTimeManagerAPI getTimerProxy()
 	{
-		return this.timerProxy;
+		final TimerConfig timerConfig = this.timerConfig;
+		return getTimerProxy(timerConfig == null ? null : timerConfig
+				.rootClockId());
+	}
+
+	/**
+	 * @param clockId the {@link ClockConfig.ID} to route, or {@code null} for
+	 *            the first shard (e.g. while the root clock is still unknown)
+	 * @return the {@link EveTimeManagerAPI} proxy of the shard owning the
+	 *         specified clock
+	 */
+	protected EveTimeManagerAPI getTimerProxy(final ClockConfig.ID clockId)
+	{
+		final ShardRing shards = this.shards;
+		final URI shard = clockId == null ? shards.shards().get(0) : shards
+				.shardOf(clockId);
+		synchronized (this.timerProxies)
+		{
+			return this.timerProxies.get(shard);
+		}
+	}
+
+	/** @return the {@link EveTimeManagerAPI} proxies of all shards */
+	protected List<EveTimeManagerAPI> getTimerProxies()
+	{
+		final List<EveTimeManagerAPI> result = new ArrayList<>();
+		synchronized (this.timerProxies)
+		{
+			for (URI shard : this.shards.shards())
+				result.add(this.timerProxies.get(shard));
+		}
+		return Collections.unmodifiableList(result);
 	}
 
 	@Override
@@ -220,7 +282,8 @@ public class TimeManagerClientAgent extends Agent implements
 	{
 		try
 		{
-			getTimerProxy().setTimerConfig(config);
+			for (EveTimeManagerAPI proxy : getTimerProxies())
+				proxy.setTimerConfig(config);
 		} catch (final Throwable t)
 		{
 			LOG.error("Problem in JSON-RPC", t);
@@ -230,7 +293,26 @@ public class TimeManagerClientAgent extends Agent implements
 	@Override
 	public TimerStatus getTimerStatus()
 	{
-		return getTimerProxy().getTimerStatus();
+		final ShardRing shards = this.shards;
+		if (shards.shards().size() == 1)
+			return getTimerProxy().getTimerStatus();
+
+		// merge the clocks that each shard owns, skipping e.g. root clocks
+		final List<ClockStatus> clocks = new ArrayList<>();
+		synchronized (this.timerProxies)
+		{
+			for (URI shard : shards.shards())
+			{
+				final TimerStatus status = this.timerProxies.get(shard)
+						.getTimerStatus();
+				if (status.clocks() != null)
+					for (ClockStatus clock : status.clocks())
+						if (shard.equals(shards.shardOf(clock.config().id())))
+							clocks.add(clock);
+			}
+		}
+		return TimerStatus.Builder.fromConfig(this.timerConfig)
+				.withClocks(clocks).build();
 	}
 
 	@Override
@@ -244,20 +326,39 @@ public class TimeManagerClientAgent extends Agent implements
 	@Override
 	public ClockConfig getClock(final ClockConfig.ID clockId)
 	{
-		return getTimerProxy().getClock(clockId);
+		return getTimerProxy(clockId).getClock(clockId);
 	}
 
 	@Override
 	public void updateClock(final ClockConfig clock)
 	{
-		getTimerProxy().updateClock(clock);
+		getTimerProxy(clock.id()).updateClock(clock);
 	}
 
 	@Override
 	public void notifyClock(final SubscriptionID callbackID,
 			final ClockEvent clock)
 	{
-		this.clockEvents.onNext(EventWrapper.of(callbackID, clock));
+		final Subject<ClockEvent, ClockEvent> route = this.clockRoutes
+				.get(callbackID);
+		if (route == null)
+			LOG.warn("No subscription {} for clock event: {}", callbackID,
+					clock);
+		else
+			route.onNext(clock);
+	}
+
+	/**
+	 * @return {@code true} as subscribers handle each event before this
+	 *         returns, acknowledging the instants
+	 */
+	@Override
+	public boolean notifyClocks(final List<SubscriptionID> callbackIds,
+			final List<ClockEvent> clocks)
+	{
+		for (int i = 0; i < clocks.size(); i++)
+			notifyClock(callbackIds.get(i), clocks.get(i));
+		return true;
 	}
 
 	@Override
@@ -279,27 +380,23 @@ public class TimeManagerClientAgent extends Agent implements
 
 			if (cachedResult == null)
 			{
-				final SubscriptionID subID = getTimerProxy()
-						.observeClockCallback(clockId, null);
-				cachedResult = this.clockEvents.filter(
-						new Func1<EventWrapper<ClockEvent>, Boolean>()
-						{
-							@Override
-							public Boolean call(
-									final EventWrapper<ClockEvent> wrapper)
-							{
-								return wrapper.fits(subID);
-							}
-						}).map(
-						new Func1<EventWrapper<ClockEvent>, ClockEvent>()
-						{
-							@Override
-							public ClockEvent call(
-									final EventWrapper<ClockEvent> wrapper)
-							{
-								return wrapper.unwrap();
-							}
-						});
+				final SubscriptionID subID = getTimerProxy(clockId)
+						.observeClockIdCallback(clockId, null);
+				final Subject<ClockEvent, ClockEvent> route = PublishSubject
+						.create();
+				final LocalClock localClock = new LocalClock();
+				route.subscribe(new Action1<ClockEvent>()
+				{
+					@Override
+					public void call(final ClockEvent clock)
+					{
+						localClock.update(clock);
+					}
+				});
+				if (clockId != null)
+					this.localClocks.put(clockId, localClock);
+				this.clockRoutes.put(subID, route);
+				cachedResult = route.asObservable();
 
 				cachedResult.finallyDo(new Action0()
 				{
@@ -316,10 +413,35 @@ public class TimeManagerClientAgent extends Agent implements
 		}
 	}
 
+	/**
+	 * @return the root clock's current simulated time, extrapolated locally
+	 *         (see {@link #getTime(ClockConfig.ID)})
+	 */
+	public Duration getTime()
+	{
+		return getTime(null);
+	}
+
+	/**
+	 * @param id the {@link ClockConfig.ID}, or {@code null} for the root clock
+	 * @return the clock's current simulated time as extrapolated by its
+	 *         {@link LocalClock} from the last pushed {@link ClockEvent}, or
+	 *         {@code null} if none was pushed yet
+	 */
+	public Duration getTime(final ClockConfig.ID id)
+	{
+		final ClockConfig.ID clockId = id != null ? id
+				: this.rootClock != null ? this.rootClock.id() : null;
+		observeClock(clockId);
+		final LocalClock localClock = clockId == null ? null
+				: this.localClocks.get(clockId);
+		return localClock == null ? null : localClock.time();
+	}
+
 	@Override
 	public void removeClock(final ClockConfig.ID clockId)
 	{
-		getTimerProxy().removeClock(clockId);
+		getTimerProxy(clockId).removeClock(clockId);
 	}
 
 	@Override
@@ -327,7 +449,35 @@ public class TimeManagerClientAgent extends Agent implements
 			final TriggerEvent job)
 	{
 		LOG.trace("Notify trigger event: {} {}", subscriptionID, job);
-		this.triggerEvents.onNext(EventWrapper.of(subscriptionID, job));
+		if (!job.lastCall())
+		{
+			final Subject<TriggerEvent, TriggerEvent> route = this.triggerRoutes
+					.get(subscriptionID);
+			if (route == null)
+				LOG.warn("No subscription {} for trigger event: {}",
+						subscriptionID, job);
+			else
+				route.onNext(job);
+			return;
+		}
+		final Subject<TriggerEvent, TriggerEvent> route = this.triggerRoutes
+				.remove(subscriptionID);
+		if (route != null)
+			route.onCompleted();
+	}
+
+	/**
+	 * @return {@code true} as subscribers handle each event before this
+	 *         returns, acknowledging the instants
+	 */
+	@Override
+	public boolean notifyTriggers(final List<SubscriptionID> callbackIds,
+			final List<TriggerEvent> jobs)
+	{
+		LOG.trace("Notify {} trigger events", jobs.size());
+		for (int i = 0; i < jobs.size(); i++)
+			notifyTrigger(callbackIds.get(i), jobs.get(i));
+		return true;
 	}
 
 	@Override
@@ -356,44 +506,11 @@ public class TimeManagerClientAgent extends Agent implements
 					.get(clockId).get(pattern);
 			if (cachedResult == null)
 			{
-				final SubscriptionID subID = getTimerProxy()
-						.registerTriggerCallback(clockId, pattern, null);
+				final SubscriptionID subID = getTimerProxy(clockId)
+						.registerClockTriggerCallback(clockId, pattern, null);
 				LOG.trace("Received trigger {} pattern: {}", subID, pattern);
-				cachedResult = this.triggerEvents
-						.filter(new Func1<EventWrapper<TriggerEvent>, Boolean>()
-						{
-							@Override
-							public Boolean call(
-									final EventWrapper<TriggerEvent> wrapper)
-							{
-								final boolean result = wrapper.fits(subID);
-								LOG.trace("Fits {} == {}: {}", wrapper.subID,
-										subID, result);
-								return result;
-							}
-						})
-						.map(new Func1<EventWrapper<TriggerEvent>, TriggerEvent>()
-						{
-							@Override
-							public TriggerEvent call(
-									final EventWrapper<TriggerEvent> wrapper)
-							{
-								final TriggerEvent result = wrapper.unwrap();
-								LOG.trace("Unwrapped event: {}", result);
-								return result;
-							}
-						}).takeWhile(new Func1<TriggerEvent, Boolean>()
-						{
-							@Override
-							public Boolean call(final TriggerEvent event)
-							{
-								final boolean result = !event
-										.lastCall();
-								LOG.trace("notLast: {}", result);
-								return result;
-							}
-						});// TODO
-							// .takeUntil(observeClock(clockId).takeLast(1));
+				cachedResult = observeTrigger(subID);
+				// TODO .takeUntil(observeClock(clockId).takeLast(1));
 
 				/* TODO
 				cachedResult.finallyDo(new Action0()
@@ -410,6 +527,52 @@ public class TimeManagerClientAgent extends Agent implements
 		}
 	}
 
+	@Override
+	public Observable<TriggerEvent> registerTrigger(final ClockConfig.ID id,
+			final TriggerConfig trigger)
+	{
+		final ClockConfig.ID clockId = id != null ? id
+				: this.rootClock != null ? this.rootClock.id() : null;
+		final SubscriptionID subID = getTimerProxy(clockId)
+				.registerTriggerConfigCallback(clockId, trigger, null);
+		LOG.trace("Received trigger {} config: {}", subID, trigger);
+		final Observable<TriggerEvent> result = observeTrigger(subID);
+		if (trigger.id() != null)
+			this.triggerSubscriptions.put(trigger.id(), subID);
+		return result;
+	}
+
+	@Override
+	public void unregisterTrigger(final TriggerConfig.ID triggerId)
+	{
+		// triggers are not keyed by clock, so any shard may hold it
+		for (EveTimeManagerAPI proxy : getTimerProxies())
+			proxy.unregisterTrigger(triggerId);
+		final SubscriptionID subID = this.triggerSubscriptions
+				.remove(triggerId);
+		if (subID == null)
+			return;
+		final Subject<TriggerEvent, TriggerEvent> route = this.triggerRoutes
+				.remove(subID);
+		if (route != null)
+			route.onCompleted();
+	}
+
+	/**
+	 * @param subID the {@link SubscriptionID} of some trigger registration
+	 * @return an {@link Observable} of the {@link TriggerEvent}s that the
+	 *         master {@link #notifyTrigger notifies} for specified
+	 *         {@link SubscriptionID}, up to its last call
+	 */
+	protected Observable<TriggerEvent> observeTrigger(
+			final SubscriptionID subID)
+	{
+		final Subject<TriggerEvent, TriggerEvent> route = PublishSubject
+				.create();
+		this.triggerRoutes.put(subID, route);
+		return route.asObservable();
+	}
+
 	/**************************************************************************/
 
 	/** */
@@ -421,6 +584,23 @@ public class TimeManagerClientAgent extends Agent implements
 				entry(CLIENT_CONFIG_KEY, JsonUtil.toTree(timerId)));
 	}
 
+	/**
+	 * @param timerId the {@link TimerConfig.ID} of the sharded timer
+	 * @param slaveId the client agent id
+	 * @param shards the {@link URI}s of the master shards, e.g.
+	 *            {@link ShardRing#localShards}
+	 * @return a {@link TimeManagerClientAgent} routing across specified shards
+	 */
+	public static TimeManagerClientAgent valueOf(final TimerConfig.ID timerId,
+			final String slaveId, final List<URI> shards)
+	{
+		LOG.trace("Writing sharded slave config for {}: {} {}", slaveId,
+				timerId, shards);
+		return valueOf(slaveId,
+				entry(CLIENT_CONFIG_KEY, JsonUtil.toTree(timerId)),
+				entry(MASTER_URIS_KEY, JsonUtil.toTree(shards)));
+	}
+
 	/** */
 	@SafeVarargs
 	public static final TimeManagerClientAgent valueOf(final String id,
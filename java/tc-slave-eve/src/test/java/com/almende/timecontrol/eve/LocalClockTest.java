@@ -0,0 +1,90 @@
+/* $Id$
+ *
+ * @license
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy
+ * of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Copyright (c) 2015 Almende B.V.
+ */
+package com.almende.timecontrol.eve;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.almende.timecontrol.entity.ClockConfig;
+import com.almende.timecontrol.entity.ClockConfig.Status;
+import com.almende.timecontrol.entity.ClockEvent;
+import com.almende.timecontrol.time.Duration;
+import com.almende.timecontrol.time.Rate;
+
+/**
+ * {@link LocalClockTest} tests {@link LocalClock}
+ *
+ * @date $Date$
+ * @version $Id$
+ * @author <a href="mailto:rick@almende.org">Rick</a>
+ */
+public class LocalClockTest
+{
+
+	private static ClockEvent event(final Status status, final String time,
+			final String until)
+	{
+		return ClockEvent.Builder.fromClockId(ClockConfig.ID.valueOf("clock"))
+				.withStatus(status).withDrag(new Rate(1))
+				.withTime(Duration.valueOf(time))
+				.withUntil(until == null ? null : Duration.valueOf(until))
+				.build();
+	}
+
+	@Test
+	public void extrapolatesWithoutRewinding() throws InterruptedException
+	{
+		final LocalClock clock = new LocalClock();
+		assertNull(clock.time());
+
+		// waiting clocks keep their pushed time
+		clock.update(event(Status.WAITING, "1 s", null));
+		Thread.sleep(20);
+		assertEquals(Duration.valueOf("1 s").toNanosLong(), clock.time()
+				.toNanosLong());
+
+		// running clocks advance at real-time speed, up to their pause time
+		clock.update(event(Status.RUNNING, "1 s", "1010 ms"));
+		Thread.sleep(20);
+		assertEquals(Duration.valueOf("1010 ms").toNanosLong(), clock.time()
+				.toNanosLong());
+
+		// a correction to an earlier time holds rather than rewinds
+		clock.update(event(Status.RUNNING, "1005 ms", null));
+		final long held = clock.time().toNanosLong();
+		assertTrue(held >= Duration.valueOf("1010 ms").toNanosLong());
+		Thread.sleep(20);
+		assertTrue(clock.time().toNanosLong() > Duration.valueOf("1020 ms")
+				.toNanosLong());
+
+		// a status change starts afresh from the pushed time
+		clock.update(event(Status.WAITING, "1015 ms", null));
+		assertEquals(Duration.valueOf("1015 ms").toNanosLong(), clock.time()
+				.toNanosLong());
+
+		// as does a master clock moving back, e.g. on a reset
+		clock.update(event(Status.RUNNING, "2 s", "2 s"));
+		assertEquals(Duration.valueOf("2 s").toNanosLong(), clock.time()
+				.toNanosLong());
+		clock.update(event(Status.RUNNING, "0 s", "0 s"));
+		assertEquals(0, clock.time().toNanosLong());
+	}
+}